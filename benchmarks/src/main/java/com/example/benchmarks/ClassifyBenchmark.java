@@ -0,0 +1,119 @@
+package com.example.benchmarks;
+
+import com.example.classifier.Rule;
+import com.example.classifier.RuleEngine;
+import com.example.classifier.RuleSet;
+import com.example.classifier.SignatureEngine;
+import com.example.classifier.SimpleClassifier;
+import com.example.classifier.StreamDetector;
+import com.example.packet.PacketRecord;
+import com.example.parser.FlowForwarder;
+import com.example.parser.FlowTracker;
+import com.example.parser.PacketParser;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.core.env.StandardEnvironment;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Classification cost per packet as the rule set grows. {@code rules} is the compiled
+ * rule table alone; {@code classify} is SimpleClassifier with the stream detectors
+ * ({@code detect}), the bundled payload signatures and the stage timer, i.e. what /api/classify/batch does per decoded
+ * record. Inputs are the parser's own output for the frame corpus.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ClassifyBenchmark {
+
+    @Param({"4", "64", "512", "4096"})
+    public int ruleCount;
+
+    @Param({"mixed"})
+    public String corpus;
+
+    @Param({"true", "false"})
+    public boolean detect;
+
+    private List<PacketRecord> packets;
+    private RuleEngine engine;
+    private SimpleClassifier classifier;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+    }
+
+    @Setup
+    public void setup() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        FlowForwarder forwarder = new FlowForwarder(new StandardEnvironment(), registry);
+        PacketParser parser = new PacketParser(
+                new FlowTracker(forwarder, registry, false, 1024, 1, 15000, 60000, 1000, 1, 1), registry, 512);
+        packets = new ArrayList<>();
+        for (byte[] f : Frames.load(corpus)) {
+            PacketRecord r = parser.parse(f);
+            if (r != null) packets.add(r);
+        }
+        forwarder.close();
+
+        engine = new RuleEngine("");
+        engine.install(rules(ruleCount));
+        StreamDetector detector = new StreamDetector(registry, detect, 60000, 6, 4096, 4, 4096,
+                100, 5000, 100000, 100000000, 1000);
+        classifier = new SimpleClassifier(engine, detector, new SignatureEngine("", registry), registry);
+    }
+
+    // port, range, protocol, CIDR and length criteria in roughly the mix of the bundled rules.json
+    static RuleSet rules(int n) {
+        Random rnd = new Random(7);
+        RuleSet set = new RuleSet();
+        for (int i = 0; i < n; i++) {
+            Rule r = new Rule();
+            r.id = "r" + i;
+            r.label = "LABEL-" + (i % 16);
+            switch (i % 4) {
+                case 0:
+                    r.dst_ports = List.of(String.valueOf(1 + rnd.nextInt(65535)));
+                    break;
+                case 1:
+                    int lo = 1 + rnd.nextInt(60000);
+                    r.dst_ports = List.of(lo + "-" + (lo + rnd.nextInt(2000)));
+                    r.protocols = List.of(rnd.nextBoolean() ? "TCP" : "UDP");
+                    break;
+                case 2:
+                    r.src_cidrs = List.of("10.0." + rnd.nextInt(256) + ".0/24");
+                    break;
+                default:
+                    r.dst_cidrs = List.of((1 + rnd.nextInt(223)) + "." + rnd.nextInt(256) + ".0.0/16");
+                    r.min_length = 64 + rnd.nextInt(1400);
+                    break;
+            }
+            set.rules.add(r);
+        }
+        return set;
+    }
+
+    private PacketRecord next(Cursor c) {
+        int i = c.next;
+        c.next = i + 1 == packets.size() ? 0 : i + 1;
+        return packets.get(i);
+    }
+
+    @Benchmark
+    public int rules(Cursor c) {
+        return engine.classify(next(c));
+    }
+
+    @Benchmark
+    public int classify(Cursor c) {
+        return classifier.classify(next(c));
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.benchmarks;
+
+import com.example.capture.FrameBatch;
+import com.example.packet.PacketCodec;
+import com.example.packet.PacketRecord;
+import com.example.parser.FlowForwarder;
+import com.example.parser.FlowTracker;
+import com.example.parser.PacketParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.core.env.StandardEnvironment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Capture -> parser request body cost per frame: the old one-JSON-object-per-frame
+ * {@code {"raw_base64": ...}} body against the length-prefixed binary batch posted
+ * to /api/parse/batch; and, one hop later, the parsed packets as a JSON array of maps
+ * against the PacketCodec batch posted to /api/classify/batch and /api/store/batch.
+ * Scores are per frame.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@OperationsPerInvocation(EncodeBenchmark.BATCH)
+public class EncodeBenchmark {
+
+    static final int BATCH = 512;
+
+    @Param({"mixed", "small", "large"})
+    public String corpus;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private List<byte[]> batch;
+    private List<PacketRecord> records;
+
+    @Setup
+    public void setup() throws Exception {
+        batch = Arrays.asList(Frames.load(corpus)).subList(0, BATCH);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        FlowForwarder forwarder = new FlowForwarder(new StandardEnvironment(), registry);
+        PacketParser parser = new PacketParser(
+                new FlowTracker(forwarder, registry, false, 1024, 1, 15000, 60000, 1000, 1, 1), registry, 512);
+        records = new ArrayList<>(BATCH);
+        for (byte[] f : batch) {
+            // keep the count at BATCH even if pcap4j rejects a synthetic frame
+            PacketRecord r = parser.parse(f);
+            records.add(r != null ? r : new PacketRecord(0, 0, 0, 0, 0, 0, 0, null, -1, -1, -1, f.length, -1));
+        }
+        forwarder.close();
+    }
+
+    @Benchmark
+    public void jsonBase64(Blackhole bh) throws Exception {
+        for (byte[] f : batch) {
+            bh.consume(mapper.writeValueAsBytes(Map.of("raw_base64", Base64.getEncoder().encodeToString(f))));
+        }
+    }
+
+    @Benchmark
+    public byte[] binaryBatch() {
+        return FrameBatch.encode(batch);
+    }
+
+    @Benchmark
+    public byte[] recordJson() throws Exception {
+        List<Map<String, Object>> maps = new ArrayList<>(records.size());
+        for (PacketRecord r : records) maps.add(r.toMap());
+        return mapper.writeValueAsBytes(maps);
+    }
+
+    @Benchmark
+    public byte[] recordCodec() {
+        return PacketCodec.encode(records);
+    }
+}
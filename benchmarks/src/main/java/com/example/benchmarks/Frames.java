@@ -0,0 +1,141 @@
+package com.example.benchmarks;
+
+import com.example.capture.PcapFile;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Frame corpora for the benchmarks. Synthetic corpora are seeded, so every run sees the
+ * same frames: {@code mixed} cycles IPv4/IPv6 TCP/UDP, VLAN-tagged and non-IP frames
+ * over 64..1514 byte sizes; {@code tcp4}, {@code udp4}, {@code ipv6} and {@code vlan}
+ * hold one kind only; {@code small}/{@code large} are the mix at 64/1514 bytes.
+ * {@code file:/path/to/capture.pcap} loads the Ethernet frames of a pcap or pcapng file.
+ */
+public final class Frames {
+
+    static final int SIZE = 4096;
+
+    private static final int[] SIZES = {64, 128, 256, 576, 1024, 1514};
+
+    private Frames() {}
+
+    public static byte[][] load(String corpus) throws IOException {
+        if (corpus.startsWith("file:")) {
+            return fromPcap(Path.of(corpus.substring("file:".length())));
+        }
+        Random rnd = new Random(42);
+        byte[][] frames = new byte[SIZE][];
+        for (int i = 0; i < SIZE; i++) {
+            int size = SIZES[rnd.nextInt(SIZES.length)];
+            switch (corpus) {
+                case "mixed":
+                    frames[i] = mixed(size, rnd);
+                    break;
+                case "small":
+                    frames[i] = mixed(64, rnd);
+                    break;
+                case "large":
+                    frames[i] = mixed(1514, rnd);
+                    break;
+                case "tcp4":
+                    frames[i] = frame(false, 4, 6, size, rnd);
+                    break;
+                case "udp4":
+                    frames[i] = frame(false, 4, 17, size, rnd);
+                    break;
+                case "ipv6":
+                    frames[i] = frame(false, 6, rnd.nextBoolean() ? 6 : 17, size, rnd);
+                    break;
+                case "vlan":
+                    frames[i] = frame(true, 4, rnd.nextBoolean() ? 6 : 17, size, rnd);
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown corpus: " + corpus);
+            }
+        }
+        return frames;
+    }
+
+    // roughly 50% TCPv4, 25% UDPv4, 12% IPv6, 10% VLAN, 3% ARP
+    private static byte[] mixed(int size, Random rnd) {
+        int r = rnd.nextInt(100);
+        if (r < 50) return frame(false, 4, 6, size, rnd);
+        if (r < 75) return frame(false, 4, 17, size, rnd);
+        if (r < 87) return frame(false, 6, rnd.nextBoolean() ? 6 : 17, size, rnd);
+        if (r < 97) return frame(true, 4, rnd.nextBoolean() ? 6 : 17, size, rnd);
+        return arp(rnd);
+    }
+
+    static byte[] frame(boolean vlan, int ipVersion, int protocol, int size, Random rnd) {
+        int l2 = vlan ? 18 : 14;
+        int l3 = ipVersion == 4 ? 20 : 40;
+        int l4 = protocol == 6 ? 20 : 8;
+        int total = Math.max(size, l2 + l3 + l4);
+        ByteBuffer b = ByteBuffer.allocate(total);
+        b.put(mac(rnd)).put(mac(rnd));
+        if (vlan) {
+            b.putShort((short) 0x8100).putShort((short) (1 + rnd.nextInt(4094)));
+        }
+        int ipLen = total - l2;
+        if (ipVersion == 4) {
+            b.putShort((short) 0x0800);
+            b.put((byte) 0x45).put((byte) 0).putShort((short) ipLen);
+            b.putShort((short) rnd.nextInt(65536)).putShort((short) 0x4000);
+            b.put((byte) 64).put((byte) protocol).putShort((short) 0);
+            b.putInt(0x0a000000 | rnd.nextInt(1 << 16)).putInt(rnd.nextInt());
+        } else {
+            b.putShort((short) 0x86dd);
+            b.putInt(0x60000000).putShort((short) (ipLen - 40)).put((byte) protocol).put((byte) 64);
+            b.putLong(0x20010db800000000L).putLong(rnd.nextLong());
+            b.putLong(0x20010db800010000L).putLong(rnd.nextLong());
+        }
+        int srcPort = 1024 + rnd.nextInt(64511);
+        int dstPort = rnd.nextInt(4) == 0 ? rnd.nextInt(65536) : new int[]{53, 80, 443, 22}[rnd.nextInt(4)];
+        b.putShort((short) srcPort).putShort((short) dstPort);
+        if (protocol == 6) {
+            b.putInt(rnd.nextInt()).putInt(rnd.nextInt());
+            b.put((byte) 0x50).put((byte) (rnd.nextInt(8) == 0 ? 0x02 : 0x18));
+            b.putShort((short) 65535).putShort((short) 0).putShort((short) 0);
+        } else {
+            b.putShort((short) (ipLen - l3)).putShort((short) 0);
+        }
+        while (b.hasRemaining()) b.put((byte) rnd.nextInt(256));
+        return b.array();
+    }
+
+    private static byte[] arp(Random rnd) {
+        ByteBuffer b = ByteBuffer.allocate(60);
+        b.put(new byte[]{-1, -1, -1, -1, -1, -1}).put(mac(rnd)).putShort((short) 0x0806);
+        b.putShort((short) 1).putShort((short) 0x0800).put((byte) 6).put((byte) 4).putShort((short) 1);
+        b.put(mac(rnd)).putInt(0x0a000000 | rnd.nextInt(1 << 16)).put(new byte[6]).putInt(0x0a000001);
+        return b.array();
+    }
+
+    private static byte[] mac(Random rnd) {
+        byte[] m = new byte[6];
+        rnd.nextBytes(m);
+        m[0] &= (byte) 0xfe;
+        return m;
+    }
+
+    static byte[][] fromPcap(Path path) throws IOException {
+        List<byte[]> out = new ArrayList<>();
+        try (PcapFile file = PcapFile.open(path)) {
+            for (PcapFile.Chunk chunk : file.plan(64L << 20)) {
+                file.read(chunk, (linkType, ts, buf, offset, length) -> {
+                    if (linkType != PcapFile.LINKTYPE_ETHERNET) return;
+                    byte[] f = new byte[length];
+                    buf.get(offset, f);
+                    out.add(f);
+                });
+            }
+        }
+        if (out.isEmpty()) throw new IOException("no Ethernet frames in " + path);
+        return out.toArray(new byte[0][]);
+    }
+}
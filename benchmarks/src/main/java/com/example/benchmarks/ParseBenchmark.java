@@ -0,0 +1,88 @@
+package com.example.benchmarks;
+
+import com.example.packet.PacketRecord;
+import com.example.parser.DecodedHeaders;
+import com.example.parser.FlowForwarder;
+import com.example.parser.FlowTracker;
+import com.example.parser.PacketParser;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.core.env.StandardEnvironment;
+
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PacketParser throughput per frame: the fast header decode alone, the full parse
+ * into the forwarded PacketRecord (flow tracking optional), and the JSON /api/parse
+ * path (base64 decode, parse, map for the response). Run with {@code -prof gc} for
+ * the allocation rate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParseBenchmark {
+
+    @Param({"mixed", "small", "large", "ipv6", "vlan"})
+    public String corpus;
+
+    @Param({"false"})
+    public boolean flows;
+
+    private byte[][] frames;
+    private String[] base64;
+    private FlowForwarder forwarder;
+    private FlowTracker tracker;
+    private PacketParser parser;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+        final DecodedHeaders headers = new DecodedHeaders();
+    }
+
+    @Setup
+    public void setup() throws Exception {
+        frames = Frames.load(corpus);
+        base64 = new String[frames.length];
+        for (int i = 0; i < frames.length; i++) {
+            base64[i] = Base64.getEncoder().encodeToString(frames[i]);
+        }
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        forwarder = new FlowForwarder(new StandardEnvironment(), registry);
+        tracker = new FlowTracker(forwarder, registry, flows, 131072, 16, 15000, 60000, 1000, 100000, 1000);
+        parser = new PacketParser(tracker, registry, 512);
+    }
+
+    @TearDown
+    public void tearDown() {
+        tracker.shutdown();
+        forwarder.close();
+    }
+
+    private int next(Cursor c) {
+        int i = c.next;
+        c.next = i + 1 == frames.length ? 0 : i + 1;
+        return i;
+    }
+
+    @Benchmark
+    public boolean decode(Cursor c) {
+        return parser.decode(frames[next(c)], c.headers);
+    }
+
+    @Benchmark
+    public PacketRecord parse(Cursor c) {
+        return parser.parse(frames[next(c)]);
+    }
+
+    @Benchmark
+    public Map<String, Object> parseBase64(Cursor c) {
+        PacketRecord r = parser.parse(Base64.getDecoder().decode(base64[next(c)]));
+        return r == null ? null : r.toMap();
+    }
+}
@@ -0,0 +1,93 @@
+package com.example.benchmarks;
+
+import com.example.classifier.Signature;
+import com.example.classifier.SignatureEngine;
+import com.example.classifier.SignatureSet;
+import com.example.packet.PacketRecord;
+import com.example.parser.FlowForwarder;
+import com.example.parser.FlowTracker;
+import com.example.parser.PacketParser;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.core.env.StandardEnvironment;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Payload signature matching per packet as the signature set grows. The automaton
+ * scans each payload once, so the cost should follow payload length, not
+ * {@code signatureCount}, until the table stops fitting in cache. Inputs are the
+ * parser's own output (payload capped at parser.payload.max-bytes' default).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SignatureBenchmark {
+
+    @Param({"8", "1024", "8192"})
+    public int signatureCount;
+
+    @Param({"mixed"})
+    public String corpus;
+
+    private List<PacketRecord> packets;
+    private SignatureEngine engine;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+    }
+
+    @Setup
+    public void setup() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        FlowForwarder forwarder = new FlowForwarder(new StandardEnvironment(), registry);
+        PacketParser parser = new PacketParser(
+                new FlowTracker(forwarder, registry, false, 1024, 1, 15000, 60000, 1000, 1, 1), registry, 512);
+        packets = new ArrayList<>();
+        for (byte[] f : Frames.load(corpus)) {
+            PacketRecord r = parser.parse(f);
+            if (r != null) packets.add(r);
+        }
+        forwarder.close();
+
+        engine = new SignatureEngine("", registry);
+        engine.install(signatures(signatureCount));
+    }
+
+    // random 6..16 byte tokens, a quarter case-insensitive, a quarter narrowed to TCP
+    static SignatureSet signatures(int n) {
+        Random rnd = new Random(7);
+        String alphabet = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789/=.-_%";
+        SignatureSet set = new SignatureSet();
+        for (int i = 0; i < n; i++) {
+            Signature s = new Signature();
+            s.id = "s" + i;
+            s.label = "MALICIOUS-" + (i % 16);
+            StringBuilder p = new StringBuilder();
+            for (int len = 6 + rnd.nextInt(11); p.length() < len; ) p.append(alphabet.charAt(rnd.nextInt(alphabet.length())));
+            s.pattern = p.toString();
+            if (i % 4 == 1) s.nocase = true;
+            if (i % 4 == 2) s.protocols = List.of("TCP");
+            set.signatures.add(s);
+        }
+        return set;
+    }
+
+    private PacketRecord next(Cursor c) {
+        int i = c.next;
+        c.next = i + 1 == packets.size() ? 0 : i + 1;
+        return packets.get(i);
+    }
+
+    @Benchmark
+    public int match(Cursor c) {
+        return engine.match(next(c));
+    }
+}
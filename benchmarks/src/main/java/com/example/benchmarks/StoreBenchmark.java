@@ -0,0 +1,118 @@
+package com.example.benchmarks;
+
+import com.example.gateway.LiveStreamHub;
+import com.example.gateway.LoadProbes;
+import com.example.gateway.PacketRow;
+import com.example.gateway.PacketWriteBehind;
+import com.example.gateway.StatisticsAggregator;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+
+import java.sql.Timestamp;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Gateway ingest per row: /api/store's write-behind queue and JDBC batch insert. By
+ * default into an in-memory H2 database in PostgreSQL mode (packets table with the same
+ * b-tree indexes, unpartitioned); {@code -p db=jdbc:postgresql://...} runs against a
+ * real server instead, which must already have scripts/init-db.sql applied. The
+ * packets table is truncated between iterations, so only point it at a scratch database.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@OperationsPerInvocation(StoreBenchmark.ROWS)
+public class StoreBenchmark {
+
+    static final int ROWS = 10_000;
+
+    @Param({"1", "100", "1000"})
+    public int batchSize;
+
+    @Param({"h2"})
+    public String db;
+
+    private SingleConnectionDataSource dataSource;
+    private JdbcTemplate jdbc;
+    private PacketWriteBehind writer;
+    private PacketRow[] rows;
+    private long target;
+
+    @Setup
+    public void setup() {
+        if (db.equals("h2")) {
+            dataSource = new SingleConnectionDataSource(
+                    "jdbc:h2:mem:bench;MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE;DEFAULT_NULL_ORDERING=HIGH", true);
+            jdbc = new JdbcTemplate(dataSource);
+            createSchema();
+        } else {
+            dataSource = new SingleConnectionDataSource(db, true);
+            jdbc = new JdbcTemplate(dataSource);
+        }
+
+        StatisticsAggregator statistics = new StatisticsAggregator(jdbc, new DataSourceTransactionManager(dataSource), 14, 5000);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        // no stream clients: publishing a stored batch is a single isEmpty() check
+        LiveStreamHub stream = new LiveStreamHub(statistics, registry, 256, 100, 1, 5000);
+        writer = new PacketWriteBehind(jdbc, statistics, stream, new LoadProbes(16), registry, 2 * ROWS, batchSize, 5, 1000, 0);
+
+        Random rnd = new Random(3);
+        String[] protocols = {"TCP", "UDP", "ICMPV4"};
+        String[] labels = {"WEB", "DNS", "TCP-WELLKNOWN", "UNKNOWN", "MALICIOUS-port-scan"};
+        rows = new PacketRow[ROWS];
+        for (int i = 0; i < ROWS; i++) {
+            rows[i] = new PacketRow(new Timestamp(System.currentTimeMillis()),
+                    "10.0." + rnd.nextInt(256) + "." + rnd.nextInt(256), "192.168." + rnd.nextInt(256) + "." + rnd.nextInt(256),
+                    1024 + rnd.nextInt(60000), rnd.nextInt(1024), protocols[rnd.nextInt(3)], 64 + rnd.nextInt(1450),
+                    labels[rnd.nextInt(labels.length)]);
+        }
+    }
+
+    private void createSchema() {
+        jdbc.execute("CREATE TABLE packets (id BIGSERIAL, timestamp TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,"
+                + " src_ip VARCHAR(100), dst_ip VARCHAR(100), src_port INT, dst_port INT, protocol VARCHAR(50),"
+                + " length INT, label VARCHAR(200), PRIMARY KEY (id, timestamp))");
+        jdbc.execute("CREATE INDEX packets_ts_id_idx ON packets (timestamp DESC, id DESC)");
+        jdbc.execute("CREATE INDEX packets_src_ts_idx ON packets (src_ip, timestamp DESC, id DESC)");
+        jdbc.execute("CREATE INDEX packets_dst_ts_idx ON packets (dst_ip, timestamp DESC, id DESC)");
+        jdbc.execute("CREATE INDEX packets_proto_ts_idx ON packets (protocol, timestamp DESC, id DESC)");
+    }
+
+    // keep the table (and index depth) from growing across iterations
+    @Setup(Level.Iteration)
+    public void truncate() {
+        jdbc.execute("TRUNCATE TABLE packets");
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        writer.shutdown();
+        dataSource.destroy();
+    }
+
+    @Benchmark
+    public void writeBehind() throws InterruptedException {
+        for (PacketRow r : rows) {
+            if (!writer.enqueue(r)) throw new IllegalStateException("write-behind queue rejected a row");
+        }
+        target += ROWS;
+        // park rather than spin: the writer thread needs the core on small machines
+        while (writtenOrFailed() < target) {
+            LockSupport.parkNanos(50_000);
+        }
+    }
+
+    private long writtenOrFailed() {
+        Map<String, Object> s = writer.stats();
+        return (Long) s.get("rows_written") + (Long) s.get("rows_failed");
+    }
+}
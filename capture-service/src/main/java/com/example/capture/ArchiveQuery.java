@@ -0,0 +1,137 @@
+package com.example.capture;
+
+import com.example.packet.Addresses;
+import com.example.packet.PacketRecord;
+import com.example.packet.Protocol;
+import com.example.parser.DecodedHeaders;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Map;
+
+/**
+ * What /api/archive/pcap exports: a time range ({@code from}/{@code to}, epoch millis or
+ * ISO-8601, [from, to)) and optionally a conversation. Addresses and ports match in
+ * either direction. With all five of src_ip, dst_ip, src_port, dst_port and protocol
+ * the query is a flow and goes through the archive's flow index; otherwise the given
+ * fields filter the frames in the time range.
+ */
+final class ArchiveQuery {
+
+    long fromMicros = Long.MIN_VALUE;
+    long toMicros = Long.MAX_VALUE;
+    Endpoint src;
+    Endpoint dst;
+    int srcPort = -1;
+    int dstPort = -1;
+    int protocol = -1;
+    int limit;
+
+    /** An IP address as the archive keys it: version plus the address bits. */
+    static final class Endpoint {
+        final int version;
+        final long hi, lo;
+
+        Endpoint(int version, long hi, long lo) {
+            this.version = version;
+            this.hi = hi;
+            this.lo = lo;
+        }
+
+        static Endpoint parse(String ip) {
+            // literals only, parsed by hand: never let a query trigger a DNS lookup
+            long v4 = Addresses.parseIpv4(ip);
+            if (v4 >= 0) return new Endpoint(4, 0, v4);
+            long[] v6 = Addresses.parseIpv6(ip);
+            if (v6 != null) return new Endpoint(6, v6[0], v6[1]);
+            throw new IllegalArgumentException("bad ip: " + ip);
+        }
+
+        boolean isSrc(DecodedHeaders h) {
+            return h.ipVersion == version && (version == 4 ? (h.srcIp4 & 0xffffffffL) == lo : h.srcIp6Hi == hi && h.srcIp6Lo == lo);
+        }
+
+        boolean isDst(DecodedHeaders h) {
+            return h.ipVersion == version && (version == 4 ? (h.dstIp4 & 0xffffffffL) == lo : h.dstIp6Hi == hi && h.dstIp6Lo == lo);
+        }
+    }
+
+    static ArchiveQuery fromParams(Map<String, String> qp, int maxPackets) {
+        ArchiveQuery q = new ArchiveQuery();
+        Long from = time(qp.get("from")), to = time(qp.get("to"));
+        if (from != null) q.fromMicros = from * 1000;
+        if (to != null) q.toMicros = to * 1000;
+        if (q.fromMicros >= q.toMicros) throw new IllegalArgumentException("from must be before to");
+        if (str(qp.get("src_ip")) != null) q.src = Endpoint.parse(qp.get("src_ip").trim());
+        if (str(qp.get("dst_ip")) != null) q.dst = Endpoint.parse(qp.get("dst_ip").trim());
+        q.srcPort = port(qp.get("src_port"));
+        q.dstPort = port(qp.get("dst_port"));
+        String proto = str(qp.get("protocol"));
+        if (proto != null) {
+            Protocol p = proto.chars().allMatch(Character::isDigit) ? Protocol.of(Integer.parseInt(proto)) : Protocol.lookup(proto);
+            if (p == null || p == Protocol.OTHER) throw new IllegalArgumentException("unknown protocol: " + proto);
+            q.protocol = p.number;
+        }
+        String limit = str(qp.get("limit"));
+        q.limit = limit == null ? maxPackets : Math.min(maxPackets, Integer.parseInt(limit));
+        if (q.limit < 1) throw new IllegalArgumentException("limit must be positive");
+        return q;
+    }
+
+    /** True when the query names one conversation, so the flow index can answer it. */
+    boolean isFlow() {
+        return src != null && dst != null && srcPort >= 0 && dstPort >= 0
+                && (protocol == Protocol.TCP.number || protocol == Protocol.UDP.number);
+    }
+
+    int flowHash() {
+        return PacketRecord.flowHash(src.version, src.hi, src.lo, srcPort, dst.hi, dst.lo, dstPort, protocol);
+    }
+
+    /** {@code decoded} is false for frames the fast decoder gave up on; they only match address-free queries. */
+    boolean matches(boolean decoded, DecodedHeaders h) {
+        if (src == null && dst == null && srcPort < 0 && dstPort < 0 && protocol < 0) return true;
+        if (!decoded) return false;
+        if (protocol >= 0 && h.ipProtocol != protocol) return false;
+        return forward(h) || reverse(h);
+    }
+
+    private boolean forward(DecodedHeaders h) {
+        return (src == null || src.isSrc(h)) && (dst == null || dst.isDst(h))
+                && (srcPort < 0 || h.srcPort == srcPort) && (dstPort < 0 || h.dstPort == dstPort);
+    }
+
+    private boolean reverse(DecodedHeaders h) {
+        return (src == null || src.isDst(h)) && (dst == null || dst.isSrc(h))
+                && (srcPort < 0 || h.dstPort == srcPort) && (dstPort < 0 || h.srcPort == dstPort);
+    }
+
+    private static int port(String s) {
+        s = str(s);
+        if (s == null) return -1;
+        int p = Integer.parseInt(s.trim());
+        if (p < 0 || p > 65535) throw new IllegalArgumentException("bad port: " + s);
+        return p;
+    }
+
+    private static String str(String s) {
+        return s == null || s.isEmpty() ? null : s;
+    }
+
+    // same forms the gateway's filters take; no zone means local time, like its TIMESTAMP column
+    static Long time(String s) {
+        s = str(s);
+        if (s == null) return null;
+        if (s.chars().allMatch(Character::isDigit)) return Long.parseLong(s);
+        try {
+            return Instant.parse(s).toEpochMilli();
+        } catch (Exception e) {
+            try {
+                return LocalDateTime.parse(s).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            } catch (Exception e2) {
+                throw new IllegalArgumentException("bad time: " + s);
+            }
+        }
+    }
+}
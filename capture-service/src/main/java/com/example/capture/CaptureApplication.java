@@ -2,8 +2,10 @@ package com.example.capture;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
+@EnableScheduling
 public class CaptureApplication {
     public static void main(String[] args) {
         SpringApplication.run(CaptureApplication.class, args);
@@ -1,12 +1,19 @@
 package com.example.capture;
 
+import com.example.forwarding.SpillJournal;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.io.File;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.*;
 
 @RestController
 @RequestMapping("/api")
@@ -16,13 +23,79 @@ public class CaptureController {
     private PacketSniffer sniffer;
 
     @Autowired
-    private ForwardService forwardService;
-
-    private final AtomicInteger packetsCaptured = new AtomicInteger(0);
+    private CapturePipeline pipeline;
 
     @GetMapping("/capture/status")
     public ResponseEntity<?> status() {
-        return ResponseEntity.ok(new Status(sniffer != null, packetsCaptured.get(), 0));
+        PacketRingBuffer ring = pipeline.ring();
+        Status s = new Status(sniffer.isCapturing(), ring.published() + ring.droppedNewest(), pipeline.forwarded());
+        s.packets_dropped = ring.droppedNewest() + ring.droppedOldest();
+        s.dropped_newest = ring.droppedNewest();
+        s.dropped_oldest = ring.droppedOldest();
+        s.producer_waits = ring.producerWaits();
+        s.forward_errors = pipeline.forwardErrors();
+        s.buffer_occupancy = ring.size();
+        s.buffer_capacity = ring.capacity();
+        s.overflow_policy = ring.policy().name();
+        s.pcap = sniffer.stats();
+        s.sessions = new ArrayList<>();
+        for (CaptureSession session : sniffer.sessions()) s.sessions.add(session.toMap());
+        return ResponseEntity.ok(s);
+    }
+
+    @Value("${capture.pipeline.mode:distributed}")
+    private String pipelineMode;
+
+    @Autowired
+    private FrameSink sink;
+
+    @GetMapping("/pipeline")
+    public ResponseEntity<?> pipelineStatus() {
+        Map<String,Object> res = new HashMap<>();
+        res.put("mode", pipelineMode);
+        if (sink instanceof EmbeddedPipeline) {
+            res.putAll(((EmbeddedPipeline) sink).stats());
+        } else if (sink instanceof ForwardService) {
+            res.put("parser", ((ForwardService) sink).stats());
+        }
+        return ResponseEntity.ok(res);
+    }
+
+    @GetMapping("/journal")
+    public ResponseEntity<?> journal() {
+        SpillJournal journal = sink.journal();
+        Map<String,Object> res = journal != null ? journal.stats() : new HashMap<>(Map.of("enabled", false));
+        res.put("mode", pipelineMode);
+        return ResponseEntity.ok(res);
+    }
+
+    @Autowired
+    private PacketArchive archive;
+
+    @Value("${capture.archive.export-max-packets:1000000}")
+    private int exportMaxPackets;
+
+    @GetMapping("/archive")
+    public ResponseEntity<?> archive() {
+        return ResponseEntity.ok(archive.stats());
+    }
+
+    // frames for a time range and/or conversation as a .pcap, read via the archive's time and flow indexes
+    @GetMapping("/archive/pcap")
+    public ResponseEntity<StreamingResponseBody> archivePcap(@RequestParam Map<String,String> qp) {
+        // a streaming body has to be the declared type, so errors go out as status exceptions
+        if (!archive.isEnabled()) throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "archive disabled");
+        ArchiveQuery q;
+        try {
+            q = ArchiveQuery.fromParams(qp, exportMaxPackets);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+        StreamingResponseBody body = out -> archive.export(q, out);
+        return ResponseEntity.ok()
+                .header("Content-Disposition", "attachment; filename=archive.pcap")
+                .contentType(MediaType.parseMediaType("application/vnd.tcpdump.pcap"))
+                .body(body);
     }
 
     @PostMapping("/capture/start")
@@ -32,18 +105,23 @@ public class CaptureController {
             if (iface == null || iface.isEmpty()) {
                 return ResponseEntity.badRequest().body("interface required");
             }
-            sniffer.startLiveCapture(iface, raw -> {
-                packetsCaptured.incrementAndGet();
-                // forward raw bytes to parser service
-                forwardService.forwardRawPacket(raw);
-            });
-            return ResponseEntity.ok("started");
+            // hand off to the ring; its workers feed the parser service or the embedded pipeline
+            List<Map<String,Object>> started = new ArrayList<>();
+            for (CaptureSession session : sniffer.startLiveCapture(iface, params, pipeline::publish)) {
+                started.add(session.toMap());
+            }
+            return ResponseEntity.ok(Collections.singletonMap("sessions", started));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(409).body(e.getMessage());
         } catch (Exception e) {
             e.printStackTrace();
             return ResponseEntity.status(500).body(e.getMessage());
         }
     }
 
+    // stops every session; /capture/sessions/{id}/stop stops one
     @PostMapping("/capture/stop")
     public ResponseEntity<?> stop() {
         try {
@@ -55,26 +133,173 @@ public class CaptureController {
         }
     }
 
+    @GetMapping("/capture/sessions")
+    public ResponseEntity<?> sessions() {
+        List<Map<String,Object>> list = new ArrayList<>();
+        for (CaptureSession s : sniffer.sessions()) list.add(s.toMap());
+        Map<String,Object> res = new HashMap<>();
+        res.put("sessions", list);
+        res.put("totals", sniffer.stats());
+        return ResponseEntity.ok(res);
+    }
+
+    @GetMapping("/capture/sessions/{id}")
+    public ResponseEntity<?> session(@PathVariable String id) {
+        CaptureSession s = sniffer.get(id);
+        return s == null ? ResponseEntity.notFound().build() : ResponseEntity.ok(s.toMap());
+    }
+
+    @PostMapping("/capture/sessions/{id}/stop")
+    public ResponseEntity<?> stopSession(@PathVariable String id) {
+        try {
+            if (!sniffer.stop(id)) return ResponseEntity.notFound().build();
+            return ResponseEntity.ok(sniffer.get(id).toMap());
+        } catch (Exception e) {
+            e.printStackTrace();
+            return ResponseEntity.status(500).body(e.getMessage());
+        }
+    }
+
+    @PostMapping("/capture/sessions/{id}/restart")
+    public ResponseEntity<?> restartSession(@PathVariable String id) {
+        try {
+            if (!sniffer.restart(id)) return ResponseEntity.notFound().build();
+            return ResponseEntity.ok(sniffer.get(id).toMap());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(409).body(e.getMessage());
+        } catch (Exception e) {
+            e.printStackTrace();
+            return ResponseEntity.status(500).body(e.getMessage());
+        }
+    }
+
+    @DeleteMapping("/capture/sessions/{id}")
+    public ResponseEntity<?> removeSession(@PathVariable String id) {
+        try {
+            return sniffer.remove(id) ? ResponseEntity.noContent().build() : ResponseEntity.notFound().build();
+        } catch (Exception e) {
+            e.printStackTrace();
+            return ResponseEntity.status(500).body(e.getMessage());
+        }
+    }
+
+    @Autowired
+    private PcapIngestService ingest;
+
+    // ingestion runs as a background job; poll /pcap/jobs/{id} for progress
     @PostMapping(value = "/pcap/upload", consumes = {"multipart/form-data"})
     public ResponseEntity<?> uploadPcap(@RequestParam("file") MultipartFile file) {
         try {
             File tmp = File.createTempFile("upload-", ".pcap");
             file.transferTo(tmp);
-            // parse file and forward packets
-            forwardService.forwardPcapFile(tmp.getAbsolutePath());
-            tmp.delete();
-            return ResponseEntity.ok("processed");
+            IngestJob job = ingest.submit(tmp.getAbsolutePath(), true);
+            return ResponseEntity.accepted().body(job.toMap());
+        } catch (Exception e) {
+            e.printStackTrace();
+            return ResponseEntity.status(500).body(e.getMessage());
+        }
+    }
+
+    @Autowired
+    private IngestDirectory ingestDir;
+
+    // ingest a capture already in capture.ingest.dir on the capture host, without uploading it
+    @PostMapping("/pcap/ingest")
+    public ResponseEntity<?> ingestPcap(@RequestBody Map<String,String> req) {
+        String path;
+        try {
+            path = ingestDir.resolve(req.get("path")).toString();
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+        return ResponseEntity.accepted().body(ingest.submit(path, false).toMap());
+    }
+
+    @GetMapping("/pcap/jobs")
+    public ResponseEntity<?> pcapJobs() {
+        List<Map<String,Object>> jobs = new ArrayList<>();
+        for (IngestJob j : ingest.all()) jobs.add(j.toMap());
+        return ResponseEntity.ok(Collections.singletonMap("jobs", jobs));
+    }
+
+    @GetMapping("/pcap/jobs/{id}")
+    public ResponseEntity<?> pcapJob(@PathVariable String id) {
+        IngestJob job = ingest.get(id);
+        return job == null ? ResponseEntity.notFound().build() : ResponseEntity.ok(job.toMap());
+    }
+
+    @Autowired
+    private ReplayService replay;
+
+    @Autowired
+    private ObjectMapper json;
+
+    // load generation: one replay at a time; poll GET /replay for throughput, stage lag and latency
+    @PostMapping("/replay")
+    public ResponseEntity<?> startReplay(@RequestBody ReplayParams params) {
+        try {
+            return ResponseEntity.accepted().body(replay.start(params, false).toMap());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(409).body(e.getMessage());
+        }
+    }
+
+    // same options as POST /replay, as form fields next to the file
+    @PostMapping(value = "/replay/upload", consumes = {"multipart/form-data"})
+    public ResponseEntity<?> uploadReplay(@RequestParam("file") MultipartFile file, @RequestParam Map<String,String> form) {
+        try {
+            File tmp = File.createTempFile("replay-", ".pcap");
+            file.transferTo(tmp);
+            Map<String,Object> fields = new HashMap<>(form);
+            fields.put("path", tmp.getAbsolutePath());
+            ReplayParams params;
+            try {
+                params = json.convertValue(fields, ReplayParams.class);
+            } catch (IllegalArgumentException e) {
+                tmp.delete();
+                throw e;
+            }
+            return ResponseEntity.accepted().body(replay.start(params, true).toMap());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(409).body(e.getMessage());
         } catch (Exception e) {
             e.printStackTrace();
             return ResponseEntity.status(500).body(e.getMessage());
         }
     }
 
+    @GetMapping("/replay")
+    public ResponseEntity<?> replayStatus() {
+        ReplayRun run = replay.current();
+        return run == null ? ResponseEntity.notFound().build() : ResponseEntity.ok(run.toMap());
+    }
+
+    @PostMapping("/replay/stop")
+    public ResponseEntity<?> stopReplay() {
+        return ResponseEntity.ok(Collections.singletonMap("stopped", replay.stop()));
+    }
+
     static class Status {
         public boolean is_capturing;
-        public int packets_captured;
-        public int packets_analyzed;
-        public Status(boolean c, int cap, int anal) {
+        public long packets_captured;
+        public long packets_analyzed;
+        public long packets_dropped;
+        public long dropped_newest;
+        public long dropped_oldest;
+        public long producer_waits;
+        public long forward_errors;
+        public int buffer_occupancy;
+        public int buffer_capacity;
+        public String overflow_policy;
+        public Map<String,Object> pcap;
+        public List<Map<String,Object>> sessions;
+        public Status(boolean c, long cap, long anal) {
             this.is_capturing = c;
             this.packets_captured = cap;
             this.packets_analyzed = anal;
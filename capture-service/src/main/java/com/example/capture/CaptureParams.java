@@ -0,0 +1,68 @@
+package com.example.capture;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class CaptureParams {
+    // the UI sends "interface", older clients send "iface"
+    @JsonProperty("interface")
+    private String intf;
+    private String iface;
+    @JsonProperty("packet_count")
+    private Integer packetCount;
+    private Integer timeout;
+    // BPF expression compiled into the kernel filter, e.g. "tcp port 443 or udp port 53"
+    private String filter;
+    // bytes kept per frame; headers_only picks capture.live.header-snaplen instead
+    private Integer snaplen;
+    @JsonProperty("headers_only")
+    private Boolean headersOnly;
+    private Boolean promiscuous;
+    // kernel capture buffer in bytes, 0 for the libpcap default
+    @JsonProperty("buffer_size")
+    private Integer bufferSize;
+    // deliver each frame as it arrives instead of waiting for the buffer timeout
+    private Boolean immediate;
+    // fraction of captured frames passed on, (0, 1]
+    @JsonProperty("sample_ratio")
+    private Double sampleRatio;
+    // split the interface across this many sessions (power of two), each with its own handle and thread
+    private Integer queues;
+
+    public String getInterface() { return intf; }
+    public void setInterface(String intf) { this.intf = intf; }
+
+    public String getIface() { return iface; }
+    public void setIface(String iface) { this.iface = iface; }
+
+    public Integer getPacketCount() { return packetCount; }
+    public void setPacketCount(Integer packetCount) { this.packetCount = packetCount; }
+
+    public Integer getTimeout() { return timeout; }
+    public void setTimeout(Integer timeout) { this.timeout = timeout; }
+
+    public String getFilter() { return filter; }
+    public void setFilter(String filter) { this.filter = filter; }
+
+    public Integer getSnaplen() { return snaplen; }
+    public void setSnaplen(Integer snaplen) { this.snaplen = snaplen; }
+
+    public Boolean getHeadersOnly() { return headersOnly; }
+    public void setHeadersOnly(Boolean headersOnly) { this.headersOnly = headersOnly; }
+
+    public Boolean getPromiscuous() { return promiscuous; }
+    public void setPromiscuous(Boolean promiscuous) { this.promiscuous = promiscuous; }
+
+    public Integer getBufferSize() { return bufferSize; }
+    public void setBufferSize(Integer bufferSize) { this.bufferSize = bufferSize; }
+
+    public Boolean getImmediate() { return immediate; }
+    public void setImmediate(Boolean immediate) { this.immediate = immediate; }
+
+    public Double getSampleRatio() { return sampleRatio; }
+    public void setSampleRatio(Double sampleRatio) { this.sampleRatio = sampleRatio; }
+
+    public Integer getQueues() { return queues; }
+    public void setQueues(Integer queues) { this.queues = queues; }
+}
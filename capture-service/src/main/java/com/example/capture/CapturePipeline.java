@@ -0,0 +1,94 @@
+package com.example.capture;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Decouples the capture thread from forwarding: frames go into a PacketRingBuffer
+ * and a fixed pool of workers drains it into the FrameSink, so a slow downstream
+ * hop fills (and, per policy, drops from) the ring instead of stalling the pcap loop.
+ * Workers also append each frame to the {@link PacketArchive} before handing it on.
+ */
+@Service
+public class CapturePipeline {
+
+    private final PacketRingBuffer ring;
+    private final FrameSink sink;
+    private final PacketArchive archive;
+    private final List<Thread> workers = new ArrayList<>();
+    private final LongAdder forwarded = new LongAdder();
+    private final LongAdder forwardErrors = new LongAdder();
+    private volatile boolean running = true;
+
+    public CapturePipeline(FrameSink sink, PacketArchive archive, MeterRegistry registry,
+                           @Value("${capture.ring.capacity:65536}") int capacity,
+                           @Value("${capture.ring.overflow-policy:DROP_NEWEST}") PacketRingBuffer.OverflowPolicy policy,
+                           @Value("${capture.forward.workers:4}") int workerCount) {
+        this.sink = sink;
+        this.archive = archive;
+        this.ring = new PacketRingBuffer(capacity, policy);
+        FunctionCounter.builder("pipeline.packets", ring, PacketRingBuffer::published).tags("stage", "capture", "outcome", "in").register(registry);
+        FunctionCounter.builder("pipeline.packets", ring, r -> r.droppedNewest() + r.droppedOldest()).tags("stage", "capture", "outcome", "dropped").register(registry);
+        FunctionCounter.builder("pipeline.packets", forwarded, LongAdder::sum).tags("stage", "capture", "outcome", "out").register(registry);
+        FunctionCounter.builder("pipeline.packets", forwardErrors, LongAdder::sum).tags("stage", "capture", "outcome", "error").register(registry);
+        Gauge.builder("pipeline.queue.depth", ring, PacketRingBuffer::size).tag("stage", "capture").register(registry);
+        Gauge.builder("pipeline.queue.capacity", ring, PacketRingBuffer::capacity).tag("stage", "capture").register(registry);
+        for (int i = 0; i < Math.max(1, workerCount); i++) {
+            Thread t = new Thread(this::drain, "forward-worker-" + i);
+            t.setDaemon(true);
+            t.start();
+            workers.add(t);
+        }
+    }
+
+    public boolean publish(byte[] raw) {
+        return ring.publish(raw);
+    }
+
+    private void drain() {
+        int idle = 0;
+        while (running) {
+            byte[] frame = ring.poll();
+            if (frame == null) {
+                // spin briefly, then back off so idle workers don't burn a core each
+                if (++idle < 64) Thread.onSpinWait();
+                else LockSupport.parkNanos(idle < 1024 ? 1_000 : 50_000);
+                continue;
+            }
+            idle = 0;
+            try {
+                archive.append(frame);
+                sink.accept(frame);
+                forwarded.increment();
+            } catch (Exception e) {
+                forwardErrors.increment();
+            }
+        }
+    }
+
+    public PacketRingBuffer ring() { return ring; }
+    public long forwarded() { return forwarded.sum(); }
+    public long forwardErrors() { return forwardErrors.sum(); }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        // let workers empty the ring before the forwarder flushes its last batch
+        long deadline = System.currentTimeMillis() + 2000;
+        while (ring.size() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        running = false;
+        for (Thread t : workers) {
+            t.join(500);
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package com.example.capture;
+
+import org.pcap4j.core.*;
+import org.pcap4j.core.PcapNetworkInterface.PromiscuousMode;
+
+import java.io.EOFException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * One live capture: its own PcapHandle and capture thread, so sessions on different
+ * interfaces (or different queues of one interface) run in parallel. A session can be
+ * stopped and started again with the same settings; counters carry across restarts.
+ * Only the capture thread ever closes its handle: a stop that cannot wait for the
+ * current read to return leaves the session STOPPING until the thread gets to it.
+ */
+public class CaptureSession {
+
+    public enum State { RUNNING, STOPPING, STOPPED, FAILED }
+
+    final String id;
+    final String group;         // id of the first session started with it; one group per interface
+    final String iface;
+    final int snaplen;
+    final boolean promiscuous;
+    final int timeoutMs;
+    final int bufferSize;
+    final boolean immediate;
+    final String filter;        // as requested
+    final String kernelFilter;  // filter plus this session's queue partition
+    final int queue;
+    final int queues;
+    final double sampleRatio;
+    private final PacketSniffer.PacketHandler handler;
+
+    volatile State state = State.STOPPED;
+    volatile String error;
+    volatile long startedAt;
+    volatile long stoppedAt;
+    final LongAdder seen = new LongAdder();
+    final LongAdder bytes = new LongAdder();
+    final LongAdder sampledOut = new LongAdder();
+
+    private PcapHandle handle;
+    private Thread thread;
+    private volatile boolean running;
+    private Map<String, Object> lastPcapStats;
+
+    // packets_per_sec over the last completed interval of at least a second
+    private long rateAtNanos;
+    private long rateSeen;
+    private double rate;
+
+    CaptureSession(String id, String group, String iface, int snaplen, boolean promiscuous, int timeoutMs, int bufferSize,
+                   boolean immediate, String filter, int queue, int queues, double sampleRatio,
+                   PacketSniffer.PacketHandler handler) {
+        this.id = id;
+        this.group = group;
+        this.iface = iface;
+        this.snaplen = snaplen;
+        this.promiscuous = promiscuous;
+        this.timeoutMs = timeoutMs;
+        this.bufferSize = bufferSize;
+        this.immediate = immediate;
+        this.filter = filter;
+        this.kernelFilter = combine(filter, partition(queue, queues));
+        this.queue = queue;
+        this.queues = queues;
+        this.sampleRatio = sampleRatio;
+        this.handler = handler;
+    }
+
+    /**
+     * BPF clause keeping queue {@code q} of {@code n} (a power of two): IPv4/IPv6 by the
+     * low bits of src ^ dst address, so both directions of a conversation land on the
+     * same queue; anything else goes to queue 0.
+     */
+    static String partition(int q, int n) {
+        if (n <= 1) return "";
+        int mask = n - 1;
+        String clause = "(ip and ((ip[12:4] ^ ip[16:4]) & " + mask + ") = " + q + ")"
+                + " or (ip6 and ((ip6[20:4] ^ ip6[36:4]) & " + mask + ") = " + q + ")";
+        return q == 0 ? clause + " or not (ip or ip6)" : clause;
+    }
+
+    private static String combine(String filter, String partition) {
+        if (partition.isEmpty()) return filter;
+        if (filter.isEmpty()) return partition;
+        return "(" + filter + ") and (" + partition + ")";
+    }
+
+    /**
+     * Throws IllegalArgumentException when libpcap rejects the filter, IllegalStateException
+     * while the previous capture thread has not closed its handle yet.
+     */
+    synchronized void start() throws PcapNativeException {
+        if (state == State.RUNNING) return;
+        if (state == State.STOPPING) throw new IllegalStateException("session " + id + " is still stopping");
+        PcapNetworkInterface device = Pcaps.getDevByName(iface);
+        if (device == null) {
+            throw new PcapNativeException("Interface not found: " + iface);
+        }
+        PcapHandle.Builder builder = new PcapHandle.Builder(device.getName())
+                .snaplen(snaplen)
+                .promiscuousMode(promiscuous ? PromiscuousMode.PROMISCUOUS : PromiscuousMode.NONPROMISCUOUS)
+                .timeoutMillis(timeoutMs);
+        // 0 keeps libpcap's default buffer; immediate mode needs libpcap 1.5+, so only ask when wanted
+        if (bufferSize > 0) builder.bufferSize(bufferSize);
+        if (immediate) builder.immediateMode(true);
+        PcapHandle h = builder.build();
+        if (!kernelFilter.isEmpty()) {
+            try {
+                h.setFilter(kernelFilter, BpfProgram.BpfCompileMode.OPTIMIZE);
+            } catch (PcapNativeException | NotOpenException e) {
+                h.close();
+                throw new IllegalArgumentException("invalid filter: " + e.getMessage());
+            }
+        }
+        handle = h;
+        running = true;
+        error = null;
+        lastPcapStats = null;
+        startedAt = System.currentTimeMillis();
+        stoppedAt = 0;
+        state = State.RUNNING;
+        thread = new Thread(() -> run(h), "capture-" + id);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void run(PcapHandle h) {
+        try {
+            while (running) {
+                try {
+                    // raw bytes only: the parser decodes, so skip pcap4j's packet factory here
+                    byte[] raw = h.getNextRawPacketEx();
+                    seen.increment();
+                    if (sampleRatio < 1 && ThreadLocalRandom.current().nextDouble() >= sampleRatio) {
+                        sampledOut.increment();
+                        continue;
+                    }
+                    bytes.add(raw.length);
+                    handler.handle(raw);
+                } catch (TimeoutException e) {
+                    // ignore
+                }
+            }
+        } catch (NotOpenException | PcapNativeException | EOFException e) {
+            if (running) {
+                e.printStackTrace();
+                error = e.toString();
+            }
+        } finally {
+            closeHandle(h);
+        }
+    }
+
+    // the capture thread closes its own handle once it sees running == false, so no
+    // other thread frees it in the middle of a read
+    private synchronized void closeHandle(PcapHandle h) {
+        if (h.isOpen()) {
+            // the kernel counters go away with the handle
+            lastPcapStats = pcapStats(h);
+            h.close();
+        }
+        if (handle == h) {
+            handle = null;
+            state = error != null ? State.FAILED : State.STOPPED;
+            stoppedAt = System.currentTimeMillis();
+        }
+    }
+
+    void stop() throws InterruptedException {
+        Thread t;
+        synchronized (this) {
+            if (state != State.RUNNING) return;
+            running = false;
+            state = State.STOPPING;
+            t = thread;
+        }
+        // reads return at least every timeoutMs, then the thread closes the handle. A read
+        // stuck longer (immediate mode on a silent link) cannot be cut short from here:
+        // breakLoop does not reach pcap_next_ex, and closing the handle under it would
+        // free it mid-read. The session stays STOPPING until the next packet or timeout.
+        t.join(Math.max(1000, 10L * timeoutMs));
+    }
+
+    boolean isRunning() {
+        return state == State.RUNNING;
+    }
+
+    /** Running, or stopping with its handle still open on the interface. */
+    boolean isActive() {
+        State st = state;
+        return st == State.RUNNING || st == State.STOPPING;
+    }
+
+    synchronized Map<String, Object> pcapStats() {
+        return handle != null && handle.isOpen() ? pcapStats(handle) : lastPcapStats;
+    }
+
+    private static Map<String, Object> pcapStats(PcapHandle h) {
+        try {
+            PcapStat st = h.getStats();
+            Map<String, Object> s = new HashMap<>();
+            s.put("pcap_received", st.getNumPacketsReceived());
+            s.put("pcap_dropped", st.getNumPacketsDropped());
+            s.put("pcap_dropped_by_if", st.getNumPacketsDroppedByIf());
+            return s;
+        } catch (PcapNativeException | NotOpenException e) {
+            return null;
+        }
+    }
+
+    synchronized double packetsPerSec() {
+        long now = System.nanoTime();
+        long n = seen.sum();
+        if (rateAtNanos == 0) {
+            rateAtNanos = now;
+            rateSeen = n;
+        } else if (now - rateAtNanos >= 1_000_000_000L) {
+            rate = (n - rateSeen) * 1e9 / (now - rateAtNanos);
+            rateAtNanos = now;
+            rateSeen = n;
+        }
+        return state == State.RUNNING ? rate : 0;
+    }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> m = new HashMap<>();
+        m.put("session_id", id);
+        m.put("group", group);
+        m.put("state", state.name());
+        m.put("error", error);
+        m.put("interface", iface);
+        m.put("snaplen", snaplen);
+        m.put("promiscuous", promiscuous);
+        m.put("timeout_ms", timeoutMs);
+        m.put("buffer_size", bufferSize);
+        m.put("immediate", immediate);
+        m.put("filter", filter);
+        m.put("kernel_filter", kernelFilter);
+        m.put("queue", queue);
+        m.put("queues", queues);
+        m.put("sample_ratio", sampleRatio);
+        m.put("started_at", startedAt);
+        m.put("stopped_at", stoppedAt);
+        m.put("packets_seen", seen.sum());
+        m.put("packets_sampled_out", sampledOut.sum());
+        m.put("bytes", bytes.sum());
+        m.put("packets_per_sec", packetsPerSec());
+        Map<String, Object> pcap = pcapStats();
+        if (pcap != null) m.putAll(pcap);
+        return m;
+    }
+}
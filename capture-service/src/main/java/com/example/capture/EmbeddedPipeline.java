@@ -0,0 +1,166 @@
+package com.example.capture;
+
+import com.example.classifier.SimpleClassifier;
+import com.example.forwarding.ShardedBatcher;
+import com.example.forwarding.ShardedClient;
+import com.example.forwarding.SpillJournal;
+import com.example.packet.PacketCodec;
+import com.example.packet.PacketRecord;
+import com.example.parser.PacketParser;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.http.entity.ContentType;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-process parse -> classify -> store for capture.pipeline.mode=embedded. The caller
+ * (a ring worker or an ingest thread) parses; parsed packets go through a bounded
+ * queue to the classifier workers, whose results are batched to the gateway's
+ * /api/store/batch as PacketCodec records. A full queue blocks the parse stage, which backs up into the
+ * capture ring and its overflow policy, same as a slow parser service would.
+ */
+@Service
+@ConditionalOnProperty(name = "capture.pipeline.mode", havingValue = "embedded")
+public class EmbeddedPipeline implements FrameSink {
+
+    private final PacketParser parser;
+    private final SimpleClassifier classifier;
+    private final BlockingQueue<PacketRecord> classifyQueue;
+    private final ShardedBatcher<PacketRecord> storeBatcher;
+    private final List<Thread> workers = new ArrayList<>();
+    private final ShardedClient store;
+    private final SpillJournal journal;
+    private final boolean storePackets;
+    private volatile boolean running = true;
+
+    private final LongAdder parsed = new LongAdder();
+    private final LongAdder classified = new LongAdder();
+    private final LongAdder stored = new LongAdder();
+    private final LongAdder storeErrors = new LongAdder();
+    private final LongAdder storeSpilled = new LongAdder();
+
+    public EmbeddedPipeline(PacketParser parser, SimpleClassifier classifier, Environment env, MeterRegistry registry,
+                            @Value("${capture.pipeline.queue-capacity:16384}") int queueCapacity,
+                            @Value("${capture.pipeline.classify-workers:2}") int classifyWorkers,
+                            @Value("${capture.pipeline.store-batch-size:1000}") int storeBatchSize,
+                            @Value("${capture.pipeline.store-linger-ms:50}") long storeLingerMs,
+                            @Value("${parser.forward.packets:true}") boolean storePackets) {
+        this.parser = parser;
+        this.classifier = classifier;
+        this.classifyQueue = new ArrayBlockingQueue<>(queueCapacity);
+        this.store = new ShardedClient("store",
+                ShardedClient.config(env, "capture.pipeline.store", "http://gateway:8080/api/store/batch")).bindTo(registry);
+        // gateways share one database, so a spilled batch may go back to any of them
+        this.journal = SpillJournal.open("store", SpillJournal.config(env, "capture.journal", "journal"),
+                body -> store.send(ThreadLocalRandom.current().nextInt(), body, ContentType.APPLICATION_OCTET_STREAM, PacketCodec.count(body)));
+        if (journal != null) journal.bindTo(registry);
+        this.storePackets = storePackets;
+        this.storeBatcher = new ShardedBatcher<>("store", store, storeBatchSize, storeLingerMs, PacketRecord::flowHash, this::sendBatch);
+        FunctionCounter.builder("pipeline.packets", classified, LongAdder::sum).tags("stage", "classify", "outcome", "out").register(registry);
+        FunctionCounter.builder("pipeline.packets", stored, LongAdder::sum).tags("stage", "store_forward", "outcome", "out").register(registry);
+        FunctionCounter.builder("pipeline.packets", storeErrors, LongAdder::sum).tags("stage", "store_forward", "outcome", "error").register(registry);
+        FunctionCounter.builder("pipeline.packets", storeSpilled, LongAdder::sum).tags("stage", "store_forward", "outcome", "spilled").register(registry);
+        Gauge.builder("pipeline.queue.depth", classifyQueue, BlockingQueue::size).tag("stage", "classify").register(registry);
+        Gauge.builder("pipeline.queue.capacity", classifyQueue, q -> q.size() + q.remainingCapacity()).tag("stage", "classify").register(registry);
+        for (int i = 0; i < Math.max(1, classifyWorkers); i++) {
+            Thread t = new Thread(this::classifyLoop, "classify-worker-" + i);
+            t.setDaemon(true);
+            t.start();
+            workers.add(t);
+        }
+    }
+
+    @Override
+    public void accept(byte[] frame) {
+        // parse stage runs on the caller; the flow table sees every frame
+        PacketRecord pkt = parser.parse(frame);
+        parsed.increment();
+        if (pkt == null || !storePackets) return;
+        try {
+            classifyQueue.put(pkt);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void classifyLoop() {
+        while (running || !classifyQueue.isEmpty()) {
+            try {
+                PacketRecord pkt = classifyQueue.poll(100, TimeUnit.MILLISECONDS);
+                if (pkt == null) continue;
+                PacketRecord labelled = pkt.withLabel(classifier.classify(pkt));
+                classified.increment();
+                storeBatcher.add(labelled);
+            } catch (InterruptedException e) {
+                // shutdown() interrupts only to cut the poll short; keep draining
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void sendBatch(ShardedClient.Shard shard, List<PacketRecord> batch) {
+        // synchronous on the batcher's thread: the store hop is the pipeline's last stage
+        byte[] body = PacketCodec.encode(batch);
+        if (shard.postSync(body, ContentType.APPLICATION_OCTET_STREAM, batch.size())) stored.add(batch.size());
+        else if (journal != null && journal.append(body)) storeSpilled.add(batch.size());
+        else storeErrors.add(batch.size());
+    }
+
+    @Override
+    public SpillJournal journal() {
+        return journal;
+    }
+
+    @Override
+    public void flush() {
+        // let the classifiers catch up, then push out the partial store batch
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!classifyQueue.isEmpty() && System.currentTimeMillis() < deadline) {
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        storeBatcher.flush();
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> s = new HashMap<>();
+        s.put("packets_parsed", parsed.sum());
+        s.put("packets_classified", classified.sum());
+        s.put("packets_stored", stored.sum());
+        s.put("store_errors", storeErrors.sum());
+        s.put("store_spilled", storeSpilled.sum());
+        s.put("classify_queue_depth", classifyQueue.size());
+        s.put("classify_queue_capacity", classifyQueue.size() + classifyQueue.remainingCapacity());
+        s.put("store", store.stats());
+        return s;
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        running = false;
+        for (Thread t : workers) {
+            t.interrupt();
+            t.join(2000);
+        }
+        storeBatcher.close();
+        if (journal != null) journal.close();
+        store.close();
+    }
+}
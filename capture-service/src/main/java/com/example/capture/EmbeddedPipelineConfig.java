@@ -0,0 +1,23 @@
+package com.example.capture;
+
+import com.example.classifier.RuleEngine;
+import com.example.classifier.SignatureEngine;
+import com.example.classifier.SimpleClassifier;
+import com.example.classifier.StreamDetector;
+import com.example.parser.FlowForwarder;
+import com.example.parser.FlowTracker;
+import com.example.parser.PacketParser;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+
+/**
+ * Pulls the parser and classifier services' beans into this context for
+ * capture.pipeline.mode=embedded. Only the beans are imported, not their controllers.
+ */
+@Configuration
+@ConditionalOnProperty(name = "capture.pipeline.mode", havingValue = "embedded")
+@Import({PacketParser.class, FlowTracker.class, FlowForwarder.class, SimpleClassifier.class, RuleEngine.class, StreamDetector.class,
+        SignatureEngine.class})
+public class EmbeddedPipelineConfig {
+}
@@ -1,56 +1,111 @@
 package com.example.capture;
 
-import org.pcap4j.core.*;
-import org.pcap4j.packet.Packet;
-import org.springframework.http.*;
+import com.example.forwarding.ShardedBatcher;
+import com.example.forwarding.ShardedClient;
+import com.example.forwarding.SpillJournal;
+import com.example.parser.DecodedHeaders;
+import com.example.parser.FastHeaderDecoder;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.http.entity.ContentType;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.env.Environment;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
 
-import java.io.File;
-import java.io.FileInputStream;
+import javax.annotation.PreDestroy;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
 
 @Service
-public class ForwardService {
-
-    private final RestTemplate rest = new RestTemplate();
-    private final String parserUrl = "http://parser-service:8080/api/parse"; // when in docker compose
-    private final String parserUrlLocal = "http://localhost:8082/api/parse"; // for local dev
-
-    public void forwardRawPacket(byte[] raw) {
-        try {
-            // send to parser as JSON (base64)
-            PacketPayload payload = new PacketPayload(raw);
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.APPLICATION_JSON);
-            HttpEntity<PacketPayload> req = new HttpEntity<>(payload, headers);
-            try {
-                rest.postForObject(parserUrl, req, String.class);
-            } catch (Exception e) {
-                // fallback to local
-                try { rest.postForObject(parserUrlLocal, req, String.class); } catch (Exception ex) { /* ignore */ }
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-    }
-
-    public void forwardPcapFile(String path) {
-        try {
-            PcapHandle handle = Pcaps.openOffline(path);
-            Packet pkt;
-            while ((pkt = handle.getNextPacket()) != null) {
-                forwardRawPacket(pkt.getRawData());
-            }
-            handle.close();
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-    }
-
-    static class PacketPayload {
-        public String raw_base64;
-        public PacketPayload(byte[] raw) {
-            this.raw_base64 = java.util.Base64.getEncoder().encodeToString(raw);
-        }
+@ConditionalOnProperty(name = "capture.pipeline.mode", havingValue = "distributed", matchIfMissing = true)
+public class ForwardService implements FrameSink {
+
+    // parser-service batch endpoint(s) and pool/timeout/breaker/membership settings under capture.forward.parser.*;
+    // frames are sharded by flow so each parser instance sees whole conversations
+    private final ShardedClient parser;
+    private final ShardedBatcher<byte[]> batcher;
+    // failed batches go to disk under capture.journal.dir/parser and are replayed from there
+    private final SpillJournal journal;
+    private final LongAdder framesSent = new LongAdder();
+    private final LongAdder framesFailed = new LongAdder();
+    private final LongAdder framesSpilled = new LongAdder();
+
+    public ForwardService(Environment env, MeterRegistry registry,
+                          @Value("${capture.forward.batch-size:512}") int batchSize,
+                          @Value("${capture.forward.linger-ms:5}") long lingerMs) {
+        this.parser = new ShardedClient("parser",
+                ShardedClient.config(env, "capture.forward.parser", "http://parser-service:8082/api/parse/batch")).bindTo(registry);
+        // a spilled batch holds one shard's flows; it goes back to whoever owns its first frame now
+        this.journal = SpillJournal.open("parser", SpillJournal.config(env, "capture.journal", "journal"),
+                body -> parser.send(batchHash(body), body, ContentType.APPLICATION_OCTET_STREAM, FrameBatch.count(body)));
+        if (journal != null) journal.bindTo(registry);
+        this.batcher = new ShardedBatcher<>("forward", parser, batchSize, lingerMs, ForwardService::flowHash, this::sendBatch);
+        FunctionCounter.builder("pipeline.packets", framesSent, LongAdder::sum).tags("stage", "forward", "outcome", "out").register(registry);
+        FunctionCounter.builder("pipeline.packets", framesFailed, LongAdder::sum).tags("stage", "forward", "outcome", "error").register(registry);
+        FunctionCounter.builder("pipeline.packets", framesSpilled, LongAdder::sum).tags("stage", "forward", "outcome", "spilled").register(registry);
+    }
+
+    @Override
+    public void accept(byte[] raw) {
+        batcher.add(raw);
+    }
+
+    @Override
+    public void flush() {
+        batcher.flush();
+    }
+
+    private static final ThreadLocal<DecodedHeaders> HEADERS = ThreadLocal.withInitial(DecodedHeaders::new);
+
+    // 0 for frames without an IP 5-tuple: they all go to one instance
+    static int flowHash(byte[] frame) {
+        return flowHash(frame, 0, frame.length);
+    }
+
+    private static int flowHash(byte[] buf, int off, int len) {
+        DecodedHeaders h = HEADERS.get();
+        return FastHeaderDecoder.decode(buf, off, len, h) ? PacketArchive.flowHash(h) : 0;
+    }
+
+    private static int batchHash(byte[] body) {
+        return FrameBatch.count(body) == 0 ? 0 : flowHash(body, 8, ByteBuffer.wrap(body).getInt(4));
+    }
+
+    private void sendBatch(ShardedClient.Shard shard, List<byte[]> frames) {
+        // one length-prefixed binary body per batch, no per-packet JSON/base64
+        int n = frames.size();
+        byte[] body = FrameBatch.encode(frames);
+        shard.post(body, ContentType.APPLICATION_OCTET_STREAM, n).thenAccept(ok -> {
+            if (ok) framesSent.add(n);
+            else if (journal != null && journal.append(body)) framesSpilled.add(n);
+            else framesFailed.add(n);
+        });
+    }
+
+    @Override
+    public SpillJournal journal() {
+        return journal;
+    }
+
+    public long framesSent() { return framesSent.sum(); }
+    public long framesFailed() { return framesFailed.sum(); }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> s = parser.stats();
+        s.put("frames_sent", framesSent.sum());
+        s.put("frames_failed", framesFailed.sum());
+        s.put("frames_spilled", framesSpilled.sum());
+        return s;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        batcher.close();
+        // in-flight batches finish (or spill) before the journal stops replaying
+        parser.close();
+        if (journal != null) journal.close();
     }
 }
@@ -0,0 +1,31 @@
+package com.example.capture;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Binary body for /api/parse/batch: a big-endian frame count followed by
+ * {@code [int length][length bytes]} for every frame.
+ */
+public final class FrameBatch {
+
+    private FrameBatch() {}
+
+    public static byte[] encode(List<byte[]> frames) {
+        int size = 4;
+        for (byte[] f : frames) {
+            size += 4 + f.length;
+        }
+        ByteBuffer buf = ByteBuffer.allocate(size);
+        buf.putInt(frames.size());
+        for (byte[] f : frames) {
+            buf.putInt(f.length);
+            buf.put(f);
+        }
+        return buf.array();
+    }
+
+    public static int count(byte[] body) {
+        return body.length < 4 ? 0 : ByteBuffer.wrap(body).getInt(0);
+    }
+}
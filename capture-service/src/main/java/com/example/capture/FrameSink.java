@@ -0,0 +1,19 @@
+package com.example.capture;
+
+import com.example.forwarding.SpillJournal;
+
+/**
+ * Where captured and ingested frames go: {@link ForwardService} posts them to the
+ * parser service, {@link EmbeddedPipeline} parses/classifies them in-process.
+ * Selected by capture.pipeline.mode.
+ */
+public interface FrameSink {
+
+    void accept(byte[] frame);
+
+    /** Pushes out anything still batched, e.g. at the end of a pcap ingest. */
+    void flush();
+
+    /** Where batches the next hop did not take are spilled for replay; null when disabled. */
+    SpillJournal journal();
+}
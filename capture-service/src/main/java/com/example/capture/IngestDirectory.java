@@ -0,0 +1,48 @@
+package com.example.capture;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * The directory ({@code capture.ingest.dir}) that endpoints taking a file path on the
+ * capture host may read from. Anything outside it, including through a symlink, is
+ * refused, so a caller cannot have arbitrary host files mapped and pushed down the
+ * pipeline. Uploaded files go through temp files and never come through here.
+ */
+@Component
+public class IngestDirectory {
+
+    private final Path dir;
+
+    public IngestDirectory(@Value("${capture.ingest.dir:pcaps}") String dir) {
+        this.dir = Paths.get(dir).toAbsolutePath().normalize();
+    }
+
+    /**
+     * The regular file {@code path} names, relative to the directory or absolute inside
+     * it; IllegalArgumentException for anything else.
+     */
+    public Path resolve(String path) {
+        if (path == null || path.isEmpty()) throw new IllegalArgumentException("path required");
+        Path p = dir.resolve(path).normalize();
+        if (!p.startsWith(dir)) throw new IllegalArgumentException("path must be inside " + dir);
+        Path real;
+        try {
+            real = p.toRealPath();
+            if (!real.startsWith(dir.toRealPath())) throw new IllegalArgumentException("path must be inside " + dir);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("path to an existing file in " + dir + " required");
+        }
+        if (!Files.isRegularFile(real)) throw new IllegalArgumentException("path to an existing file in " + dir + " required");
+        return real;
+    }
+
+    public Path dir() {
+        return dir;
+    }
+}
@@ -0,0 +1,56 @@
+package com.example.capture;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Progress and throughput of one offline pcap ingestion. */
+public class IngestJob {
+
+    public enum State { QUEUED, PLANNING, RUNNING, DONE, FAILED }
+
+    final String id;
+    final String file;
+    final boolean deleteWhenDone;
+    volatile State state = State.QUEUED;
+    volatile String error;
+    volatile long fileBytes;
+    volatile long totalFrames;
+    volatile long corruptFrames;
+    volatile int chunks;
+    volatile long startedAt;
+    volatile long finishedAt;
+    final LongAdder frames = new LongAdder();
+    final LongAdder bytes = new LongAdder();
+    final LongAdder skipped = new LongAdder();
+    final LongAdder chunksDone = new LongAdder();
+
+    IngestJob(String id, String file, boolean deleteWhenDone) {
+        this.id = id;
+        this.file = file;
+        this.deleteWhenDone = deleteWhenDone;
+    }
+
+    public Map<String,Object> toMap() {
+        long end = finishedAt > 0 ? finishedAt : System.currentTimeMillis();
+        double secs = startedAt > 0 ? Math.max(1, end - startedAt) / 1000.0 : 0;
+        long f = frames.sum();
+        long b = bytes.sum();
+        Map<String,Object> m = new HashMap<>();
+        m.put("job_id", id);
+        m.put("state", state.name());
+        m.put("error", error);
+        m.put("file_bytes", fileBytes);
+        m.put("chunks", chunks);
+        m.put("chunks_done", chunksDone.sum());
+        m.put("frames_total", totalFrames);
+        m.put("frames_forwarded", f);
+        m.put("frames_skipped", skipped.sum());
+        m.put("frames_corrupt", corruptFrames);
+        m.put("progress", totalFrames == 0 ? 0.0 : (double) (f + skipped.sum()) / totalFrames);
+        m.put("elapsed_ms", startedAt > 0 ? end - startedAt : 0);
+        m.put("frames_per_sec", secs == 0 ? 0 : f / secs);
+        m.put("mbytes_per_sec", secs == 0 ? 0 : b / secs / 1e6);
+        return m;
+    }
+}
@@ -0,0 +1,594 @@
+package com.example.capture;
+
+import com.example.packet.PacketRecord;
+import com.example.parser.DecodedHeaders;
+import com.example.parser.FastHeaderDecoder;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Raw-frame archive behind /api/archive. Every frame the capture ring or a pcap ingest
+ * hands on is also appended to a memory-mapped segment file, stamped with its arrival
+ * time (the same clock the gateway stores rows with). Each segment keeps two indexes:
+ * a sparse time index (one entry per {@code indexInterval} bytes) and a flow index of
+ * (5-tuple hash, offset) pairs. When a segment fills up both are written, the flow
+ * index sorted by hash, to an .idx file next to it that is mapped again for lookups.
+ * An export seeks straight to the first frame in the time range, or to the frames of
+ * one flow, instead of reading the segments through. Oldest segments are deleted past
+ * {@code maxBytes} or {@code maxAge}.
+ * <p>
+ * Appends from all ring workers share one lock, so a full segment is only swapped for a
+ * fresh one under it; sorting and writing the .idx, forcing the segment to disk and
+ * deleting expired segments happen on the {@code archive-sealer} thread.
+ *
+ * <p>A record is an int captured length, the int wire length, the int flow hash (0 when
+ * the frame has no TCP/UDP 5-tuple), the long arrival time in micros, then the frame.
+ * The length is written last and a zero length ends the written part of a segment.
+ */
+@Service
+public class PacketArchive {
+
+    private static final int HEADER = 20;
+    private static final int IDX_MAGIC = 0x50415831; // "PAX1"
+    private static final int IDX_HEADER = 40;
+    private static final String SUFFIX = ".seg", IDX_SUFFIX = ".idx";
+    private static final int PCAP_SNAPLEN = 262144;
+
+    private final boolean enabled;
+    private final Path dir;
+    private final int segmentBytes;
+    private final long maxBytes;
+    private final long maxAgeMicros;
+    private final int indexInterval;
+
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    private Segment active;
+    private long lastTs;
+    private final ExecutorService sealer = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "archive-sealer");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final LongAdder archived = new LongAdder();
+    private final LongAdder archivedBytes = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+    private final LongAdder exports = new LongAdder();
+    private final LongAdder exported = new LongAdder();
+
+    private static final ThreadLocal<DecodedHeaders> HEADERS = ThreadLocal.withInitial(DecodedHeaders::new);
+
+    public PacketArchive(MeterRegistry registry,
+                         @Value("${capture.archive.enabled:true}") boolean enabled,
+                         @Value("${capture.archive.dir:archive}") String dir,
+                         @Value("${capture.archive.segment-mb:64}") int segmentMb,
+                         @Value("${capture.archive.max-mb:4096}") long maxMb,
+                         @Value("${capture.archive.max-age-hours:24}") long maxAgeHours,
+                         @Value("${capture.archive.index-interval-kb:64}") int indexIntervalKb) throws IOException {
+        this.dir = Paths.get(dir);
+        this.segmentBytes = Math.min(Math.max(segmentMb, 1), 1024) << 20;
+        this.maxBytes = maxMb << 20;
+        this.maxAgeMicros = maxAgeHours * 3_600_000_000L;
+        this.indexInterval = Math.max(1, indexIntervalKb) << 10;
+        boolean ok = enabled;
+        if (enabled) {
+            try {
+                Files.createDirectories(this.dir);
+                recover();
+            } catch (IOException | RuntimeException e) {
+                // capture keeps running without the archive
+                e.printStackTrace();
+                ok = false;
+            }
+        }
+        this.enabled = ok;
+        Gauge.builder("archive.segments", this, a -> a.segmentCount()).register(registry);
+        Gauge.builder("archive.disk.bytes", this, a -> a.usedBytes()).register(registry);
+        FunctionCounter.builder("archive.frames", archived, LongAdder::sum).tag("outcome", "archived").register(registry);
+        FunctionCounter.builder("archive.frames", failed, LongAdder::sum).tag("outcome", "failed").register(registry);
+        FunctionCounter.builder("archive.bytes", archivedBytes, LongAdder::sum).register(registry);
+        FunctionCounter.builder("archive.segments.expired", expired, LongAdder::sum).register(registry);
+    }
+
+    /** One segment file. Indexes live in growable arrays while it is written, in its .idx once sealed. */
+    private static final class Segment {
+        final long seq;
+        final Path data, index;
+        MappedByteBuffer buf;   // the write mapping while active; read-only, mapped on first export, once sealed
+        MappedByteBuffer idx;
+        int used;
+        int records;
+        long firstTs = -1, lastTs = -1;
+        boolean sealed;
+        boolean sealing;        // full and handed to the sealer; read through its arrays until sealed
+
+        long[] sparseTs = new long[64];
+        int[] sparseOff = new int[64];
+        int sparseCount;
+        int nextSparse;
+        int[] flowHash = new int[4096];
+        int[] flowOff = new int[4096];
+        int flowCount;
+
+        Segment(long seq, Path dir) {
+            this.seq = seq;
+            this.data = dir.resolve(String.format("%020d%s", seq, SUFFIX));
+            this.index = dir.resolve(String.format("%020d%s", seq, IDX_SUFFIX));
+        }
+
+        void indexRecord(int off, long ts, int hash, int interval) {
+            if (off >= nextSparse) {
+                if (sparseCount == sparseTs.length) {
+                    sparseTs = Arrays.copyOf(sparseTs, sparseCount * 2);
+                    sparseOff = Arrays.copyOf(sparseOff, sparseCount * 2);
+                }
+                sparseTs[sparseCount] = ts;
+                sparseOff[sparseCount++] = off;
+                nextSparse = off + interval;
+            }
+            if (hash != 0) {
+                if (flowCount == flowHash.length) {
+                    flowHash = Arrays.copyOf(flowHash, flowCount * 2);
+                    flowOff = Arrays.copyOf(flowOff, flowCount * 2);
+                }
+                flowHash[flowCount] = hash;
+                flowOff[flowCount++] = off;
+            }
+            if (firstTs < 0) firstTs = ts;
+            lastTs = ts;
+            records++;
+        }
+    }
+
+    /** What an export reads of one segment, taken under the lock so appends can go on meanwhile. */
+    private static final class View {
+        final ByteBuffer buf;
+        final int used;
+        final long[] sparseTs;
+        final int[] sparseOff;
+        final int sparseCount;
+        final int[] flowHash;
+        final int[] flowOff;
+        final int flowCount;
+        final ByteBuffer idx;
+
+        View(Segment s, ByteBuffer buf) {
+            this.buf = buf;
+            this.used = s.used;
+            this.sparseTs = s.sparseTs;
+            this.sparseOff = s.sparseOff;
+            this.sparseCount = s.sparseCount;
+            this.flowHash = s.flowHash;
+            this.flowOff = s.flowOff;
+            this.flowCount = s.flowCount;
+            this.idx = s.idx == null ? null : s.idx.duplicate().order(ByteOrder.BIG_ENDIAN);
+        }
+
+        // offset of the last sparse entry at or before ts, so the scan starts just before the range
+        int seek(long ts) {
+            int n = idx != null ? idx.getInt(12) : sparseCount;
+            int lo = 0, hi = n - 1, best = 0;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                if (sparseTsAt(mid) < ts) {
+                    best = mid;
+                    lo = mid + 1;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            return n == 0 ? 0 : sparseOffAt(best);
+        }
+
+        private long sparseTsAt(int i) {
+            return idx != null ? idx.getLong(IDX_HEADER + 12 * i) : sparseTs[i];
+        }
+
+        private int sparseOffAt(int i) {
+            return idx != null ? idx.getInt(IDX_HEADER + 12 * i + 8) : sparseOff[i];
+        }
+
+        /** Offsets of the records with this flow hash, ascending. */
+        int[] flow(int hash) {
+            int[] out = new int[16];
+            int n = 0;
+            if (idx == null) {
+                for (int i = 0; i < flowCount; i++) {
+                    if (flowHash[i] != hash) continue;
+                    if (n == out.length) out = Arrays.copyOf(out, n * 2);
+                    out[n++] = flowOff[i];
+                }
+                return Arrays.copyOf(out, n);
+            }
+            int sparse = idx.getInt(12), flows = idx.getInt(16);
+            int base = IDX_HEADER + 12 * sparse;
+            // sorted by (hash, offset): binary search for the first entry with this hash
+            int lo = 0, hi = flows;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (idx.getInt(base + 8 * mid) < hash) lo = mid + 1;
+                else hi = mid;
+            }
+            for (int i = lo; i < flows && idx.getInt(base + 8 * i) == hash; i++) {
+                if (n == out.length) out = Arrays.copyOf(out, n * 2);
+                out[n++] = idx.getInt(base + 8 * i + 4);
+            }
+            return Arrays.copyOf(out, n);
+        }
+    }
+
+    private void recover() throws IOException {
+        List<Long> seqs = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*" + SUFFIX)) {
+            for (Path p : files) {
+                String n = p.getFileName().toString();
+                try {
+                    seqs.add(Long.parseLong(n.substring(0, n.length() - SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    // not one of ours
+                }
+            }
+        }
+        Collections.sort(seqs);
+        for (long seq : seqs) {
+            Segment s = new Segment(seq, dir);
+            if (Files.exists(s.index) && loadIndex(s)) {
+                segments.put(seq, s);
+                continue;
+            }
+            // written when the process stopped: rebuild its indexes from the records
+            MappedByteBuffer buf = map(s.data, Files.size(s.data), FileChannel.MapMode.READ_WRITE);
+            int p = 0;
+            while (p + HEADER <= buf.capacity()) {
+                int len = buf.getInt(p);
+                if (len <= 0 || p + HEADER + len > buf.capacity()) break;
+                long ts = buf.getLong(p + 12);
+                s.indexRecord(p, ts, buf.getInt(p + 8), indexInterval);
+                p += HEADER + len;
+            }
+            s.used = p;
+            s.buf = buf;
+            segments.put(seq, s);
+            if (s.lastTs > lastTs) lastTs = s.lastTs;
+            if (seq != seqs.get(seqs.size() - 1)) seal(s);
+        }
+        Map.Entry<Long, Segment> last = segments.lastEntry();
+        if (last != null && !last.getValue().sealed && last.getValue().buf.capacity() == segmentBytes) {
+            active = last.getValue();
+            if (active.used + HEADER <= active.buf.capacity()) active.buf.putInt(active.used, 0);
+            active.buf.position(active.used);
+        } else {
+            if (last != null && !last.getValue().sealed) seal(last.getValue());
+            openSegment(last == null ? 0 : last.getKey() + 1);
+        }
+    }
+
+    private boolean loadIndex(Segment s) throws IOException {
+        MappedByteBuffer idx = map(s.index, Files.size(s.index), FileChannel.MapMode.READ_ONLY);
+        if (idx.capacity() < IDX_HEADER || idx.getInt(0) != IDX_MAGIC
+                || idx.capacity() != IDX_HEADER + 12L * idx.getInt(12) + 8L * idx.getInt(16)) {
+            return false;
+        }
+        s.used = idx.getInt(4);
+        s.records = idx.getInt(8);
+        s.firstTs = idx.getLong(24);
+        s.lastTs = idx.getLong(32);
+        s.idx = idx;
+        s.sealed = true;
+        dropArrays(s);
+        if (s.lastTs > lastTs) lastTs = s.lastTs;
+        return true;
+    }
+
+    // writes the .idx: a header (magic, used, records, sparse and flow entry counts, first and last
+    // time), the sparse (ts, offset) entries, then the flow (hash, offset) entries sorted by hash
+    private void seal(Segment s) throws IOException {
+        publishSealed(s, writeIndex(s));
+    }
+
+    // the slow part of sealing; only reads s, which no longer takes appends
+    private MappedByteBuffer writeIndex(Segment s) throws IOException {
+        long[] flows = new long[s.flowCount];
+        for (int i = 0; i < s.flowCount; i++) flows[i] = (long) s.flowHash[i] << 32 | (s.flowOff[i] & 0xffffffffL);
+        Arrays.sort(flows);
+        int size = IDX_HEADER + 12 * s.sparseCount + 8 * s.flowCount;
+        Path tmp = s.index.resolveSibling(s.index.getFileName() + ".tmp");
+        ByteBuffer b = ByteBuffer.allocate(size);
+        b.putInt(IDX_MAGIC).putInt(s.used).putInt(s.records).putInt(s.sparseCount).putInt(s.flowCount).putInt(0)
+                .putLong(s.firstTs).putLong(s.lastTs);
+        for (int i = 0; i < s.sparseCount; i++) b.putLong(s.sparseTs[i]).putInt(s.sparseOff[i]);
+        for (long f : flows) b.putInt((int) (f >>> 32)).putInt((int) f);
+        b.flip();
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (b.hasRemaining()) ch.write(b);
+            ch.force(false);
+        }
+        Files.move(tmp, s.index, java.nio.file.StandardCopyOption.REPLACE_EXISTING, java.nio.file.StandardCopyOption.ATOMIC_MOVE);
+        if (s.buf != null) s.buf.force();
+        return map(s.index, size, FileChannel.MapMode.READ_ONLY);
+    }
+
+    private void publishSealed(Segment s, MappedByteBuffer idx) {
+        s.idx = idx;
+        s.buf = null;
+        s.sealed = true;
+        s.sealing = false;
+        dropArrays(s);
+    }
+
+    // on the sealer thread: exports see the segment through its arrays until the swap under the lock
+    private void sealInBackground(Segment s) {
+        try {
+            MappedByteBuffer idx = writeIndex(s);
+            synchronized (this) {
+                publishSealed(s, idx);
+            }
+        } catch (IOException | RuntimeException e) {
+            // stays readable from memory; recover() rebuilds its index after a restart
+            e.printStackTrace();
+            synchronized (this) {
+                s.sealing = false;
+            }
+        }
+        enforceRetention();
+    }
+
+    private static void dropArrays(Segment s) {
+        s.sparseTs = null;
+        s.sparseOff = null;
+        s.flowHash = null;
+        s.flowOff = null;
+        s.sparseCount = s.flowCount = 0;
+    }
+
+    private void openSegment(long seq) throws IOException {
+        Segment s = new Segment(seq, dir);
+        s.buf = map(s.data, segmentBytes, FileChannel.MapMode.READ_WRITE);
+        segments.put(seq, s);
+        active = s;
+    }
+
+    private static MappedByteBuffer map(Path p, long size, FileChannel.MapMode mode) throws IOException {
+        StandardOpenOption[] opts = mode == FileChannel.MapMode.READ_ONLY
+                ? new StandardOpenOption[]{StandardOpenOption.READ}
+                : new StandardOpenOption[]{StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE};
+        try (FileChannel ch = FileChannel.open(p, opts)) {
+            // the mapping stays valid after the channel is closed
+            return ch.map(mode, 0, size);
+        }
+    }
+
+    /** Archives one frame; never throws, a frame that cannot be written is only counted. */
+    public void append(byte[] frame) {
+        if (!enabled) return;
+        DecodedHeaders h = HEADERS.get();
+        boolean decoded = FastHeaderDecoder.decode(frame, 0, frame.length, h);
+        int hash = decoded ? flowHash(h) : 0;
+        int wireLength = decoded ? Math.max(h.length, frame.length) : frame.length;
+        Instant now = Instant.now();
+        long ts = now.getEpochSecond() * 1_000_000 + now.getNano() / 1000;
+        if (!write(frame, wireLength, hash, ts)) failed.increment();
+    }
+
+    private synchronized boolean write(byte[] frame, int wireLength, int hash, long ts) {
+        int need = HEADER + frame.length;
+        if (active == null || need > segmentBytes) return false;
+        try {
+            if (active.used + need > segmentBytes) {
+                Segment full = active;
+                openSegment(full.seq + 1);
+                full.sealing = true;
+                sealer.execute(() -> sealInBackground(full));
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+        // the index needs non-decreasing times even if the wall clock steps back
+        if (ts < lastTs) ts = lastTs;
+        lastTs = ts;
+        Segment s = active;
+        int p = s.used;
+        MappedByteBuffer b = s.buf;
+        b.putInt(p + 4, wireLength);
+        b.putInt(p + 8, hash);
+        b.putLong(p + 12, ts);
+        b.put(p + HEADER, frame);
+        if (p + need + HEADER <= b.capacity()) b.putInt(p + need, 0);
+        b.putInt(p, frame.length);
+        s.used = p + need;
+        s.indexRecord(p, ts, hash, indexInterval);
+        archived.increment();
+        archivedBytes.add(frame.length);
+        return true;
+    }
+
+    // symmetric, so both directions of a conversation share one hash; 0 is kept for "no flow"
+    static int flowHash(DecodedHeaders h) {
+        if (h.ipVersion == 4) {
+            return PacketRecord.flowHash(4, 0, h.srcIp4 & 0xffffffffL, h.srcPort, 0, h.dstIp4 & 0xffffffffL, h.dstPort, h.ipProtocol);
+        }
+        return PacketRecord.flowHash(6, h.srcIp6Hi, h.srcIp6Lo, h.srcPort, h.dstIp6Hi, h.dstIp6Lo, h.dstPort, h.ipProtocol);
+    }
+
+
+    /**
+     * Writes the frames matching {@code q} to {@code out} as a classic pcap (Ethernet,
+     * microsecond timestamps), oldest first, stopping at {@code q.limit}. Returns the
+     * number of frames written.
+     */
+    public int export(ArchiveQuery q, OutputStream out) throws IOException {
+        if (!enabled) throw new IllegalStateException("archive disabled");
+        exports.increment();
+        ByteBuffer head = ByteBuffer.allocate(24).order(ByteOrder.LITTLE_ENDIAN);
+        head.putInt(0xa1b2c3d4).putShort((short) 2).putShort((short) 4).putInt(0).putInt(0)
+                .putInt(PCAP_SNAPLEN).putInt(PcapFile.LINKTYPE_ETHERNET);
+        out.write(head.array());
+        List<View> views = views(q.fromMicros, q.toMicros);
+        boolean flow = q.isFlow();
+        int hash = flow ? q.flowHash() : 0;
+        DecodedHeaders h = new DecodedHeaders();
+        byte[] frame = new byte[PCAP_SNAPLEN];
+        ByteBuffer rec = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+        int written = 0;
+        for (View v : views) {
+            if (flow) {
+                for (int p : v.flow(hash)) {
+                    int r = emit(v, p, q, h, frame, rec, out);
+                    if (r < 0) break;
+                    if ((written += r) >= q.limit) break;
+                }
+            } else {
+                for (int p = v.seek(q.fromMicros); p + HEADER <= v.used; ) {
+                    int len = v.buf.getInt(p);
+                    if (len <= 0) break;
+                    int r = emit(v, p, q, h, frame, rec, out);
+                    if (r < 0) break;
+                    if ((written += r) >= q.limit) break;
+                    p += HEADER + len;
+                }
+            }
+            if (written >= q.limit) break;
+        }
+        out.flush();
+        exported.add(written);
+        return written;
+    }
+
+    // 1 if the record at p was written, 0 if filtered out, -1 once past the end of the range
+    private static int emit(View v, int p, ArchiveQuery q, DecodedHeaders h, byte[] frame, ByteBuffer rec,
+                            OutputStream out) throws IOException {
+        long ts = v.buf.getLong(p + 12);
+        if (ts >= q.toMicros) return -1;
+        if (ts < q.fromMicros) return 0;
+        int len = Math.min(v.buf.getInt(p), frame.length);
+        v.buf.get(p + HEADER, frame, 0, len);
+        if (!q.matches(FastHeaderDecoder.decode(frame, 0, len, h), h)) return 0;
+        rec.clear();
+        rec.putInt((int) (ts / 1_000_000)).putInt((int) (ts % 1_000_000)).putInt(len).putInt(v.buf.getInt(p + 4));
+        out.write(rec.array());
+        out.write(frame, 0, len);
+        return 1;
+    }
+
+    private synchronized List<View> views(long from, long to) throws IOException {
+        List<View> views = new ArrayList<>();
+        for (Segment s : segments.values()) {
+            if (s.records == 0 || s.lastTs < from || s.firstTs >= to) continue;
+            if (s.sealed && s.buf == null) s.buf = map(s.data, s.used, FileChannel.MapMode.READ_ONLY);
+            views.add(new View(s, s.buf.duplicate()));
+        }
+        return views;
+    }
+
+    /** Deletes the oldest sealed segments past max-mb or max-age-hours. */
+    @Scheduled(fixedDelayString = "${capture.archive.retention-check-ms:60000}")
+    public void enforceRetention() {
+        if (!enabled) return;
+        long cutoff = System.currentTimeMillis() * 1000 - maxAgeMicros;
+        List<Segment> victims = new ArrayList<>();
+        synchronized (this) {
+            for (Iterator<Segment> it = segments.values().iterator(); it.hasNext(); ) {
+                Segment s = it.next();
+                if (s == active || s.sealing) break;
+                boolean tooBig = (long) segments.size() * segmentBytes > maxBytes;
+                boolean tooOld = s.lastTs < cutoff;
+                if (!tooBig && !tooOld) break;
+                it.remove();
+                victims.add(s);
+            }
+        }
+        // the files go outside the lock; a running export keeps its mapping until it lets go
+        for (Segment s : victims) {
+            try {
+                Files.deleteIfExists(s.data);
+                Files.deleteIfExists(s.index);
+            } catch (IOException e) {
+                // left on disk; recover() picks it up again after a restart
+                e.printStackTrace();
+            }
+            expired.increment();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    private synchronized int segmentCount() {
+        return segments.size();
+    }
+
+    private synchronized long usedBytes() {
+        long n = 0;
+        for (Segment s : segments.values()) n += s.used;
+        return n;
+    }
+
+    public synchronized Map<String, Object> stats() {
+        Map<String, Object> m = new HashMap<>();
+        m.put("enabled", enabled);
+        m.put("dir", dir.toString());
+        if (!enabled) return m;
+        List<Map<String, Object>> list = new ArrayList<>();
+        long records = 0;
+        for (Segment s : segments.values()) {
+            Map<String, Object> e = new HashMap<>();
+            e.put("segment", s.seq);
+            e.put("records", s.records);
+            e.put("bytes", s.used);
+            e.put("first_ts_ms", s.firstTs < 0 ? null : s.firstTs / 1000);
+            e.put("last_ts_ms", s.lastTs < 0 ? null : s.lastTs / 1000);
+            e.put("sealed", s.sealed);
+            list.add(e);
+            records += s.records;
+        }
+        m.put("segments", list);
+        m.put("records", records);
+        m.put("bytes", usedBytes());
+        m.put("segment_bytes", segmentBytes);
+        m.put("max_bytes", maxBytes);
+        m.put("max_age_hours", maxAgeMicros / 3_600_000_000L);
+        m.put("index_interval_bytes", indexInterval);
+        m.put("frames_archived", archived.sum());
+        m.put("frames_failed", failed.sum());
+        m.put("segments_expired", expired.sum());
+        m.put("exports", exports.sum());
+        m.put("frames_exported", exported.sum());
+        return m;
+    }
+
+    @PreDestroy
+    public void close() throws InterruptedException {
+        // let pending seals finish; they need the lock, so it is not held while waiting
+        sealer.shutdown();
+        sealer.awaitTermination(30, TimeUnit.SECONDS);
+        synchronized (this) {
+            if (active != null && active.buf != null) active.buf.force();
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.example.capture;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded lock-free ring of captured frames between the pcap read loop and the
+ * forwarding workers. Slots and their sequence numbers are allocated once up front;
+ * producers and consumers only CAS their cursor and publish through the slot sequence
+ * (Vyukov's bounded queue), so neither side ever takes a lock. Built for one capture
+ * thread feeding many workers, but safe with several producers as well.
+ */
+public class PacketRingBuffer {
+
+    public enum OverflowPolicy { BLOCK, DROP_NEWEST, DROP_OLDEST }
+
+    private final int capacity;
+    private final int mask;
+    private final byte[][] slots;
+    private final AtomicLongArray sequences;
+    private final OverflowPolicy policy;
+
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong head = new AtomicLong();
+
+    private final LongAdder published = new LongAdder();
+    private final LongAdder droppedNewest = new LongAdder();
+    private final LongAdder droppedOldest = new LongAdder();
+    private final LongAdder producerWaits = new LongAdder();
+
+    public PacketRingBuffer(int requestedCapacity, OverflowPolicy policy) {
+        int cap = 1;
+        while (cap < requestedCapacity && cap < (1 << 30)) cap <<= 1;
+        this.capacity = cap;
+        this.mask = cap - 1;
+        this.slots = new byte[cap][];
+        this.sequences = new AtomicLongArray(cap);
+        for (int i = 0; i < cap; i++) {
+            sequences.set(i, i);
+        }
+        this.policy = policy;
+    }
+
+    /**
+     * Publishes a frame according to the overflow policy. Returns false only when
+     * the frame itself was discarded (DROP_NEWEST on a full ring).
+     */
+    public boolean publish(byte[] frame) {
+        if (offer(frame)) {
+            published.increment();
+            return true;
+        }
+        switch (policy) {
+            case DROP_NEWEST:
+                droppedNewest.increment();
+                return false;
+            case DROP_OLDEST:
+                do {
+                    if (poll() != null) droppedOldest.increment();
+                } while (!offer(frame));
+                break;
+            default:
+                producerWaits.increment();
+                int spins = 0;
+                while (!offer(frame)) {
+                    if (++spins < 100) Thread.onSpinWait();
+                    else LockSupport.parkNanos(10_000);
+                }
+        }
+        published.increment();
+        return true;
+    }
+
+    public boolean offer(byte[] frame) {
+        for (;;) {
+            long pos = tail.get();
+            int idx = (int) (pos & mask);
+            long dif = sequences.get(idx) - pos;
+            if (dif == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    slots[idx] = frame;
+                    sequences.set(idx, pos + 1);
+                    return true;
+                }
+            } else if (dif < 0) {
+                return false;
+            }
+        }
+    }
+
+    public byte[] poll() {
+        for (;;) {
+            long pos = head.get();
+            int idx = (int) (pos & mask);
+            long dif = sequences.get(idx) - (pos + 1);
+            if (dif == 0) {
+                if (head.compareAndSet(pos, pos + 1)) {
+                    byte[] frame = slots[idx];
+                    slots[idx] = null;
+                    sequences.set(idx, pos + capacity);
+                    return frame;
+                }
+            } else if (dif < 0) {
+                return null;
+            }
+        }
+    }
+
+    public int size() {
+        long s = tail.get() - head.get();
+        return (int) Math.max(0, Math.min(s, capacity));
+    }
+
+    public int capacity() { return capacity; }
+    public OverflowPolicy policy() { return policy; }
+    public long published() { return published.sum(); }
+    public long droppedNewest() { return droppedNewest.sum(); }
+    public long droppedOldest() { return droppedOldest.sum(); }
+    public long producerWaits() { return producerWaits.sum(); }
+}
@@ -1,71 +1,199 @@
 package com.example.capture;
 
-import org.pcap4j.core.*;
-import org.pcap4j.packet.Packet;
+import org.pcap4j.core.PcapNativeException;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Registry of live {@link CaptureSession}s. Each session opens its own handle (through
+ * PcapHandle.Builder, so snaplen, kernel buffer size and immediate mode are set before
+ * activation, with the BPF filter compiled into the kernel) and runs its own capture
+ * thread, so several interfaces, or several queues of one busy interface, are captured
+ * in parallel. Sampling drops frames on the capture thread, before they reach the ring.
+ */
 @Service
 public class PacketSniffer {
-    private ExecutorService pool = Executors.newSingleThreadExecutor();
-    private PcapHandle handle;
+
+    static final int MAX_QUEUES = 16;
+    private static final int MAX_STOPPED_SESSIONS = 32;
+
+    private final Map<String, CaptureSession> sessions = new ConcurrentHashMap<>();
+    private final AtomicLong nextId = new AtomicLong(1);
+
+    private final int defaultSnaplen;
+    private final int headerSnaplen;
+    private final boolean defaultPromiscuous;
+    private final int defaultTimeoutMs;
+    private final int defaultBufferSize;
+    private final boolean defaultImmediate;
 
     public interface PacketHandler {
         void handle(byte[] raw);
     }
 
-    public void startLiveCapture(String nif, PacketHandler handler) throws PcapNativeException {
-        if (handle != null && handle.isOpen()) {
-            // already running
-            return;
+    public PacketSniffer(@Value("${capture.live.snaplen:65536}") int defaultSnaplen,
+                         @Value("${capture.live.header-snaplen:128}") int headerSnaplen,
+                         @Value("${capture.live.promiscuous:true}") boolean defaultPromiscuous,
+                         @Value("${capture.live.timeout-ms:10}") int defaultTimeoutMs,
+                         @Value("${capture.live.buffer-size:0}") int defaultBufferSize,
+                         @Value("${capture.live.immediate:false}") boolean defaultImmediate) {
+        this.defaultSnaplen = defaultSnaplen;
+        this.headerSnaplen = headerSnaplen;
+        this.defaultPromiscuous = defaultPromiscuous;
+        this.defaultTimeoutMs = defaultTimeoutMs;
+        this.defaultBufferSize = defaultBufferSize;
+        this.defaultImmediate = defaultImmediate;
+    }
+
+    /**
+     * Starts {@code queues} sessions on {@code nif} (one unless the params ask for more),
+     * each taking its share of the traffic. Throws IllegalArgumentException for
+     * out-of-range settings or a filter libpcap cannot compile, IllegalStateException
+     * when the interface is already being captured.
+     */
+    public synchronized List<CaptureSession> startLiveCapture(String nif, CaptureParams params, PacketHandler handler)
+            throws PcapNativeException, InterruptedException {
+        int snapLen = params.getSnaplen() != null ? params.getSnaplen()
+                : Boolean.TRUE.equals(params.getHeadersOnly()) ? headerSnaplen : defaultSnaplen;
+        boolean promiscuous = params.getPromiscuous() != null ? params.getPromiscuous() : defaultPromiscuous;
+        int bufferSize = params.getBufferSize() != null ? params.getBufferSize() : defaultBufferSize;
+        boolean immediate = params.getImmediate() != null ? params.getImmediate() : defaultImmediate;
+        double sampleRatio = params.getSampleRatio() != null ? params.getSampleRatio() : 1.0;
+        int queues = params.getQueues() != null ? params.getQueues() : 1;
+        String filter = params.getFilter() == null ? "" : params.getFilter().trim();
+        if (snapLen < 64 || snapLen > 262144) throw new IllegalArgumentException("snaplen must be 64..262144");
+        if (bufferSize < 0) throw new IllegalArgumentException("buffer_size must be >= 0");
+        if (!(sampleRatio > 0 && sampleRatio <= 1)) throw new IllegalArgumentException("sample_ratio must be in (0, 1]");
+        if (queues < 1 || queues > MAX_QUEUES || Integer.bitCount(queues) != 1) {
+            throw new IllegalArgumentException("queues must be a power of two up to " + MAX_QUEUES);
         }
+        checkInterfaceFree(nif, null);
 
-        PcapNetworkInterface device = Pcaps.getDevByName(nif);
-        if (device == null) {
-            throw new PcapNativeException("Interface not found: " + nif);
+        List<CaptureSession> started = new ArrayList<>();
+        String group = null;
+        try {
+            for (int q = 0; q < queues; q++) {
+                String id = "s" + nextId.getAndIncrement();
+                if (group == null) group = id;
+                CaptureSession s = new CaptureSession(id, group, nif, snapLen, promiscuous,
+                        defaultTimeoutMs, bufferSize, immediate, filter, q, queues, sampleRatio, handler);
+                s.start();
+                started.add(s);
+            }
+        } catch (PcapNativeException | RuntimeException e) {
+            // all queues or none
+            for (CaptureSession s : started) s.stop();
+            throw e;
         }
+        for (CaptureSession s : started) sessions.put(s.id, s);
+        evictStopped();
+        return started;
+    }
 
-        int snapLen = 65536;
-        PromiscuousMode mode = PromiscuousMode.PROMISCUOUS;
-        int timeout = 10;
-        handle = device.openLive(snapLen, mode, timeout);
-
-        pool.submit(() -> {
-            try {
-                while (!Thread.currentThread().isInterrupted()) {
-                    try {
-                        Packet packet = handle.getNextPacketEx();
-                        if (packet != null) {
-                            handler.handle(packet.getRawData());
-                        }
-                    } catch (TimeoutException e) {
-                        // ignore
-                    }
-                }
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-            } catch (NotOpenException | PcapNativeException e) {
-                e.printStackTrace();
-            } finally {
-                if (handle != null && handle.isOpen()) {
-                    handle.close();
-                }
+    // one group of sessions per interface; the other queues of the same group may run
+    private void checkInterfaceFree(String nif, String group) {
+        for (CaptureSession s : sessions.values()) {
+            if (s.isActive() && s.iface.equals(nif) && !s.group.equals(group)) {
+                throw new IllegalStateException("already capturing on " + nif + " (session " + s.id + ")");
             }
-        });
+        }
+    }
+
+    public CaptureSession get(String id) {
+        return sessions.get(id);
+    }
+
+    public Collection<CaptureSession> sessions() {
+        List<CaptureSession> all = new ArrayList<>(sessions.values());
+        all.sort(Comparator.comparingLong(s -> Long.parseLong(s.id.substring(1))));
+        return all;
+    }
+
+    public boolean isCapturing() {
+        for (CaptureSession s : sessions.values()) {
+            if (s.isRunning()) return true;
+        }
+        return false;
+    }
+
+    /** Stops the session; returns false if there is no such session. */
+    public boolean stop(String id) throws InterruptedException {
+        CaptureSession s = sessions.get(id);
+        if (s == null) return false;
+        s.stop();
+        return true;
     }
 
-    public void stop() {
-        if (handle != null && handle.isOpen()) {
-            try {
-                handle.breakLoop();
-            } catch (NotOpenException e) {
-                // ignore
+    /**
+     * Stops and starts the session again with the same settings. IllegalStateException when
+     * another session now captures its interface, or its old handle is not closed yet.
+     */
+    public synchronized boolean restart(String id) throws PcapNativeException, InterruptedException {
+        CaptureSession s = sessions.get(id);
+        if (s == null) return false;
+        checkInterfaceFree(s.iface, s.group);
+        s.stop();
+        s.start();
+        return true;
+    }
+
+    /** Forgets a session, stopping it first. */
+    public boolean remove(String id) throws InterruptedException {
+        CaptureSession s = sessions.remove(id);
+        if (s == null) return false;
+        s.stop();
+        return true;
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        for (CaptureSession s : sessions.values()) {
+            s.stop();
+        }
+    }
+
+    /** Totals across all sessions, for the combined throughput view. */
+    public Map<String, Object> stats() {
+        long seen = 0, sampledOut = 0, bytes = 0, received = 0, dropped = 0, droppedByIf = 0;
+        double pps = 0;
+        int running = 0;
+        for (CaptureSession s : sessions.values()) {
+            seen += s.seen.sum();
+            sampledOut += s.sampledOut.sum();
+            bytes += s.bytes.sum();
+            pps += s.packetsPerSec();
+            if (s.isRunning()) running++;
+            Map<String, Object> pcap = s.pcapStats();
+            if (pcap != null) {
+                received += (Long) pcap.get("pcap_received");
+                dropped += (Long) pcap.get("pcap_dropped");
+                droppedByIf += (Long) pcap.get("pcap_dropped_by_if");
             }
-            handle.close();
-            handle = null;
         }
-        pool.shutdownNow();
+        Map<String, Object> m = new HashMap<>();
+        m.put("sessions", sessions.size());
+        m.put("sessions_running", running);
+        m.put("packets_seen", seen);
+        m.put("packets_sampled_out", sampledOut);
+        m.put("bytes", bytes);
+        m.put("packets_per_sec", pps);
+        m.put("pcap_received", received);
+        m.put("pcap_dropped", dropped);
+        m.put("pcap_dropped_by_if", droppedByIf);
+        return m;
+    }
+
+    private void evictStopped() {
+        if (sessions.size() <= MAX_STOPPED_SESSIONS) return;
+        sessions.values().stream()
+                .filter(s -> !s.isActive())
+                .sorted(Comparator.comparingLong(s -> s.stoppedAt))
+                .limit(sessions.size() - MAX_STOPPED_SESSIONS)
+                .forEach(s -> sessions.remove(s.id));
     }
 }
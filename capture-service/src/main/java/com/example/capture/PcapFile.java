@@ -0,0 +1,298 @@
+package com.example.capture;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Memory-mapped reader for classic pcap and pcapng files. {@link #plan} walks only the
+ * record/block headers and cuts the file into record-aligned chunks; each chunk can
+ * then be mapped and read independently by its own thread with {@link #read}. A pcapng
+ * packet block naming an unknown interface, or whose captured length overruns the block,
+ * is skipped by both and counted in {@link Chunk#corrupt}.
+ */
+public final class PcapFile implements Closeable {
+
+    public static final int LINKTYPE_ETHERNET = 1;
+
+    private static final int PCAP_MAGIC_MICROS = 0xa1b2c3d4;
+    private static final int PCAP_MAGIC_NANOS = 0xa1b23c4d;
+    private static final int NG_SHB = 0x0a0d0d0a;
+    private static final int NG_IDB = 0x00000001;
+    private static final int NG_OPB = 0x00000002;
+    private static final int NG_SPB = 0x00000003;
+    private static final int NG_EPB = 0x00000006;
+    private static final int NG_BYTE_ORDER_MAGIC = 0x1a2b3c4d;
+    private static final long WINDOW = 256L << 20;
+
+    public interface FrameVisitor {
+        /** {@code buf} is only valid for the duration of the call. */
+        void frame(int linkType, long tsNanos, MappedByteBuffer buf, int offset, int length);
+    }
+
+    /** Record-aligned byte range plus the format state needed to read it standalone. */
+    public static final class Chunk {
+        public final long start;
+        public final long end;
+        public final int frames;
+        public final int corrupt;
+        final ByteOrder order;
+        final List<Iface> ifaces;
+
+        Chunk(long start, long end, int frames, int corrupt, ByteOrder order, List<Iface> ifaces) {
+            this.start = start;
+            this.end = end;
+            this.frames = frames;
+            this.corrupt = corrupt;
+            this.order = order;
+            this.ifaces = ifaces;
+        }
+    }
+
+    /** Link type and timestamp resolution of one capture interface. */
+    static final class Iface {
+        final int linkType;
+        final int snapLen;
+        final int tsresol; // pcapng if_tsresol byte: 10^-n, or 2^-n when the high bit is set
+
+        Iface(int linkType, int snapLen, int tsresol) {
+            this.linkType = linkType;
+            this.snapLen = snapLen;
+            this.tsresol = tsresol;
+        }
+
+        long toNanos(long ts) {
+            if ((tsresol & 0x80) != 0) {
+                return (long) (ts * (1e9 / Math.pow(2, tsresol & 0x7f)));
+            }
+            int exp = 9 - tsresol;
+            if (exp >= 0) return ts * POW10[exp];
+            return ts / POW10[-exp];
+        }
+    }
+
+    private static final long[] POW10 = {1L, 10L, 100L, 1_000L, 10_000L, 100_000L, 1_000_000L, 10_000_000L,
+            100_000_000L, 1_000_000_000L, 10_000_000_000L, 100_000_000_000L, 1_000_000_000_000L};
+
+    private final FileChannel channel;
+    private final long size;
+    private final boolean pcapng;
+    // classic pcap only
+    private ByteOrder order;
+    private Iface pcapIface;
+
+    private PcapFile(FileChannel channel) throws IOException {
+        this.channel = channel;
+        this.size = channel.size();
+        if (size < 24) throw new IOException("not a pcap file: too short");
+        MappedByteBuffer head = channel.map(FileChannel.MapMode.READ_ONLY, 0, 24);
+        head.order(ByteOrder.BIG_ENDIAN);
+        int magic = head.getInt(0);
+        if (magic == NG_SHB) {
+            pcapng = true;
+            return;
+        }
+        pcapng = false;
+        if (magic == PCAP_MAGIC_MICROS || magic == PCAP_MAGIC_NANOS) {
+            order = ByteOrder.BIG_ENDIAN;
+        } else if (Integer.reverseBytes(magic) == PCAP_MAGIC_MICROS || Integer.reverseBytes(magic) == PCAP_MAGIC_NANOS) {
+            order = ByteOrder.LITTLE_ENDIAN;
+            magic = Integer.reverseBytes(magic);
+        } else {
+            throw new IOException("not a pcap/pcapng file: magic " + Integer.toHexString(magic));
+        }
+        head.order(order);
+        pcapIface = new Iface(head.getInt(20) & 0x0fffffff, head.getInt(16), magic == PCAP_MAGIC_NANOS ? 9 : 6);
+    }
+
+    public static PcapFile open(Path path) throws IOException {
+        return new PcapFile(FileChannel.open(path, StandardOpenOption.READ));
+    }
+
+    public long size() { return size; }
+    public boolean isPcapng() { return pcapng; }
+
+    /** Splits the file into chunks of roughly {@code targetBytes}, never splitting a record. */
+    public List<Chunk> plan(long targetBytes) throws IOException {
+        List<Chunk> chunks = new ArrayList<>();
+        Window w = new Window();
+        if (!pcapng) {
+            long pos = 24, start = pos;
+            int frames = 0;
+            while (pos + 16 <= size) {
+                w.ensure(pos, 16, order);
+                long next = pos + 16 + (w.getInt(pos + 8) & 0xffffffffL);
+                if (next > size) break; // truncated trailing record
+                frames++;
+                pos = next;
+                if (pos - start >= targetBytes) {
+                    chunks.add(new Chunk(start, pos, frames, 0, order, List.of(pcapIface)));
+                    start = pos;
+                    frames = 0;
+                }
+            }
+            if (pos > start) chunks.add(new Chunk(start, pos, frames, 0, order, List.of(pcapIface)));
+            return chunks;
+        }
+
+        long pos = 0, start = 0;
+        int frames = 0, corrupt = 0;
+        ByteOrder ngOrder = ByteOrder.BIG_ENDIAN;
+        List<Iface> ifaces = new ArrayList<>();
+        List<Iface> chunkIfaces = List.of();
+        while (pos + 12 <= size) {
+            w.ensure(pos, 12, ngOrder);
+            int type = w.getInt(pos);
+            if (type == NG_SHB) {
+                // a new section may switch byte order and resets the interface table
+                if (pos > start) chunks.add(new Chunk(start, pos, frames, corrupt, ngOrder, chunkIfaces));
+                w.ensure(pos, 12, ByteOrder.BIG_ENDIAN);
+                ngOrder = w.getInt(pos + 8) == NG_BYTE_ORDER_MAGIC ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+                start = pos;
+                frames = 0;
+                corrupt = 0;
+                ifaces = new ArrayList<>();
+                chunkIfaces = List.of();
+                w.ensure(pos, 12, ngOrder);
+            }
+            long blockLen = w.getInt(pos + 4) & 0xffffffffL;
+            if (blockLen < 12 || pos + blockLen > size) break;
+            if (type == NG_IDB) {
+                w.ensure(pos, (int) Math.min(blockLen, Integer.MAX_VALUE), ngOrder);
+                ifaces.add(readIdb(w, pos, blockLen));
+            } else if (type == NG_EPB || type == NG_OPB) {
+                boolean ok = blockLen >= 32;
+                if (ok) {
+                    w.ensure(pos, 24, ngOrder);
+                    int iface = type == NG_EPB ? w.getInt(pos + 8) : w.getShort(pos + 8) & 0xffff;
+                    ok = packetOk(blockLen, iface, w.getInt(pos + 20), ifaces.size());
+                }
+                if (ok) frames++;
+                else corrupt++;
+            } else if (type == NG_SPB) {
+                if (blockLen >= 16 && !ifaces.isEmpty()) frames++;
+                else corrupt++;
+            }
+            pos += blockLen;
+            if (pos - start >= targetBytes) {
+                chunks.add(new Chunk(start, pos, frames, corrupt, ngOrder, chunkIfaces));
+                chunkIfaces = List.copyOf(ifaces);
+                start = pos;
+                frames = 0;
+                corrupt = 0;
+            }
+        }
+        if (pos > start) chunks.add(new Chunk(start, pos, frames, corrupt, ngOrder, chunkIfaces));
+        return chunks;
+    }
+
+    /** Maps one chunk and hands every packet record in it to the visitor. */
+    public void read(Chunk chunk, FrameVisitor visitor) throws IOException {
+        MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, chunk.start, chunk.end - chunk.start);
+        buf.order(chunk.order);
+        int len = (int) (chunk.end - chunk.start);
+        if (!pcapng) {
+            Iface iface = chunk.ifaces.get(0);
+            for (int p = 0; p + 16 <= len; ) {
+                long sec = buf.getInt(p) & 0xffffffffL;
+                long frac = buf.getInt(p + 4) & 0xffffffffL;
+                int capLen = buf.getInt(p + 8);
+                long ts = sec * 1_000_000_000L + (iface.tsresol == 9 ? frac : frac * 1000);
+                visitor.frame(iface.linkType, ts, buf, p + 16, capLen);
+                p += 16 + capLen;
+            }
+            return;
+        }
+        List<Iface> ifaces = new ArrayList<>(chunk.ifaces);
+        for (int p = 0; p + 12 <= len; ) {
+            int type = buf.getInt(p);
+            int blockLen = buf.getInt(p + 4);
+            if (type == NG_SHB) {
+                // the magic is only meaningful read big-endian, as in plan()
+                buf.order(ByteOrder.BIG_ENDIAN);
+                buf.order(buf.getInt(p + 8) == NG_BYTE_ORDER_MAGIC ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+                blockLen = buf.getInt(p + 4);
+                ifaces.clear();
+            } else if (type == NG_IDB) {
+                ifaces.add(readIdb(buf, p, blockLen));
+            } else if (type == NG_EPB || type == NG_OPB) {
+                // the checks plan() counted as corrupt
+                int index = blockLen < 32 ? -1 : type == NG_EPB ? buf.getInt(p + 8) : buf.getShort(p + 8) & 0xffff;
+                int capLen = blockLen < 32 ? -1 : buf.getInt(p + 20);
+                if (packetOk(blockLen, index, capLen, ifaces.size())) {
+                    Iface iface = ifaces.get(index);
+                    long ts = ((buf.getInt(p + 12) & 0xffffffffL) << 32) | (buf.getInt(p + 16) & 0xffffffffL);
+                    visitor.frame(iface.linkType, iface.toNanos(ts), buf, p + 28, capLen);
+                }
+            } else if (type == NG_SPB && blockLen >= 16 && !ifaces.isEmpty()) {
+                Iface iface = ifaces.get(0);
+                int origLen = buf.getInt(p + 8);
+                int capLen = Math.max(0, Math.min(origLen, blockLen - 16));
+                if (iface.snapLen > 0) capLen = Math.min(capLen, iface.snapLen);
+                visitor.frame(iface.linkType, 0, buf, p + 12, capLen);
+            }
+            p += blockLen;
+        }
+    }
+
+    // EPB/OPB: 28 header bytes, the packet, options, then the trailing 4-byte length
+    private static boolean packetOk(long blockLen, int iface, int capLen, int ifaces) {
+        return iface >= 0 && iface < ifaces && capLen >= 0 && capLen <= blockLen - 32;
+    }
+
+    private Iface readIdb(Window w, long pos, long blockLen) {
+        int linkType = w.getShort(pos + 8) & 0xffff;
+        int snapLen = w.getInt(pos + 12);
+        int tsresol = 6;
+        long opt = pos + 16, end = pos + blockLen - 4;
+        while (opt + 4 <= end) {
+            int code = w.getShort(opt) & 0xffff;
+            int optLen = w.getShort(opt + 2) & 0xffff;
+            if (code == 0) break;
+            if (code == 9 && optLen >= 1) tsresol = w.get(opt + 4) & 0xff;
+            opt += 4 + ((optLen + 3) & ~3);
+        }
+        return new Iface(linkType, snapLen, tsresol);
+    }
+
+    private Iface readIdb(MappedByteBuffer buf, int pos, int blockLen) {
+        return readIdb(new Window(buf, 0), pos, blockLen);
+    }
+
+    /** Sliding read-only mapping over the file for the header walk in plan(). */
+    private final class Window {
+        private MappedByteBuffer buf;
+        private long base = -1;
+
+        Window() {}
+
+        Window(MappedByteBuffer buf, long base) {
+            this.buf = buf;
+            this.base = base;
+        }
+
+        void ensure(long pos, int need, ByteOrder order) throws IOException {
+            if (buf == null || pos < base || pos + need > base + buf.capacity()) {
+                long len = Math.min(size - pos, Math.max(WINDOW, need));
+                buf = channel.map(FileChannel.MapMode.READ_ONLY, pos, len);
+                base = pos;
+            }
+            buf.order(order);
+        }
+
+        int getInt(long pos) { return buf.getInt((int) (pos - base)); }
+        short getShort(long pos) { return buf.getShort((int) (pos - base)); }
+        byte get(long pos) { return buf.get((int) (pos - base)); }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,117 @@
+package com.example.capture;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Runs offline pcap/pcapng ingestion as background jobs: the file is memory-mapped,
+ * cut into record-aligned chunks, and the chunks are read in parallel on a fork-join
+ * pool, each worker copying frames out of the mapping into the FrameSink.
+ * Frames from different chunks reach the parser out of file order. Frames are archived
+ * like live ones, stamped with the time they were ingested rather than the file's.
+ */
+@Service
+public class PcapIngestService {
+
+    private static final int MAX_FINISHED_JOBS = 100;
+
+    private final FrameSink sink;
+    private final PacketArchive archive;
+    private final ForkJoinPool workers;
+    private final ExecutorService coordinators;
+    private final long chunkBytes;
+    private final Map<String,IngestJob> jobs = new ConcurrentHashMap<>();
+
+    public PcapIngestService(FrameSink sink, PacketArchive archive,
+                             @Value("${capture.ingest.parallelism:0}") int parallelism,
+                             @Value("${capture.ingest.chunk-mb:32}") int chunkMb,
+                             @Value("${capture.ingest.max-concurrent-jobs:2}") int maxJobs) {
+        this.sink = sink;
+        this.archive = archive;
+        this.workers = new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+        this.coordinators = Executors.newFixedThreadPool(Math.max(1, maxJobs));
+        this.chunkBytes = Math.max(1, chunkMb) * 1024L * 1024L;
+    }
+
+    public IngestJob submit(String path, boolean deleteWhenDone) {
+        IngestJob job = new IngestJob(UUID.randomUUID().toString(), path, deleteWhenDone);
+        evictFinished();
+        jobs.put(job.id, job);
+        coordinators.submit(() -> run(job));
+        return job;
+    }
+
+    public IngestJob get(String id) {
+        return jobs.get(id);
+    }
+
+    public Collection<IngestJob> all() {
+        return jobs.values();
+    }
+
+    private void run(IngestJob job) {
+        job.startedAt = System.currentTimeMillis();
+        job.state = IngestJob.State.PLANNING;
+        try (PcapFile pcap = PcapFile.open(Paths.get(job.file))) {
+            job.fileBytes = pcap.size();
+            List<PcapFile.Chunk> chunks = pcap.plan(chunkBytes);
+            job.chunks = chunks.size();
+            job.totalFrames = chunks.stream().mapToLong(c -> c.frames).sum();
+            job.corruptFrames = chunks.stream().mapToLong(c -> c.corrupt).sum();
+            job.state = IngestJob.State.RUNNING;
+            List<Callable<Void>> tasks = new ArrayList<>(chunks.size());
+            for (PcapFile.Chunk chunk : chunks) {
+                tasks.add(() -> {
+                    pcap.read(chunk, (linkType, ts, buf, off, len) -> {
+                        if (linkType != PcapFile.LINKTYPE_ETHERNET) {
+                            // the parser only understands Ethernet frames
+                            job.skipped.increment();
+                            return;
+                        }
+                        byte[] raw = new byte[len];
+                        buf.get(off, raw);
+                        archive.append(raw);
+                        sink.accept(raw);
+                        job.frames.increment();
+                        job.bytes.add(len);
+                    });
+                    job.chunksDone.increment();
+                    return null;
+                });
+            }
+            for (Future<Void> f : workers.invokeAll(tasks)) {
+                f.get();
+            }
+            sink.flush();
+            job.state = IngestJob.State.DONE;
+        } catch (Exception e) {
+            e.printStackTrace();
+            job.error = e instanceof ExecutionException && e.getCause() != null ? e.getCause().toString() : e.toString();
+            job.state = IngestJob.State.FAILED;
+        } finally {
+            job.finishedAt = System.currentTimeMillis();
+            if (job.deleteWhenDone) new File(job.file).delete();
+        }
+    }
+
+    private void evictFinished() {
+        if (jobs.size() < MAX_FINISHED_JOBS) return;
+        jobs.values().stream()
+                .filter(j -> j.state == IngestJob.State.DONE || j.state == IngestJob.State.FAILED)
+                .sorted(Comparator.comparingLong(j -> j.finishedAt))
+                .limit(jobs.size() - MAX_FINISHED_JOBS + 1)
+                .forEach(j -> jobs.remove(j.id));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        coordinators.shutdownNow();
+        workers.shutdownNow();
+    }
+}
@@ -0,0 +1,54 @@
+package com.example.capture;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Options for /api/replay. At most one of pps, mbps and speed picks the pacing; with
+ * none of them the file goes in as fast as the ring takes it.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class ReplayParams {
+    // pcap on the capture host's disk; the upload endpoint fills this in
+    private String path;
+    // fixed packet rate
+    private Double pps;
+    // fixed bit rate in megabits per second of frame bytes
+    private Double mbps;
+    // the file's own inter-frame gaps, divided by this (1 = original timing)
+    private Double speed;
+    // passes over the file, 0 to repeat until duration_s or /api/replay/stop
+    private Integer loops;
+    @JsonProperty("duration_s")
+    private Integer durationS;
+    // one latency probe per interval, 0 for none
+    @JsonProperty("probe_interval_ms")
+    private Integer probeIntervalMs;
+    // how long to wait for outstanding probes after the last frame went in
+    @JsonProperty("drain_timeout_ms")
+    private Integer drainTimeoutMs;
+
+    public String getPath() { return path; }
+    public void setPath(String path) { this.path = path; }
+
+    public Double getPps() { return pps; }
+    public void setPps(Double pps) { this.pps = pps; }
+
+    public Double getMbps() { return mbps; }
+    public void setMbps(Double mbps) { this.mbps = mbps; }
+
+    public Double getSpeed() { return speed; }
+    public void setSpeed(Double speed) { this.speed = speed; }
+
+    public Integer getLoops() { return loops; }
+    public void setLoops(Integer loops) { this.loops = loops; }
+
+    public Integer getDurationS() { return durationS; }
+    public void setDurationS(Integer durationS) { this.durationS = durationS; }
+
+    public Integer getProbeIntervalMs() { return probeIntervalMs; }
+    public void setProbeIntervalMs(Integer probeIntervalMs) { this.probeIntervalMs = probeIntervalMs; }
+
+    public Integer getDrainTimeoutMs() { return drainTimeoutMs; }
+    public void setDrainTimeoutMs(Integer drainTimeoutMs) { this.drainTimeoutMs = drainTimeoutMs; }
+}
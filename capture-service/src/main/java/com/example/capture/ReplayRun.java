@@ -0,0 +1,130 @@
+package com.example.capture;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Progress and results of one pcap replay: what went into the ring and how fast, how
+ * far the injector fell behind its schedule, end-to-end latency from the probes, and
+ * per-stage counter deltas sampled from the gateway's pipeline metrics.
+ */
+public class ReplayRun {
+
+    public enum State { RUNNING, DRAINING, DONE, STOPPED, FAILED }
+
+    final String id;
+    final String file;
+    final String mode;
+    final double target;
+    final boolean deleteWhenDone;
+    volatile State state = State.RUNNING;
+    volatile boolean stopRequested;
+    volatile String error;
+    volatile long startedAt;
+    volatile long injectedAt;
+    volatile long finishedAt;
+    volatile long loopsDone;
+    volatile long corruptFrames;  // per pass; plan() skips them
+    // how late the injector was against its schedule, now and at worst
+    volatile long behindNanos;
+    volatile long maxBehindNanos;
+    final LongAdder frames = new LongAdder();
+    final LongAdder bytes = new LongAdder();
+    final LongAdder ringDrops = new LongAdder();
+    final LongAdder skipped = new LongAdder();
+
+    // probe sequence number -> wall-clock millis it was published
+    private long[] probeSentAt = new long[1024];
+    private int probesSent;
+    private final BitSet probeSeen = new BitSet();
+    private long[] latencies = new long[1024];
+    private int latencyCount;
+    volatile long probesMissed;
+    volatile Map<String,Object> stages;
+    volatile String stagesError;
+
+    ReplayRun(String id, String file, String mode, double target, boolean deleteWhenDone) {
+        this.id = id;
+        this.file = file;
+        this.mode = mode;
+        this.target = target;
+        this.deleteWhenDone = deleteWhenDone;
+    }
+
+    synchronized int probeSent(long at) {
+        if (probesSent == probeSentAt.length) probeSentAt = Arrays.copyOf(probeSentAt, probesSent * 2);
+        probeSentAt[probesSent] = at;
+        return probesSent++;
+    }
+
+    /** Ignores sequence numbers this run never sent and probes already counted. */
+    synchronized void probeStored(long seq, long storedAt) {
+        if (seq < 0 || seq >= probesSent || probeSeen.get((int) seq)) return;
+        probeSeen.set((int) seq);
+        if (latencyCount == latencies.length) latencies = Arrays.copyOf(latencies, latencyCount * 2);
+        latencies[latencyCount++] = Math.max(0, storedAt - probeSentAt[(int) seq]);
+    }
+
+    synchronized boolean probesOutstanding() {
+        return latencyCount + probesMissed < probesSent;
+    }
+
+    synchronized Map<String,Object> latency() {
+        long[] sorted = Arrays.copyOf(latencies, latencyCount);
+        Arrays.sort(sorted);
+        Map<String,Object> m = new HashMap<>();
+        m.put("probes_sent", probesSent);
+        m.put("probes_stored", latencyCount);
+        m.put("probes_missed", probesMissed);
+        m.put("probes_lost", state == State.RUNNING || state == State.DRAINING ? 0 : Math.max(0, probesSent - latencyCount - probesMissed));
+        if (latencyCount > 0) {
+            m.put("p50_ms", percentile(sorted, 0.50));
+            m.put("p90_ms", percentile(sorted, 0.90));
+            m.put("p99_ms", percentile(sorted, 0.99));
+            m.put("p999_ms", percentile(sorted, 0.999));
+            m.put("max_ms", sorted[sorted.length - 1]);
+            m.put("mean_ms", Arrays.stream(sorted).average().orElse(0));
+        }
+        return m;
+    }
+
+    // nearest rank
+    private static long percentile(long[] sorted, double q) {
+        return sorted[Math.max(0, (int) Math.ceil(q * sorted.length) - 1)];
+    }
+
+    boolean isActive() {
+        return state == State.RUNNING || state == State.DRAINING;
+    }
+
+    public Map<String,Object> toMap() {
+        long injectEnd = injectedAt > 0 ? injectedAt : System.currentTimeMillis();
+        double secs = startedAt > 0 ? Math.max(1, injectEnd - startedAt) / 1000.0 : 0;
+        long f = frames.sum();
+        long b = bytes.sum();
+        Map<String,Object> m = new HashMap<>();
+        m.put("replay_id", id);
+        m.put("file", file);
+        m.put("state", state.name());
+        m.put("error", error);
+        m.put("mode", mode);
+        m.put("target", target);
+        m.put("loops_done", loopsDone);
+        m.put("elapsed_ms", startedAt > 0 ? (finishedAt > 0 ? finishedAt : System.currentTimeMillis()) - startedAt : 0);
+        m.put("frames_published", f);
+        m.put("frames_dropped", ringDrops.sum());
+        m.put("frames_skipped", skipped.sum());
+        m.put("frames_corrupt", corruptFrames);
+        m.put("frames_per_sec", secs == 0 ? 0 : f / secs);
+        m.put("mbits_per_sec", secs == 0 ? 0 : b * 8 / secs / 1e6);
+        m.put("behind_ms", behindNanos / 1e6);
+        m.put("max_behind_ms", maxBehindNanos / 1e6);
+        m.put("latency", latency());
+        m.put("stages", stages);
+        m.put("stages_error", stagesError);
+        return m;
+    }
+}
@@ -0,0 +1,370 @@
+package com.example.capture;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestTemplate;
+
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.net.InetAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Load generator: replays a pcap into {@link CapturePipeline#publish}, the same ring live
+ * capture feeds, at a fixed packet or bit rate, at the file's own timing scaled by a
+ * speed factor, or flat out. Frames are read sequentially (not in parallel chunks like
+ * offline ingestion) so their order and gaps survive.
+ * <p>
+ * End-to-end latency comes from probe packets mixed into the stream: UDP from
+ * 198.18.0.0/16 to 198.19.0.1 whose source address and port encode a sequence number.
+ * The gateway notes when each one's row was committed (/api/store/probes) and a monitor
+ * thread here matches those against the publish times, so both services need the same
+ * wall clock. The store hop shards by flow, so with several gateways every one of them
+ * ({@code capture.replay.gateway-url} as a list, or each address of its host names with
+ * {@code capture.replay.gateway-discovery=dns}) is polled with its own cursor. The monitor also samples /api/pipeline/metrics to report how much each
+ * stage took in, passed on and dropped during the run, and how far behind it is.
+ */
+@Service
+public class ReplayService {
+
+    private static final long PROBE_DST = 0xc6130001L;  // 198.19.0.1
+    private static final int PROBE_PORTS = 64000;
+    private static final long MONITOR_INTERVAL_MS = 500;
+
+    private final CapturePipeline pipeline;
+    private final IngestDirectory ingestDir;
+    private final String gatewayUrl;        // the first one; serves /api/pipeline/metrics
+    private final List<String> gatewayUrls;
+    private final boolean gatewayDns;
+    private final int defaultProbeIntervalMs;
+    private final int defaultDrainTimeoutMs;
+    private final long chunkBytes;
+    private final RestTemplate rest;
+    private volatile ReplayRun current;
+
+    public ReplayService(CapturePipeline pipeline, IngestDirectory ingestDir,
+                         @Value("${capture.replay.gateway-url:http://gateway:8080}") String gatewayUrl,
+                         @Value("${capture.replay.gateway-discovery:static}") String gatewayDiscovery,
+                         @Value("${capture.replay.probe-interval-ms:10}") int probeIntervalMs,
+                         @Value("${capture.replay.drain-timeout-ms:30000}") int drainTimeoutMs,
+                         @Value("${capture.ingest.chunk-mb:32}") int chunkMb,
+                         @Value("${capture.replay.gateway-timeout-ms:2000}") int timeoutMs) {
+        this.pipeline = pipeline;
+        this.ingestDir = ingestDir;
+        this.gatewayUrls = new ArrayList<>();
+        for (String u : gatewayUrl.split(",")) {
+            if (!u.trim().isEmpty()) gatewayUrls.add(u.trim());
+        }
+        if (gatewayUrls.isEmpty()) gatewayUrls.add("http://gateway:8080");
+        this.gatewayUrl = gatewayUrls.get(0);
+        this.gatewayDns = "dns".equalsIgnoreCase(gatewayDiscovery);
+        this.defaultProbeIntervalMs = probeIntervalMs;
+        this.defaultDrainTimeoutMs = drainTimeoutMs;
+        this.chunkBytes = Math.max(1, chunkMb) * 1024L * 1024L;
+        SimpleClientHttpRequestFactory f = new SimpleClientHttpRequestFactory();
+        f.setConnectTimeout(timeoutMs);
+        f.setReadTimeout(timeoutMs);
+        this.rest = new RestTemplate(f);
+    }
+
+    public synchronized ReplayRun start(ReplayParams p, boolean deleteWhenDone) {
+        if (current != null && current.isActive()) {
+            if (deleteWhenDone) new File(p.getPath()).delete();
+            throw new IllegalStateException("replay " + current.id + " is still running");
+        }
+        if (!deleteWhenDone) {
+            // a path from the caller, not one of our upload temp files: only inside capture.ingest.dir
+            p.setPath(ingestDir.resolve(p.getPath()).toString());
+        }
+        int paced = (p.getPps() != null ? 1 : 0) + (p.getMbps() != null ? 1 : 0) + (p.getSpeed() != null ? 1 : 0);
+        String mode = p.getPps() != null ? "pps" : p.getMbps() != null ? "mbps" : p.getSpeed() != null ? "speed" : "flat";
+        double target = p.getPps() != null ? p.getPps() : p.getMbps() != null ? p.getMbps() : p.getSpeed() != null ? p.getSpeed() : 0;
+        int loops = p.getLoops() != null ? p.getLoops() : 1;
+        int probeMs = p.getProbeIntervalMs() != null ? p.getProbeIntervalMs() : defaultProbeIntervalMs;
+        int drainMs = p.getDrainTimeoutMs() != null ? p.getDrainTimeoutMs() : defaultDrainTimeoutMs;
+        String err = p.getPath() == null || !new File(p.getPath()).isFile() ? "path to an existing file required"
+                : paced > 1 ? "at most one of pps, mbps and speed"
+                : paced == 1 && !(target > 0) ? mode + " must be positive"
+                : loops < 0 || probeMs < 0 || drainMs < 0 ? "loops, probe_interval_ms and drain_timeout_ms must not be negative"
+                : p.getDurationS() != null && p.getDurationS() <= 0 ? "duration_s must be positive"
+                : null;
+        if (err != null) {
+            if (deleteWhenDone) new File(p.getPath()).delete();
+            throw new IllegalArgumentException(err);
+        }
+        ReplayRun run = new ReplayRun(UUID.randomUUID().toString(), p.getPath(), mode, target, deleteWhenDone);
+        current = run;
+        Map<String,Long> probeCursors = probeCursors(run);
+        long endAt = p.getDurationS() == null ? Long.MAX_VALUE : System.nanoTime() + p.getDurationS() * 1_000_000_000L;
+        Thread injector = new Thread(() -> inject(run, loops, endAt, probeMs), "replay-inject");
+        Thread monitor = new Thread(() -> monitor(run, injector, probeCursors, drainMs), "replay-monitor");
+        injector.setDaemon(true);
+        monitor.setDaemon(true);
+        run.startedAt = System.currentTimeMillis();
+        injector.start();
+        monitor.start();
+        return run;
+    }
+
+    public ReplayRun current() {
+        return current;
+    }
+
+    public boolean stop() {
+        ReplayRun run = current;
+        if (run == null || !run.isActive()) return false;
+        run.stopRequested = true;
+        return true;
+    }
+
+    private void inject(ReplayRun run, int loops, long endAt, int probeMs) {
+        long probeEvery = probeMs * 1_000_000L;
+        long start = System.nanoTime();
+        long[] sched = {0, 0, probeMs > 0 ? start : Long.MAX_VALUE};  // frames sent, bytes sent, next probe
+        boolean[] expired = {false};  // duration_s reached: ends like the last loop, not like a stop
+        long loopOffset = 0;  // speed mode: schedule time at which the current pass started
+        try (PcapFile pcap = PcapFile.open(Paths.get(run.file))) {
+            List<PcapFile.Chunk> chunks = pcap.plan(chunkBytes);
+            run.corruptFrames = chunks.stream().mapToLong(c -> c.corrupt).sum();
+            for (int pass = 0; loops == 0 || pass < loops; pass++) {
+                long offset = loopOffset;
+                long[] last = {Long.MIN_VALUE, Long.MIN_VALUE};  // first and last file timestamp this pass
+                for (PcapFile.Chunk chunk : chunks) {
+                    pcap.read(chunk, (linkType, ts, buf, off, len) -> {
+                        if (run.stopRequested || expired[0]) return;
+                        if (linkType != PcapFile.LINKTYPE_ETHERNET) {
+                            run.skipped.increment();
+                            return;
+                        }
+                        if (last[0] == Long.MIN_VALUE) last[0] = ts;
+                        last[1] = ts;
+                        long due;
+                        switch (run.mode) {
+                            case "pps": due = start + (long) (sched[0] * 1e9 / run.target); break;
+                            case "mbps": due = start + (long) (sched[1] * 8e3 / run.target); break;
+                            case "speed": due = start + offset + (long) ((ts - last[0]) / run.target); break;
+                            default: due = 0;
+                        }
+                        long now = due == 0 ? System.nanoTime() : waitUntil(due);
+                        if (now >= endAt) {
+                            expired[0] = true;
+                            return;
+                        }
+                        if (due != 0) {
+                            run.behindNanos = now - due;
+                            if (now - due > run.maxBehindNanos) run.maxBehindNanos = now - due;
+                        }
+                        if (now >= sched[2]) {
+                            probe(run);
+                            sched[2] = now + probeEvery;
+                        }
+                        byte[] raw = new byte[len];
+                        buf.get(off, raw);
+                        if (pipeline.publish(raw)) {
+                            run.frames.increment();
+                            run.bytes.add(len);
+                        } else {
+                            run.ringDrops.increment();
+                        }
+                        sched[0]++;
+                        sched[1] += len;
+                    });
+                    if (run.stopRequested || expired[0]) break;
+                }
+                if (run.stopRequested || expired[0]) break;
+                run.loopsDone = pass + 1;
+                if (last[0] == Long.MIN_VALUE) break;  // nothing replayable in the file
+                // next pass starts one average gap after this one ended
+                long span = (long) ((last[1] - last[0]) / Math.max(1e-9, run.target));
+                loopOffset += span + span / Math.max(1, sched[0] / Math.max(1, pass + 1));
+            }
+            run.state = ReplayRun.State.DRAINING;
+        } catch (Exception e) {
+            e.printStackTrace();
+            run.error = e.toString();
+            run.state = ReplayRun.State.FAILED;
+        } finally {
+            run.injectedAt = System.currentTimeMillis();
+            if (run.deleteWhenDone) new File(run.file).delete();
+        }
+    }
+
+    // park while there is time to spare, spin the last stretch: parkNanos overshoots by tens of µs
+    private static long waitUntil(long due) {
+        long now;
+        while ((now = System.nanoTime()) < due) {
+            if (due - now > 200_000) LockSupport.parkNanos(due - now - 100_000);
+            else Thread.onSpinWait();
+        }
+        return now;
+    }
+
+    private void probe(ReplayRun run) {
+        int seq = run.probeSent(System.currentTimeMillis());
+        int hi = seq / PROBE_PORTS;
+        long src = 0xc6120000L | (hi & 0xffff);  // 198.18.x.y
+        if (!pipeline.publish(probeFrame(src, 1024 + seq % PROBE_PORTS, seq))) run.ringDrops.increment();
+    }
+
+    /** Ethernet / IPv4 / UDP to the discard port, with the sequence number as payload. */
+    static byte[] probeFrame(long srcIp, int srcPort, int seq) {
+        ByteBuffer b = ByteBuffer.allocate(14 + 20 + 8 + 16);
+        b.put(new byte[] {0x02, 0, 0, 0, 0, 0x02, 0x02, 0, 0, 0, 0, 0x01}).putShort((short) 0x0800);
+        b.put((byte) 0x45).put((byte) 0).putShort((short) 44).putShort((short) seq).putShort((short) 0x4000)
+                .put((byte) 64).put((byte) 17).putShort((short) 0).putInt((int) srcIp).putInt((int) PROBE_DST);
+        int sum = 0;
+        for (int i = 14; i < 34; i += 2) sum += b.getShort(i) & 0xffff;
+        while (sum > 0xffff) sum = (sum & 0xffff) + (sum >>> 16);
+        b.putShort(24, (short) ~sum);
+        b.putShort((short) srcPort).putShort((short) 9).putShort((short) 24).putShort((short) 0);
+        b.put("replay-probe".getBytes()).putInt(seq);
+        return b.array();
+    }
+
+    /** Sequence number encoded in a stored probe's source, or -1 if it is not one of ours. */
+    static long probeSeq(String srcIp, int srcPort) {
+        String[] o = srcIp.split("\\.");
+        if (o.length != 4 || !o[0].equals("198") || !o[1].equals("18")) return -1;
+        try {
+            long hi = Integer.parseInt(o[2]) << 8 | Integer.parseInt(o[3]);
+            return srcPort < 1024 || srcPort >= 1024 + PROBE_PORTS ? -1 : hi * PROBE_PORTS + srcPort - 1024;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    // every gateway the store hop may write to; with dns, each address its host names resolve to
+    private List<String> gateways() {
+        if (!gatewayDns) return gatewayUrls;
+        Set<String> out = new LinkedHashSet<>();
+        for (String url : gatewayUrls) {
+            try {
+                URI u = URI.create(url);
+                for (InetAddress a : InetAddress.getAllByName(u.getHost())) {
+                    String host = a.getHostAddress().contains(":") ? "[" + a.getHostAddress() + "]" : a.getHostAddress();
+                    out.add(new URI(u.getScheme(), null, host, u.getPort(), u.getPath(), null, null).toString());
+                }
+            } catch (Exception e) {
+                out.add(url);
+            }
+        }
+        return new ArrayList<>(out);
+    }
+
+    // where each gateway's probe log stands now, so probes of earlier runs are not matched
+    private Map<String,Long> probeCursors(ReplayRun run) {
+        Map<String,Long> cursors = new LinkedHashMap<>();
+        for (String g : gateways()) {
+            try {
+                Map<?,?> res = rest.getForObject(g + "/api/store/probes?cursor=-1&limit=1", Map.class);
+                cursors.put(g, ((Number) res.get("next_cursor")).longValue());
+            } catch (Exception e) {
+                run.stagesError = "gateway " + g + " unreachable, its latency probes are not matched: " + e.getMessage();
+            }
+        }
+        return cursors;
+    }
+
+    private void monitor(ReplayRun run, Thread injector, Map<String,Long> cursors, int drainMs) {
+        Map<String,Map<String,Double>> baseline = stageCounters(run);
+        Map<String,Double> peakDepth = new HashMap<>();
+        long drainUntil = 0;
+        for (int tick = 0; ; tick++) {
+            try {
+                Thread.sleep(MONITOR_INTERVAL_MS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            cursors.replaceAll((g, cursor) -> pollProbes(run, g, cursor));
+            if (tick % 2 == 1 && baseline != null) sampleStages(run, baseline, peakDepth);
+            if (injector.isAlive()) continue;
+            if (run.state == ReplayRun.State.FAILED) break;
+            if (drainUntil == 0) drainUntil = System.currentTimeMillis() + drainMs;
+            if (cursors.isEmpty() || !run.probesOutstanding() || System.currentTimeMillis() >= drainUntil) break;
+        }
+        if (baseline != null) sampleStages(run, baseline, peakDepth);
+        run.finishedAt = System.currentTimeMillis();
+        if (run.state != ReplayRun.State.FAILED) run.state = run.stopRequested ? ReplayRun.State.STOPPED : ReplayRun.State.DONE;
+    }
+
+    private long pollProbes(ReplayRun run, String gateway, long cursor) {
+        try {
+            for (;;) {
+                Map<?,?> res = rest.getForObject(gateway + "/api/store/probes?cursor=" + cursor + "&limit=10000", Map.class);
+                List<?> probes = (List<?>) res.get("probes");
+                for (Object o : probes) {
+                    Map<?,?> p = (Map<?,?>) o;
+                    run.probeStored(probeSeq((String) p.get("src_ip"), ((Number) p.get("src_port")).intValue()),
+                            ((Number) p.get("stored_at")).longValue());
+                }
+                run.probesMissed += ((Number) res.get("missed")).longValue();
+                cursor = ((Number) res.get("next_cursor")).longValue();
+                if (probes.size() < 10000) return cursor;
+            }
+        } catch (Exception e) {
+            run.stagesError = "probe poll of " + gateway + " failed: " + e.getMessage();
+            return cursor;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String,Map<String,Double>> stageCounters(ReplayRun run) {
+        try {
+            Map<String,Object> res = rest.getForObject(gatewayUrl + "/api/pipeline/metrics", Map.class);
+            Map<String,Map<String,Double>> stages = new TreeMap<>();
+            ((Map<String,Map<String,Number>>) res.get("stages")).forEach((stage, values) -> {
+                Map<String,Double> m = new TreeMap<>();
+                values.forEach((k, v) -> m.put(k, v.doubleValue()));
+                stages.put(stage, m);
+            });
+            return stages;
+        } catch (Exception e) {
+            run.stagesError = "pipeline metrics unavailable: " + e.getMessage();
+            return null;
+        }
+    }
+
+    // counters as deltas since the run started; backlog is what a stage took in and has not yet let go of
+    private void sampleStages(ReplayRun run, Map<String,Map<String,Double>> baseline, Map<String,Double> peakDepth) {
+        Map<String,Map<String,Double>> now = stageCounters(run);
+        if (now == null) return;
+        double secs = Math.max(1, (run.injectedAt > 0 ? run.injectedAt : System.currentTimeMillis()) - run.startedAt) / 1000.0;
+        Map<String,Object> stages = new TreeMap<>();
+        now.forEach((stage, values) -> {
+            Map<String,Double> base = baseline.getOrDefault(stage, Collections.emptyMap());
+            Map<String,Object> s = new HashMap<>();
+            double in = 0, out = 0, gone = 0;
+            for (String outcome : List.of("in", "out", "dropped", "error")) {
+                String k = "packets_" + outcome;
+                if (!values.containsKey(k)) continue;
+                double d = values.get(k) - base.getOrDefault(k, 0.0);
+                s.put(k, (long) d);
+                if (outcome.equals("in")) in = d;
+                else if (outcome.equals("out")) out = d;
+                else gone += d;
+            }
+            s.put("out_per_sec", out / secs);
+            if (values.containsKey("packets_in") && values.containsKey("packets_out")) s.put("backlog", (long) (in - out - gone));
+            Double depth = values.get("queue_depth");
+            if (depth != null) {
+                s.put("queue_depth", depth.longValue());
+                s.put("queue_depth_peak", peakDepth.merge(stage, depth, Math::max).longValue());
+            }
+            for (String k : List.of("latency_p50_ms", "latency_p99_ms", "latency_mean_ms")) {
+                if (values.containsKey(k)) s.put(k, values.get(k));
+            }
+            stages.put(stage, s);
+        });
+        run.stages = stages;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        stop();
+    }
+}
@@ -0,0 +1,144 @@
+package com.example.classifier;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Aho-Corasick automaton over bytes, built once and read-only afterwards. The trie and
+ * its failure links are flattened into one full transition table over byte classes
+ * (bytes no pattern uses share class 0; ASCII letters fold to one class), so a scan is
+ * one array load per payload byte with no failure-link chasing. Table entries hold the
+ * target state's row offset, bit-inverted when a pattern ends there, so the common
+ * no-match step is a load and a sign test.
+ */
+final class AhoCorasick {
+
+    /** Receives each pattern occurrence; return false to stop the scan. */
+    interface Hits {
+        boolean hit(int pattern, int end);
+    }
+
+    // states * classes above this (64 MB of table) is refused rather than risking the heap
+    static final int MAX_TABLE = 16 << 20;
+
+    private final int[] classOf = new int[256];
+    private final int classes;
+    private final int[] next;
+    private final int[] out;       // per state: a pattern ending here, or -1
+    private final int[] outLink;   // per state: nearest state on the failure chain with output, or -1
+    private final int[] samePattern; // per pattern: next pattern with the same (folded) bytes, or -1
+    private final int states;
+
+    /** {@code patterns} are matched case-insensitively for ASCII letters; verify exact case on a hit if needed. */
+    AhoCorasick(List<byte[]> patterns) {
+        int n = 1;
+        for (byte[] p : patterns) {
+            for (byte b : p) {
+                int f = fold(b & 0xff);
+                if (classOf[f] == 0) classOf[f] = n++;
+            }
+        }
+        for (int c = 'a'; c <= 'z'; c++) classOf[c - 32] = classOf[c];
+        classes = n;
+
+        // trie straight into the table; 0 means "no edge" while building, since nothing points back at the root
+        int[] table = new int[classes * 64];
+        int[] outs = new int[64];
+        Arrays.fill(outs, -1);
+        samePattern = new int[patterns.size()];
+        Arrays.fill(samePattern, -1);
+        int count = 1;
+        for (int i = 0; i < patterns.size(); i++) {
+            int s = 0;
+            for (byte b : patterns.get(i)) {
+                int idx = s * classes + classOf[b & 0xff];
+                if (table[idx] == 0) {
+                    if ((long) (count + 1) * classes > MAX_TABLE) {
+                        throw new IllegalArgumentException("signature set too large: more than " + MAX_TABLE / classes + " states");
+                    }
+                    if ((count + 1) * classes > table.length) {
+                        table = Arrays.copyOf(table, Math.min(MAX_TABLE, table.length * 2));
+                    }
+                    if (count >= outs.length) {
+                        int old = outs.length;
+                        outs = Arrays.copyOf(outs, old * 2);
+                        Arrays.fill(outs, old, outs.length, -1);
+                    }
+                    table[idx] = count++;
+                }
+                s = table[idx];
+            }
+            if (outs[s] < 0) {
+                outs[s] = i;
+            } else {
+                // duplicate pattern: chain it behind the first
+                int p = outs[s];
+                while (samePattern[p] >= 0) p = samePattern[p];
+                samePattern[p] = i;
+            }
+        }
+        states = count;
+        out = Arrays.copyOf(outs, states);
+        outLink = new int[states];
+        Arrays.fill(outLink, -1);
+
+        // breadth first: a state's failure row is complete before its children need it
+        int[] fail = new int[states];
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        for (int c = 0; c < classes; c++) {
+            int t = table[c];
+            if (t != 0) queue.add(t);
+        }
+        while (!queue.isEmpty()) {
+            int s = queue.poll();
+            int f = fail[s];
+            outLink[s] = out[f] >= 0 ? f : outLink[f];
+            for (int c = 0; c < classes; c++) {
+                int idx = s * classes + c;
+                int t = table[idx];
+                if (t != 0) {
+                    fail[t] = table[f * classes + c];
+                    queue.add(t);
+                } else {
+                    table[idx] = table[f * classes + c];
+                }
+            }
+        }
+
+        next = new int[states * classes];
+        for (int i = 0; i < next.length; i++) {
+            int t = table[i];
+            next[i] = out[t] >= 0 || outLink[t] >= 0 ? ~(t * classes) : t * classes;
+        }
+    }
+
+    /** Scans {@code buf[off, off+len)}; returns false if {@code hits} stopped it early. */
+    boolean scan(byte[] buf, int off, int len, Hits hits) {
+        int[] next = this.next;
+        int[] classOf = this.classOf;
+        int s = 0;
+        for (int i = off, end = off + len; i < end; i++) {
+            int v = next[s + classOf[buf[i] & 0xff]];
+            if (v >= 0) {
+                s = v;
+                continue;
+            }
+            s = ~v;
+            for (int t = s / classes; t >= 0; t = outLink[t]) {
+                for (int p = out[t]; p >= 0; p = samePattern[p]) {
+                    if (!hits.hit(p, i + 1)) return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    int states() { return states; }
+    int classes() { return classes; }
+    long tableBytes() { return 4L * next.length; }
+
+    static int fold(int b) {
+        return b >= 'A' && b <= 'Z' ? b + 32 : b;
+    }
+}
@@ -0,0 +1,15 @@
+package com.example.classifier;
+
+/** Helpers for rule bitsets stored as long[] words. */
+final class Bits {
+
+    private Bits() {}
+
+    static void set(long[] bits, int i) {
+        bits[i >>> 6] |= 1L << i;
+    }
+
+    static void or(long[] into, long[] from) {
+        for (int w = 0; w < into.length; w++) into[w] |= from[w];
+    }
+}
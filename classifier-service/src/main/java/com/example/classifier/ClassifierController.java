@@ -1,9 +1,17 @@
 package com.example.classifier;
 
+import com.example.packet.Labels;
+import com.example.packet.PacketCodec;
+import com.example.packet.PacketRecord;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 @RestController
@@ -13,18 +21,125 @@ public class ClassifierController {
     @Autowired
     private SimpleClassifier classifier;
 
+    @Autowired
+    private RuleEngine ruleEngine;
+
+    @Autowired
+    private StorageForwarder storage;
+
     @PostMapping("/classify")
     public ResponseEntity<?> classify(@RequestBody Map<String, Object> pkt) {
-        String label = classifier.classify(pkt);
-        pkt.put("label", label);
+        PacketRecord record = PacketRecord.fromMap(pkt);
+        int label = classifier.classify(record);
 
         // persist to db if available (skipped here)
         try {
-            StorageForwarder.store(pkt);
+            storage.store(record.withLabel(label));
         } catch (Exception e) {
             // ignore
         }
 
-        return ResponseEntity.ok(label);
+        return ResponseEntity.ok(Labels.name(label));
+    }
+
+    // PacketCodec batches from parser-service
+    @PostMapping(value = "/classify/batch", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<?> classifyBatch(@RequestBody byte[] body) {
+        List<PacketRecord> records = new ArrayList<>();
+        try {
+            // incoming labels are dropped: the classifier assigns its own
+            PacketCodec.decode(body, (record, label) -> records.add(record));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+        for (PacketRecord record : records) {
+            storage.store(record.withLabel(classifier.classify(record)));
+        }
+        return ResponseEntity.ok(Collections.singletonMap("classified", records.size()));
+    }
+
+    @Autowired
+    private StreamDetector detector;
+
+    // live detector alerts; the stored labels surface through the gateway's /api/alerts
+    @GetMapping("/detections")
+    public ResponseEntity<?> detections() {
+        Map<String, Object> res = new HashMap<>(detector.stats());
+        res.put("alerts", detector.alerts());
+        return ResponseEntity.ok(res);
+    }
+
+    @GetMapping("/forward/stats")
+    public ResponseEntity<?> forwardStats() {
+        return ResponseEntity.ok(storage.stats());
+    }
+
+    @GetMapping("/rules")
+    public ResponseEntity<?> rules() {
+        return ResponseEntity.ok(ruleEngine.describe());
+    }
+
+    @PutMapping("/rules")
+    public ResponseEntity<?> replaceRules(@RequestBody RuleSet set) {
+        try {
+            Map<String, Object> res = new HashMap<>();
+            res.put("rules", ruleEngine.replace(set));
+            return ResponseEntity.ok(res);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (Exception e) {
+            e.printStackTrace();
+            return ResponseEntity.status(500).body("Error: " + e.getMessage());
+        }
+    }
+
+    @PostMapping("/rules/reload")
+    public ResponseEntity<?> reloadRules() {
+        try {
+            Map<String, Object> res = new HashMap<>();
+            res.put("rules", ruleEngine.reload());
+            return ResponseEntity.ok(res);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (Exception e) {
+            e.printStackTrace();
+            return ResponseEntity.status(500).body("Error: " + e.getMessage());
+        }
+    }
+
+    @Autowired
+    private SignatureEngine signatureEngine;
+
+    @GetMapping("/signatures")
+    public ResponseEntity<?> signatures() {
+        return ResponseEntity.ok(signatureEngine.describe());
+    }
+
+    @PutMapping("/signatures")
+    public ResponseEntity<?> replaceSignatures(@RequestBody SignatureSet set) {
+        try {
+            Map<String, Object> res = new HashMap<>();
+            res.put("signatures", signatureEngine.replace(set));
+            return ResponseEntity.ok(res);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (Exception e) {
+            e.printStackTrace();
+            return ResponseEntity.status(500).body("Error: " + e.getMessage());
+        }
+    }
+
+    @PostMapping("/signatures/reload")
+    public ResponseEntity<?> reloadSignatures() {
+        try {
+            Map<String, Object> res = new HashMap<>();
+            res.put("signatures", signatureEngine.reload());
+            return ResponseEntity.ok(res);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (Exception e) {
+            e.printStackTrace();
+            return ResponseEntity.status(500).body("Error: " + e.getMessage());
+        }
     }
 }
@@ -0,0 +1,60 @@
+package com.example.classifier;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Count-Min sketch over 64-bit key hashes: {@code depth} rows of {@code width}
+ * counters, each row indexed by a different slice/remix of the hash. Estimates never
+ * undercount and overcount by at most ~e/width of the total added, with probability
+ * 1 - e^-depth. Counters are atomic so concurrent request threads don't lose updates.
+ */
+final class CountMinSketch {
+
+    private final int depth;
+    private final int mask;
+    private final AtomicLongArray counters;
+
+    CountMinSketch(int width, int depth) {
+        this.depth = depth;
+        int w = Integer.highestOneBit(Math.max(16, width));
+        this.mask = w - 1;
+        this.counters = new AtomicLongArray(w * depth);
+    }
+
+    void add(long hash, long n) {
+        for (int d = 0; d < depth; d++) {
+            counters.getAndAdd(index(hash, d), n);
+        }
+    }
+
+    /** Min over rows of the per-row sums across {@code sketches}: the estimate over their union. */
+    static long estimate(long hash, CountMinSketch[] sketches, boolean[] live) {
+        long best = Long.MAX_VALUE;
+        CountMinSketch first = sketches[0];
+        for (int d = 0; d < first.depth; d++) {
+            int i = first.index(hash, d);
+            long sum = 0;
+            for (int s = 0; s < sketches.length; s++) {
+                if (live[s]) sum += sketches[s].counters.get(i);
+            }
+            best = Math.min(best, sum);
+        }
+        return best;
+    }
+
+    void clear() {
+        for (int i = 0; i < counters.length(); i++) {
+            counters.lazySet(i, 0);
+        }
+    }
+
+    int bytes() {
+        return counters.length() * 8;
+    }
+
+    private int index(long hash, int row) {
+        long h = hash + row * 0x9e3779b97f4a7c15L;
+        h = (h ^ (h >>> 32)) * 0xd6e8feb86659fd93L;
+        return row * (mask + 1) + (int) ((h ^ (h >>> 32)) & mask);
+    }
+}
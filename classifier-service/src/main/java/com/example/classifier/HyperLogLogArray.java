@@ -0,0 +1,69 @@
+package com.example.classifier;
+
+/**
+ * A fixed array of small HyperLogLogs (64 one-byte registers each) addressed by a
+ * key hash, for "distinct Y per X" with bounded memory however many X there are.
+ * Keys that share a bucket inflate each other's estimate, so callers look at two
+ * independent buckets and take the smaller one, Count-Min style.
+ * Register updates are plain racy max-writes: a lost race only keeps a slightly lower
+ * rank, which the estimate tolerates.
+ */
+final class HyperLogLogArray {
+
+    static final int REGISTERS = 64;
+    private static final double ALPHA_MM = 0.709 * REGISTERS * REGISTERS;
+
+    private final int mask;
+    private final byte[] registers;
+
+    HyperLogLogArray(int buckets) {
+        int n = Integer.highestOneBit(Math.max(1, buckets));
+        this.mask = n - 1;
+        this.registers = new byte[n * REGISTERS];
+    }
+
+    int bucket(long keyHash, int which) {
+        long h = which == 0 ? keyHash : Long.rotateLeft(keyHash * 0x9e3779b97f4a7c15L, 31);
+        return (int) (h & mask);
+    }
+
+    /** Returns true when the value raised a register, i.e. the estimate may have grown. */
+    boolean add(int bucket, long valueHash) {
+        int reg = (int) (valueHash >>> 58);
+        int rank = Long.numberOfLeadingZeros((valueHash << 6) | (1L << 5)) + 1;
+        int i = bucket * REGISTERS + reg;
+        if (rank > registers[i]) {
+            registers[i] = (byte) rank;
+            return true;
+        }
+        return false;
+    }
+
+    /** Estimate for the union of {@code bucket} across the live arrays. */
+    static long estimate(int bucket, HyperLogLogArray[] arrays, boolean[] live) {
+        double sum = 0;
+        int zeros = 0;
+        int base = bucket * REGISTERS;
+        for (int r = 0; r < REGISTERS; r++) {
+            int max = 0;
+            for (int s = 0; s < arrays.length; s++) {
+                if (live[s]) max = Math.max(max, arrays[s].registers[base + r]);
+            }
+            sum += 1.0 / (1L << max);
+            if (max == 0) zeros++;
+        }
+        double e = ALPHA_MM / sum;
+        if (e <= 2.5 * REGISTERS && zeros > 0) {
+            e = REGISTERS * Math.log((double) REGISTERS / zeros);
+        }
+        return Math.round(e);
+    }
+
+    void clear() {
+        java.util.Arrays.fill(registers, (byte) 0);
+    }
+
+    int bytes() {
+        return registers.length;
+    }
+}
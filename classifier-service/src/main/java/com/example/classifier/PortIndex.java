@@ -0,0 +1,68 @@
+package com.example.classifier;
+
+import java.util.*;
+
+/**
+ * Port -> bitset of rules whose port criterion accepts it. Ports are split into the
+ * elementary intervals between rule range boundaries; each interval gets one bitset
+ * that all its ports share, so memory grows with the number of distinct ranges rather
+ * than with 65536 x rules.
+ */
+final class PortIndex {
+
+    private static final int NO_PORT = 65536;
+
+    private final long[][] table = new long[65537][];
+
+    /** {@code ranges.get(i)} holds rule i's inclusive [lo, hi] pairs, or null for "any port". */
+    PortIndex(List<int[][]> ranges, int words) {
+        long[] wildcard = new long[words];
+        TreeSet<Integer> bounds = new TreeSet<>(Arrays.asList(0, 65536));
+        for (int i = 0; i < ranges.size(); i++) {
+            if (ranges.get(i) == null) {
+                Bits.set(wildcard, i);
+                continue;
+            }
+            for (int[] r : ranges.get(i)) {
+                bounds.add(r[0]);
+                bounds.add(r[1] + 1);
+            }
+        }
+        Integer[] b = bounds.toArray(new Integer[0]);
+        for (int s = 0; s + 1 < b.length; s++) {
+            int lo = b[s], hi = b[s + 1] - 1;
+            long[] set = wildcard.clone();
+            for (int i = 0; i < ranges.size(); i++) {
+                int[][] rs = ranges.get(i);
+                if (rs == null) continue;
+                for (int[] r : rs) {
+                    if (r[0] <= lo && hi <= r[1]) {
+                        Bits.set(set, i);
+                        break;
+                    }
+                }
+            }
+            Arrays.fill(table, lo, hi + 1, set);
+        }
+        // a packet without ports only matches rules that don't ask for one
+        table[NO_PORT] = wildcard;
+    }
+
+    long[] lookup(int port) {
+        return port < 0 || port > 65535 ? table[NO_PORT] : table[port];
+    }
+
+    static int[][] parse(List<String> specs) {
+        if (specs == null || specs.isEmpty()) return null;
+        int[][] out = new int[specs.size()][];
+        for (int i = 0; i < specs.size(); i++) {
+            String s = String.valueOf(specs.get(i)).trim();
+            int dash = s.indexOf('-');
+            int lo = Integer.parseInt(dash < 0 ? s : s.substring(0, dash).trim());
+            int hi = dash < 0 ? lo : Integer.parseInt(s.substring(dash + 1).trim());
+            if (lo < 0 || hi > 65535 || lo > hi) throw new IllegalArgumentException("bad port range: " + s);
+            out[i] = new int[]{lo, hi};
+        }
+        return out;
+    }
+}
@@ -0,0 +1,143 @@
+package com.example.classifier;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Binary trie over address bits mapping an IP to the bitset of rules whose CIDR list
+ * contains it. After construction every node's set already includes its ancestors'
+ * rules, so a lookup is one walk to the deepest matching node: at most 32 (IPv4) or
+ * 128 (IPv6) steps, however many prefixes are loaded.
+ */
+final class PrefixTrie {
+
+    private final int words;
+    private int[] zero = new int[64];
+    private int[] one = new int[64];
+    private long[][] sets = new long[64][];
+    private int size;
+    private final int root4;
+    private final int root6;
+    private final long[] wildcard;
+
+    /** {@code cidrs.get(i)} holds rule i's prefixes, or null for "any address". */
+    PrefixTrie(List<List<String>> cidrs, int words) {
+        this.words = words;
+        this.wildcard = new long[words];
+        for (int i = 0; i < cidrs.size(); i++) {
+            if (cidrs.get(i) == null || cidrs.get(i).isEmpty()) Bits.set(wildcard, i);
+        }
+        root4 = node(wildcard.clone());
+        root6 = node(wildcard.clone());
+        for (int i = 0; i < cidrs.size(); i++) {
+            if (cidrs.get(i) == null) continue;
+            for (String cidr : cidrs.get(i)) insert(cidr, i);
+        }
+        pushDown(root4);
+        pushDown(root6);
+    }
+
+    private int node(long[] set) {
+        if (size == sets.length) {
+            zero = Arrays.copyOf(zero, size * 2);
+            one = Arrays.copyOf(one, size * 2);
+            sets = Arrays.copyOf(sets, size * 2);
+        }
+        zero[size] = -1;
+        one[size] = -1;
+        sets[size] = set;
+        return size++;
+    }
+
+    private void insert(String cidr, int rule) {
+        int slash = cidr.indexOf('/');
+        byte[] addr = parse(slash < 0 ? cidr : cidr.substring(0, slash));
+        if (addr == null) throw new IllegalArgumentException("bad CIDR: " + cidr);
+        int bits = slash < 0 ? addr.length * 8 : Integer.parseInt(cidr.substring(slash + 1));
+        if (bits < 0 || bits > addr.length * 8) throw new IllegalArgumentException("bad CIDR: " + cidr);
+        int n = addr.length == 4 ? root4 : root6;
+        for (int d = 0; d < bits; d++) {
+            boolean bit = ((addr[d >>> 3] >>> (7 - (d & 7))) & 1) != 0;
+            int next = bit ? one[n] : zero[n];
+            if (next < 0) {
+                next = node(new long[words]);
+                if (bit) one[n] = next; else zero[n] = next;
+            }
+            n = next;
+        }
+        Bits.set(sets[n], rule);
+    }
+
+    private void pushDown(int root) {
+        // iterative DFS: children inherit the parent's (already accumulated) rules
+        int[] stack = new int[size];
+        int sp = 0;
+        stack[sp++] = root;
+        while (sp > 0) {
+            int n = stack[--sp];
+            for (int c : new int[]{zero[n], one[n]}) {
+                if (c < 0) continue;
+                Bits.or(sets[c], sets[n]);
+                stack[sp++] = c;
+            }
+        }
+    }
+
+    long[] lookup4(int ip) {
+        int n = root4;
+        for (int d = 31; d >= 0; d--) {
+            int next = ((ip >>> d) & 1) != 0 ? one[n] : zero[n];
+            if (next < 0) break;
+            n = next;
+        }
+        return sets[n];
+    }
+
+    long[] lookup6(long hi, long lo) {
+        int n = root6;
+        for (int d = 0; d < 128; d++) {
+            long bit = d < 64 ? hi >>> (63 - d) : lo >>> (127 - d);
+            int next = (bit & 1) != 0 ? one[n] : zero[n];
+            if (next < 0) break;
+            n = next;
+        }
+        return sets[n];
+    }
+
+    long[] wildcard() {
+        return wildcard;
+    }
+
+    /** Parses an IPv4 dotted quad or IPv6 literal; never resolves host names. */
+    static byte[] parse(String s) {
+        if (s.indexOf(':') >= 0) {
+            try {
+                byte[] a = InetAddress.getByName(s).getAddress();
+                return a.length == 16 ? a : null;
+            } catch (Exception e) {
+                return null;
+            }
+        }
+        byte[] out = new byte[4];
+        int part = 0, val = 0, digits = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '.') {
+                if (digits == 0 || part == 3) return null;
+                out[part++] = (byte) val;
+                val = 0;
+                digits = 0;
+            } else if (c >= '0' && c <= '9' && digits < 3) {
+                val = val * 10 + (c - '0');
+                digits++;
+                if (val > 255) return null;
+            } else {
+                return null;
+            }
+        }
+        if (part != 3 || digits == 0) return null;
+        out[3] = (byte) val;
+        return out;
+    }
+}
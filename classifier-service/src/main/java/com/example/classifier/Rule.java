@@ -0,0 +1,27 @@
+package com.example.classifier;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.List;
+
+/**
+ * One declarative classification rule. Every criterion that is set must match; unset
+ * criteria match anything. Ports are given as "443" or "1-1023", CIDRs as
+ * "10.0.0.0/8" or "2001:db8::/32", tcp_flags as names that must all be set
+ * ("SYN", "ACK", ...). Rules are evaluated in file order and the first match wins.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class Rule {
+    public String id;
+    public String label;
+    public List<String> src_ports;
+    public List<String> dst_ports;
+    public List<String> protocols;
+    public List<String> src_cidrs;
+    public List<String> dst_cidrs;
+    public Integer min_length;
+    public Integer max_length;
+    public List<String> tcp_flags;
+}
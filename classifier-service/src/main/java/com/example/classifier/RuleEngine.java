@@ -0,0 +1,243 @@
+package com.example.classifier;
+
+import com.example.packet.Labels;
+import com.example.packet.PacketRecord;
+import com.example.packet.Protocol;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Compiles a {@link RuleSet} into lookup tables and classifies packets against it.
+ * Ports index straight into {@link PortIndex} bitsets, protocols into an array by enum
+ * ordinal and IPs through a {@link PrefixTrie}; the per-packet work is ANDing those
+ * bitsets and checking length/flags only on the surviving candidates, in rule order.
+ * A reload compiles off to the side and swaps the whole table in one reference write,
+ * so in-flight classifications finish on the old rules and nothing is dropped.
+ */
+@Service
+public class RuleEngine {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final AtomicReference<Compiled> current = new AtomicReference<>();
+    private final String rulesPath;
+    private volatile long loadedMtime = -1;
+
+    public RuleEngine(@Value("${classifier.rules.path:}") String rulesPath) throws IOException {
+        this.rulesPath = rulesPath;
+        reload();
+    }
+
+    /** Returns the {@link Labels} id of the first matching rule, or of the default label. */
+    public int classify(PacketRecord pkt) {
+        return current.get().classify(pkt);
+    }
+
+    /** Re-reads the rules file (or the bundled rules.json when no path is configured). */
+    public synchronized int reload() throws IOException {
+        RuleSet set;
+        if (rulesPath == null || rulesPath.isBlank()) {
+            try (InputStream in = RuleEngine.class.getResourceAsStream("/rules.json")) {
+                set = mapper.readValue(in, RuleSet.class);
+            }
+        } else {
+            Path p = Paths.get(rulesPath);
+            loadedMtime = Files.getLastModifiedTime(p).toMillis();
+            set = mapper.readValue(p.toFile(), RuleSet.class);
+        }
+        return install(set);
+    }
+
+    /** Compiles and swaps in {@code set}; throws IllegalArgumentException and keeps the old rules if it is invalid. */
+    public synchronized int install(RuleSet set) {
+        Compiled next = new Compiled(set, current.get());
+        current.set(next);
+        return next.rules.length;
+    }
+
+    /** Persists {@code set} to the rules file, when one is configured, then installs it. */
+    public synchronized int replace(RuleSet set) throws IOException {
+        int n = install(set);
+        if (rulesPath != null && !rulesPath.isBlank()) {
+            Path p = Paths.get(rulesPath);
+            Path tmp = p.resolveSibling(p.getFileName() + ".tmp");
+            mapper.writerWithDefaultPrettyPrinter().writeValue(tmp.toFile(), set);
+            Files.move(tmp, p, java.nio.file.StandardCopyOption.REPLACE_EXISTING, java.nio.file.StandardCopyOption.ATOMIC_MOVE);
+            loadedMtime = Files.getLastModifiedTime(p).toMillis();
+        }
+        return n;
+    }
+
+    @Scheduled(fixedDelayString = "${classifier.rules.watch-interval-ms:2000}")
+    public void watch() {
+        if (rulesPath == null || rulesPath.isBlank()) return;
+        try {
+            long mtime = Files.getLastModifiedTime(Paths.get(rulesPath)).toMillis();
+            if (mtime != loadedMtime) reload();
+        } catch (Exception e) {
+            // keep serving the last good rules; a half-written file gets picked up next tick
+            e.printStackTrace();
+        }
+    }
+
+    /** Current rules with their hit counts, in evaluation order. */
+    public Map<String, Object> describe() {
+        Compiled c = current.get();
+        List<Map<String, Object>> rules = new ArrayList<>();
+        for (int i = 0; i < c.rules.length; i++) {
+            Map<String, Object> r = mapper.convertValue(c.rules[i], new TypeReference<Map<String, Object>>() {});
+            r.put("hits", c.hits[i].sum());
+            rules.add(r);
+        }
+        Map<String, Object> out = new HashMap<>();
+        out.put("default_label", c.defaultLabel);
+        out.put("default_hits", c.defaultHits.sum());
+        out.put("rules", rules);
+        out.put("source", rulesPath == null || rulesPath.isBlank() ? "classpath:rules.json" : rulesPath);
+        out.put("loaded_at", c.loadedAt);
+        return out;
+    }
+
+    private static Rule withId(Rule r, int i) {
+        Rule c = new Rule();
+        c.id = r.id == null || r.id.isBlank() ? "rule-" + i : r.id;
+        c.label = r.label;
+        c.src_ports = r.src_ports;
+        c.dst_ports = r.dst_ports;
+        c.protocols = r.protocols;
+        c.src_cidrs = r.src_cidrs;
+        c.dst_cidrs = r.dst_cidrs;
+        c.min_length = r.min_length;
+        c.max_length = r.max_length;
+        c.tcp_flags = r.tcp_flags;
+        return c;
+    }
+
+    /** Immutable compiled form of one rule set. */
+    private static final class Compiled {
+        final Rule[] rules;  // copies with generated ids filled in; the caller's set is left as given
+        final int[] labels;
+        final LongAdder[] hits;
+        final String defaultLabel;
+        final int defaultLabelId;
+        final LongAdder defaultHits;
+        final int words;
+        final PortIndex srcPorts;
+        final PortIndex dstPorts;
+        final long[][] byProtocol = new long[Protocol.values().length][];
+        final long[] anyProtocol;
+        final PrefixTrie srcIps;
+        final PrefixTrie dstIps;
+        final int[] minLength;
+        final int[] maxLength;
+        final int[] flags;
+        final long loadedAt = System.currentTimeMillis();
+
+        Compiled(RuleSet set, Compiled previous) {
+            List<Rule> list = set.rules == null ? List.of() : set.rules;
+            int n = list.size();
+            rules = new Rule[n];
+            for (int i = 0; i < n; i++) rules[i] = withId(list.get(i), i);
+            labels = new int[n];
+            hits = new LongAdder[n];
+            words = Math.max(1, (n + 63) >>> 6);
+            minLength = new int[n];
+            maxLength = new int[n];
+            flags = new int[n];
+            defaultLabel = set.default_label == null ? "UNKNOWN" : set.default_label;
+            defaultLabelId = Labels.id(defaultLabel);
+            defaultHits = previous != null ? previous.defaultHits : new LongAdder();
+
+            // carry hit counters over by rule id so a reload doesn't zero the stats
+            Map<String, LongAdder> oldHits = new HashMap<>();
+            if (previous != null) {
+                for (int i = 0; i < previous.rules.length; i++) oldHits.put(previous.rules[i].id, previous.hits[i]);
+            }
+
+            List<int[][]> src = new ArrayList<>(), dst = new ArrayList<>();
+            List<List<String>> srcCidrs = new ArrayList<>(), dstCidrs = new ArrayList<>();
+            anyProtocol = new long[words];
+            Set<String> ids = new HashSet<>();
+            for (int i = 0; i < n; i++) {
+                Rule r = rules[i];
+                if (!ids.add(r.id)) throw new IllegalArgumentException("duplicate rule id: " + r.id);
+                if (r.label == null || r.label.isBlank()) throw new IllegalArgumentException("rule " + r.id + " has no label");
+                labels[i] = Labels.id(r.label);
+                LongAdder h = oldHits.get(r.id);
+                hits[i] = h != null ? h : new LongAdder();
+                src.add(PortIndex.parse(r.src_ports));
+                dst.add(PortIndex.parse(r.dst_ports));
+                srcCidrs.add(r.src_cidrs);
+                dstCidrs.add(r.dst_cidrs);
+                minLength[i] = r.min_length == null ? Integer.MIN_VALUE : r.min_length;
+                maxLength[i] = r.max_length == null ? Integer.MAX_VALUE : r.max_length;
+                flags[i] = PacketRecord.flagMask(r.tcp_flags == null ? null : String.join(",", r.tcp_flags));
+                if (r.protocols == null || r.protocols.isEmpty()) {
+                    Bits.set(anyProtocol, i);
+                } else {
+                    for (String p : r.protocols) {
+                        Protocol proto = p == null ? null : Protocol.lookup(p);
+                        if (proto == null) throw new IllegalArgumentException("rule " + r.id + ": unknown protocol " + p);
+                        if (byProtocol[proto.ordinal()] == null) byProtocol[proto.ordinal()] = new long[words];
+                        Bits.set(byProtocol[proto.ordinal()], i);
+                    }
+                }
+            }
+            for (long[] bits : byProtocol) {
+                if (bits != null) Bits.or(bits, anyProtocol);
+            }
+            srcPorts = new PortIndex(src, words);
+            dstPorts = new PortIndex(dst, words);
+            srcIps = new PrefixTrie(srcCidrs, words);
+            dstIps = new PrefixTrie(dstCidrs, words);
+        }
+
+        int classify(PacketRecord pkt) {
+            long[] sp = srcPorts.lookup(pkt.srcPort);
+            long[] dp = dstPorts.lookup(pkt.dstPort);
+            long[] pr = protocolBits(pkt.protocol);
+            long[] si, di;
+            if (pkt.ipVersion == 4) {
+                si = srcIps.lookup4(pkt.srcIp4());
+                di = dstIps.lookup4(pkt.dstIp4());
+            } else if (pkt.ipVersion == 6) {
+                si = srcIps.lookup6(pkt.srcHi, pkt.srcLo);
+                di = dstIps.lookup6(pkt.dstHi, pkt.dstLo);
+            } else {
+                si = srcIps.wildcard();
+                di = dstIps.wildcard();
+            }
+            int length = pkt.length;
+            int tcpFlags = Math.max(0, pkt.tcpFlags);
+            for (int w = 0; w < words; w++) {
+                long m = sp[w] & dp[w] & pr[w] & si[w] & di[w];
+                while (m != 0) {
+                    int i = (w << 6) + Long.numberOfTrailingZeros(m);
+                    m &= m - 1;
+                    if (length >= minLength[i] && length <= maxLength[i] && (tcpFlags & flags[i]) == flags[i]) {
+                        hits[i].increment();
+                        return labels[i];
+                    }
+                }
+            }
+            defaultHits.increment();
+            return defaultLabelId;
+        }
+
+        private long[] protocolBits(Protocol protocol) {
+            long[] bits = protocol == null ? null : byProtocol[protocol.ordinal()];
+            return bits != null ? bits : anyProtocol;
+        }
+    }
+}
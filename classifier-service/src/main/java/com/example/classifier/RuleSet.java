@@ -0,0 +1,13 @@
+package com.example.classifier;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** The rules file / PUT /api/rules body: ordered rules plus the label used when none match. */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class RuleSet {
+    public String default_label = "UNKNOWN";
+    public List<Rule> rules = new ArrayList<>();
+}
@@ -0,0 +1,27 @@
+package com.example.classifier;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.List;
+
+/**
+ * One payload signature. Exactly one of {@code pattern} (text, UTF-8), {@code hex}
+ * ("de ad be ef") or {@code dns} (a domain, matched in DNS wire format, so it also
+ * catches its subdomains) gives the bytes to look for. {@code nocase} folds ASCII
+ * letters (default false, true for dns). {@code protocols} and {@code ports} (either
+ * direction, "443" or "8000-8100") narrow where a match counts. Signatures are checked in
+ * file order; when several match one packet the first one's label wins.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class Signature {
+    public String id;
+    public String label;
+    public String pattern;
+    public String hex;
+    public String dns;
+    public Boolean nocase;
+    public List<String> protocols;
+    public List<String> ports;
+}
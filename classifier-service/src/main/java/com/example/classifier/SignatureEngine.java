@@ -0,0 +1,339 @@
+package com.example.classifier;
+
+import com.example.packet.Labels;
+import com.example.packet.PacketRecord;
+import com.example.packet.Protocol;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Matches packet payloads against a {@link SignatureSet} (signatures.json, or
+ * classifier.signatures.path). All signatures compile into one {@link AhoCorasick}
+ * automaton, so each payload is scanned once however many signatures there are; the
+ * protocol/port conditions and exact case are only checked for the few that hit.
+ * Reloads compile off to the side and swap in, like {@link RuleEngine}. Labels always
+ * read MALICIOUS or SUSPICIOUS, so matches show up in the gateway's /api/alerts. A
+ * label is only interned in {@link Labels} once its signature first hits, so reloading
+ * rotating feeds does not fill the process-wide table with labels nothing ever matched.
+ */
+@Service
+public class SignatureEngine {
+
+    static final int MAX_PATTERN_BYTES = 1024;
+    // reported for hits whose own label no longer fits in Labels
+    static final String FALLBACK_LABEL = "MALICIOUS-signature";
+    private static final int FALLBACK_LABEL_ID = Labels.id(FALLBACK_LABEL);
+    private static final int UNRESOLVED = Integer.MIN_VALUE;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final AtomicReference<Compiled> current = new AtomicReference<>();
+    private final String signaturesPath;
+    private volatile long loadedMtime = -1;
+    private final LongAdder scanned = new LongAdder();
+    private final LongAdder scannedBytes = new LongAdder();
+    private final LongAdder matched = new LongAdder();
+
+    private static final ThreadLocal<Match> MATCH = ThreadLocal.withInitial(Match::new);
+
+    public SignatureEngine(@Value("${classifier.signatures.path:}") String signaturesPath, MeterRegistry registry) throws IOException {
+        this.signaturesPath = signaturesPath;
+        FunctionCounter.builder("classifier.signatures.scanned", scanned, LongAdder::sum).register(registry);
+        FunctionCounter.builder("classifier.signatures.scanned.bytes", scannedBytes, LongAdder::sum).register(registry);
+        FunctionCounter.builder("classifier.signatures.matched", matched, LongAdder::sum).register(registry);
+        reload();
+    }
+
+    /** The {@link Labels} id of the first signature the payload matches, or {@link Labels#NONE}. */
+    public int match(PacketRecord pkt) {
+        if (!pkt.hasPayload()) return Labels.NONE;
+        Compiled c = current.get();
+        if (c.automaton == null) return Labels.NONE;
+        scanned.increment();
+        scannedBytes.add(pkt.payloadLength);
+        int label = c.match(pkt, MATCH.get());
+        if (label != Labels.NONE) matched.increment();
+        return label;
+    }
+
+    /** Re-reads the signatures file (or the bundled signatures.json when no path is configured). */
+    public synchronized int reload() throws IOException {
+        SignatureSet set;
+        if (signaturesPath == null || signaturesPath.isBlank()) {
+            try (InputStream in = SignatureEngine.class.getResourceAsStream("/signatures.json")) {
+                set = mapper.readValue(in, SignatureSet.class);
+            }
+        } else {
+            Path p = Paths.get(signaturesPath);
+            loadedMtime = Files.getLastModifiedTime(p).toMillis();
+            set = mapper.readValue(p.toFile(), SignatureSet.class);
+        }
+        return install(set);
+    }
+
+    /** Compiles and swaps in {@code set}; throws IllegalArgumentException and keeps the old signatures if it is invalid. */
+    public synchronized int install(SignatureSet set) {
+        Compiled next = new Compiled(set, current.get());
+        current.set(next);
+        return next.signatures.length;
+    }
+
+    /** Persists {@code set} to the signatures file, when one is configured, then installs it. */
+    public synchronized int replace(SignatureSet set) throws IOException {
+        int n = install(set);
+        if (signaturesPath != null && !signaturesPath.isBlank()) {
+            Path p = Paths.get(signaturesPath);
+            Path tmp = p.resolveSibling(p.getFileName() + ".tmp");
+            mapper.writerWithDefaultPrettyPrinter().writeValue(tmp.toFile(), set);
+            Files.move(tmp, p, java.nio.file.StandardCopyOption.REPLACE_EXISTING, java.nio.file.StandardCopyOption.ATOMIC_MOVE);
+            loadedMtime = Files.getLastModifiedTime(p).toMillis();
+        }
+        return n;
+    }
+
+    @Scheduled(fixedDelayString = "${classifier.signatures.watch-interval-ms:2000}")
+    public void watch() {
+        if (signaturesPath == null || signaturesPath.isBlank()) return;
+        try {
+            long mtime = Files.getLastModifiedTime(Paths.get(signaturesPath)).toMillis();
+            if (mtime != loadedMtime) reload();
+        } catch (Exception e) {
+            // keep matching with the last good signatures
+            e.printStackTrace();
+        }
+    }
+
+    /** Current signatures with their hit counts, in priority order, plus the automaton's size. */
+    public Map<String, Object> describe() {
+        Compiled c = current.get();
+        List<Map<String, Object>> list = new ArrayList<>();
+        for (int i = 0; i < c.signatures.length; i++) {
+            Map<String, Object> s = mapper.convertValue(c.signatures[i], new TypeReference<Map<String, Object>>() {});
+            s.put("hits", c.hits[i].sum());
+            list.add(s);
+        }
+        Map<String, Object> out = new HashMap<>();
+        out.put("signatures", list);
+        out.put("states", c.automaton == null ? 0 : c.automaton.states());
+        out.put("byte_classes", c.automaton == null ? 0 : c.automaton.classes());
+        out.put("table_bytes", c.automaton == null ? 0 : c.automaton.tableBytes());
+        out.put("packets_scanned", scanned.sum());
+        out.put("bytes_scanned", scannedBytes.sum());
+        out.put("packets_matched", matched.sum());
+        out.put("source", signaturesPath == null || signaturesPath.isBlank() ? "classpath:signatures.json" : signaturesPath);
+        out.put("loaded_at", c.loadedAt);
+        return out;
+    }
+
+    /** Per-thread scratch for one scan: the best signature so far and which ones hit. */
+    private static final class Match implements AhoCorasick.Hits {
+        Compiled compiled;
+        PacketRecord pkt;
+        int best;
+        int[] seen = new int[16];
+        int seenCount;
+
+        @Override
+        public boolean hit(int sig, int end) {
+            Compiled c = compiled;
+            if (!c.accepts(sig, pkt, end)) return true;
+            for (int i = 0; i < seenCount; i++) {
+                if (seen[i] == sig) return true;
+            }
+            if (seenCount == seen.length) seen = Arrays.copyOf(seen, seenCount * 2);
+            seen[seenCount++] = sig;
+            c.hits[sig].increment();
+            if (best < 0 || sig < best) best = sig;
+            return true;
+        }
+    }
+
+    /** Compiled form of one signature set; only the lazily interned label ids change. */
+    private static final class Compiled {
+        final Signature[] signatures;  // normalized copies; the caller's set is left as given
+        final int[] labels;            // Labels ids, UNRESOLVED until the signature first hits
+        final LongAdder[] hits;
+        final byte[][] exact;      // bytes to compare for case-sensitive signatures, else null
+        final long[] protocols;    // Protocol ordinal bits, 0 = any
+        final int[][][] ports;     // inclusive ranges, null = any
+        final AhoCorasick automaton;
+        final long loadedAt = System.currentTimeMillis();
+
+        Compiled(SignatureSet set, Compiled previous) {
+            List<Signature> list = set.signatures == null ? List.of() : set.signatures;
+            int n = list.size();
+            signatures = new Signature[n];
+            labels = new int[n];
+            Arrays.fill(labels, UNRESOLVED);
+            hits = new LongAdder[n];
+            exact = new byte[n][];
+            protocols = new long[n];
+            ports = new int[n][][];
+
+            // carry hit counters over by id so a reload doesn't zero the stats
+            Map<String, LongAdder> oldHits = new HashMap<>();
+            if (previous != null) {
+                for (int i = 0; i < previous.signatures.length; i++) oldHits.put(previous.signatures[i].id, previous.hits[i]);
+            }
+
+            List<byte[]> patterns = new ArrayList<>(n);
+            Set<String> ids = new HashSet<>();
+            for (int i = 0; i < n; i++) {
+                Signature s = normalized(list.get(i), i);
+                signatures[i] = s;
+                if (!ids.add(s.id)) throw new IllegalArgumentException("duplicate signature id: " + s.id);
+                LongAdder h = oldHits.get(s.id);
+                hits[i] = h != null ? h : new LongAdder();
+
+                byte[] bytes = bytes(s);
+                boolean nocase = s.nocase != null ? s.nocase : s.dns != null;
+                if (!nocase) exact[i] = bytes;
+                patterns.add(bytes);
+                if (s.protocols != null) {
+                    for (String p : s.protocols) {
+                        Protocol proto = p == null ? null : Protocol.lookup(p);
+                        if (proto == null) throw new IllegalArgumentException("signature " + s.id + ": unknown protocol " + p);
+                        protocols[i] |= 1L << proto.ordinal();
+                    }
+                }
+                try {
+                    ports[i] = PortIndex.parse(s.ports);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("signature " + s.id + ": bad port " + e.getMessage());
+                }
+            }
+            automaton = n == 0 ? null : new AhoCorasick(patterns);
+        }
+
+        private static Signature normalized(Signature s, int i) {
+            Signature c = new Signature();
+            c.id = s.id == null || s.id.isBlank() ? "sig-" + i : s.id;
+            if (s.label == null || s.label.isBlank()) {
+                c.label = "MALICIOUS-sig-" + c.id;
+            } else {
+                c.label = isAlertLabel(s.label) ? s.label : "MALICIOUS-" + s.label;
+            }
+            c.pattern = s.pattern;
+            c.hex = s.hex;
+            c.dns = s.dns;
+            c.nocase = s.nocase;
+            c.protocols = s.protocols;
+            c.ports = s.ports;
+            return c;
+        }
+
+        // racing threads resolve the same id, so the unsynchronized write is harmless
+        int label(int sig) {
+            int id = labels[sig];
+            if (id == UNRESOLVED) {
+                try {
+                    id = Labels.id(signatures[sig].label);
+                } catch (IllegalArgumentException e) {
+                    id = FALLBACK_LABEL_ID;
+                }
+                labels[sig] = id;
+            }
+            return id;
+        }
+
+        int match(PacketRecord pkt, Match m) {
+            m.compiled = this;
+            m.pkt = pkt;
+            m.best = -1;
+            m.seenCount = 0;
+            automaton.scan(pkt.payload, pkt.payloadOffset, pkt.payloadLength, m);
+            m.pkt = null;
+            return m.best < 0 ? Labels.NONE : label(m.best);
+        }
+
+        // the conditions beyond the bytes themselves, only evaluated on a hit
+        boolean accepts(int sig, PacketRecord pkt, int end) {
+            if (protocols[sig] != 0 && (pkt.protocol == null || (protocols[sig] & (1L << pkt.protocol.ordinal())) == 0)) {
+                return false;
+            }
+            int[][] rs = ports[sig];
+            if (rs != null && !inRanges(rs, pkt.srcPort) && !inRanges(rs, pkt.dstPort)) return false;
+            byte[] e = exact[sig];
+            if (e != null) {
+                byte[] buf = pkt.payload;
+                for (int i = 0, start = end - e.length; i < e.length; i++) {
+                    if (buf[start + i] != e[i]) return false;
+                }
+            }
+            return true;
+        }
+
+        private static boolean inRanges(int[][] ranges, int port) {
+            for (int[] r : ranges) {
+                if (port >= r[0] && port <= r[1]) return true;
+            }
+            return false;
+        }
+    }
+
+    static boolean isAlertLabel(String label) {
+        String l = label.toLowerCase(Locale.ROOT);
+        return l.contains("malicious") || l.contains("suspicious");
+    }
+
+    /** The bytes a signature looks for; throws IllegalArgumentException unless exactly one form is given. */
+    static byte[] bytes(Signature s) {
+        int forms = (s.pattern != null ? 1 : 0) + (s.hex != null ? 1 : 0) + (s.dns != null ? 1 : 0);
+        if (forms != 1) throw new IllegalArgumentException("signature " + s.id + " needs exactly one of pattern, hex, dns");
+        byte[] b;
+        if (s.pattern != null) {
+            b = s.pattern.getBytes(StandardCharsets.UTF_8);
+        } else if (s.hex != null) {
+            b = hex(s.id, s.hex);
+        } else {
+            b = dnsName(s.id, s.dns);
+        }
+        if (b.length == 0 || b.length > MAX_PATTERN_BYTES) {
+            throw new IllegalArgumentException("signature " + s.id + " must be 1.." + MAX_PATTERN_BYTES + " bytes");
+        }
+        return b;
+    }
+
+    private static byte[] hex(String id, String hex) {
+        String digits = hex.replaceAll("[\\s:]", "");
+        if (digits.length() % 2 != 0) throw new IllegalArgumentException("signature " + id + ": odd number of hex digits");
+        byte[] b = new byte[digits.length() / 2];
+        for (int i = 0; i < b.length; i++) {
+            int hi = Character.digit(digits.charAt(2 * i), 16), lo = Character.digit(digits.charAt(2 * i + 1), 16);
+            if (hi < 0 || lo < 0) throw new IllegalArgumentException("signature " + id + ": bad hex " + hex);
+            b[i] = (byte) (hi << 4 | lo);
+        }
+        return b;
+    }
+
+    // "c2.example.org" -> 02 'c2' 07 'example' 03 'org' 00: the name and any subdomain of it
+    private static byte[] dnsName(String id, String name) {
+        String n = name.endsWith(".") ? name.substring(0, name.length() - 1) : name;
+        if (n.isEmpty()) throw new IllegalArgumentException("signature " + id + ": empty dns name");
+        byte[] out = new byte[n.length() + 2];
+        int pos = 0;
+        for (String label : n.split("\\.", -1)) {
+            byte[] l = label.getBytes(StandardCharsets.US_ASCII);
+            if (l.length == 0 || l.length > 63) throw new IllegalArgumentException("signature " + id + ": bad dns name " + name);
+            out[pos++] = (byte) l.length;
+            System.arraycopy(l, 0, out, pos, l.length);
+            pos += l.length;
+        }
+        out[pos] = 0;
+        return out;
+    }
+}
@@ -0,0 +1,12 @@
+package com.example.classifier;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** The signatures file / PUT /api/signatures body. */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class SignatureSet {
+    public List<Signature> signatures = new ArrayList<>();
+}
@@ -1,37 +1,43 @@
 package com.example.classifier;
 
+import com.example.packet.Labels;
+import com.example.packet.PacketRecord;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.springframework.stereotype.Service;
 
-import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Labels a parsed packet: a payload {@link SignatureEngine} match first, then stateful
+ * {@link StreamDetector} findings, otherwise the declarative rule set (rules.json, or
+ * classifier.rules.path) compiled by {@link RuleEngine}.
+ * Labels come back as {@link Labels} ids, ready for {@link PacketRecord#withLabel}.
+ */
 @Service
 public class SimpleClassifier {
 
-    public String classify(Map<String, Object> pkt) {
-        Integer dstPort = null;
-        try {
-            Object dp = pkt.get("dst_port");
-            if (dp instanceof Integer) dstPort = (Integer) dp;
-            else if (dp instanceof Number) dstPort = ((Number) dp).intValue();
-            else if (dp != null) dstPort = Integer.parseInt(dp.toString());
-        } catch (Exception e) { /* ignore */ }
-
-        String protocol = pkt.getOrDefault("protocol", "").toString();
-
-        if (dstPort != null && (dstPort == 53 || dstPort == 5353)) return "DNS";
-        if (dstPort != null && (dstPort == 80 || dstPort == 8080 || dstPort == 443)) return "HTTP/HTTPS";
-        if ("TCP".equalsIgnoreCase(protocol) && dstPort != null && dstPort > 0 && dstPort < 1024) return "TCP-wellknown";
-
-        Integer len = 0;
-        try {
-            Object l = pkt.get("length");
-            if (l instanceof Integer) len = (Integer) l;
-            else if (l instanceof Number) len = ((Number) l).intValue();
-            else if (l != null) len = Integer.parseInt(l.toString());
-        } catch (Exception e) { /* ignore */ }
-
-        if (len != null && len > 1500) return "ANOMALY-large-packet";
+    private final RuleEngine rules;
+    private final StreamDetector detector;
+    private final SignatureEngine signatures;
+    private final Timer classifyTimer;
+
+    public SimpleClassifier(RuleEngine rules, StreamDetector detector, SignatureEngine signatures, MeterRegistry registry) {
+        this.rules = rules;
+        this.detector = detector;
+        this.signatures = signatures;
+        this.classifyTimer = Timer.builder("pipeline.stage.latency").tag("stage", "classify")
+                .publishPercentiles(0.5, 0.95, 0.99).publishPercentileHistogram()
+                .register(registry);
+    }
 
-        return "UNKNOWN";
+    public int classify(PacketRecord pkt) {
+        long start = System.nanoTime();
+        // every packet feeds the detectors; a signature hit names what was seen, so it outranks both
+        int detected = detector.inspect(pkt);
+        int signature = signatures.match(pkt);
+        int label = rules.classify(pkt);
+        classifyTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        return signature != Labels.NONE ? signature : detected != Labels.NONE ? detected : label;
     }
 }
@@ -1,27 +1,74 @@
 package com.example.classifier;
 
-import org.springframework.http.*;
-import org.springframework.web.client.RestTemplate;
+import com.example.forwarding.ShardedBatcher;
+import com.example.forwarding.ShardedClient;
+import com.example.forwarding.SpillJournal;
+import com.example.packet.PacketCodec;
+import com.example.packet.PacketRecord;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.http.entity.ContentType;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
 
+import javax.annotation.PreDestroy;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
 
+// labelled packets -> gateway /api/store/batch as PacketCodec batches, fire-and-forget over the pooled client (classifier.forward.gateway.*);
+// batches the gateway does not take are spilled to classifier.journal.dir/store and replayed from there
+@Component
 public class StorageForwarder {
-    private static final RestTemplate rest = new RestTemplate();
-    private static final String gatewayStore = "http://gateway:8080/api/store"; // when docker
-    private static final String gatewayLocal = "http://localhost:8080/api/store";
-
-    public static void store(Map<String, Object> record) {
-        try {
-            HttpHeaders h = new HttpHeaders();
-            h.setContentType(MediaType.APPLICATION_JSON);
-            HttpEntity<Map<String,Object>> req = new HttpEntity<>(record, h);
-            try {
-                rest.postForObject(gatewayStore, req, String.class);
-            } catch (Exception e) {
-                rest.postForObject(gatewayLocal, req, String.class);
-            }
-        } catch (Exception ex) {
-            ex.printStackTrace();
-        }
+
+    private final ShardedClient client;
+    private final ShardedBatcher<PacketRecord> batcher;
+    private final SpillJournal journal;
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder spilled = new LongAdder();
+
+    public StorageForwarder(Environment env, MeterRegistry registry,
+                            @Value("${classifier.forward.gateway.batch-size:512}") int batchSize,
+                            @Value("${classifier.forward.gateway.linger-ms:5}") long lingerMs) {
+        this.client = new ShardedClient("gateway",
+                ShardedClient.config(env, "classifier.forward.gateway", "http://gateway:8080/api/store/batch")).bindTo(registry);
+        // gateways share one database, so a spilled batch may go back to any of them
+        this.journal = SpillJournal.open("store", SpillJournal.config(env, "classifier.journal", "journal"),
+                body -> client.send(ThreadLocalRandom.current().nextInt(), body, ContentType.APPLICATION_OCTET_STREAM, PacketCodec.count(body)));
+        if (journal != null) journal.bindTo(registry);
+        this.batcher = new ShardedBatcher<>("store-forward", client, batchSize, lingerMs, PacketRecord::flowHash, this::sendBatch);
+    }
+
+    public void store(PacketRecord record) {
+        batcher.add(record);
+    }
+
+    private void sendBatch(ShardedClient.Shard shard, List<PacketRecord> batch) {
+        int n = batch.size();
+        byte[] body = PacketCodec.encode(batch);
+        shard.post(body, ContentType.APPLICATION_OCTET_STREAM, n).thenAccept(ok -> {
+            if (ok) sent.add(n);
+            else if (journal != null && journal.append(body)) spilled.add(n);
+            else failed.add(n);
+        });
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> s = client.stats();
+        s.put("packets_sent", sent.sum());
+        s.put("packets_failed", failed.sum());
+        s.put("packets_spilled", spilled.sum());
+        s.put("journal", journal != null ? journal.stats() : Map.of("enabled", false));
+        return s;
+    }
+
+    @PreDestroy
+    public void close() {
+        batcher.close();
+        // in-flight batches finish (or spill) before the journal stops replaying
+        client.close();
+        if (journal != null) journal.close();
     }
 }
@@ -0,0 +1,303 @@
+package com.example.classifier;
+
+import com.example.packet.Labels;
+import com.example.packet.PacketRecord;
+import com.example.packet.Protocol;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Stateful detectors over a sliding window made of {@code subWindows} rotating slots.
+ * Each slot holds Count-Min sketches (packets and bytes per source, bare SYNs per
+ * destination) and a HyperLogLogArray of distinct probed ports per source; a query
+ * combines every slot still inside the window. Memory is fixed at construction, so a
+ * flood of new sources costs accuracy, never heap.
+ */
+@Service
+public class StreamDetector {
+
+    public static final String PORT_SCAN = "MALICIOUS-port-scan";
+    public static final String SYN_FLOOD = "MALICIOUS-syn-flood";
+    public static final String HEAVY_HITTER = "SUSPICIOUS-heavy-hitter";
+
+    static final int PORT_SCAN_ID = Labels.id(PORT_SCAN);
+    static final int SYN_FLOOD_ID = Labels.id(SYN_FLOOD);
+    static final int HEAVY_HITTER_ID = Labels.id(HEAVY_HITTER);
+
+    private final boolean enabled;
+    private final long slotMs;
+    private final long portScanThreshold;
+    private final long synFloodThreshold;
+    private final long heavyPackets;
+    private final long heavyBytes;
+    private final int maxAlerts;
+
+    private final int subWindows;
+    private final CountMinSketch[] packets, bytes, syns;
+    private final HyperLogLogArray[] ports;
+    private final AtomicLongArray epochs;
+    private volatile boolean[] live;
+
+    // most recent alert per (label, key), keyed by firedKey(label, address hash). Packets of an
+    // open alert update it without a lock; only opening one (and evicting the least recently
+    // seen past maxAlerts) takes the monitor
+    private final Map<Long, Alert> alerts = new ConcurrentHashMap<>();
+
+    private final Map<String, Counter> detections = new HashMap<>();
+
+    public StreamDetector(MeterRegistry registry,
+                          @Value("${classifier.detect.enabled:true}") boolean enabled,
+                          @Value("${classifier.detect.window-ms:60000}") long windowMs,
+                          @Value("${classifier.detect.sub-windows:6}") int subWindows,
+                          @Value("${classifier.detect.sketch-width:4096}") int sketchWidth,
+                          @Value("${classifier.detect.sketch-depth:4}") int sketchDepth,
+                          @Value("${classifier.detect.port-scan-buckets:4096}") int portBuckets,
+                          @Value("${classifier.detect.port-scan-ports:100}") long portScanThreshold,
+                          @Value("${classifier.detect.syn-flood-syns:5000}") long synFloodThreshold,
+                          @Value("${classifier.detect.heavy-hitter-packets:100000}") long heavyPackets,
+                          @Value("${classifier.detect.heavy-hitter-bytes:100000000}") long heavyBytes,
+                          @Value("${classifier.detect.max-alerts:1000}") int maxAlerts) {
+        this.enabled = enabled;
+        int n = Math.max(1, subWindows);
+        this.slotMs = Math.max(1, windowMs / n);
+        this.portScanThreshold = portScanThreshold;
+        this.synFloodThreshold = synFloodThreshold;
+        this.heavyPackets = heavyPackets;
+        this.heavyBytes = heavyBytes;
+        this.maxAlerts = maxAlerts;
+        this.subWindows = n;
+        this.packets = new CountMinSketch[n];
+        this.bytes = new CountMinSketch[n];
+        this.syns = new CountMinSketch[n];
+        this.ports = new HyperLogLogArray[n];
+        this.epochs = new AtomicLongArray(n);
+        this.live = new boolean[n];
+        for (String label : List.of(PORT_SCAN, SYN_FLOOD, HEAVY_HITTER)) {
+            detections.put(label, Counter.builder("pipeline.detections").tag("type", label).register(registry));
+        }
+        for (int i = 0; i < n; i++) {
+            packets[i] = new CountMinSketch(sketchWidth, sketchDepth);
+            bytes[i] = new CountMinSketch(sketchWidth, sketchDepth);
+            syns[i] = new CountMinSketch(sketchWidth, sketchDepth);
+            ports[i] = new HyperLogLogArray(portBuckets);
+            epochs.set(i, -1);
+        }
+    }
+
+    /** Records the packet and returns the {@link Labels} id of the first detector it trips, or {@link Labels#NONE}. */
+    public int inspect(PacketRecord pkt) {
+        if (!enabled || pkt.ipVersion == 0) return Labels.NONE;
+        long now = System.currentTimeMillis();
+        long epoch = now / slotMs;
+        int cur = (int) (epoch % subWindows);
+        if (epochs.get(cur) != epoch) rotate(cur, epoch);
+        boolean[] live = this.live;
+
+        long srcHash = hash(pkt.srcHi, pkt.srcLo, 0);
+        int dstPort = pkt.dstPort;
+        int flags = Math.max(0, pkt.tcpFlags);
+        boolean bareSyn = (flags & PacketRecord.SYN) != 0 && (flags & PacketRecord.ACK) == 0;
+
+        String label = null;
+        long value = 0;
+        long keyHash = srcHash;
+
+        // port scan: distinct ports probed by this source. Count TCP connection attempts
+        // and UDP to well-known ports only, so servers answering many clients' ephemeral
+        // ports don't look like scanners.
+        if (dstPort >= 0 && (bareSyn || (pkt.protocol == Protocol.UDP && dstPort < 1024))) {
+            long portHash = mix(dstPort * 0x9e3779b97f4a7c15L + 1);
+            int b0 = ports[cur].bucket(srcHash, 0), b1 = ports[cur].bucket(srcHash, 1);
+            boolean grew = ports[cur].add(b0, portHash) | ports[cur].add(b1, portHash);
+            if (grew || alerted(PORT_SCAN, srcHash, epoch) != null) {
+                long distinct = Math.min(HyperLogLogArray.estimate(b0, ports, live), HyperLogLogArray.estimate(b1, ports, live));
+                if (distinct >= portScanThreshold) {
+                    label = PORT_SCAN;
+                    value = distinct;
+                }
+            }
+        }
+
+        // SYN flood: connection attempts without a handshake, per target
+        if (label == null && bareSyn) {
+            long dstHash = hash(pkt.dstHi, pkt.dstLo, 1);
+            syns[cur].add(dstHash, 1);
+            long n = CountMinSketch.estimate(dstHash, syns, live);
+            if (n >= synFloodThreshold) {
+                label = SYN_FLOOD;
+                value = n;
+                keyHash = dstHash;
+            }
+        }
+
+        packets[cur].add(srcHash, 1);
+        bytes[cur].add(srcHash, Math.max(0, pkt.length));
+        if (label == null) {
+            long p = CountMinSketch.estimate(srcHash, packets, live);
+            long b = p >= heavyPackets ? 0 : CountMinSketch.estimate(srcHash, bytes, live);
+            if (p >= heavyPackets || b >= heavyBytes) {
+                label = HEAVY_HITTER;
+                value = p >= heavyPackets ? p : b;
+            }
+        }
+
+        if (label == null) return Labels.NONE;
+        detections.get(label).increment();
+        Alert a = alerted(label, keyHash, epoch);
+        if (a == null) a = open(label, keyHash, label == SYN_FLOOD ? pkt.dstIp() : pkt.srcIp(), now, epoch);
+        a.hit(pkt, value, now, epoch, subWindows);
+        return label == PORT_SCAN ? PORT_SCAN_ID : label == SYN_FLOOD ? SYN_FLOOD_ID : HEAVY_HITTER_ID;
+    }
+
+    // first packet of a new sub-window recycles the oldest slot; updates racing the clear are lost
+    private synchronized void rotate(int cur, long epoch) {
+        if (epochs.get(cur) >= epoch) return;
+        packets[cur].clear();
+        bytes[cur].clear();
+        syns[cur].clear();
+        ports[cur].clear();
+        epochs.set(cur, epoch);
+        // slots skipped by an idle gap hold counts from outside the window
+        boolean[] next = new boolean[subWindows];
+        for (int i = 0; i < subWindows; i++) {
+            long e = epochs.get(i);
+            next[i] = e >= 0 && e > epoch - subWindows;
+        }
+        live = next;
+    }
+
+    // once a source is flagged, keep flagging its packets for the rest of the window
+    private Alert alerted(String label, long keyHash, long epoch) {
+        Alert a = alerts.get(firedKey(label, keyHash));
+        return a != null && a.until >= epoch ? a : null;
+    }
+
+    private static long firedKey(String label, long keyHash) {
+        return mix(keyHash ^ label.hashCode());
+    }
+
+    // the only place the key address is formatted; an expired alert for the key is reopened
+    private synchronized Alert open(String label, long keyHash, String key, long now, long epoch) {
+        long id = firedKey(label, keyHash);
+        Alert a = alerts.get(id);
+        if (a != null) {
+            a.until = Math.max(a.until, epoch + subWindows);
+            return a;
+        }
+        a = new Alert(label, key, keyHash, now);
+        a.until = epoch + subWindows;
+        alerts.put(id, a);
+        if (alerts.size() > maxAlerts) {
+            Map.Entry<Long, Alert> oldest = null;
+            for (Map.Entry<Long, Alert> e : alerts.entrySet()) {
+                if (e.getValue() != a && (oldest == null || e.getValue().lastSeen < oldest.getValue().lastSeen)) oldest = e;
+            }
+            if (oldest != null) alerts.remove(oldest.getKey());
+        }
+        return a;
+    }
+
+    /** One open alert; rendered to the /api/alerts map shape only when read. */
+    private static final class Alert {
+        final String label;
+        final String key;
+        final long keyHash;
+        final long firstSeen;
+        // updated racily by classifier threads; each field is a whole value, the last writer wins
+        volatile long until;
+        volatile long epoch;
+        volatile long lastSeen;
+        volatile long value;
+        volatile PacketRecord last; // immutable; addresses formatted only when alerts are read
+        final LongAdder packets = new LongAdder();
+
+        Alert(String label, String key, long keyHash, long firstSeen) {
+            this.label = label;
+            this.key = key;
+            this.keyHash = keyHash;
+            this.firstSeen = firstSeen;
+            this.lastSeen = firstSeen;
+        }
+
+        void hit(PacketRecord pkt, long value, long now, long epoch, int subWindows) {
+            if (this.epoch != epoch) {
+                this.epoch = epoch;
+                until = epoch + subWindows;
+            }
+            lastSeen = now;
+            this.value = value;
+            last = pkt;
+            packets.increment();
+        }
+    }
+
+    private String describe(String label, String key, long value) {
+        long windowSec = slotMs * subWindows / 1000;
+        switch (label) {
+            case PORT_SCAN: return key + " probed ~" + value + " distinct ports in " + windowSec + "s";
+            case SYN_FLOOD: return key + " received ~" + value + " SYNs without ACK in " + windowSec + "s";
+            default: return key + " sent ~" + value + (value >= heavyPackets ? " packets" : " bytes") + " in " + windowSec + "s";
+        }
+    }
+
+    /** Current alerts, newest first, in the gateway's /api/alerts shape plus detector fields. */
+    public List<Map<String, Object>> alerts() {
+        List<Map<String, Object>> out = new ArrayList<>();
+        for (Alert a : alerts.values()) {
+            PacketRecord last = a.last;
+            Map<String, Object> m = new HashMap<>();
+            m.put("id", a.label + "|" + a.key);
+            m.put("type", a.label);
+            m.put("description", describe(a.label, a.key, a.value));
+            m.put("severity", a.label.startsWith("MALICIOUS") ? "high" : "medium");
+            m.put("timestamp", a.lastSeen);
+            m.put("first_seen", a.firstSeen);
+            m.put("source_ip", last == null ? null : last.srcIp());
+            m.put("destination_ip", last == null ? null : last.dstIp());
+            m.put("value", a.value);
+            m.put("packets", a.packets.sum());
+            out.add(m);
+        }
+        out.sort((x, y) -> Long.compare((Long) y.get("timestamp"), (Long) x.get("timestamp")));
+        return out;
+    }
+
+    public Map<String, Object> stats() {
+        int mem = 0;
+        for (int i = 0; i < subWindows; i++) {
+            mem += packets[i].bytes() + bytes[i].bytes() + syns[i].bytes() + ports[i].bytes();
+        }
+        Map<String, Object> s = new HashMap<>();
+        s.put("enabled", enabled);
+        s.put("window_ms", slotMs * subWindows);
+        s.put("sub_windows", subWindows);
+        s.put("sketch_bytes", mem);
+        s.put("port_scan_ports", portScanThreshold);
+        s.put("syn_flood_syns", synFloodThreshold);
+        s.put("heavy_hitter_packets", heavyPackets);
+        s.put("heavy_hitter_bytes", heavyBytes);
+        s.put("active_alerts", alerts.size());
+        return s;
+    }
+
+    // both halves through fmix64; an IPv4 address is just lo with hi = 0
+    private static long hash(long hi, long lo, int seed) {
+        return mix(mix(hi ^ (seed * 0x9e3779b97f4a7c15L)) ^ lo);
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
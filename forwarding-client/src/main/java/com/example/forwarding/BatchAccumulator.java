@@ -0,0 +1,90 @@
+package com.example.forwarding;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Collects items into batches bounded by size and age. A batch is handed to the sink
+ * either by the thread whose add() filled it, or by the linger timer once its oldest
+ * item has waited {@code lingerMs}. The sink always runs outside the lock.
+ */
+public class BatchAccumulator<T> implements AutoCloseable {
+
+    private final int maxBatchSize;
+    private final long lingerNanos;
+    private final Consumer<List<T>> sink;
+    private final ScheduledExecutorService timer;
+
+    private final Object lock = new Object();
+    private List<T> current;
+    private long oldestAddedAt;
+
+    public BatchAccumulator(String name, int maxBatchSize, long lingerMs, Consumer<List<T>> sink) {
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, lingerMs));
+        this.sink = sink;
+        this.current = new ArrayList<>(this.maxBatchSize);
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, name + "-linger");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(1, lingerMs);
+        timer.scheduleAtFixedRate(this::flushIfLingered, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    public void add(T item) {
+        List<T> full = null;
+        synchronized (lock) {
+            if (current.isEmpty()) {
+                oldestAddedAt = System.nanoTime();
+            }
+            current.add(item);
+            if (current.size() >= maxBatchSize) {
+                full = current;
+                current = new ArrayList<>(maxBatchSize);
+            }
+        }
+        if (full != null) {
+            sink.accept(full);
+        }
+    }
+
+    public void flush() {
+        List<T> pending;
+        synchronized (lock) {
+            if (current.isEmpty()) return;
+            pending = current;
+            current = new ArrayList<>(maxBatchSize);
+        }
+        sink.accept(pending);
+    }
+
+    private void flushIfLingered() {
+        List<T> due = null;
+        synchronized (lock) {
+            if (!current.isEmpty() && System.nanoTime() - oldestAddedAt >= lingerNanos) {
+                due = current;
+                current = new ArrayList<>(maxBatchSize);
+            }
+        }
+        if (due != null) {
+            try {
+                sink.accept(due);
+            } catch (Exception e) {
+                // keep the timer alive; the sink reports its own failures
+                e.printStackTrace();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        timer.shutdownNow();
+        flush();
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.forwarding;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Consecutive-failure circuit breaker. After {@code failureThreshold} failures in a
+ * row the circuit opens and calls fail fast for {@code openMs}; then exactly one
+ * trial call is let through (half-open) and its outcome closes or re-opens it.
+ */
+public class CircuitBreaker {
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    /** What {@link #allow} granted: nothing, an ordinary call, or the one half-open trial. */
+    public enum Permit { DENIED, CALL, TRIAL }
+
+    private final int failureThreshold;
+    private final long openMs;
+    private final AtomicReference<State> state = new AtomicReference<>(State.CLOSED);
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private final AtomicLong openedAt = new AtomicLong();
+    private final AtomicLong opens = new AtomicLong();
+
+    public CircuitBreaker(int failureThreshold, long openMs) {
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openMs = Math.max(1, openMs);
+    }
+
+    /** Whether a call may go out now; in the open state only the caller that wins the half-open trial may. */
+    public Permit allow() {
+        State s = state.get();
+        if (s == State.CLOSED) return Permit.CALL;
+        if (s == State.OPEN && System.currentTimeMillis() - openedAt.get() >= openMs
+                && state.compareAndSet(State.OPEN, State.HALF_OPEN)) {
+            return Permit.TRIAL;
+        }
+        return Permit.DENIED;
+    }
+
+    public void onSuccess() {
+        consecutiveFailures.set(0);
+        state.set(State.CLOSED);
+    }
+
+    public void onFailure() {
+        if (state.get() == State.HALF_OPEN || consecutiveFailures.incrementAndGet() >= failureThreshold) {
+            if (state.getAndSet(State.OPEN) != State.OPEN) opens.incrementAndGet();
+            openedAt.set(System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * An allowed call never went out (e.g. no in-flight permit). Only the trial is given
+     * back; an ordinary call must not reopen a trial some other caller is running.
+     */
+    public void abandon(Permit permit) {
+        if (permit == Permit.TRIAL) state.compareAndSet(State.HALF_OPEN, State.OPEN);
+    }
+
+    public State state() { return state.get(); }
+    public long opens() { return opens.get(); }
+}
@@ -0,0 +1,279 @@
+package com.example.forwarding;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+import org.springframework.core.env.Environment;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * POSTs to one downstream endpoint over a pool of keep-alive connections. Requests are
+ * dispatched on a small executor, at most {@code maxInFlight} at a time; a caller that
+ * can't get a permit within {@code acquireTimeoutMs} gets {@code false} back instead of
+ * queueing without bound. A {@link CircuitBreaker} makes calls to a dead endpoint fail
+ * fast. The target URL is fixed at construction; {@link ShardedClient} keeps one per
+ * instance when a hop has several.
+ */
+public class ForwardingClient implements AutoCloseable {
+
+    /** Connection and dispatch settings; see {@link #config} for the property names. */
+    public static class Config {
+        public String url;
+        public int connectTimeoutMs = 1000;
+        public int readTimeoutMs = 5000;
+        public int maxConnections = 32;
+        public int maxInFlight = 64;
+        public long acquireTimeoutMs = 100;
+        public int failureThreshold = 5;
+        public long openMs = 5000;
+    }
+
+    /** Reads {@code <prefix>.url}, {@code .connect-timeout-ms}, {@code .read-timeout-ms}, {@code .max-connections},
+     * {@code .max-in-flight}, {@code .acquire-timeout-ms}, {@code .failure-threshold} and {@code .open-ms}. */
+    public static Config config(Environment env, String prefix, String defaultUrl) {
+        Config c = new Config();
+        c.url = env.getProperty(prefix + ".url", defaultUrl);
+        c.connectTimeoutMs = env.getProperty(prefix + ".connect-timeout-ms", Integer.class, c.connectTimeoutMs);
+        c.readTimeoutMs = env.getProperty(prefix + ".read-timeout-ms", Integer.class, c.readTimeoutMs);
+        c.maxConnections = env.getProperty(prefix + ".max-connections", Integer.class, c.maxConnections);
+        c.maxInFlight = env.getProperty(prefix + ".max-in-flight", Integer.class, c.maxInFlight);
+        c.acquireTimeoutMs = env.getProperty(prefix + ".acquire-timeout-ms", Long.class, c.acquireTimeoutMs);
+        c.failureThreshold = env.getProperty(prefix + ".failure-threshold", Integer.class, c.failureThreshold);
+        c.openMs = env.getProperty(prefix + ".open-ms", Long.class, c.openMs);
+        return c;
+    }
+
+    /**
+     * How one request ended: stored, worth retrying (5xx, 408, 429, I/O, circuit open, no
+     * permit), or rejected for good (any other 3xx/4xx, i.e. the request itself is at fault).
+     */
+    public enum Outcome { SENT, RETRY, REJECTED }
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final String name;
+    private final URI uri;
+    private final long acquireTimeoutMs;
+    private final PoolingHttpClientConnectionManager pool;
+    private final CloseableHttpClient http;
+    private final ThreadPoolExecutor dispatcher;
+    private final Semaphore inFlight;
+    private final int maxInFlight;
+    private final CircuitBreaker breaker;
+
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder shortCircuited = new LongAdder();
+    private final LongAdder latencyNanos = new LongAdder();
+    private final AtomicLong lastStatus = new AtomicLong();
+    private volatile Timer requestTimer;
+    private final List<Meter> meters = new ArrayList<>();
+    private MeterRegistry registry;
+
+    public ForwardingClient(String name, Config config) {
+        this.name = name;
+        this.uri = URI.create(config.url);
+        this.acquireTimeoutMs = config.acquireTimeoutMs;
+        this.maxInFlight = Math.max(1, config.maxInFlight);
+        this.pool = new PoolingHttpClientConnectionManager(60, TimeUnit.SECONDS);
+        pool.setMaxTotal(Math.max(1, config.maxConnections));
+        pool.setDefaultMaxPerRoute(Math.max(1, config.maxConnections));
+        pool.setValidateAfterInactivity(2000);
+        RequestConfig rc = RequestConfig.custom()
+                .setConnectTimeout(config.connectTimeoutMs)
+                .setSocketTimeout(config.readTimeoutMs)
+                .setConnectionRequestTimeout(config.readTimeoutMs)
+                .build();
+        this.http = HttpClients.custom()
+                .setConnectionManager(pool)
+                .setDefaultRequestConfig(rc)
+                .disableAutomaticRetries()
+                .evictIdleConnections(30, TimeUnit.SECONDS)
+                .build();
+        // the semaphore bounds the work; the queue only absorbs the gap between release and reuse
+        this.dispatcher = new ThreadPoolExecutor(maxInFlight, maxInFlight, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    Thread t = new Thread(r, name + "-http");
+                    t.setDaemon(true);
+                    return t;
+                });
+        dispatcher.allowCoreThreadTimeOut(true);
+        this.inFlight = new Semaphore(maxInFlight);
+        this.breaker = new CircuitBreaker(config.failureThreshold, config.openMs);
+    }
+
+    public CompletableFuture<Boolean> postJson(Object body) {
+        try {
+            return post(MAPPER.writeValueAsBytes(body), ContentType.APPLICATION_JSON);
+        } catch (Exception e) {
+            failed.increment();
+            return CompletableFuture.completedFuture(false);
+        }
+    }
+
+    /** Asynchronous POST; completes with true on a 2xx answer, false on any failure or rejection. */
+    public CompletableFuture<Boolean> post(byte[] body, ContentType type) {
+        CircuitBreaker.Permit permit = acquire();
+        if (permit == CircuitBreaker.Permit.DENIED) return CompletableFuture.completedFuture(false);
+        try {
+            return CompletableFuture.supplyAsync(() -> execute(body, type) == Outcome.SENT, dispatcher);
+        } catch (RejectedExecutionException e) {
+            // closed underneath us
+            inFlight.release();
+            breaker.abandon(permit);
+            rejected.increment();
+            return CompletableFuture.completedFuture(false);
+        }
+    }
+
+    /** Same as {@link #post} but runs the request on the calling thread. */
+    public boolean postSync(byte[] body, ContentType type) {
+        return send(body, type) == Outcome.SENT;
+    }
+
+    /** {@link #postSync}, telling a failure worth retrying from a permanent rejection. */
+    public Outcome send(byte[] body, ContentType type) {
+        return acquire() == CircuitBreaker.Permit.DENIED ? Outcome.RETRY : execute(body, type);
+    }
+
+    public boolean postJsonSync(Object body) {
+        try {
+            return postSync(MAPPER.writeValueAsBytes(body), ContentType.APPLICATION_JSON);
+        } catch (Exception e) {
+            failed.increment();
+            return false;
+        }
+    }
+
+    // DENIED, or the breaker's permit with an in-flight permit held
+    private CircuitBreaker.Permit acquire() {
+        CircuitBreaker.Permit permit = breaker.allow();
+        if (permit == CircuitBreaker.Permit.DENIED) {
+            shortCircuited.increment();
+            return permit;
+        }
+        try {
+            if (inFlight.tryAcquire(acquireTimeoutMs, TimeUnit.MILLISECONDS)) return permit;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        breaker.abandon(permit);
+        rejected.increment();
+        return CircuitBreaker.Permit.DENIED;
+    }
+
+    // holds one in-flight permit, released here
+    private Outcome execute(byte[] body, ContentType type) {
+        long start = System.nanoTime();
+        HttpPost post = new HttpPost(uri);
+        post.setEntity(new ByteArrayEntity(body, type));
+        try {
+            HttpResponse res = http.execute(post);
+            int status = res.getStatusLine().getStatusCode();
+            // drain the body so the connection goes back to the pool
+            EntityUtils.consumeQuietly(res.getEntity());
+            lastStatus.set(status);
+            if (status >= 500) {
+                breaker.onFailure();
+                failed.increment();
+                return Outcome.RETRY;
+            }
+            // a 4xx is our request's fault, not the endpoint's
+            breaker.onSuccess();
+            if (status >= 300) {
+                failed.increment();
+                return status == 408 || status == 429 ? Outcome.RETRY : Outcome.REJECTED;
+            }
+            sent.increment();
+            return Outcome.SENT;
+        } catch (Exception e) {
+            breaker.onFailure();
+            failed.increment();
+            return Outcome.RETRY;
+        } finally {
+            long took = System.nanoTime() - start;
+            latencyNanos.add(took);
+            Timer t = requestTimer;
+            if (t != null) t.record(took, TimeUnit.NANOSECONDS);
+            inFlight.release();
+        }
+    }
+
+    public String url() { return uri.toString(); }
+
+    /** host:port of the endpoint; tells apart the instances behind one {@link ShardedClient}. */
+    public String shard() { return uri.getAuthority(); }
+
+    /**
+     * Publishes forward.* meters tagged with this client's name as {@code target} and its
+     * {@link #shard} as {@code shard}. {@link #close} removes them again.
+     */
+    public ForwardingClient bindTo(MeterRegistry registry) {
+        String shard = shard();
+        requestTimer = Timer.builder("forward.requests").tags("target", name, "shard", shard)
+                .publishPercentiles(0.5, 0.95, 0.99).publishPercentileHistogram()
+                .register(registry);
+        meters.add(requestTimer);
+        meters.add(FunctionCounter.builder("forward.errors", failed, LongAdder::sum).tags("target", name, "shard", shard, "reason", "failed").register(registry));
+        meters.add(FunctionCounter.builder("forward.errors", rejected, LongAdder::sum).tags("target", name, "shard", shard, "reason", "rejected").register(registry));
+        meters.add(FunctionCounter.builder("forward.errors", shortCircuited, LongAdder::sum).tags("target", name, "shard", shard, "reason", "short_circuited").register(registry));
+        meters.add(Gauge.builder("forward.in.flight", inFlight, s -> maxInFlight - s.availablePermits()).tags("target", name, "shard", shard).register(registry));
+        meters.add(Gauge.builder("forward.circuit.open", breaker, b -> b.state() == CircuitBreaker.State.CLOSED ? 0 : 1).tags("target", name, "shard", shard).register(registry));
+        this.registry = registry;
+        return this;
+    }
+
+    public Map<String,Object> stats() {
+        long done = sent.sum() + failed.sum();
+        Map<String,Object> s = new HashMap<>();
+        s.put("name", name);
+        s.put("url", uri.toString());
+        s.put("shard", shard());
+        s.put("sent", sent.sum());
+        s.put("failed", failed.sum());
+        s.put("rejected", rejected.sum());
+        s.put("short_circuited", shortCircuited.sum());
+        s.put("in_flight", maxInFlight - inFlight.availablePermits());
+        s.put("max_in_flight", maxInFlight);
+        s.put("pool_leased", pool.getTotalStats().getLeased());
+        s.put("pool_available", pool.getTotalStats().getAvailable());
+        s.put("circuit", breaker.state().name());
+        s.put("circuit_opens", breaker.opens());
+        s.put("last_status", lastStatus.get());
+        s.put("avg_latency_ms", done == 0 ? 0 : latencyNanos.sum() / 1e6 / done);
+        return s;
+    }
+
+    @Override
+    public void close() {
+        if (registry != null) meters.forEach(registry::remove);
+        dispatcher.shutdown();
+        try {
+            dispatcher.awaitTermination(5, TimeUnit.SECONDS);
+            http.close();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.forwarding;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.ToIntFunction;
+
+/**
+ * A {@link BatchAccumulator} per instance of a {@link ShardedClient}: each item goes to
+ * the batch of the shard its flow hash routes to, so every batch is for one instance.
+ * An instance that leaves membership has its partial batch flushed to it first.
+ */
+public class ShardedBatcher<T> implements AutoCloseable {
+
+    private final String name;
+    private final ShardedClient client;
+    private final int maxBatchSize;
+    private final long lingerMs;
+    private final ToIntFunction<T> flowHash;
+    private final BiConsumer<ShardedClient.Shard, List<T>> sink;
+    private final Map<ShardedClient.Shard,BatchAccumulator<T>> batchers = new ConcurrentHashMap<>();
+
+    public ShardedBatcher(String name, ShardedClient client, int maxBatchSize, long lingerMs,
+                          ToIntFunction<T> flowHash, BiConsumer<ShardedClient.Shard, List<T>> sink) {
+        this.name = name;
+        this.client = client;
+        this.maxBatchSize = maxBatchSize;
+        this.lingerMs = lingerMs;
+        this.flowHash = flowHash;
+        this.sink = sink;
+        client.onRemoved(shard -> {
+            BatchAccumulator<T> b = batchers.remove(shard);
+            if (b != null) b.close();
+        });
+    }
+
+    public void add(T item) {
+        ShardedClient.Shard shard = client.route(flowHash.applyAsInt(item));
+        batchers.computeIfAbsent(shard, s -> new BatchAccumulator<>(name + "-" + s.id(), maxBatchSize, lingerMs,
+                batch -> sink.accept(s, batch))).add(item);
+        if (shard.removed) {
+            // raced with the removal: the listener may already have run, so flush here
+            BatchAccumulator<T> b = batchers.remove(shard);
+            if (b != null) b.close();
+        }
+    }
+
+    public void flush() {
+        batchers.values().forEach(BatchAccumulator::flush);
+    }
+
+    @Override
+    public void close() {
+        batchers.values().forEach(BatchAccumulator::close);
+    }
+}
@@ -0,0 +1,389 @@
+package com.example.forwarding;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
+import org.springframework.core.env.Environment;
+
+import java.net.InetAddress;
+import java.net.URI;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Spreads one hop over several instances of the next service. Each instance (a
+ * {@link Shard}) has its own {@link ForwardingClient}; {@link #route} picks one by
+ * consistent hashing of a flow hash, so both directions of a conversation always land
+ * on the same instance and only the flows of an instance that joins or leaves move.
+ * <p>
+ * Membership is the configured URLs, or with {@code discovery=dns} every address their
+ * host names resolve to, which is how a {@code docker compose --scale}d service shows up.
+ * A checker thread re-resolves and probes each instance's health path every
+ * {@code healthIntervalMs}: an instance leaves the ring after {@code healthFailures}
+ * failed probes in a row and rejoins on the next good one. With no healthy instance
+ * the ring holds all of them, so the breakers and spill journals still see the traffic.
+ */
+public class ShardedClient implements AutoCloseable {
+
+    /** Membership settings on top of the per-instance client's; see {@link #config}. */
+    public static class Config {
+        public ForwardingClient.Config client;
+        public List<String> urls = new ArrayList<>();
+        public boolean dns = false;
+        public String healthPath = "/actuator/health";
+        public long healthIntervalMs = 2000;
+        public int healthTimeoutMs = 1000;
+        public int healthFailures = 2;
+        public int virtualNodes = 128;
+    }
+
+    /**
+     * Reads {@link ForwardingClient#config} under {@code prefix}, with {@code .url} taken as
+     * a comma-separated list, plus {@code .discovery} ({@code static} or {@code dns}),
+     * {@code .health-path} (empty for no probing), {@code .health-interval-ms},
+     * {@code .health-timeout-ms}, {@code .health-failures} and {@code .virtual-nodes}.
+     */
+    public static Config config(Environment env, String prefix, String defaultUrl) {
+        Config c = new Config();
+        c.client = ForwardingClient.config(env, prefix, defaultUrl);
+        for (String u : c.client.url.split(",")) {
+            if (!u.trim().isEmpty()) c.urls.add(u.trim());
+        }
+        c.dns = "dns".equalsIgnoreCase(env.getProperty(prefix + ".discovery", "static"));
+        c.healthPath = env.getProperty(prefix + ".health-path", c.healthPath);
+        c.healthIntervalMs = env.getProperty(prefix + ".health-interval-ms", Long.class, c.healthIntervalMs);
+        c.healthTimeoutMs = env.getProperty(prefix + ".health-timeout-ms", Integer.class, c.healthTimeoutMs);
+        c.healthFailures = env.getProperty(prefix + ".health-failures", Integer.class, c.healthFailures);
+        c.virtualNodes = env.getProperty(prefix + ".virtual-nodes", Integer.class, c.virtualNodes);
+        return c;
+    }
+
+    /** One downstream instance and what has been sent to it. */
+    public final class Shard {
+        final String id;
+        final ForwardingClient client;
+        // probes failed in a row; starts past the threshold for instances found by discovery
+        volatile int failures;
+        // out of membership; batches still open for it are flushed, nothing new is routed to it
+        volatile boolean removed;
+        final LongAdder itemsSent = new LongAdder();
+        final LongAdder itemsFailed = new LongAdder();
+        private final List<Meter> meters = new ArrayList<>();
+        private long lastItems;
+        private volatile double itemsPerSec;
+
+        Shard(String url, int failures) {
+            ForwardingClient.Config c = copy(config.client);
+            c.url = url;
+            this.client = new ForwardingClient(name, c);
+            this.id = client.shard();
+            this.failures = failures;
+        }
+
+        public String id() { return id; }
+
+        /** Posts one batch of {@code items} to this instance; counts them as sent or failed. */
+        public CompletableFuture<Boolean> post(byte[] body, ContentType type, int items) {
+            return client.post(body, type).thenApply(ok -> count(ok, items));
+        }
+
+        public boolean postSync(byte[] body, ContentType type, int items) {
+            return count(client.postSync(body, type), items);
+        }
+
+        public ForwardingClient.Outcome send(byte[] body, ContentType type, int items) {
+            ForwardingClient.Outcome outcome = client.send(body, type);
+            count(outcome == ForwardingClient.Outcome.SENT, items);
+            return outcome;
+        }
+
+        private boolean count(boolean ok, int items) {
+            (ok ? itemsSent : itemsFailed).add(items);
+            return ok;
+        }
+
+        boolean healthy() {
+            return failures < config.healthFailures;
+        }
+
+        void bindTo(MeterRegistry registry) {
+            client.bindTo(registry);
+            meters.add(FunctionCounter.builder("forward.shard.items", itemsSent, LongAdder::sum).tags("target", name, "shard", id, "outcome", "sent").register(registry));
+            meters.add(FunctionCounter.builder("forward.shard.items", itemsFailed, LongAdder::sum).tags("target", name, "shard", id, "outcome", "failed").register(registry));
+        }
+
+        void close() {
+            if (registry != null) meters.forEach(registry::remove);
+            client.close();
+        }
+    }
+
+    /** Sorted virtual-node positions and the shard at each; replaced whole on every change. */
+    private static final class Ring {
+        final int[] points;
+        final Shard[] owners;
+        final Set<Shard> members;
+
+        Ring(Collection<Shard> shards, int virtualNodes) {
+            this.members = new HashSet<>(shards);
+            List<long[]> nodes = new ArrayList<>();
+            List<Shard> ordered = new ArrayList<>(shards);
+            for (int s = 0; s < ordered.size(); s++) {
+                long seed = ordered.get(s).id.hashCode();
+                for (int v = 0; v < virtualNodes; v++) {
+                    nodes.add(new long[] {(int) mix(seed << 32 | v), s});
+                }
+            }
+            nodes.sort(Comparator.comparingLong(n -> n[0]));
+            this.points = new int[nodes.size()];
+            this.owners = new Shard[nodes.size()];
+            for (int i = 0; i < points.length; i++) {
+                points[i] = (int) nodes.get(i)[0];
+                owners[i] = ordered.get((int) nodes.get(i)[1]);
+            }
+        }
+
+        Shard owner(int hash) {
+            int key = (int) mix(hash);
+            int i = Arrays.binarySearch(points, key);
+            if (i < 0) i = -i - 1;
+            return owners[i == points.length ? 0 : i];
+        }
+
+        // fraction of the hash space each shard owns
+        Map<Shard,Double> shares() {
+            Map<Shard,Double> m = new HashMap<>();
+            for (int i = 0; i < points.length; i++) {
+                long from = i == 0 ? (long) points[points.length - 1] - (1L << 32) : points[i - 1];
+                m.merge(owners[i], (points[i] - from) / (double) (1L << 32), Double::sum);
+            }
+            return m;
+        }
+    }
+
+    private final String name;
+    private final Config config;
+    private final CloseableHttpClient health;
+    private final ScheduledExecutorService checker;
+    private final Map<String,Shard> shards = new ConcurrentHashMap<>();
+    private final Map<String,List<String>> resolved = new ConcurrentHashMap<>();
+    private final List<Consumer<Shard>> removalListeners = new CopyOnWriteArrayList<>();
+    private final AtomicLong rebalances = new AtomicLong();
+    private volatile Ring ring;
+    private volatile long lastRebalanceAt;
+    private volatile long lastCheckAt;
+    private volatile MeterRegistry registry;
+
+    public ShardedClient(String name, Config config) {
+        if (config.urls.isEmpty()) throw new IllegalArgumentException(name + ": no downstream url");
+        this.name = name;
+        this.config = config;
+        // configured instances start in the ring; the first probes take out dead ones
+        for (String url : config.urls) {
+            List<String> found = resolve(url);
+            for (String u : found != null ? found : List.of(url)) shards.computeIfAbsent(shardId(u), k -> new Shard(u, 0));
+        }
+        this.ring = new Ring(shards.values(), Math.max(1, config.virtualNodes));
+        RequestConfig rc = RequestConfig.custom()
+                .setConnectTimeout(config.healthTimeoutMs)
+                .setSocketTimeout(config.healthTimeoutMs)
+                .setConnectionRequestTimeout(config.healthTimeoutMs)
+                .build();
+        this.health = HttpClients.custom().setDefaultRequestConfig(rc).disableAutomaticRetries().build();
+        this.checker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, name + "-members");
+            t.setDaemon(true);
+            return t;
+        });
+        if (config.dns || !config.healthPath.isEmpty()) {
+            long period = Math.max(100, config.healthIntervalMs);
+            checker.scheduleWithFixedDelay(this::check, 0, period, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /** The instance that owns {@code flowHash}. */
+    public Shard route(int flowHash) {
+        return ring.owner(flowHash);
+    }
+
+    /** Sends a body to the owner of {@code flowHash} on the calling thread, e.g. for journal replay. */
+    public ForwardingClient.Outcome send(int flowHash, byte[] body, ContentType type, int items) {
+        return route(flowHash).send(body, type, items);
+    }
+
+    /** Called with each instance dropped from membership, before its client is closed. */
+    public void onRemoved(Consumer<Shard> listener) {
+        removalListeners.add(listener);
+    }
+
+    /** Publishes forward.* meters for every instance, present and future, tagged with {@code target} and {@code shard}. */
+    public ShardedClient bindTo(MeterRegistry registry) {
+        this.registry = registry;
+        for (Shard s : shards.values()) s.bindTo(registry);
+        FunctionCounter.builder("forward.rebalances", rebalances, AtomicLong::get).tag("target", name).register(registry);
+        return this;
+    }
+
+    private void check() {
+        try {
+            if (config.dns) discover();
+            for (Shard s : shards.values()) {
+                if (config.healthPath.isEmpty() || probe(s)) s.failures = 0;
+                else if (s.failures < Integer.MAX_VALUE) s.failures++;
+            }
+            rebuild();
+            long now = System.currentTimeMillis();
+            if (lastCheckAt > 0) {
+                double secs = Math.max(1, now - lastCheckAt) / 1000.0;
+                for (Shard s : shards.values()) {
+                    long items = s.itemsSent.sum();
+                    s.itemsPerSec = (items - s.lastItems) / secs;
+                    s.lastItems = items;
+                }
+            }
+            lastCheckAt = now;
+        } catch (Exception e) {
+            // keep checking; the next round sees the same state again
+            e.printStackTrace();
+        }
+    }
+
+    // new addresses wait out of the ring until their first good probe; vanished ones are dropped
+    private void discover() {
+        Set<String> seen = new HashSet<>();
+        for (String url : config.urls) {
+            List<String> found = resolve(url);
+            // a failed lookup keeps what the name had rather than empty the ring
+            if (found == null) found = resolved.getOrDefault(url, List.of(url));
+            resolved.put(url, found);
+            for (String u : found) {
+                String id = shardId(u);
+                seen.add(id);
+                shards.computeIfAbsent(id, k -> {
+                    Shard s = new Shard(u, config.healthPath.isEmpty() ? 0 : config.healthFailures);
+                    MeterRegistry r = registry;
+                    if (r != null) s.bindTo(r);
+                    return s;
+                });
+            }
+        }
+        for (Shard s : new ArrayList<>(shards.values())) {
+            if (seen.contains(s.id)) continue;
+            shards.remove(s.id);
+            s.removed = true;
+            rebuild();
+            for (Consumer<Shard> l : removalListeners) l.accept(s);
+            s.close();
+        }
+    }
+
+    private boolean probe(Shard s) {
+        try {
+            URI u = URI.create(s.client.url());
+            HttpResponse res = health.execute(new HttpGet(new URI(u.getScheme(), u.getAuthority(), config.healthPath, null, null)));
+            EntityUtils.consumeQuietly(res.getEntity());
+            return res.getStatusLine().getStatusCode() / 100 == 2;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private synchronized void rebuild() {
+        List<Shard> up = new ArrayList<>();
+        for (Shard s : shards.values()) if (s.healthy()) up.add(s);
+        if (up.isEmpty()) up.addAll(shards.values());
+        if (up.isEmpty() || new HashSet<>(up).equals(ring.members)) return;
+        ring = new Ring(up, Math.max(1, config.virtualNodes));
+        rebalances.incrementAndGet();
+        lastRebalanceAt = System.currentTimeMillis();
+    }
+
+    // with dns discovery, one url per address of its host, sorted; null when the lookup fails
+    private List<String> resolve(String url) {
+        if (!config.dns) return List.of(url);
+        URI u = URI.create(url);
+        try {
+            List<String> urls = new ArrayList<>();
+            for (InetAddress a : InetAddress.getAllByName(u.getHost())) {
+                urls.add(new URI(u.getScheme(), null, a.getHostAddress(), u.getPort(), u.getPath(), u.getQuery(), null).toString());
+            }
+            Collections.sort(urls);
+            return urls;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static String shardId(String url) {
+        return URI.create(url).getAuthority();
+    }
+
+    private static ForwardingClient.Config copy(ForwardingClient.Config c) {
+        ForwardingClient.Config n = new ForwardingClient.Config();
+        n.url = c.url;
+        n.connectTimeoutMs = c.connectTimeoutMs;
+        n.readTimeoutMs = c.readTimeoutMs;
+        n.maxConnections = c.maxConnections;
+        n.maxInFlight = c.maxInFlight;
+        n.acquireTimeoutMs = c.acquireTimeoutMs;
+        n.failureThreshold = c.failureThreshold;
+        n.openMs = c.openMs;
+        return n;
+    }
+
+    private static long mix(long x) {
+        x *= 0x9e3779b97f4a7c15L;
+        x ^= x >>> 32;
+        x *= 0xd6e8feb86659fd39L;
+        return x ^ (x >>> 29);
+    }
+
+    public Map<String,Object> stats() {
+        Ring r = ring;
+        Map<Shard,Double> shares = r.shares();
+        List<Map<String,Object>> list = new ArrayList<>();
+        for (Shard s : shards.values()) {
+            Map<String,Object> m = s.client.stats();
+            m.put("healthy", s.healthy());
+            m.put("in_ring", r.members.contains(s));
+            m.put("hash_share", shares.getOrDefault(s, 0.0));
+            m.put("items_sent", s.itemsSent.sum());
+            m.put("items_failed", s.itemsFailed.sum());
+            m.put("items_per_sec", s.itemsPerSec);
+            list.add(m);
+        }
+        list.sort(Comparator.comparing(m -> (String) m.get("shard")));
+        Map<String,Object> res = new HashMap<>();
+        res.put("name", name);
+        res.put("urls", config.urls);
+        res.put("discovery", config.dns ? "dns" : "static");
+        res.put("shards", list);
+        res.put("ring_size", r.members.size());
+        res.put("rebalances", rebalances.get());
+        res.put("last_rebalance_at", lastRebalanceAt);
+        res.put("sent", list.stream().mapToLong(m -> (Long) m.get("sent")).sum());
+        res.put("failed", list.stream().mapToLong(m -> (Long) m.get("failed")).sum());
+        return res;
+    }
+
+    @Override
+    public void close() {
+        checker.shutdownNow();
+        for (Shard s : shards.values()) s.close();
+        try {
+            health.close();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,427 @@
+package com.example.forwarding;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.core.env.Environment;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only disk journal for request bodies the next hop did not take. Bodies are
+ * appended sequentially to memory-mapped segment files; a replay thread sends them
+ * again oldest first and acknowledges each one once the sender reports it stored,
+ * which advances a checkpoint kept next to the segments. Fully acknowledged segments
+ * are deleted. After a restart whatever is past the checkpoint is replayed. When one
+ * more segment would take the journal over {@code maxBytes}, new bodies are rejected.
+ * A body the next hop refuses for good (a 4xx) is acknowledged and copied to the
+ * {@code dead-letter} file next to the segments, so it does not block everything
+ * behind it; that file stops growing at one segment's size.
+ *
+ * <p>A record is an int length, the int CRC32C of the body, the long append time in
+ * millis, then the body. A zero length ends the written part of a segment. Offsets are
+ * logical: a segment file is named after the offset of its first byte.
+ */
+public class SpillJournal implements AutoCloseable {
+
+    /** Location and limits; see {@link #config} for the property names. */
+    public static class Config {
+        public boolean enabled = true;
+        public String dir = "journal";
+        public long segmentBytes = 32L << 20;
+        public long maxBytes = 1L << 30;
+        public boolean fsync = false;
+        public long replayIntervalMs = 1000;
+    }
+
+    /** Reads {@code <prefix>.enabled}, {@code .dir}, {@code .segment-mb}, {@code .max-mb}, {@code .fsync}
+     * and {@code .replay-interval-ms}. Each journal lives in its own subdirectory of {@code dir}. */
+    public static Config config(Environment env, String prefix, String defaultDir) {
+        Config c = new Config();
+        c.enabled = env.getProperty(prefix + ".enabled", Boolean.class, c.enabled);
+        c.dir = env.getProperty(prefix + ".dir", defaultDir);
+        c.segmentBytes = env.getProperty(prefix + ".segment-mb", Long.class, c.segmentBytes >> 20) << 20;
+        c.maxBytes = env.getProperty(prefix + ".max-mb", Long.class, c.maxBytes >> 20) << 20;
+        c.fsync = env.getProperty(prefix + ".fsync", Boolean.class, c.fsync);
+        c.replayIntervalMs = env.getProperty(prefix + ".replay-interval-ms", Long.class, c.replayIntervalMs);
+        return c;
+    }
+
+    /** Replays one body to the next hop. */
+    public interface Sender {
+        ForwardingClient.Outcome send(byte[] body);
+    }
+
+    /** Opens the journal, or returns null when it is disabled or its directory is unusable. */
+    public static SpillJournal open(String name, Config config, Sender sender) {
+        if (!config.enabled) return null;
+        try {
+            return new SpillJournal(name, config, sender);
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private static final int HEADER = 16;
+    private static final String SUFFIX = ".seg";
+    private static final long MAX_BACKOFF_MS = 30_000;
+
+    private final String name;
+    private final Path dir;
+    private final int segmentBytes;
+    private final long maxBytes;
+    private final boolean fsync;
+    private final long replayIntervalMs;
+    private final Sender sender;
+    private final Path deadLetter;
+
+    private final TreeMap<Long, Path> segments = new TreeMap<>();
+    private final MappedByteBuffer checkpoint;
+    private MappedByteBuffer writeSegment;
+    private long writeBase;
+    private MappedByteBuffer readSegment;
+    private long readBase = -1;
+    private long head;          // offset of the next append
+    private long ack;           // offset of the oldest unacknowledged record
+    private long pendingRecords;
+    private long pendingBytes;
+
+    private final LongAdder spilled = new LongAdder();
+    private final LongAdder replayed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder corrupt = new LongAdder();
+    private final LongAdder replayFailures = new LongAdder();
+    private final LongAdder deadLettered = new LongAdder();
+
+    private final Thread replayer;
+    private volatile boolean running = true;
+
+    public SpillJournal(String name, Config config, Sender sender) throws IOException {
+        this.name = name;
+        this.dir = Paths.get(config.dir, name);
+        this.segmentBytes = (int) Math.min(Math.max(config.segmentBytes, 1L << 20), 1L << 30);
+        this.maxBytes = config.maxBytes;
+        this.fsync = config.fsync;
+        this.replayIntervalMs = Math.max(10, config.replayIntervalMs);
+        this.sender = sender;
+        Files.createDirectories(dir);
+        this.deadLetter = dir.resolve("dead-letter");
+        this.checkpoint = map(dir.resolve("checkpoint"), 8);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*" + SUFFIX)) {
+            for (Path p : files) {
+                String n = p.getFileName().toString();
+                try {
+                    segments.put(Long.parseLong(n.substring(0, n.length() - SUFFIX.length())), p);
+                } catch (NumberFormatException e) {
+                    // not one of ours
+                }
+            }
+        }
+        recover();
+        this.replayer = new Thread(this::replayLoop, name + "-replay");
+        replayer.setDaemon(true);
+        replayer.start();
+    }
+
+    // finds the checkpoint and the end of the written data, counting what is still pending
+    private void recover() throws IOException {
+        ack = checkpoint.getLong(0);
+        if (segments.isEmpty()) {
+            openSegment(ack);
+            head = ack;
+            return;
+        }
+        if (ack < segments.firstKey()) ack = segments.firstKey();
+        Long floor = segments.floorKey(ack);
+        for (Iterator<Map.Entry<Long, Path>> it = segments.headMap(floor, false).entrySet().iterator(); it.hasNext(); ) {
+            Files.deleteIfExists(it.next().getValue());
+            it.remove();
+        }
+        for (Map.Entry<Long, Path> e : segments.entrySet()) {
+            long base = e.getKey();
+            MappedByteBuffer buf = map(e.getValue(), Files.size(e.getValue()));
+            int p = base == floor ? (int) Math.min(ack - base, buf.capacity()) : 0;
+            while (p + HEADER <= buf.capacity()) {
+                int len = buf.getInt(p);
+                if (len <= 0 || p + HEADER + len > buf.capacity() || buf.getInt(p + 4) != crc(buf, p + HEADER, len)) {
+                    if (len != 0) corrupt.increment();
+                    break;
+                }
+                pendingRecords++;
+                pendingBytes += len;
+                p += HEADER + len;
+            }
+            if (base == segments.lastKey()) {
+                // a torn last record is overwritten by the next append
+                if (p + HEADER <= buf.capacity()) buf.putInt(p, 0);
+                writeSegment = buf;
+                writeBase = base;
+                writeSegment.position(p);
+                head = base + p;
+            }
+        }
+        if (ack > head) ack = head;
+    }
+
+    /** Spills one body; false when it is larger than a segment or the journal is full. */
+    public synchronized boolean append(byte[] body) {
+        int need = HEADER + body.length;
+        if (need > segmentBytes) {
+            rejected.increment();
+            return false;
+        }
+        try {
+            if (writeSegment.remaining() < need) {
+                if ((segments.size() + 1L) * segmentBytes > maxBytes) {
+                    rejected.increment();
+                    return false;
+                }
+                openSegment(writeBase + writeSegment.capacity());
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            rejected.increment();
+            return false;
+        }
+        int p = writeSegment.position();
+        writeSegment.putInt(body.length);
+        writeSegment.putInt(crc(body));
+        writeSegment.putLong(System.currentTimeMillis());
+        writeSegment.put(body);
+        if (fsync) writeSegment.force();
+        head = writeBase + p + need;
+        pendingRecords++;
+        pendingBytes += body.length;
+        spilled.increment();
+        return true;
+    }
+
+    private void openSegment(long base) throws IOException {
+        Path p = dir.resolve(String.format("%020d%s", base, SUFFIX));
+        writeSegment = map(p, segmentBytes);
+        writeBase = base;
+        segments.put(base, p);
+    }
+
+    private static MappedByteBuffer map(Path p, long size) throws IOException {
+        try (FileChannel ch = FileChannel.open(p, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // the mapping stays valid after the channel is closed
+            return ch.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    // moves ack past segment ends and damaged records; returns the position of the record
+    // at ack within readSegment, or -1 when nothing is pending
+    private int locate() {
+        while (ack < head) {
+            long base = segments.floorKey(ack);
+            if (base != readBase) {
+                try {
+                    readSegment = base == writeBase ? writeSegment : map(segments.get(base), Files.size(segments.get(base)));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                readBase = base;
+            }
+            int p = (int) (ack - base);
+            if (p + HEADER <= readSegment.capacity()) {
+                int len = readSegment.getInt(p);
+                if (len > 0 && p + HEADER + len <= readSegment.capacity()
+                        && readSegment.getInt(p + 4) == crc(readSegment, p + HEADER, len)) {
+                    return p;
+                }
+                if (len != 0) corrupt.increment();
+            }
+            Long next = segments.higherKey(base);
+            advance(next == null ? head : next);
+        }
+        return -1;
+    }
+
+    private void advance(long offset) {
+        ack = offset;
+        checkpoint.putLong(0, ack);
+        if (fsync) checkpoint.force();
+        Long keep = segments.floorKey(ack);
+        for (Iterator<Map.Entry<Long, Path>> it = segments.headMap(keep, false).entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<Long, Path> e = it.next();
+            try {
+                Files.deleteIfExists(e.getValue());
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+            if (e.getKey() == readBase) {
+                readSegment = null;
+                readBase = -1;
+            }
+            it.remove();
+        }
+        if (ack >= head) {
+            pendingRecords = 0;
+            pendingBytes = 0;
+        }
+    }
+
+    private synchronized byte[] peek() {
+        int p = locate();
+        if (p < 0) return null;
+        byte[] body = new byte[readSegment.getInt(p)];
+        readSegment.get(p + HEADER, body);
+        return body;
+    }
+
+    private synchronized void acknowledge(int length) {
+        pendingRecords = Math.max(0, pendingRecords - 1);
+        pendingBytes = Math.max(0, pendingBytes - length);
+        advance(ack + HEADER + length);
+    }
+
+    // same record layout as a segment, appended until the file reaches one segment's size
+    private void deadLetter(byte[] body) {
+        deadLettered.increment();
+        try {
+            if (Files.exists(deadLetter) && Files.size(deadLetter) + HEADER + body.length > segmentBytes) return;
+            ByteBuffer rec = ByteBuffer.allocate(HEADER + body.length);
+            rec.putInt(body.length).putInt(crc(body)).putLong(System.currentTimeMillis()).put(body).flip();
+            try (FileChannel ch = FileChannel.open(deadLetter, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                while (rec.hasRemaining()) ch.write(rec);
+                if (fsync) ch.force(false);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // one replay thread, so the record peeked is still the one at ack when it is acknowledged
+    private void replayLoop() {
+        long backoff = replayIntervalMs;
+        while (running) {
+            ForwardingClient.Outcome outcome = ForwardingClient.Outcome.RETRY;
+            byte[] body = null;
+            try {
+                body = peek();
+                if (body != null) outcome = sender.send(body);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+            if (body != null && outcome != ForwardingClient.Outcome.RETRY) {
+                // a permanent rejection would fail the same way forever; set it aside and move on
+                if (outcome == ForwardingClient.Outcome.REJECTED) deadLetter(body);
+                else replayed.increment();
+                acknowledge(body.length);
+                backoff = replayIntervalMs;
+                continue;
+            }
+            long wait = replayIntervalMs;
+            if (body != null) {
+                // downstream still failing: back off up to MAX_BACKOFF_MS
+                replayFailures.increment();
+                wait = backoff;
+                backoff = Math.min(backoff * 2, MAX_BACKOFF_MS);
+            }
+            try {
+                Thread.sleep(wait);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private static int crc(byte[] b) {
+        CRC32C c = new CRC32C();
+        c.update(b);
+        return (int) c.getValue();
+    }
+
+    private static int crc(ByteBuffer buf, int pos, int len) {
+        CRC32C c = new CRC32C();
+        c.update(buf.duplicate().position(pos).limit(pos + len));
+        return (int) c.getValue();
+    }
+
+    public synchronized long pendingRecords() { return pendingRecords; }
+    public synchronized long pendingBytes() { return pendingBytes; }
+
+    /** Age of the oldest unacknowledged record in millis, 0 when the journal is drained. */
+    public synchronized long lagMillis() {
+        int p = locate();
+        return p < 0 ? 0 : Math.max(0, System.currentTimeMillis() - readSegment.getLong(p + 8));
+    }
+
+    /** Publishes journal.* meters tagged with this journal's name. */
+    public SpillJournal bindTo(MeterRegistry registry) {
+        Gauge.builder("journal.pending.records", this, SpillJournal::pendingRecords).tag("journal", name).register(registry);
+        Gauge.builder("journal.pending.bytes", this, SpillJournal::pendingBytes).tag("journal", name).register(registry);
+        Gauge.builder("journal.lag.seconds", this, j -> j.lagMillis() / 1000.0).tag("journal", name).register(registry);
+        FunctionCounter.builder("journal.records", spilled, LongAdder::sum).tags("journal", name, "outcome", "spilled").register(registry);
+        FunctionCounter.builder("journal.records", replayed, LongAdder::sum).tags("journal", name, "outcome", "replayed").register(registry);
+        FunctionCounter.builder("journal.records", rejected, LongAdder::sum).tags("journal", name, "outcome", "rejected").register(registry);
+        FunctionCounter.builder("journal.records", corrupt, LongAdder::sum).tags("journal", name, "outcome", "corrupt").register(registry);
+        FunctionCounter.builder("journal.records", deadLettered, LongAdder::sum).tags("journal", name, "outcome", "dead_letter").register(registry);
+        return this;
+    }
+
+    public synchronized Map<String, Object> stats() {
+        long lag = lagMillis();
+        long diskBytes = 0;
+        for (Path p : segments.values()) {
+            try {
+                diskBytes += Files.size(p);
+            } catch (IOException e) {
+                // deleted underneath us
+            }
+        }
+        Map<String, Object> s = new HashMap<>();
+        s.put("enabled", true);
+        s.put("name", name);
+        s.put("dir", dir.toString());
+        s.put("segments", segments.size());
+        s.put("segment_bytes", segmentBytes);
+        s.put("disk_bytes", diskBytes);
+        s.put("max_bytes", maxBytes);
+        s.put("head_offset", head);
+        s.put("ack_offset", ack);
+        s.put("pending_records", pendingRecords);
+        s.put("pending_bytes", pendingBytes);
+        s.put("lag_ms", lag);
+        s.put("spilled", spilled.sum());
+        s.put("replayed", replayed.sum());
+        s.put("rejected", rejected.sum());
+        s.put("corrupt", corrupt.sum());
+        s.put("replay_failures", replayFailures.sum());
+        s.put("dead_lettered", deadLettered.sum());
+        s.put("dead_letter_file", deadLetter.toString());
+        return s;
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        replayer.interrupt();
+        try {
+            replayer.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            writeSegment.force();
+            checkpoint.force();
+        }
+    }
+}
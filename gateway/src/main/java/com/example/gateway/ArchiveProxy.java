@@ -0,0 +1,75 @@
+package com.example.gateway;
+
+import com.example.packet.Protocol;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import java.io.IOException;
+import java.sql.Timestamp;
+import java.util.*;
+
+/**
+ * Backs /api/packets/pcap: forwards the query to the capture service's raw-frame
+ * archive (/api/archive/pcap) and hands its pcap stream back unbuffered. A
+ * {@code packet_id} is resolved here into that packet's conversation, and, without an
+ * explicit from/to, a window of {@code windowMs} either side of when it was stored.
+ */
+@Service
+public class ArchiveProxy {
+
+    static final List<String> PARAMS = List.of("from", "to", "src_ip", "dst_ip", "src_port", "dst_port", "protocol", "limit");
+
+    private final JdbcTemplate jdbc;
+    private final String url;
+    private final long windowMs;
+    private final SimpleClientHttpRequestFactory http = new SimpleClientHttpRequestFactory();
+
+    public ArchiveProxy(JdbcTemplate jdbc,
+                        @Value("${gateway.archive.url:http://capture-service:8081/api/archive/pcap}") String url,
+                        @Value("${gateway.archive.connect-timeout-ms:1000}") int connectTimeoutMs,
+                        @Value("${gateway.archive.read-timeout-ms:60000}") int readTimeoutMs,
+                        @Value("${gateway.archive.window-ms:60000}") long windowMs) {
+        this.jdbc = jdbc;
+        this.url = url;
+        this.windowMs = windowMs;
+        http.setConnectTimeout(connectTimeoutMs);
+        http.setReadTimeout(readTimeoutMs);
+    }
+
+    /**
+     * Opens the export; the caller closes the response. Returns null when
+     * {@code packet_id} names no stored packet.
+     */
+    public ClientHttpResponse open(Map<String,String> qp) throws IOException {
+        Map<String,String> q = new LinkedHashMap<>();
+        for (String k : PARAMS) {
+            String v = qp.get(k);
+            if (v != null && !v.isEmpty()) q.put(k, v);
+        }
+        String packetId = qp.get("packet_id");
+        if (packetId != null && !packetId.isEmpty()) {
+            List<Map<String,Object>> rows = jdbc.queryForList(
+                    "SELECT timestamp, src_ip, dst_ip, src_port, dst_port, protocol FROM packets WHERE id = ?",
+                    Long.parseLong(packetId));
+            if (rows.isEmpty()) return null;
+            Map<String,Object> r = rows.get(0);
+            for (String k : List.of("src_ip", "dst_ip", "src_port", "dst_port")) {
+                if (r.get(k) != null) q.putIfAbsent(k, String.valueOf(r.get(k)));
+            }
+            // the archive only filters on protocols the model names; "unknown" would get a 400
+            Protocol protocol = Protocol.lookup(String.valueOf(r.get("protocol")));
+            if (protocol != null && protocol != Protocol.OTHER) q.putIfAbsent("protocol", protocol.label);
+            long at = ((Timestamp) r.get("timestamp")).getTime();
+            q.putIfAbsent("from", String.valueOf(at - windowMs));
+            q.putIfAbsent("to", String.valueOf(at + windowMs));
+        }
+        UriComponentsBuilder b = UriComponentsBuilder.fromHttpUrl(url);
+        q.forEach(b::queryParam);
+        return http.createRequest(b.encode().build().toUri(), HttpMethod.GET).execute();
+    }
+}
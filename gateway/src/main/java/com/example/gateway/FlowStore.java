@@ -0,0 +1,100 @@
+package com.example.gateway;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.sql.Timestamp;
+import java.util.*;
+
+/**
+ * Flow records from parser-service. Flows arrive already aggregated and in batches,
+ * so they are inserted synchronously with one JDBC batch per request; paging uses the
+ * same (time, id) keyset cursor as /api/packets, over last_seen.
+ */
+@Service
+public class FlowStore {
+
+    static final String INSERT_SQL = "INSERT INTO flows (first_seen, last_seen, src_ip, dst_ip, src_port, dst_port, protocol, packets, bytes, tcp_flags, end_reason) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private final JdbcTemplate jdbc;
+    private final long retentionHours;
+
+    public FlowStore(JdbcTemplate jdbc, @Value("${gateway.flows.retention-hours:168}") long retentionHours) {
+        this.jdbc = jdbc;
+        this.retentionHours = retentionHours;
+    }
+
+    public int store(List<Map<String,Object>> flows) {
+        jdbc.batchUpdate(INSERT_SQL, flows, flows.size(), (ps, f) -> {
+            ps.setTimestamp(1, new Timestamp(toLong(f.get("first_seen"))));
+            ps.setTimestamp(2, new Timestamp(toLong(f.get("last_seen"))));
+            ps.setString(3, (String) f.get("src_ip"));
+            ps.setString(4, (String) f.get("dst_ip"));
+            ps.setObject(5, f.get("src_port") instanceof Number ? ((Number) f.get("src_port")).intValue() : null);
+            ps.setObject(6, f.get("dst_port") instanceof Number ? ((Number) f.get("dst_port")).intValue() : null);
+            ps.setString(7, (String) f.get("protocol"));
+            ps.setLong(8, toLong(f.get("packets")));
+            ps.setLong(9, toLong(f.get("bytes")));
+            ps.setString(10, (String) f.get("flags"));
+            ps.setString(11, (String) f.get("end_reason"));
+        });
+        return flows.size();
+    }
+
+    /** Filters: protocol, src_ip, dst_ip, from/to on last_seen; cursor and limit as for /api/packets. */
+    public Map<String,Object> query(Map<String,String> qp) {
+        int limit = Math.min(1000, Math.max(1, Integer.parseInt(qp.getOrDefault("limit", "100"))));
+        StringBuilder sb = new StringBuilder("SELECT id, first_seen, last_seen, src_ip, dst_ip, src_port, dst_port, protocol, packets, bytes, tcp_flags, end_reason FROM flows WHERE 1=1");
+        List<Object> params = new ArrayList<>();
+        for (String col : new String[]{"protocol", "src_ip", "dst_ip"}) {
+            String v = qp.get(col);
+            if (v != null && !v.isEmpty()) {
+                sb.append(" AND ").append(col).append(" = ?");
+                params.add(v);
+            }
+        }
+        Timestamp from = PacketFilter.parseTime(qp.get("from"));
+        Timestamp to = PacketFilter.parseTime(qp.get("to"));
+        if (from != null) { sb.append(" AND last_seen >= ?"); params.add(from); }
+        if (to != null) { sb.append(" AND last_seen < ?"); params.add(to); }
+        String cursor = qp.get("cursor");
+        if (cursor != null && !cursor.isEmpty()) {
+            PacketCursor after = PacketCursor.decode(cursor);
+            sb.append(" AND (last_seen, id) < (?, ?)");
+            params.add(after.timestamp);
+            params.add(after.id);
+        }
+        sb.append(" ORDER BY last_seen DESC, id DESC LIMIT ?");
+        params.add(limit + 1);
+
+        List<Map<String,Object>> rows = jdbc.queryForList(sb.toString(), params.toArray());
+        String nextCursor = null;
+        if (rows.size() > limit) {
+            rows = rows.subList(0, limit);
+            Map<String,Object> last = rows.get(limit - 1);
+            nextCursor = new PacketCursor((Timestamp) last.get("last_seen"), ((Number) last.get("id")).longValue()).encode();
+        }
+        Map<String,Object> res = new HashMap<>();
+        res.put("flows", rows);
+        res.put("next_cursor", nextCursor);
+        return res;
+    }
+
+    @Scheduled(initialDelay = 60000, fixedDelayString = "${gateway.partitions.maintenance-interval-ms:600000}")
+    public void expire() {
+        if (retentionHours <= 0) return;
+        try {
+            jdbc.update("DELETE FROM flows WHERE last_seen < ?", new Timestamp(System.currentTimeMillis() - retentionHours * 3600_000L));
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static long toLong(Object o) {
+        if (o instanceof Number) return ((Number) o).longValue();
+        if (o == null) throw new IllegalArgumentException("missing flow field");
+        return Long.parseLong(o.toString());
+    }
+}
@@ -1,12 +1,22 @@
 package com.example.gateway;
 
+import com.example.packet.PacketCodec;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.ClientHttpResponse;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.util.StreamUtils;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.sql.Timestamp;
 import java.util.*;
 
@@ -23,21 +33,16 @@ public class GatewayController {
         return ResponseEntity.ok(Collections.singletonMap("status", "ok"));
     }
 
+    @Autowired
+    private PacketWriteBehind writeBehind;
+
     // store parsed+classified record
     @PostMapping("/store")
     public ResponseEntity<?> store(@RequestBody Map<String,Object> record) {
         try {
-            String src_ip = (String) record.getOrDefault("src_ip", record.getOrDefault("src", null));
-            String dst_ip = (String) record.getOrDefault("dst_ip", record.getOrDefault("dst", null));
-            Integer src_port = record.get("src_port") instanceof Number ? ((Number) record.get("src_port")).intValue() : null;
-            Integer dst_port = record.get("dst_port") instanceof Number ? ((Number) record.get("dst_port")).intValue() : null;
-            String protocol = (String) record.getOrDefault("protocol", null);
-            Integer length = record.get("length") instanceof Number ? ((Number) record.get("length")).intValue() : null;
-            String label = (String) record.getOrDefault("label", null);
-            Timestamp ts = new Timestamp(System.currentTimeMillis());
-
-            jdbc.update("INSERT INTO packets (timestamp, src_ip, dst_ip, src_port, dst_port, protocol, length, label) VALUES (?, ?, ?, ?, ?, ?, ?, ?)",
-                    ts, src_ip, dst_ip, src_port, dst_port, protocol, length, label);
+            if (!writeBehind.enqueue(PacketRow.fromMap(record, System.currentTimeMillis()))) {
+                return ResponseEntity.status(503).body("store queue full");
+            }
             return ResponseEntity.ok("stored");
         } catch (Exception e) {
             e.printStackTrace();
@@ -45,69 +50,200 @@ public class GatewayController {
         }
     }
 
-    // search packets
+    @PostMapping("/store/batch")
+    public ResponseEntity<?> storeBatch(@RequestBody List<Map<String,Object>> records) {
+        try {
+            long now = System.currentTimeMillis();
+            List<PacketRow> rows = new ArrayList<>(records.size());
+            for (Map<String,Object> record : records) rows.add(PacketRow.fromMap(record, now));
+            return batchResponse(writeBehind.enqueueAll(rows), rows.size());
+        } catch (Exception e) {
+            e.printStackTrace();
+            return ResponseEntity.status(500).body(e.getMessage());
+        }
+    }
+
+    // PacketCodec batches from classifier-service and the embedded capture pipeline
+    @PostMapping(value = "/store/batch", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<?> storeRecords(@RequestBody byte[] body) {
+        long now = System.currentTimeMillis();
+        List<PacketRow> rows = new ArrayList<>();
+        try {
+            // labels stay strings: a row only needs the name, and interning whatever clients send would fill Labels
+            PacketCodec.decode(body, (record, label) -> rows.add(PacketRow.fromRecord(record, label, now)));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+        try {
+            return batchResponse(writeBehind.enqueueAll(rows), rows.size());
+        } catch (Exception e) {
+            e.printStackTrace();
+            return ResponseEntity.status(500).body(e.getMessage());
+        }
+    }
+
+    // a batch is queued whole or not at all, so a sender that gets the 503 can resend all of it
+    private static ResponseEntity<?> batchResponse(boolean queued, int size) {
+        Map<String,Object> res = new HashMap<>();
+        res.put("accepted", queued ? size : 0);
+        res.put("rejected", queued ? 0 : size);
+        return ResponseEntity.status(queued ? 200 : 503).body(res);
+    }
+
+    @GetMapping("/store/stats")
+    public ResponseEntity<?> storeStats() {
+        return ResponseEntity.ok(writeBehind.stats());
+    }
+
+    @Autowired
+    private LoadProbes probes;
+
+    // store times of pcap-replay probe packets; the replay passes next_cursor back as "cursor"
+    @GetMapping("/store/probes")
+    public ResponseEntity<?> storeProbes(@RequestParam(value = "cursor", defaultValue = "0") long cursor,
+                                         @RequestParam(value = "limit", defaultValue = "10000") int limit) {
+        return ResponseEntity.ok(probes.since(cursor, limit));
+    }
+
+    @Autowired
+    private PipelineMetrics pipelineMetrics;
+
+    // per-stage throughput/latency across all services, for the UI
+    @GetMapping("/pipeline/metrics")
+    public ResponseEntity<?> pipelineMetrics() {
+        try {
+            return ResponseEntity.ok(pipelineMetrics.collect());
+        } catch (Exception e) {
+            e.printStackTrace();
+            return ResponseEntity.status(500).body(e.getMessage());
+        }
+    }
+
+    @Autowired
+    private FlowStore flows;
+
+    // finished flows from parser-service's flow table
+    @PostMapping("/flows")
+    public ResponseEntity<?> storeFlows(@RequestBody List<Map<String,Object>> records) {
+        try {
+            return ResponseEntity.ok(Collections.singletonMap("stored", flows.store(records)));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (Exception e) {
+            e.printStackTrace();
+            return ResponseEntity.status(500).body(e.getMessage());
+        }
+    }
+
+    @GetMapping("/flows")
+    public ResponseEntity<?> listFlows(@RequestParam Map<String,String> qp) {
+        try {
+            return ResponseEntity.ok(flows.query(qp));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (Exception e) {
+            e.printStackTrace();
+            return ResponseEntity.status(500).body(e.getMessage());
+        }
+    }
+
+    @Autowired
+    private PacketCounter counter;
+
+    // search packets; pass next_cursor back as "cursor" for keyset paging, "page" still works for shallow pages
     @GetMapping("/packets")
     public ResponseEntity<?> packets(@RequestParam Map<String,String> qp) {
         try {
             int page = Integer.parseInt(qp.getOrDefault("page","1"));
             int pageSize = Integer.parseInt(qp.getOrDefault("page_size","25"));
-            String protocol = qp.get("protocol");
-            String src_ip = qp.get("src_ip");
-            String dst_ip = qp.get("dst_ip");
-            boolean suspicious_only = Boolean.parseBoolean(qp.getOrDefault("suspicious_only","false"));
-            boolean malicious_only = Boolean.parseBoolean(qp.getOrDefault("malicious_only","false"));
+            String cursor = qp.get("cursor");
+            PacketFilter filter = PacketFilter.fromParams(qp);
 
             StringBuilder sb = new StringBuilder("SELECT id, timestamp, src_ip, dst_ip, src_port, dst_port, protocol, length, label FROM packets WHERE 1=1");
             List<Object> params = new ArrayList<>();
-            if (protocol != null && !protocol.isEmpty()) { sb.append(" AND protocol = ?"); params.add(protocol); }
-            if (src_ip != null && !src_ip.isEmpty()) { sb.append(" AND src_ip = ?"); params.add(src_ip); }
-            if (dst_ip != null && !dst_ip.isEmpty()) { sb.append(" AND dst_ip = ?"); params.add(dst_ip); }
-            if (suspicious_only) { sb.append(" AND label ILIKE ?"); params.add("%suspicious%"); }
-            if (malicious_only) { sb.append(" AND label ILIKE ?"); params.add("%malicious%"); }
-            sb.append(" ORDER BY timestamp DESC LIMIT ? OFFSET ?");
-            params.add(pageSize);
-            params.add((page-1)*pageSize);
+            filter.appendWhere(sb, params);
+            if (cursor != null && !cursor.isEmpty()) {
+                PacketCursor after = PacketCursor.decode(cursor);
+                sb.append(" AND (timestamp, id) < (?, ?)");
+                params.add(after.timestamp);
+                params.add(after.id);
+            }
+            // one extra row tells us whether there is a next page
+            sb.append(" ORDER BY timestamp DESC, id DESC LIMIT ?");
+            params.add(pageSize + 1);
+            if (cursor == null && page > 1) {
+                sb.append(" OFFSET ?");
+                params.add((page-1)*pageSize);
+            }
 
             List<Map<String,Object>> rows = jdbc.queryForList(sb.toString(), params.toArray());
-            Integer total = jdbc.queryForObject("SELECT COUNT(*) FROM packets", Integer.class);
+            String nextCursor = null;
+            if (rows.size() > pageSize) {
+                rows = rows.subList(0, pageSize);
+                Map<String,Object> last = rows.get(pageSize - 1);
+                nextCursor = new PacketCursor((Timestamp) last.get("timestamp"), ((Number) last.get("id")).longValue()).encode();
+            }
+            PacketCounter.Count total = counter.count(filter);
             Map<String,Object> res = new HashMap<>();
             res.put("packets", rows);
-            res.put("total", total);
+            res.put("total", total.total);
+            res.put("total_estimated", total.estimated);
+            res.put("next_cursor", nextCursor);
             return ResponseEntity.ok(res);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
         } catch (Exception e) {
             e.printStackTrace();
             return ResponseEntity.status(500).body(e.getMessage());
         }
     }
 
-    @GetMapping("/statistics")
-    public ResponseEntity<?> statistics() {
+    @Autowired
+    private ArchiveProxy archive;
+
+    // original frames from the capture service's archive as a .pcap: by packet_id, or by from/to and conversation
+    @GetMapping("/packets/pcap")
+    public ResponseEntity<StreamingResponseBody> packetsPcap(@RequestParam Map<String,String> qp) {
+        // a streaming body has to be the declared type, so errors go out as status exceptions
+        ClientHttpResponse resp;
         try {
-            Map<String,Object> stats = new HashMap<>();
-            Integer total = jdbc.queryForObject("SELECT COUNT(*) FROM packets", Integer.class);
-            Integer suspicious = jdbc.queryForObject("SELECT COUNT(*) FROM packets WHERE label ILIKE '%suspicious%'", Integer.class);
-            Integer malicious = jdbc.queryForObject("SELECT COUNT(*) FROM packets WHERE label ILIKE '%malicious%'", Integer.class);
-            stats.put("basic_statistics", Collections.singletonMap("packets_analyzed", total));
-            Map<String,Integer> security = new HashMap<>();
-            security.put("suspicious_detected", suspicious);
-            security.put("malicious_detected", malicious);
-            stats.put("security_statistics", security);
-
-            List<Map<String,Object>> protocols = jdbc.queryForList("SELECT protocol, COUNT(*) as c FROM packets GROUP BY protocol");
-            Map<String,Integer> protocolDistribution = new LinkedHashMap<>();
-            for (Map<String,Object> r: protocols) {
-                protocolDistribution.put(String.valueOf(r.get("protocol")), ((Number)r.get("c")).intValue());
+            resp = archive.open(qp);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        } catch (IOException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_GATEWAY, "capture archive unavailable: " + e.getMessage());
+        }
+        if (resp == null) throw new ResponseStatusException(HttpStatus.NOT_FOUND, "no such packet");
+        try {
+            HttpStatus status = resp.getStatusCode();
+            if (!status.is2xxSuccessful()) {
+                String msg = StreamUtils.copyToString(resp.getBody(), StandardCharsets.UTF_8);
+                resp.close();
+                throw new ResponseStatusException(status, msg);
             }
-            stats.put("protocol_distribution", protocolDistribution);
+        } catch (IOException e) {
+            resp.close();
+            throw new ResponseStatusException(HttpStatus.BAD_GATEWAY, "capture archive unavailable: " + e.getMessage());
+        }
+        StreamingResponseBody body = out -> {
+            try (ClientHttpResponse r = resp) {
+                StreamUtils.copy(r.getBody(), out);
+            }
+        };
+        return ResponseEntity.ok()
+                .header("Content-Disposition", "attachment; filename=packets.pcap")
+                .contentType(MediaType.parseMediaType("application/vnd.tcpdump.pcap"))
+                .body(body);
+    }
 
-            Map<String,Object> netOverview = new HashMap<>();
-            Integer srcUnique = jdbc.queryForObject("SELECT COUNT(DISTINCT src_ip) FROM packets", Integer.class);
-            Integer dstUnique = jdbc.queryForObject("SELECT COUNT(DISTINCT dst_ip) FROM packets", Integer.class);
-            netOverview.put("unique_source_ips", srcUnique);
-            netOverview.put("unique_destination_ips", dstUnique);
-            stats.put("network_overview", netOverview);
+    @Autowired
+    private StatisticsAggregator statistics;
 
-            return ResponseEntity.ok(stats);
+    // served from the in-memory aggregator; see StatisticsAggregator.reconcile()
+    @GetMapping("/statistics")
+    public ResponseEntity<?> statistics() {
+        try {
+            return ResponseEntity.ok(statistics.snapshot());
         } catch (Exception e) {
             e.printStackTrace();
             return ResponseEntity.status(500).body(e.getMessage());
@@ -120,16 +256,7 @@ public class GatewayController {
             List<Map<String,Object>> rows = jdbc.queryForList("SELECT id, timestamp, src_ip, dst_ip, label FROM packets WHERE label IS NOT NULL AND (label ILIKE '%malicious%' OR label ILIKE '%suspicious%') ORDER BY timestamp DESC LIMIT 100");
             List<Map<String,Object>> alerts = new ArrayList<>();
             for (Map<String,Object> r: rows) {
-                Map<String,Object> a = new HashMap<>();
-                a.put("id", r.get("id"));
-                a.put("timestamp", r.get("timestamp"));
-                a.put("type", r.get("label"));
-                a.put("description", r.get("label"));
-                a.put("source_ip", r.get("src_ip"));
-                a.put("destination_ip", r.get("dst_ip"));
-                String lab = String.valueOf(r.get("label") == null ? "" : r.get("label"));
-                a.put("severity", lab.toLowerCase().contains("malicious") ? "high" : "medium");
-                alerts.add(a);
+                alerts.add(LiveStreamHub.alert(r.get("id"), r.get("timestamp"), r.get("src_ip"), r.get("dst_ip"), r.get("label")));
             }
             return ResponseEntity.ok(Collections.singletonMap("alerts", alerts));
         } catch (Exception e) {
@@ -138,41 +265,89 @@ public class GatewayController {
         }
     }
 
-    @PostMapping("/export")
-    public ResponseEntity<?> export(@RequestBody Map<String,Object> req) {
-        try {
-            String format = String.valueOf(req.getOrDefault("format", "json"));
-            // for simplicity export all rows as json string
-            List<Map<String,Object>> rows = jdbc.queryForList("SELECT * FROM packets ORDER BY timestamp DESC");
-            if ("csv".equalsIgnoreCase(format)) {
-                StringBuilder sb = new StringBuilder();
-                sb.append("id,timestamp,src_ip,dst_ip,src_port,dst_port,protocol,length,label\n");
-                for (Map<String,Object> r: rows) {
-                    sb.append(r.get("id")).append(",")
-                      .append(r.get("timestamp")).append(",")
-                      .append(r.get("src_ip")).append(",")
-                      .append(r.get("dst_ip")).append(",")
-                      .append(r.get("src_port")).append(",")
-                      .append(r.get("dst_port")).append(",")
-                      .append(r.get("protocol")).append(",")
-                      .append(r.get("length")).append(",")
-                      .append(r.get("label")).append("\n");
-                }
-                return ResponseEntity.ok().header("Content-Disposition", "attachment; filename=packets.csv").body(sb.toString());
-            } else {
-                return ResponseEntity.ok().header("Content-Disposition", "attachment; filename=packets.json").body(rows);
+    @Autowired
+    private LiveStreamHub stream;
+
+    // pushes new alerts and statistics deltas as Server-Sent Events; /alerts and /statistics stay the snapshot
+    @GetMapping("/stream")
+    public SseEmitter stream(@RequestParam(value = "events", defaultValue = "alerts,statistics") String events) {
+        // an emitter has to be the declared return type, so errors go out as status exceptions
+        try {
+            Set<String> wanted = new HashSet<>();
+            for (String e : events.split(",")) {
+                if (!e.trim().isEmpty()) wanted.add(e.trim());
             }
+            return stream.subscribe(wanted);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        } catch (IllegalStateException e) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, e.getMessage());
+        }
+    }
+
+    @GetMapping("/stream/stats")
+    public ResponseEntity<?> streamStats() {
+        return ResponseEntity.ok(stream.stats());
+    }
+
+    @Autowired
+    private PacketExporter exporter;
+
+    // streams rows as the cursor produces them; filters are read from the query string and/or JSON body
+    @RequestMapping(value = "/export", method = {RequestMethod.GET, RequestMethod.POST})
+    public ResponseEntity<?> export(@RequestParam Map<String,String> qp, @RequestBody(required = false) Map<String,Object> req) {
+        try {
+            Map<String,Object> opts = new HashMap<>(qp);
+            if (req != null) opts.putAll(req);
+            boolean csv = "csv".equalsIgnoreCase(String.valueOf(opts.getOrDefault("format", "json")));
+            boolean gzip = Boolean.parseBoolean(String.valueOf(opts.getOrDefault("gzip", "false")));
+            PacketFilter filter = PacketFilter.fromParams(opts);
+            String filename = "packets." + (csv ? "csv" : "json") + (gzip ? ".gz" : "");
+            MediaType type = gzip ? MediaType.parseMediaType("application/gzip")
+                    : csv ? MediaType.parseMediaType("text/csv") : MediaType.APPLICATION_JSON;
+            StreamingResponseBody body = out -> exporter.export(filter, csv, gzip, out);
+            return ResponseEntity.ok()
+                    .header("Content-Disposition", "attachment; filename=" + filename)
+                    .contentType(type)
+                    .body(body);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
         } catch (Exception e) {
             e.printStackTrace();
             return ResponseEntity.status(500).body(e.getMessage());
         }
     }
 
+    @Autowired
+    private PartitionManager partitions;
+
+    // whole-partition operations only: TRUNCATE everything, or drop partitions that end before "before"
     @PostMapping("/clear")
-    public ResponseEntity<?> clear() {
+    public ResponseEntity<?> clear(@RequestParam(value = "before", required = false) String before) {
         try {
-            jdbc.update("DELETE FROM packets");
+            if (before != null && !before.isEmpty()) {
+                List<String> dropped = partitions.dropBefore(PacketFilter.parseTime(before).toLocalDateTime());
+                // the rebuild scans the whole table; the statistics catch up once it is done
+                statistics.reconcileAsync();
+                counter.invalidate();
+                return ResponseEntity.ok(Collections.singletonMap("dropped_partitions", dropped));
+            }
+            jdbc.execute("TRUNCATE packets");
+            statistics.reset();
+            counter.invalidate();
             return ResponseEntity.ok("cleared");
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (Exception e) {
+            e.printStackTrace();
+            return ResponseEntity.status(500).body(e.getMessage());
+        }
+    }
+
+    @GetMapping("/partitions")
+    public ResponseEntity<?> listPartitions() {
+        try {
+            return ResponseEntity.ok(Collections.singletonMap("partitions", partitions.partitions()));
         } catch (Exception e) {
             e.printStackTrace();
             return ResponseEntity.status(500).body(e.getMessage());
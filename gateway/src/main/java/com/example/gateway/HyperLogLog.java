@@ -0,0 +1,60 @@
+package com.example.gateway;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * HyperLogLog distinct counter over strings. With the default precision of 14 it
+ * keeps 16 KiB of registers and estimates within about 0.8% standard error.
+ */
+public class HyperLogLog {
+
+    private final int p;
+    private final int m;
+    private final byte[] registers;
+    private final double alphaMM;
+
+    public HyperLogLog(int precision) {
+        this.p = precision;
+        this.m = 1 << precision;
+        this.registers = new byte[m];
+        double alpha = m == 16 ? 0.673 : m == 32 ? 0.697 : m == 64 ? 0.709 : 0.7213 / (1 + 1.079 / m);
+        this.alphaMM = alpha * m * m;
+    }
+
+    public synchronized void add(String value) {
+        if (value == null) return;
+        long h = hash(value.getBytes(StandardCharsets.UTF_8));
+        int idx = (int) (h >>> (64 - p));
+        int rank = Long.numberOfLeadingZeros((h << p) | (1L << (p - 1))) + 1;
+        if (rank > registers[idx]) registers[idx] = (byte) rank;
+    }
+
+    public synchronized long estimate() {
+        double sum = 0;
+        int zeros = 0;
+        for (byte r : registers) {
+            sum += 1.0 / (1L << r);
+            if (r == 0) zeros++;
+        }
+        double e = alphaMM / sum;
+        if (e <= 2.5 * m && zeros > 0) {
+            e = m * Math.log((double) m / zeros);
+        }
+        return Math.round(e);
+    }
+
+    // 64-bit FNV-1a finished with the murmur3 fmix64 avalanche
+    static long hash(byte[] data) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : data) {
+            h ^= (b & 0xff);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,376 @@
+package com.example.gateway;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-memory fan-out behind /api/stream. The write-behind writer publishes the alerts
+ * in every batch it stores, and a timer publishes statistics deltas from
+ * {@link StatisticsAggregator}, so open dashboards cost nothing per refresh. Each
+ * client has a bounded queue drained by a small sender pool. Publishing never blocks;
+ * a client whose queue is full is disconnected instead of holding everyone back. A send
+ * can still block on a client's full socket, and the container can't interrupt it, so a
+ * client whose send outlasts {@code send-timeout-ms} is dropped and the pool gets a
+ * stand-in thread until that write gives up.
+ */
+@Service
+public class LiveStreamHub {
+
+    static final String ALERTS = "alerts", STATISTICS = "statistics";
+    // heartbeat comment, queued like an event so each client has at most one sender task
+    private static final String PING = "ping";
+    // alerts per event; a batch with more reports how many were left out
+    private static final int MAX_ALERTS_PER_EVENT = 100;
+
+    private final StatisticsAggregator statistics;
+    private final int clientBuffer;
+    private final int maxClients;
+    private final int senderThreads;
+    private final long sendTimeoutMs;
+    private final ThreadPoolExecutor senders;
+    private final Map<Long, Client> clients = new ConcurrentHashMap<>();
+    private final AtomicLong nextClientId = new AtomicLong(1);
+    private final AtomicLong nextEventId = new AtomicLong(1);
+    private Map<String, Object> lastStats;
+    private long lastStatsAt;
+
+    private final LongAdder published = new LongAdder();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder evicted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder stalled = new LongAdder();
+    private int stuckSenders;
+
+    public LiveStreamHub(StatisticsAggregator statistics, MeterRegistry registry,
+                         @Value("${gateway.stream.client-buffer:256}") int clientBuffer,
+                         @Value("${gateway.stream.max-clients:100}") int maxClients,
+                         @Value("${gateway.stream.sender-threads:4}") int senderThreads,
+                         @Value("${gateway.stream.send-timeout-ms:5000}") long sendTimeoutMs) {
+        this.statistics = statistics;
+        this.clientBuffer = Math.max(1, clientBuffer);
+        this.maxClients = maxClients;
+        this.senderThreads = Math.max(1, senderThreads);
+        this.sendTimeoutMs = Math.max(1, sendTimeoutMs);
+        // a client has at most one drain task queued or running, so max-clients slots always suffice
+        this.senders = new ThreadPoolExecutor(this.senderThreads, this.senderThreads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, maxClients)), r -> {
+            Thread t = new Thread(r, "stream-sender");
+            t.setDaemon(true);
+            return t;
+        });
+        Gauge.builder("stream.clients", clients, Map::size).register(registry);
+        FunctionCounter.builder("stream.events", sent, LongAdder::sum).tag("outcome", "sent").register(registry);
+        FunctionCounter.builder("stream.clients.evicted", evicted, LongAdder::sum).register(registry);
+        FunctionCounter.builder("stream.clients.stalled", stalled, LongAdder::sum).register(registry);
+    }
+
+    private static final class Event {
+        final long id;
+        final String name;
+        final Object data;
+
+        Event(long id, String name, Object data) {
+            this.id = id;
+            this.name = name;
+            this.data = data;
+        }
+    }
+
+    private final class Client {
+        final long id = nextClientId.getAndIncrement();
+        final SseEmitter emitter = new SseEmitter(0L);
+        final Set<String> events;
+        final BlockingQueue<Event> queue = new ArrayBlockingQueue<>(clientBuffer);
+        // held by the one sender task, or by whoever completes the emitter: send and complete
+        // share the emitter's monitor, so completing under a blocked send would block too
+        final AtomicBoolean draining = new AtomicBoolean();
+        final long connectedAt = System.currentTimeMillis();
+        final LongAdder delivered = new LongAdder();
+        // when the current send began (epoch millis); 0 when idle, GAVE_UP once abandoned
+        final AtomicLong sendingSince = new AtomicLong();
+        volatile boolean closed;
+
+        Client(Set<String> events) {
+            this.events = events;
+        }
+
+        void offer(Event e) {
+            if (closed || (e.name != PING && !events.contains(e.name))) return;
+            if (!queue.offer(e)) {
+                // slow consumer: drop the client, not the event for everyone else
+                evicted.increment();
+                close();
+                return;
+            }
+            schedule();
+        }
+
+        private void schedule() {
+            if (draining.compareAndSet(false, true)) {
+                try {
+                    senders.execute(this::drain);
+                } catch (RejectedExecutionException ex) {
+                    closed = true;
+                    clients.remove(id);
+                    complete();
+                }
+            }
+        }
+
+        private void drain() {
+            try {
+                for (Event e; !closed && (e = queue.poll()) != null; ) {
+                    long start = System.currentTimeMillis();
+                    sendingSince.set(start);
+                    try {
+                        if (e.name == PING) {
+                            emitter.send(SseEmitter.event().comment(PING));
+                        } else {
+                            emitter.send(SseEmitter.event().id(Long.toString(e.id)).name(e.name).data(e.data, MediaType.APPLICATION_JSON));
+                            delivered.increment();
+                            sent.increment();
+                        }
+                    } finally {
+                        // lost the race to reapStalled: this thread's stand-in can go
+                        if (!sendingSince.compareAndSet(start, 0)) senderReturned();
+                    }
+                }
+            } catch (Exception ex) {
+                // client went away
+                close();
+            }
+            if (closed) {
+                complete();
+                return;
+            }
+            draining.set(false);
+            // an event may have been queued, or the client closed, after the last poll but before the flag was cleared
+            if (closed) {
+                if (draining.compareAndSet(false, true)) complete();
+            } else if (!queue.isEmpty()) {
+                schedule();
+            }
+        }
+
+        // never blocks: with a send in flight the sender completes the emitter once it returns
+        void close() {
+            if (closed) return;
+            closed = true;
+            clients.remove(id);
+            queue.clear();
+            if (draining.compareAndSet(false, true)) complete();
+        }
+
+        private void complete() {
+            try {
+                emitter.complete();
+            } catch (Exception e) {
+                // already completed by the container
+            }
+        }
+    }
+
+    /**
+     * Registers a client for {@code events} (alerts, statistics) and queues the current
+     * statistics so it starts with totals. Throws IllegalStateException at max-clients.
+     */
+    public SseEmitter subscribe(Set<String> events) {
+        for (String e : events) {
+            if (!ALERTS.equals(e) && !STATISTICS.equals(e)) throw new IllegalArgumentException("unknown event: " + e);
+        }
+        if (clients.size() >= maxClients) {
+            rejected.increment();
+            throw new IllegalStateException("too many stream clients");
+        }
+        Client c = new Client(events);
+        c.emitter.onCompletion(c::close);
+        c.emitter.onTimeout(c::close);
+        c.emitter.onError(t -> c.close());
+        clients.put(c.id, c);
+        c.offer(new Event(nextEventId.getAndIncrement(), STATISTICS, statsEvent(statistics.snapshot(), null, 0)));
+        return c.emitter;
+    }
+
+    /** Called by the write-behind writer with each stored batch; never blocks. */
+    public void publishStored(List<PacketRow> rows) {
+        if (clients.isEmpty()) return;
+        List<Map<String, Object>> alerts = null;
+        int more = 0;
+        for (PacketRow r : rows) {
+            if (!isAlert(r.label)) continue;
+            if (alerts == null) alerts = new ArrayList<>();
+            if (alerts.size() < MAX_ALERTS_PER_EVENT) alerts.add(alert(null, r.timestamp, r.src_ip, r.dst_ip, r.label));
+            else more++;
+        }
+        if (alerts == null) return;
+        Map<String, Object> data = new HashMap<>();
+        data.put("alerts", alerts);
+        data.put("omitted", more);
+        publish(ALERTS, data);
+    }
+
+    // statistics deltas since the last tick, only when something was stored
+    @Scheduled(fixedDelayString = "${gateway.stream.stats-interval-ms:1000}")
+    public synchronized void publishStatistics() {
+        Map<String, Object> now = statistics.snapshot();
+        long at = System.currentTimeMillis();
+        Map<String, Object> prev = lastStats;
+        long prevAt = lastStatsAt;
+        lastStats = now;
+        lastStatsAt = at;
+        if (prev == null || clients.isEmpty()) return;
+        if (packets(now) == packets(prev) && Objects.equals(now.get("reconciled_at"), prev.get("reconciled_at"))) return;
+        publish(STATISTICS, statsEvent(now, prev, at - prevAt));
+    }
+
+    // keeps idle connections alive through proxies and finds clients that went away
+    @Scheduled(fixedDelayString = "${gateway.stream.heartbeat-ms:15000}")
+    public void heartbeat() {
+        for (Client c : clients.values()) {
+            if (c.queue.isEmpty()) c.offer(new Event(0, PING, null));
+        }
+    }
+
+    private static final long GAVE_UP = -1;
+
+    // a send blocked past the deadline holds its thread until the container's write timeout;
+    // drop that client and let the pool run one more thread until the write returns
+    @Scheduled(fixedDelay = 1000)
+    public void reapStalled() {
+        long now = System.currentTimeMillis();
+        for (Client c : clients.values()) {
+            long since = c.sendingSince.get();
+            if (since <= 0 || now - since < sendTimeoutMs || !c.sendingSince.compareAndSet(since, GAVE_UP)) continue;
+            stalled.increment();
+            c.close();
+            resizeSenders(1);
+        }
+    }
+
+    private void senderReturned() {
+        resizeSenders(-1);
+    }
+
+    private synchronized void resizeSenders(int change) {
+        stuckSenders += change;
+        int size = senderThreads + stuckSenders;
+        if (change > 0) {
+            senders.setMaximumPoolSize(size);
+            senders.setCorePoolSize(size);
+        } else {
+            senders.setCorePoolSize(size);
+            senders.setMaximumPoolSize(size);
+        }
+    }
+
+    private void publish(String name, Object data) {
+        Event e = new Event(nextEventId.getAndIncrement(), name, data);
+        published.increment();
+        for (Client c : clients.values()) c.offer(e);
+    }
+
+    // the /api/statistics snapshot plus what changed since prev (null for a client's first event)
+    @SuppressWarnings("unchecked")
+    static Map<String, Object> statsEvent(Map<String, Object> now, Map<String, Object> prev, long intervalMs) {
+        Map<String, Object> data = new HashMap<>();
+        data.put("statistics", now);
+        if (prev != null) {
+            Map<String, Object> delta = new HashMap<>();
+            delta.put("interval_ms", intervalMs);
+            delta.put("packets_analyzed", packets(now) - packets(prev));
+            Map<String, Long> secNow = (Map<String, Long>) now.get("security_statistics");
+            Map<String, Long> secPrev = (Map<String, Long>) prev.get("security_statistics");
+            delta.put("suspicious_detected", secNow.get("suspicious_detected") - secPrev.get("suspicious_detected"));
+            delta.put("malicious_detected", secNow.get("malicious_detected") - secPrev.get("malicious_detected"));
+            delta.put("protocol_distribution", diff((Map<String, Long>) now.get("protocol_distribution"),
+                    (Map<String, Long>) prev.get("protocol_distribution")));
+            delta.put("label_distribution", diff((Map<String, Long>) now.get("label_distribution"),
+                    (Map<String, Long>) prev.get("label_distribution")));
+            data.put("delta", delta);
+        }
+        return data;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static long packets(Map<String, Object> stats) {
+        return ((Map<String, Long>) stats.get("basic_statistics")).get("packets_analyzed");
+    }
+
+    // non-zero changes only; a reconciliation can make a count go down
+    private static Map<String, Long> diff(Map<String, Long> now, Map<String, Long> prev) {
+        Map<String, Long> d = new LinkedHashMap<>();
+        now.forEach((k, v) -> {
+            long change = v - prev.getOrDefault(k, 0L);
+            if (change != 0) d.put(k, change);
+        });
+        prev.forEach((k, v) -> {
+            if (!now.containsKey(k)) d.put(k, -v);
+        });
+        return d;
+    }
+
+    static boolean isAlert(String label) {
+        if (label == null) return false;
+        String l = label.toLowerCase();
+        return l.contains("malicious") || l.contains("suspicious");
+    }
+
+    /** One entry of /api/alerts and of the alerts stream event. */
+    static Map<String, Object> alert(Object id, Object timestamp, Object srcIp, Object dstIp, Object label) {
+        Map<String, Object> a = new HashMap<>();
+        a.put("id", id);
+        a.put("timestamp", timestamp);
+        a.put("type", label);
+        a.put("description", label);
+        a.put("source_ip", srcIp);
+        a.put("destination_ip", dstIp);
+        String lab = String.valueOf(label == null ? "" : label);
+        a.put("severity", lab.toLowerCase().contains("malicious") ? "high" : "medium");
+        return a;
+    }
+
+    public Map<String, Object> stats() {
+        List<Map<String, Object>> list = new ArrayList<>();
+        for (Client c : clients.values()) {
+            Map<String, Object> m = new HashMap<>();
+            m.put("client_id", c.id);
+            m.put("events", c.events);
+            m.put("connected_at", c.connectedAt);
+            m.put("queued", c.queue.size());
+            m.put("delivered", c.delivered.sum());
+            list.add(m);
+        }
+        Map<String, Object> s = new HashMap<>();
+        s.put("clients", list);
+        s.put("client_buffer", clientBuffer);
+        s.put("max_clients", maxClients);
+        s.put("events_published", published.sum());
+        s.put("events_sent", sent.sum());
+        s.put("clients_evicted", evicted.sum());
+        s.put("clients_rejected", rejected.sum());
+        s.put("clients_stalled", stalled.sum());
+        synchronized (this) {
+            s.put("stuck_senders", stuckSenders);
+        }
+        return s;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        for (Client c : clients.values()) c.close();
+        senders.shutdownNow();
+    }
+}
@@ -0,0 +1,71 @@
+package com.example.gateway;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+
+/**
+ * When the capture service's pcap replay probe packets were stored, for its end-to-end
+ * latency report. A probe is a UDP packet from 198.18.0.0/16 (the benchmarking range)
+ * to {@link #PROBE_DST}; its source address and port number it. The write-behind
+ * writer reports each committed batch, and the store times go into a fixed ring that
+ * the replay polls with a cursor.
+ */
+@Service
+public class LoadProbes {
+
+    static final String PROBE_SRC_PREFIX = "198.18.", PROBE_DST = "198.19.0.1";
+
+    private final String[] srcIps;
+    private final int[] srcPorts;
+    private final long[] storedAt;
+    private long next;  // cursor of the next probe to be recorded
+
+    public LoadProbes(@Value("${gateway.probes.capacity:65536}") int capacity) {
+        int n = Math.max(16, capacity);
+        this.srcIps = new String[n];
+        this.srcPorts = new int[n];
+        this.storedAt = new long[n];
+    }
+
+    /** Called by the write-behind writer once a batch is committed. */
+    public void stored(List<PacketRow> rows) {
+        long now = 0;
+        for (PacketRow r : rows) {
+            if (!PROBE_DST.equals(r.dst_ip) || r.src_ip == null || !r.src_ip.startsWith(PROBE_SRC_PREFIX) || r.src_port == null) continue;
+            if (now == 0) now = System.currentTimeMillis();
+            record(r.src_ip, r.src_port, now);
+        }
+    }
+
+    private synchronized void record(String srcIp, int srcPort, long at) {
+        int i = (int) (next++ % srcIps.length);
+        srcIps[i] = srcIp;
+        srcPorts[i] = srcPort;
+        storedAt[i] = at;
+    }
+
+    /** Probes recorded from {@code cursor} on, oldest first, up to {@code limit}; a negative cursor starts at the newest. */
+    public synchronized Map<String,Object> since(long cursor, int limit) {
+        if (cursor < 0) cursor = next;
+        long first = Math.max(0, next - srcIps.length);
+        long from = Math.max(cursor, first);
+        long to = Math.min(next, from + Math.max(1, limit));
+        List<Map<String,Object>> probes = new ArrayList<>();
+        for (long c = from; c < to; c++) {
+            int i = (int) (c % srcIps.length);
+            Map<String,Object> p = new HashMap<>();
+            p.put("src_ip", srcIps[i]);
+            p.put("src_port", srcPorts[i]);
+            p.put("stored_at", storedAt[i]);
+            probes.add(p);
+        }
+        Map<String,Object> res = new HashMap<>();
+        res.put("probes", probes);
+        res.put("next_cursor", to);
+        // overwritten before the caller got to them
+        res.put("missed", Math.max(0, first - cursor));
+        return res;
+    }
+}
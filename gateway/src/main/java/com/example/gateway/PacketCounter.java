@@ -0,0 +1,97 @@
+package com.example.gateway;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Totals for /api/packets without a COUNT(*) per page. Unfiltered totals come from the
+ * in-memory statistics; filtered ones use the planner's row estimate, and only fall
+ * back to an exact COUNT(*) when that estimate is small enough to be cheap. Results
+ * are cached briefly so paging through one filter counts once.
+ */
+@Service
+public class PacketCounter {
+
+    private static final int MAX_CACHED = 256;
+
+    private final JdbcTemplate jdbc;
+    private final StatisticsAggregator statistics;
+    private final ObjectMapper mapper;
+    private final long exactThreshold;
+    private final long cacheTtlMs;
+    private final Map<String,Cached> cache = new ConcurrentHashMap<>();
+
+    public PacketCounter(JdbcTemplate jdbc, StatisticsAggregator statistics, ObjectMapper mapper,
+                         @Value("${gateway.packets.exact-count-threshold:10000}") long exactThreshold,
+                         @Value("${gateway.packets.count-cache-ms:5000}") long cacheTtlMs) {
+        this.jdbc = jdbc;
+        this.statistics = statistics;
+        this.mapper = mapper;
+        this.exactThreshold = exactThreshold;
+        this.cacheTtlMs = cacheTtlMs;
+    }
+
+    public static class Count {
+        public final long total;
+        public final boolean estimated;
+
+        Count(long total, boolean estimated) {
+            this.total = total;
+            this.estimated = estimated;
+        }
+    }
+
+    private static class Cached {
+        final Count count;
+        final long at;
+
+        Cached(Count count, long at) {
+            this.count = count;
+            this.at = at;
+        }
+    }
+
+    public Count count(PacketFilter filter) throws Exception {
+        StringBuilder where = new StringBuilder(" FROM packets WHERE 1=1");
+        List<Object> params = new ArrayList<>();
+        filter.appendWhere(where, params);
+        if (params.isEmpty() && !filter.suspicious_only && !filter.malicious_only) {
+            return new Count(statistics.total(), false);
+        }
+
+        String key = where + params.toString();
+        long now = System.currentTimeMillis();
+        Cached c = cache.get(key);
+        if (c != null && now - c.at < cacheTtlMs) return c.count;
+
+        Count count;
+        long estimate = planRows("SELECT 1" + where, params);
+        if (estimate > exactThreshold) {
+            count = new Count(estimate, true);
+        } else {
+            Long exact = jdbc.queryForObject("SELECT COUNT(*)" + where, Long.class, params.toArray());
+            count = new Count(exact == null ? 0 : exact, false);
+        }
+        if (cache.size() >= MAX_CACHED) cache.clear();
+        cache.put(key, new Cached(count, now));
+        return count;
+    }
+
+    private long planRows(String sql, List<Object> params) throws Exception {
+        String plan = jdbc.queryForObject("EXPLAIN (FORMAT JSON) " + sql, String.class, params.toArray());
+        JsonNode root = mapper.readTree(plan);
+        return root.get(0).get("Plan").get("Plan Rows").asLong();
+    }
+
+    public void invalidate() {
+        cache.clear();
+    }
+}
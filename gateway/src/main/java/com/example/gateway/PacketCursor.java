@@ -0,0 +1,39 @@
+package com.example.gateway;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.Base64;
+
+/**
+ * Opaque keyset position for /api/packets: the (timestamp, id) of the last row of a
+ * page, base64url-encoded. The next page is every row strictly before it in
+ * {@code ORDER BY timestamp DESC, id DESC} order.
+ */
+public class PacketCursor {
+    public final Timestamp timestamp;
+    public final long id;
+
+    public PacketCursor(Timestamp timestamp, long id) {
+        this.timestamp = timestamp;
+        this.id = id;
+    }
+
+    public String encode() {
+        Instant i = timestamp.toInstant();
+        String s = i.getEpochSecond() + "." + i.getNano() + ":" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(s.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    public static PacketCursor decode(String token) {
+        try {
+            String s = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.US_ASCII);
+            int dot = s.indexOf('.');
+            int colon = s.indexOf(':');
+            Instant i = Instant.ofEpochSecond(Long.parseLong(s.substring(0, dot)), Long.parseLong(s.substring(dot + 1, colon)));
+            return new PacketCursor(Timestamp.from(i), Long.parseLong(s.substring(colon + 1)));
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("invalid cursor");
+        }
+    }
+}
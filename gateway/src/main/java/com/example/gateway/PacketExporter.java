@@ -0,0 +1,124 @@
+package com.example.gateway;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Streams packets rows straight from a server-side cursor to the response. PostgreSQL
+ * only honours the fetch size inside a transaction, so the query runs in a read-only
+ * one; heap use stays at one fetch window regardless of how many rows match.
+ */
+@Service
+public class PacketExporter {
+
+    static final String[] COLUMNS = {"id", "timestamp", "src_ip", "dst_ip", "src_port", "dst_port", "protocol", "length", "label"};
+
+    private final JdbcTemplate cursorJdbc;
+    private final TransactionTemplate readTx;
+    private final ObjectMapper mapper;
+
+    public PacketExporter(DataSource dataSource, PlatformTransactionManager txManager, ObjectMapper mapper,
+                          @Value("${gateway.export.fetch-size:5000}") int fetchSize) {
+        this.cursorJdbc = new JdbcTemplate(dataSource);
+        this.cursorJdbc.setFetchSize(fetchSize);
+        this.readTx = new TransactionTemplate(txManager);
+        this.readTx.setReadOnly(true);
+        this.mapper = mapper;
+    }
+
+    public void export(PacketFilter filter, boolean csv, boolean gzip, OutputStream out) throws IOException {
+        StringBuilder sql = new StringBuilder("SELECT ").append(String.join(", ", COLUMNS)).append(" FROM packets WHERE 1=1");
+        List<Object> params = new ArrayList<>();
+        filter.appendWhere(sql, params);
+        sql.append(" ORDER BY timestamp DESC");
+
+        OutputStream os = gzip ? new GZIPOutputStream(out, 64 * 1024) : new BufferedOutputStream(out, 64 * 1024);
+        RowWriter writer = csv ? new CsvWriter(os) : new JsonWriter(mapper, os);
+        writer.start();
+        readTx.executeWithoutResult(tx -> cursorJdbc.query(sql.toString(), rs -> {
+            try {
+                writer.row(rs);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, params.toArray()));
+        writer.finish();
+        if (os instanceof GZIPOutputStream) ((GZIPOutputStream) os).finish();
+        os.flush();
+    }
+
+    interface RowWriter {
+        void start() throws IOException;
+        void row(ResultSet rs) throws SQLException, IOException;
+        void finish() throws IOException;
+    }
+
+    static class CsvWriter implements RowWriter {
+        private final Writer w;
+
+        CsvWriter(OutputStream os) {
+            this.w = new OutputStreamWriter(os, StandardCharsets.UTF_8);
+        }
+
+        public void start() throws IOException {
+            w.write(String.join(",", COLUMNS));
+            w.write('\n');
+        }
+
+        public void row(ResultSet rs) throws SQLException, IOException {
+            for (int i = 1; i <= COLUMNS.length; i++) {
+                if (i > 1) w.write(',');
+                w.write(escape(String.valueOf(rs.getObject(i))));
+            }
+            w.write('\n');
+        }
+
+        public void finish() throws IOException {
+            w.flush();
+        }
+
+        static String escape(String v) {
+            if (v.indexOf(',') < 0 && v.indexOf('"') < 0 && v.indexOf('\n') < 0 && v.indexOf('\r') < 0) return v;
+            return '"' + v.replace("\"", "\"\"") + '"';
+        }
+    }
+
+    static class JsonWriter implements RowWriter {
+        private final JsonGenerator gen;
+
+        JsonWriter(ObjectMapper mapper, OutputStream os) throws IOException {
+            this.gen = mapper.getFactory().createGenerator(os);
+        }
+
+        public void start() throws IOException {
+            gen.writeStartArray();
+        }
+
+        public void row(ResultSet rs) throws SQLException, IOException {
+            gen.writeStartObject();
+            for (int i = 1; i <= COLUMNS.length; i++) {
+                gen.writeObjectField(COLUMNS[i - 1], rs.getObject(i));
+            }
+            gen.writeEndObject();
+        }
+
+        public void finish() throws IOException {
+            gen.writeEndArray();
+            gen.flush();
+        }
+    }
+}
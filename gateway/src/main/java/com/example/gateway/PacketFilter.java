@@ -0,0 +1,68 @@
+package com.example.gateway;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Filter parameters shared by /api/packets and /api/export. {@code from}/{@code to}
+ * accept epoch milliseconds or ISO-8601 and bound the packet timestamp as [from, to).
+ */
+public class PacketFilter {
+    public String protocol;
+    public String src_ip;
+    public String dst_ip;
+    public boolean suspicious_only;
+    public boolean malicious_only;
+    public Timestamp from;
+    public Timestamp to;
+
+    public static PacketFilter fromParams(Map<String,?> qp) {
+        PacketFilter f = new PacketFilter();
+        f.protocol = str(qp.get("protocol"));
+        f.src_ip = str(qp.get("src_ip"));
+        f.dst_ip = str(qp.get("dst_ip"));
+        f.suspicious_only = Boolean.parseBoolean(String.valueOf(qp.get("suspicious_only")));
+        f.malicious_only = Boolean.parseBoolean(String.valueOf(qp.get("malicious_only")));
+        f.from = parseTime(qp.get("from"));
+        f.to = parseTime(qp.get("to"));
+        return f;
+    }
+
+    /** Appends " AND ..." clauses for every set field and the matching bind values. */
+    public void appendWhere(StringBuilder sb, List<Object> params) {
+        if (protocol != null) { sb.append(" AND protocol = ?"); params.add(protocol); }
+        if (src_ip != null) { sb.append(" AND src_ip = ?"); params.add(src_ip); }
+        if (dst_ip != null) { sb.append(" AND dst_ip = ?"); params.add(dst_ip); }
+        // literal patterns so the planner can match the partial indexes in init-db.sql
+        if (suspicious_only) sb.append(" AND label ILIKE '%suspicious%'");
+        if (malicious_only) sb.append(" AND label ILIKE '%malicious%'");
+        if (from != null) { sb.append(" AND timestamp >= ?"); params.add(from); }
+        if (to != null) { sb.append(" AND timestamp < ?"); params.add(to); }
+    }
+
+    private static String str(Object o) {
+        if (o == null) return null;
+        String s = o.toString();
+        return s.isEmpty() ? null : s;
+    }
+
+    /** Epoch millis or ISO-8601; throws IllegalArgumentException (a 400) for anything else. */
+    static Timestamp parseTime(Object o) {
+        String s = str(o);
+        if (s == null) return null;
+        if (s.chars().allMatch(Character::isDigit)) return new Timestamp(Long.parseLong(s));
+        try {
+            return Timestamp.from(Instant.parse(s));
+        } catch (Exception e) {
+            try {
+                // no zone given: same wall-clock semantics as the TIMESTAMP column
+                return Timestamp.valueOf(LocalDateTime.parse(s));
+            } catch (Exception e2) {
+                throw new IllegalArgumentException("bad time: " + s);
+            }
+        }
+    }
+}
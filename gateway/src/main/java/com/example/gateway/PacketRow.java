@@ -0,0 +1,61 @@
+package com.example.gateway;
+
+import com.example.packet.PacketRecord;
+
+import java.sql.Timestamp;
+import java.util.Map;
+
+/**
+ * One row of the packets table as accepted by /api/store, stamped on arrival so the
+ * stored timestamp doesn't depend on how long the row waits in the write-behind queue.
+ */
+public class PacketRow {
+    public final Timestamp timestamp;
+    public final String src_ip;
+    public final String dst_ip;
+    public final Integer src_port;
+    public final Integer dst_port;
+    public final String protocol;
+    public final Integer length;
+    public final String label;
+
+    public PacketRow(Timestamp timestamp, String src_ip, String dst_ip, Integer src_port, Integer dst_port,
+                     String protocol, Integer length, String label) {
+        this.timestamp = timestamp;
+        this.src_ip = src_ip;
+        this.dst_ip = dst_ip;
+        this.src_port = src_port;
+        this.dst_port = dst_port;
+        this.protocol = protocol;
+        this.length = length;
+        this.label = label;
+    }
+
+    public static PacketRow fromMap(Map<String,Object> record, long receivedAtMillis) {
+        return new PacketRow(
+                new Timestamp(receivedAtMillis),
+                (String) record.getOrDefault("src_ip", record.getOrDefault("src", null)),
+                (String) record.getOrDefault("dst_ip", record.getOrDefault("dst", null)),
+                intOrNull(record.get("src_port")),
+                intOrNull(record.get("dst_port")),
+                (String) record.getOrDefault("protocol", null),
+                intOrNull(record.get("length")),
+                (String) record.getOrDefault("label", null));
+    }
+
+    public static PacketRow fromRecord(PacketRecord record, String label, long receivedAtMillis) {
+        return new PacketRow(
+                new Timestamp(receivedAtMillis),
+                record.srcIp(),
+                record.dstIp(),
+                record.hasPorts() ? record.srcPort : null,
+                record.hasPorts() ? record.dstPort : null,
+                record.protocolName(),
+                record.length,
+                label);
+    }
+
+    private static Integer intOrNull(Object o) {
+        return o instanceof Number ? ((Number) o).intValue() : null;
+    }
+}
@@ -0,0 +1,221 @@
+package com.example.gateway;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Write-behind stage for /api/store: request threads only enqueue, a single writer
+ * thread drains the bounded queue and inserts with JDBC batches of up to
+ * {@code batchSize} rows, flushing at least every {@code flushIntervalMs}.
+ * <p>
+ * Room in the queue is reserved through {@code slots} before anything is put in, so a
+ * batch is taken whole or not at all: a sender that gets a rejection resends the whole
+ * batch, and a partly queued one would be stored twice.
+ */
+@Service
+public class PacketWriteBehind {
+
+    static final String INSERT_SQL = "INSERT INTO packets (timestamp, src_ip, dst_ip, src_port, dst_port, protocol, length, label) VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private final JdbcTemplate jdbc;
+    private final StatisticsAggregator statistics;
+    private final LiveStreamHub stream;
+    private final LoadProbes probes;
+    private final BlockingQueue<PacketRow> queue;
+    // free queue slots not yet reserved; the writer gives them back as it takes rows out
+    private final Semaphore slots;
+    private final int capacity;
+    private final int batchSize;
+    private final long flushIntervalMs;
+    private final long enqueueTimeoutMs;
+    private final int maxRetries;
+    private final Thread writer;
+    private volatile boolean accepting = true;
+    private volatile boolean running = true;
+
+    private final LongAdder enqueued = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder flushNanosTotal = new LongAdder();
+    private final AtomicLong lastFlushNanos = new AtomicLong();
+    private final AtomicLong maxFlushNanos = new AtomicLong();
+    private final AtomicLong lastBatchSize = new AtomicLong();
+    private final Timer flushTimer;
+    private final DistributionSummary batchSizes;
+    private final Counter retries;
+
+    public PacketWriteBehind(JdbcTemplate jdbc, StatisticsAggregator statistics, LiveStreamHub stream, LoadProbes probes,
+                             MeterRegistry registry,
+                             @Value("${gateway.store.queue-capacity:100000}") int queueCapacity,
+                             @Value("${gateway.store.batch-size:1000}") int batchSize,
+                             @Value("${gateway.store.flush-interval-ms:50}") long flushIntervalMs,
+                             @Value("${gateway.store.enqueue-timeout-ms:100}") long enqueueTimeoutMs,
+                             @Value("${gateway.store.max-retries:3}") int maxRetries) {
+        this.jdbc = jdbc;
+        this.statistics = statistics;
+        this.stream = stream;
+        this.probes = probes;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.slots = new Semaphore(queueCapacity);
+        this.capacity = queueCapacity;
+        this.batchSize = Math.max(1, batchSize);
+        this.flushIntervalMs = Math.max(1, flushIntervalMs);
+        this.enqueueTimeoutMs = enqueueTimeoutMs;
+        this.maxRetries = maxRetries;
+        this.flushTimer = Timer.builder("pipeline.stage.latency").tag("stage", "store")
+                .publishPercentiles(0.5, 0.95, 0.99).publishPercentileHistogram()
+                .register(registry);
+        this.batchSizes = DistributionSummary.builder("pipeline.store.batch.size").register(registry);
+        this.retries = Counter.builder("pipeline.store.retries").register(registry);
+        FunctionCounter.builder("pipeline.packets", enqueued, LongAdder::sum).tags("stage", "store", "outcome", "in").register(registry);
+        FunctionCounter.builder("pipeline.packets", written, LongAdder::sum).tags("stage", "store", "outcome", "out").register(registry);
+        FunctionCounter.builder("pipeline.packets", rejected, LongAdder::sum).tags("stage", "store", "outcome", "dropped").register(registry);
+        FunctionCounter.builder("pipeline.packets", failed, LongAdder::sum).tags("stage", "store", "outcome", "error").register(registry);
+        Gauge.builder("pipeline.queue.depth", queue, BlockingQueue::size).tag("stage", "store").register(registry);
+        Gauge.builder("pipeline.queue.capacity", queue, q -> q.size() + q.remainingCapacity()).tag("stage", "store").register(registry);
+        this.writer = new Thread(this::run, "packet-writer");
+        this.writer.start();
+    }
+
+    /** Returns false when the queue stayed full for the enqueue timeout or we are shutting down. */
+    public boolean enqueue(PacketRow row) throws InterruptedException {
+        return enqueueAll(List.of(row));
+    }
+
+    /**
+     * Queues every row or none of them: false when room for the whole batch did not free
+     * up within the enqueue timeout, the batch is larger than the queue, or we are shutting down.
+     */
+    public boolean enqueueAll(List<PacketRow> rows) throws InterruptedException {
+        int n = rows.size();
+        if (n == 0) return true;
+        if (accepting && n <= capacity && slots.tryAcquire(n, enqueueTimeoutMs, TimeUnit.MILLISECONDS)) {
+            // the reservation guarantees room, so none of these can fail
+            for (PacketRow row : rows) queue.add(row);
+            enqueued.add(n);
+            return true;
+        }
+        rejected.add(n);
+        return false;
+    }
+
+    private void run() {
+        List<PacketRow> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                PacketRow first = queue.poll(flushIntervalMs, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                batch.add(first);
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushIntervalMs);
+                try {
+                    while (batch.size() < batchSize) {
+                        queue.drainTo(batch, batchSize - batch.size());
+                        long remaining = deadline - System.nanoTime();
+                        if (batch.size() >= batchSize || remaining <= 0 || !running) break;
+                        PacketRow next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                        if (next == null) break;
+                        batch.add(next);
+                    }
+                } finally {
+                    slots.release(batch.size());
+                }
+                flush(batch);
+            } catch (InterruptedException e) {
+                // shutdown() interrupts only to cut the wait short; write what we hold and keep draining
+                if (!batch.isEmpty()) flush(batch);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void flush(List<PacketRow> batch) {
+        for (int attempt = 0; ; attempt++) {
+            long start = System.nanoTime();
+            try {
+                statistics.store(batch, () -> jdbc.batchUpdate(INSERT_SQL, batch, batch.size(), (ps, r) -> {
+                    ps.setTimestamp(1, r.timestamp);
+                    ps.setString(2, r.src_ip);
+                    ps.setString(3, r.dst_ip);
+                    ps.setObject(4, r.src_port);
+                    ps.setObject(5, r.dst_port);
+                    ps.setString(6, r.protocol);
+                    ps.setObject(7, r.length);
+                    ps.setString(8, r.label);
+                }));
+                long took = System.nanoTime() - start;
+                flushTimer.record(took, TimeUnit.NANOSECONDS);
+                batchSizes.record(batch.size());
+                stream.publishStored(batch);
+                probes.stored(batch);
+                written.add(batch.size());
+                batches.increment();
+                flushNanosTotal.add(took);
+                lastFlushNanos.set(took);
+                maxFlushNanos.accumulateAndGet(took, Math::max);
+                lastBatchSize.set(batch.size());
+                return;
+            } catch (Exception e) {
+                if (attempt >= maxRetries) {
+                    e.printStackTrace();
+                    failed.add(batch.size());
+                    return;
+                }
+                retries.increment();
+                try {
+                    Thread.sleep(100L << attempt);
+                } catch (InterruptedException ie) {
+                    // keep retrying; shutdown still wants these rows written
+                }
+            }
+        }
+    }
+
+    public Map<String,Object> stats() {
+        long b = batches.sum();
+        Map<String,Object> s = new HashMap<>();
+        s.put("queue_depth", queue.size());
+        s.put("queue_capacity", queue.size() + queue.remainingCapacity());
+        s.put("rows_enqueued", enqueued.sum());
+        s.put("rows_rejected", rejected.sum());
+        s.put("rows_written", written.sum());
+        s.put("rows_failed", failed.sum());
+        s.put("batches", b);
+        s.put("last_batch_size", lastBatchSize.get());
+        s.put("avg_batch_size", b == 0 ? 0 : (double) written.sum() / b);
+        s.put("last_flush_ms", lastFlushNanos.get() / 1e6);
+        s.put("max_flush_ms", maxFlushNanos.get() / 1e6);
+        s.put("avg_flush_ms", b == 0 ? 0 : flushNanosTotal.sum() / 1e6 / b);
+        return s;
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        // stop taking rows, then let the writer drain everything already queued
+        accepting = false;
+        running = false;
+        writer.interrupt();
+        writer.join();
+    }
+}
@@ -0,0 +1,171 @@
+package com.example.gateway;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoField;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps the range partitions of the packets table in step with the clock: creates the
+ * current and next {@code precreate} partitions and drops (or detaches) those that
+ * ended more than {@code retention-hours} ago. Partitions are named
+ * {@code packets_pYYYYMMDDHH} after their lower bound and aligned to multiples of
+ * {@code interval-hours}, so 24 gives one partition per calendar day. Retention reads
+ * each partition's bounds from the catalog, so changing the interval leaves existing
+ * partitions intact; a new one is only created where no existing one overlaps.
+ */
+@Service
+public class PartitionManager {
+
+    static final String PREFIX = "packets_p";
+    private static final DateTimeFormatter NAME = DateTimeFormatter.ofPattern("yyyyMMddHH");
+    private static final DateTimeFormatter BOUND = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final DateTimeFormatter CATALOG_BOUND = new DateTimeFormatterBuilder()
+            .appendPattern("yyyy-MM-dd HH:mm:ss")
+            .optionalStart().appendFraction(ChronoField.NANO_OF_SECOND, 0, 9, true).optionalEnd()
+            .toFormatter();
+    private static final Pattern BOUNDS = Pattern.compile("FROM \\('([^']+)'\\) TO \\('([^']+)'\\)");
+
+    private final JdbcTemplate jdbc;
+    private final TransactionTemplate tx;
+    private final StatisticsAggregator statistics;
+    private final int intervalHours;
+    private final int precreate;
+    private final long retentionHours;
+    private final boolean detachOnly;
+
+    public PartitionManager(JdbcTemplate jdbc, PlatformTransactionManager txManager, StatisticsAggregator statistics,
+                            @Value("${gateway.partitions.interval-hours:24}") int intervalHours,
+                            @Value("${gateway.partitions.precreate:3}") int precreate,
+                            @Value("${gateway.partitions.retention-hours:168}") long retentionHours,
+                            @Value("${gateway.partitions.detach-only:false}") boolean detachOnly) {
+        this.jdbc = jdbc;
+        this.tx = new TransactionTemplate(txManager);
+        this.statistics = statistics;
+        this.intervalHours = Math.max(1, intervalHours);
+        this.precreate = Math.max(0, precreate);
+        this.retentionHours = retentionHours;
+        this.detachOnly = detachOnly;
+    }
+
+    @Scheduled(initialDelay = 0, fixedDelayString = "${gateway.partitions.maintenance-interval-ms:600000}")
+    public void maintain() {
+        // each partition on its own, and retention regardless: one failure must not stall the rest
+        LocalDateTime start = intervalStart(LocalDateTime.now());
+        for (int i = 0; i <= precreate; i++) {
+            LocalDateTime from = start.plusHours((long) i * intervalHours);
+            try {
+                create(from, from.plusHours(intervalHours));
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+        if (retentionHours > 0) {
+            try {
+                List<String> expired = dropBefore(LocalDateTime.now().minusHours(retentionHours));
+                if (!expired.isEmpty()) statistics.reconcileAsync();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    LocalDateTime intervalStart(LocalDateTime t) {
+        long hour = t.toEpochSecond(ZoneOffset.UTC) / 3600;
+        return LocalDateTime.ofEpochSecond((hour - Math.floorMod(hour, intervalHours)) * 3600, 0, ZoneOffset.UTC);
+    }
+
+    private void create(LocalDateTime from, LocalDateTime to) {
+        // an existing partition already covers (part of) the range, e.g. one cut with another interval-hours
+        for (Partition p : ranges()) {
+            if (p.from.isBefore(to) && from.isBefore(p.to)) return;
+        }
+        String name = PREFIX + NAME.format(from);
+        String range = "FROM ('" + BOUND.format(from) + "') TO ('" + BOUND.format(to) + "')";
+        String inRange = "timestamp >= '" + BOUND.format(from) + "' AND timestamp < '" + BOUND.format(to) + "'";
+        Boolean stray = jdbc.queryForObject("SELECT EXISTS (SELECT 1 FROM packets_default WHERE " + inRange + ")", Boolean.class);
+        if (!Boolean.TRUE.equals(stray)) {
+            jdbc.execute("CREATE TABLE " + name + " PARTITION OF packets FOR VALUES " + range);
+            return;
+        }
+        // rows for the range already landed in the default partition (downtime longer than the
+        // precreate window), which PARTITION OF refuses: move them into the new table, then attach it
+        tx.executeWithoutResult(status -> {
+            jdbc.execute("LOCK TABLE packets_default IN ACCESS EXCLUSIVE MODE");
+            jdbc.execute("CREATE TABLE " + name + " (LIKE packets INCLUDING DEFAULTS INCLUDING CONSTRAINTS)");
+            jdbc.update("WITH moved AS (DELETE FROM packets_default WHERE " + inRange + " RETURNING *) "
+                    + "INSERT INTO " + name + " SELECT * FROM moved");
+            jdbc.execute("ALTER TABLE packets ATTACH PARTITION " + name + " FOR VALUES " + range);
+        });
+    }
+
+    /** Removes every partition whose whole range lies before {@code cutoff}; returns their names. */
+    public List<String> dropBefore(LocalDateTime cutoff) {
+        List<String> removed = new ArrayList<>();
+        for (Partition p : ranges()) {
+            if (p.to.isAfter(cutoff)) continue;
+            try {
+                jdbc.execute("ALTER TABLE packets DETACH PARTITION " + p.name);
+                if (!detachOnly) jdbc.execute("DROP TABLE " + p.name);
+                removed.add(p.name);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+        return removed;
+    }
+
+    public List<String> partitions() {
+        List<String> names = new ArrayList<>();
+        for (Partition p : ranges()) names.add(p.name);
+        return names;
+    }
+
+    /** A range partition of packets, bounds as the catalog has them. */
+    static final class Partition {
+        final String name;
+        final LocalDateTime from, to;
+
+        Partition(String name, LocalDateTime from, LocalDateTime to) {
+            this.name = name;
+            this.from = from;
+            this.to = to;
+        }
+    }
+
+    // bounds come from the catalog, not the name, so partitions cut with an earlier interval-hours read right
+    List<Partition> ranges() {
+        List<Partition> out = new ArrayList<>();
+        jdbc.query("SELECT c.relname, pg_get_expr(c.relpartbound, c.oid) FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid "
+                        + "JOIN pg_class p ON p.oid = i.inhparent WHERE p.relname = 'packets' ORDER BY c.relname",
+                rs -> {
+                    Partition p = parse(rs.getString(1), rs.getString(2));
+                    if (p != null) out.add(p);
+                });
+        return out;
+    }
+
+    // "FOR VALUES FROM ('2024-05-01 00:00:00') TO ('2024-05-02 00:00:00')"; null for DEFAULT or MINVALUE/MAXVALUE
+    static Partition parse(String name, String bound) {
+        Matcher m = bound == null ? null : BOUNDS.matcher(bound);
+        if (m == null || !m.find()) return null;
+        try {
+            return new Partition(name, LocalDateTime.parse(m.group(1), CATALOG_BOUND), LocalDateTime.parse(m.group(2), CATALOG_BOUND));
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.example.gateway;
+
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestTemplate;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Backs /api/pipeline/metrics: scrapes every service's /actuator/prometheus (the
+ * gateway's own registry directly), keeps the pipeline_* and forward_* series, and
+ * folds them into one per-stage view: packets in/out/dropped/error, queue depth and
+ * latency quantiles, plus forwarder numbers per target instance.
+ */
+@Service
+public class PipelineMetrics {
+
+    private static final Pattern LABEL = Pattern.compile("(\\w+)=\"((?:[^\"\\\\]|\\\\.)*)\"");
+
+    private final PrometheusMeterRegistry registry;
+    private final Map<String,String> services = new LinkedHashMap<>();
+    private final RestTemplate rest;
+    private final ExecutorService scrapers = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "metrics-scrape");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public PipelineMetrics(PrometheusMeterRegistry registry,
+                           @Value("${gateway.pipeline.services:capture=http://capture-service:8081,parser=http://parser-service:8082,classifier=http://classifier-service:8083}") String services,
+                           @Value("${gateway.pipeline.scrape-timeout-ms:2000}") int timeoutMs) {
+        this.registry = registry;
+        for (String entry : services.split(",")) {
+            String[] kv = entry.trim().split("=", 2);
+            if (kv.length == 2) this.services.put(kv[0].trim(), kv[1].trim());
+        }
+        SimpleClientHttpRequestFactory f = new SimpleClientHttpRequestFactory();
+        f.setConnectTimeout(timeoutMs);
+        f.setReadTimeout(timeoutMs);
+        this.rest = new RestTemplate(f);
+    }
+
+    public Map<String,Object> collect() throws InterruptedException {
+        Map<String,Future<String>> scrapes = new LinkedHashMap<>();
+        for (Map.Entry<String,String> e : services.entrySet()) {
+            scrapes.put(e.getKey(), scrapers.submit(() -> rest.getForObject(e.getValue() + "/actuator/prometheus", String.class)));
+        }
+        Map<String,Object> status = new LinkedHashMap<>();
+        Map<String,Map<String,Double>> stages = new TreeMap<>();
+        Map<String,Map<String,Double>> forwarders = new TreeMap<>();
+        Map<String,Double> other = new TreeMap<>();
+
+        fold("gateway", registry.scrape(), stages, forwarders, other);
+        status.put("gateway", Collections.singletonMap("up", true));
+        for (Map.Entry<String,Future<String>> e : scrapes.entrySet()) {
+            Map<String,Object> s = new HashMap<>();
+            try {
+                fold(e.getKey(), e.getValue().get(), stages, forwarders, other);
+                s.put("up", true);
+            } catch (ExecutionException ex) {
+                s.put("up", false);
+                s.put("error", String.valueOf(ex.getCause().getMessage()));
+            }
+            status.put(e.getKey(), s);
+        }
+        for (Map<String,Double> st : stages.values()) {
+            Double count = st.remove("latency_count"), sum = st.remove("latency_sum_ms");
+            if (count != null && sum != null && count > 0) st.put("latency_mean_ms", sum / count);
+        }
+
+        Map<String,Object> res = new LinkedHashMap<>();
+        res.put("collected_at", System.currentTimeMillis());
+        res.put("services", status);
+        res.put("stages", stages);
+        res.put("forwarders", forwarders);
+        res.put("metrics", other);
+        return res;
+    }
+
+    private void fold(String service, String text, Map<String,Map<String,Double>> stages,
+                      Map<String,Map<String,Double>> forwarders, Map<String,Double> other) {
+        for (String line : text.split("\n")) {
+            if (line.isEmpty() || line.charAt(0) == '#') continue;
+            if (!line.startsWith("pipeline_") && !line.startsWith("forward_")) continue;
+            int brace = line.indexOf('{');
+            int space = line.lastIndexOf(' ');
+            if (space < 0) continue;
+            String name = brace >= 0 && brace < space ? line.substring(0, brace) : line.substring(0, space);
+            if (name.endsWith("_bucket")) continue;
+            double value;
+            try {
+                value = Double.parseDouble(line.substring(space + 1));
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            if (Double.isNaN(value)) continue;
+            Map<String,String> labels = new HashMap<>();
+            if (brace >= 0 && brace < space) {
+                Matcher m = LABEL.matcher(line.substring(brace, line.lastIndexOf('}', space) + 1));
+                while (m.find()) labels.put(m.group(1), m.group(2));
+            }
+            String stage = labels.get("stage");
+            String target = labels.get("target");
+            if (name.equals("pipeline_packets_total") && stage != null) {
+                stages.computeIfAbsent(stage, k -> new TreeMap<>()).merge("packets_" + labels.get("outcome"), value, Double::sum);
+            } else if (name.startsWith("pipeline_stage_latency_seconds") && stage != null) {
+                Map<String,Double> st = stages.computeIfAbsent(stage, k -> new TreeMap<>());
+                if (labels.containsKey("quantile")) {
+                    st.put("latency_p" + quantileKey(labels.get("quantile")) + "_ms", value * 1000);
+                } else if (name.endsWith("_count")) {
+                    st.merge("latency_count", value, Double::sum);
+                } else if (name.endsWith("_sum")) {
+                    st.merge("latency_sum_ms", value * 1000, Double::sum);
+                } else if (name.endsWith("_max")) {
+                    st.merge("latency_max_ms", value * 1000, Math::max);
+                }
+            } else if ((name.equals("pipeline_queue_depth") || name.equals("pipeline_queue_capacity")) && stage != null) {
+                stages.computeIfAbsent(stage, k -> new TreeMap<>()).put(name.substring("pipeline_".length()), value);
+            } else if (name.startsWith("forward_") && target != null) {
+                // one entry per downstream instance of a sharded hop: service.target@host:port
+                String shard = labels.get("shard");
+                Map<String,Double> f = forwarders.computeIfAbsent(service + "." + target + (shard == null ? "" : "@" + shard), k -> new TreeMap<>());
+                if (name.equals("forward_errors_total")) f.put("errors_" + labels.get("reason"), value);
+                else if (name.equals("forward_shard_items_total")) f.put("items_" + labels.get("outcome"), value);
+                else if (name.startsWith("forward_requests_seconds")) {
+                    if (labels.containsKey("quantile")) f.put("latency_p" + quantileKey(labels.get("quantile")) + "_ms", value * 1000);
+                    else if (name.endsWith("_count")) f.put("requests", value);
+                } else f.put(name.substring("forward_".length()), value);
+            } else {
+                other.merge(service + "." + name + (labels.isEmpty() ? "" : labels.toString()), value, Double::sum);
+            }
+        }
+    }
+
+    // "0.99" -> "99", "0.5" -> "50", "0.999" -> "999"
+    private static String quantileKey(String q) {
+        String digits = q.startsWith("0.") ? q.substring(2) : q.replace(".", "");
+        return digits.length() == 1 ? digits + "0" : digits;
+    }
+}
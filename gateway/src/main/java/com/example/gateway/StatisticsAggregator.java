@@ -0,0 +1,206 @@
+package com.example.gateway;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Running totals behind /api/statistics, updated by the write-behind writer for every
+ * row it stores. A scheduled reconciliation (also run at startup) rebuilds the state
+ * from the database, so restarts and rows written by other gateways are picked up.
+ * <p>
+ * The writer inserts and records a batch under the read side of {@code snapshotLock};
+ * a reconciliation takes the write side just long enough to open its snapshot and
+ * start collecting into {@code pending}. So every locally stored row is counted
+ * exactly once: by the snapshot if it committed before it, through {@code pending}
+ * if after.
+ */
+@Service
+public class StatisticsAggregator {
+
+    private final JdbcTemplate jdbc;
+    private final JdbcTemplate cursorJdbc;
+    private final TransactionTemplate snapshotTx;
+    private final ReadWriteLock snapshotLock = new ReentrantReadWriteLock();
+    // one reconciliation at a time; bumped by reset() so one in flight is not published over it
+    private final Object reconciling = new Object();
+    private long epoch;
+    // runs reconcileAsync() requests; one waiting request covers any that arrive meanwhile
+    private final ExecutorService background = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "stats-reconcile");
+        t.setDaemon(true);
+        return t;
+    });
+    private final AtomicBoolean queued = new AtomicBoolean();
+    private final int hllPrecision;
+
+    private volatile State state;
+    // receives the rows stored while a reconciliation snapshot is being read
+    private volatile State pending;
+    private volatile long lastReconciledAt;
+
+    public StatisticsAggregator(JdbcTemplate jdbc, PlatformTransactionManager txManager,
+                                @Value("${gateway.stats.hll-precision:14}") int hllPrecision,
+                                @Value("${gateway.stats.fetch-size:5000}") int fetchSize) {
+        this.jdbc = jdbc;
+        // the DISTINCT scans stream through a cursor instead of loading every address
+        this.cursorJdbc = new JdbcTemplate(jdbc.getDataSource());
+        this.cursorJdbc.setFetchSize(fetchSize);
+        this.hllPrecision = hllPrecision;
+        this.state = new State(hllPrecision);
+        this.snapshotTx = new TransactionTemplate(txManager);
+        snapshotTx.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+        snapshotTx.setReadOnly(true);
+    }
+
+    static class State {
+        final LongAdder total = new LongAdder();
+        final LongAdder suspicious = new LongAdder();
+        final LongAdder malicious = new LongAdder();
+        final Map<String,LongAdder> protocols = new ConcurrentHashMap<>();
+        final Map<String,LongAdder> labels = new ConcurrentHashMap<>();
+        final HyperLogLog srcIps;
+        final HyperLogLog dstIps;
+
+        State(int precision) {
+            srcIps = new HyperLogLog(precision);
+            dstIps = new HyperLogLog(precision);
+        }
+
+        void add(String protocol, String label, long count) {
+            total.add(count);
+            protocols.computeIfAbsent(String.valueOf(protocol), k -> new LongAdder()).add(count);
+            labels.computeIfAbsent(String.valueOf(label), k -> new LongAdder()).add(count);
+            if (label != null) {
+                String l = label.toLowerCase();
+                if (l.contains("suspicious")) suspicious.add(count);
+                if (l.contains("malicious")) malicious.add(count);
+            }
+        }
+
+        void record(PacketRow r) {
+            add(r.protocol, r.label, 1);
+            srcIps.add(r.src_ip);
+            dstIps.add(r.dst_ip);
+        }
+    }
+
+    /** Runs {@code insert}, which commits {@code rows}, and counts them; see the class comment. */
+    public void store(List<PacketRow> rows, Runnable insert) {
+        snapshotLock.readLock().lock();
+        try {
+            insert.run();
+            for (PacketRow row : rows) record(row);
+        } finally {
+            snapshotLock.readLock().unlock();
+        }
+    }
+
+    private void record(PacketRow row) {
+        state.record(row);
+        State p = pending;
+        if (p != null) p.record(row);
+    }
+
+    public synchronized void reset() {
+        epoch++;
+        state = new State(hllPrecision);
+    }
+
+    @Scheduled(initialDelay = 0, fixedDelayString = "${gateway.stats.reconcile-interval-ms:600000}")
+    public void reconcile() {
+        synchronized (reconciling) {
+            long started;
+            synchronized (this) {
+                started = epoch;
+            }
+            State fresh = new State(hllPrecision);
+            try {
+                snapshotTx.executeWithoutResult(tx -> {
+                    // PostgreSQL takes the snapshot at the first query, not at BEGIN: take it
+                    // here, with the writer held off, and only then let rows into `fresh`
+                    snapshotLock.writeLock().lock();
+                    try {
+                        jdbc.queryForObject("SELECT 1", Integer.class);
+                        pending = fresh;
+                    } finally {
+                        snapshotLock.writeLock().unlock();
+                    }
+                    jdbc.query("SELECT protocol, label, COUNT(*) AS c FROM packets GROUP BY protocol, label",
+                            rs -> { fresh.add(rs.getString("protocol"), rs.getString("label"), rs.getLong("c")); });
+                    cursorJdbc.query("SELECT DISTINCT src_ip FROM packets", rs -> { fresh.srcIps.add(rs.getString(1)); });
+                    cursorJdbc.query("SELECT DISTINCT dst_ip FROM packets", rs -> { fresh.dstIps.add(rs.getString(1)); });
+                });
+                synchronized (this) {
+                    // a reset() since we started (e.g. TRUNCATE) makes this snapshot stale
+                    if (epoch == started) {
+                        state = fresh;
+                        lastReconciledAt = System.currentTimeMillis();
+                    }
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+            } finally {
+                pending = null;
+            }
+        }
+    }
+
+    /** Queues a {@link #reconcile()} off the caller's thread, e.g. after partitions were dropped. */
+    public void reconcileAsync() {
+        if (queued.compareAndSet(false, true)) {
+            background.execute(() -> {
+                queued.set(false);
+                reconcile();
+            });
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        background.shutdownNow();
+    }
+
+    public Map<String,Object> snapshot() {
+        State s = state;
+        Map<String,Object> stats = new HashMap<>();
+        stats.put("basic_statistics", Collections.singletonMap("packets_analyzed", s.total.sum()));
+        Map<String,Long> security = new HashMap<>();
+        security.put("suspicious_detected", s.suspicious.sum());
+        security.put("malicious_detected", s.malicious.sum());
+        stats.put("security_statistics", security);
+
+        Map<String,Long> protocolDistribution = new LinkedHashMap<>();
+        s.protocols.forEach((k, v) -> protocolDistribution.put(k, v.sum()));
+        stats.put("protocol_distribution", protocolDistribution);
+
+        Map<String,Long> labelDistribution = new LinkedHashMap<>();
+        s.labels.forEach((k, v) -> labelDistribution.put(k, v.sum()));
+        stats.put("label_distribution", labelDistribution);
+
+        Map<String,Object> netOverview = new HashMap<>();
+        netOverview.put("unique_source_ips", s.srcIps.estimate());
+        netOverview.put("unique_destination_ips", s.dstIps.estimate());
+        stats.put("network_overview", netOverview);
+        stats.put("reconciled_at", lastReconciledAt == 0 ? null : new Date(lastReconciledAt));
+        return stats;
+    }
+
+    public long total() {
+        return state.total.sum();
+    }
+}
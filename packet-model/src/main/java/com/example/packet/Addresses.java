@@ -0,0 +1,123 @@
+package com.example.packet;
+
+/**
+ * Text forms of the primitive MAC/IP fields of a {@link PacketRecord}. Formatting
+ * produces exactly what pcap4j's MacAddress / InetAddress toString() give (lowercase,
+ * uncompressed IPv6), so stored values don't depend on which decoder saw the frame.
+ */
+public final class Addresses {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private Addresses() {}
+
+    public static String mac(long mac) {
+        char[] c = new char[17];
+        for (int i = 0; i < 6; i++) {
+            int b = (int) (mac >>> (40 - 8 * i)) & 0xff;
+            c[i * 3] = HEX[b >>> 4];
+            c[i * 3 + 1] = HEX[b & 0x0f];
+            if (i < 5) c[i * 3 + 2] = ':';
+        }
+        return new String(c);
+    }
+
+    public static String ipv4(int ip) {
+        StringBuilder sb = new StringBuilder(15);
+        sb.append((ip >>> 24) & 0xff).append('.').append((ip >>> 16) & 0xff).append('.')
+          .append((ip >>> 8) & 0xff).append('.').append(ip & 0xff);
+        return sb.toString();
+    }
+
+    public static String ipv6(long hi, long lo) {
+        StringBuilder sb = new StringBuilder(39);
+        for (int i = 0; i < 8; i++) {
+            long word = i < 4 ? hi : lo;
+            int group = (int) (word >>> (48 - 16 * (i & 3))) & 0xffff;
+            if (i > 0) sb.append(':');
+            sb.append(Integer.toHexString(group));
+        }
+        return sb.toString();
+    }
+
+    /** Dotted quad to its 32 bits in the low half of the result; -1 if {@code s} is not one. */
+    public static long parseIpv4(String s) {
+        long ip = 0;
+        int parts = 0, val = 0, digits = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '.') {
+                if (digits == 0 || parts == 3) return -1;
+                ip = (ip << 8) | val;
+                parts++;
+                val = 0;
+                digits = 0;
+            } else if (c >= '0' && c <= '9' && digits < 3) {
+                val = val * 10 + (c - '0');
+                digits++;
+                if (val > 255) return -1;
+            } else {
+                return -1;
+            }
+        }
+        if (parts != 3 || digits == 0) return -1;
+        return (ip << 8) | val;
+    }
+
+    /**
+     * IPv6 literal (at most one "::", optionally ending in a dotted quad, optionally with a
+     * %zone, which is dropped) to {hi, lo}; null if {@code s} is not one, and for
+     * IPv4-mapped addresses, which stand for their IPv4 address. Parsed here rather than
+     * by InetAddress, which falls back to a DNS lookup for anything it cannot parse.
+     */
+    public static long[] parseIpv6(String s) {
+        int zone = s.indexOf('%');
+        if (zone >= 0) s = s.substring(0, zone);
+        int len = s.length();
+        int[] groups = new int[8];
+        int n = 0, gap = -1, i = 0;
+        if (s.startsWith("::")) {
+            gap = 0;
+            i = 2;
+        } else if (len == 0 || s.charAt(0) == ':') {
+            return null;
+        }
+        while (i < len) {
+            int j = i, val = 0;
+            while (j < len && j - i < 5 && Character.digit(s.charAt(j), 16) >= 0) {
+                val = (val << 4) | Character.digit(s.charAt(j), 16);
+                j++;
+            }
+            if (j < len && s.charAt(j) == '.') {
+                // the low 32 bits as a dotted quad ends the literal
+                long v4 = parseIpv4(s.substring(i));
+                if (v4 < 0 || n > 6) return null;
+                groups[n++] = (int) (v4 >>> 16);
+                groups[n++] = (int) (v4 & 0xffff);
+                break;
+            }
+            if (j == i || j - i > 4 || n == 8) return null;
+            groups[n++] = val;
+            if (j == len) break;
+            if (s.charAt(j++) != ':' || j == len) return null;
+            if (s.charAt(j) == ':') {
+                if (gap >= 0) return null;
+                gap = n;
+                j++;
+            }
+            i = j;
+        }
+        if (gap < 0 ? n != 8 : n > 7) return null;
+        int[] full = new int[8];
+        int tail = gap < 0 ? 0 : n - gap;
+        System.arraycopy(groups, 0, full, 0, n - tail);
+        System.arraycopy(groups, n - tail, full, 8 - tail, tail);
+        long hi = 0, lo = 0;
+        for (int k = 0; k < 4; k++) {
+            hi = (hi << 16) | full[k];
+            lo = (lo << 16) | full[k + 4];
+        }
+        if (hi == 0 && (lo >>> 32) == 0xffffL) return null;
+        return new long[]{hi, lo};
+    }
+}
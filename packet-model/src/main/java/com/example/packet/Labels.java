@@ -0,0 +1,46 @@
+package com.example.packet;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Process-wide intern table for classification labels, so a {@link PacketRecord}
+ * carries a small int instead of a String reference. Ids are only meaningful inside
+ * one JVM; {@link PacketCodec} ships the label strings with every batch.
+ */
+public final class Labels {
+
+    public static final int NONE = -1;
+    // labels come from rules, detectors and matched signatures; labels arriving over the wire
+    // stay strings (PacketCodec.Sink) and never land here, so the cap is only a last guard
+    static final int MAX = 65535;
+
+    private static final ConcurrentHashMap<String, Integer> IDS = new ConcurrentHashMap<>();
+    private static volatile String[] names = new String[64];
+    private static int size;
+
+    private Labels() {}
+
+    public static int id(String label) {
+        if (label == null) return NONE;
+        Integer id = IDS.get(label);
+        return id != null ? id : add(label);
+    }
+
+    private static synchronized int add(String label) {
+        Integer id = IDS.get(label);
+        if (id != null) return id;
+        if (size == MAX) throw new IllegalArgumentException("too many distinct labels");
+        String[] n = names;
+        if (size == n.length) n = Arrays.copyOf(n, n.length * 2);
+        n[size] = label;
+        // publish the array before the id, so any id a reader sees resolves
+        names = n;
+        IDS.put(label, size);
+        return size++;
+    }
+
+    public static String name(int id) {
+        return id < 0 ? null : names[id];
+    }
+}
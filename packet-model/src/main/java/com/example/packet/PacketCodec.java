@@ -0,0 +1,201 @@
+package com.example.packet;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary body for batches of {@link PacketRecord}s (application/octet-stream between
+ * parser, classifier and gateway). Big-endian:
+ * <pre>
+ * int magic 'PKR1', int count
+ * short labels, then per label: short length, UTF-8 bytes
+ * per record: byte ipVersion, byte presence (1 ports, 2 tcp flags, 4 label, 8 MACs, 16 payload),
+ *             short protocol (-1 none), int length,
+ *             [6+6 bytes MACs], [4+4 bytes IPv4 | 16+16 bytes IPv6],
+ *             [u16 src port, u16 dst port], [u8 flags], [u16 label index],
+ *             [u16 payload length, payload bytes]
+ * </pre>
+ * Labels travel as strings in a per-batch table, since {@link Labels} ids are local to
+ * one JVM. Endpoints taking batches from outside decode through a {@link Sink}, which
+ * hands labels over as strings and keeps them out of the process-wide table. A labelled
+ * IPv4 TCP record is 35 bytes. Payloads are only written when asked
+ * for (parser -> classifier); decoded payloads are slices of the body array.
+ */
+public final class PacketCodec {
+
+    static final int MAGIC = 0x504b5231; // "PKR1"
+    private static final int PORTS = 1, FLAGS = 2, LABEL = 4, MACS = 8, PAYLOAD = 16;
+    static final int MAX_PAYLOAD = 0xffff;
+
+    private PacketCodec() {}
+
+    /** Receives each decoded record, unlabelled, with its label name (null when it has none). */
+    public interface Sink {
+        void accept(PacketRecord record, String label);
+    }
+
+    /** Encodes without payloads. */
+    public static byte[] encode(List<PacketRecord> records) {
+        return encode(records, false);
+    }
+
+    public static byte[] encode(List<PacketRecord> records, boolean payloads) {
+        // per-batch label table, in first-seen order
+        Map<Integer, Integer> index = new HashMap<>();
+        List<byte[]> names = new ArrayList<>();
+        int size = 4 + 4 + 2;
+        for (PacketRecord r : records) {
+            if (r.label != Labels.NONE && !index.containsKey(r.label)) {
+                byte[] name = Labels.name(r.label).getBytes(StandardCharsets.UTF_8);
+                index.put(r.label, names.size());
+                names.add(name);
+                size += 2 + name.length;
+            }
+            size += 8;
+            if (r.srcMac != 0 || r.dstMac != 0) size += 12;
+            size += r.ipVersion == 4 ? 8 : r.ipVersion == 6 ? 32 : 0;
+            if (r.hasPorts()) size += 4;
+            if (r.tcpFlags >= 0) size += 1;
+            if (r.label != Labels.NONE) size += 2;
+            if (payloads && r.hasPayload()) size += 2 + Math.min(r.payloadLength, MAX_PAYLOAD);
+        }
+        ByteBuffer buf = ByteBuffer.allocate(size);
+        buf.putInt(MAGIC).putInt(records.size()).putShort((short) names.size());
+        for (byte[] name : names) {
+            buf.putShort((short) name.length).put(name);
+        }
+        for (PacketRecord r : records) {
+            boolean macs = r.srcMac != 0 || r.dstMac != 0;
+            boolean payload = payloads && r.hasPayload();
+            int presence = (r.hasPorts() ? PORTS : 0) | (r.tcpFlags >= 0 ? FLAGS : 0)
+                    | (r.label != Labels.NONE ? LABEL : 0) | (macs ? MACS : 0) | (payload ? PAYLOAD : 0);
+            buf.put((byte) r.ipVersion).put((byte) presence)
+               .putShort((short) (r.protocol == null ? -1 : r.protocol.number)).putInt(r.length);
+            if (macs) {
+                putMac(buf, r.srcMac);
+                putMac(buf, r.dstMac);
+            }
+            if (r.ipVersion == 4) {
+                buf.putInt((int) r.srcLo).putInt((int) r.dstLo);
+            } else if (r.ipVersion == 6) {
+                buf.putLong(r.srcHi).putLong(r.srcLo).putLong(r.dstHi).putLong(r.dstLo);
+            }
+            if (r.hasPorts()) buf.putShort((short) r.srcPort).putShort((short) r.dstPort);
+            if (r.tcpFlags >= 0) buf.put((byte) r.tcpFlags);
+            if (r.label != Labels.NONE) buf.putShort((short) (int) index.get(r.label));
+            if (payload) {
+                int n = Math.min(r.payloadLength, MAX_PAYLOAD);
+                buf.putShort((short) n).put(r.payload, r.payloadOffset, n);
+            }
+        }
+        return buf.array();
+    }
+
+    /** Record count from a batch's header, without decoding it; 0 when it is not a batch. */
+    public static int count(byte[] body) {
+        ByteBuffer buf = ByteBuffer.wrap(body);
+        return body.length < 8 || buf.getInt(0) != MAGIC ? 0 : buf.getInt(4);
+    }
+
+    /**
+     * Decodes with labels interned in {@link Labels}; only for batches whose labels come from
+     * this deployment's own rules and detectors. Throws IllegalArgumentException when the
+     * body is not a well-formed batch.
+     */
+    public static List<PacketRecord> decode(byte[] body) {
+        List<PacketRecord> out = new ArrayList<>(Math.min(count(body), body.length / 8));
+        decode(body, true, (r, label) -> out.add(r));
+        return out;
+    }
+
+    /**
+     * Decodes without touching {@link Labels}: every record reaches {@code sink} with
+     * {@link Labels#NONE} and its label as a string. Returns the record count; throws
+     * IllegalArgumentException when the body is not a well-formed batch, possibly after
+     * some records were handed over.
+     */
+    public static int decode(byte[] body, Sink sink) {
+        return decode(body, false, sink);
+    }
+
+    private static int decode(byte[] body, boolean intern, Sink sink) {
+        ByteBuffer buf = ByteBuffer.wrap(body);
+        try {
+            if (buf.getInt() != MAGIC) throw new IllegalArgumentException("not a packet record batch");
+            int count = buf.getInt();
+            // every record takes at least 8 bytes; rejects absurd counts before allocating
+            if (count < 0 || count > buf.remaining() / 8) throw new IllegalArgumentException("bad record count " + count);
+            String[] names = new String[buf.getShort() & 0xffff];
+            int[] labels = new int[names.length];
+            for (int i = 0; i < names.length; i++) {
+                byte[] name = new byte[buf.getShort() & 0xffff];
+                buf.get(name);
+                names[i] = new String(name, StandardCharsets.UTF_8);
+                labels[i] = intern ? Labels.id(names[i]) : Labels.NONE;
+            }
+            for (int i = 0; i < count; i++) {
+                int version = buf.get();
+                int presence = buf.get();
+                int proto = buf.getShort();
+                int length = buf.getInt();
+                long srcMac = 0, dstMac = 0, srcHi = 0, srcLo = 0, dstHi = 0, dstLo = 0;
+                if ((presence & MACS) != 0) {
+                    srcMac = getMac(buf);
+                    dstMac = getMac(buf);
+                }
+                if (version == 4) {
+                    srcLo = buf.getInt() & 0xffffffffL;
+                    dstLo = buf.getInt() & 0xffffffffL;
+                } else if (version == 6) {
+                    srcHi = buf.getLong();
+                    srcLo = buf.getLong();
+                    dstHi = buf.getLong();
+                    dstLo = buf.getLong();
+                } else if (version != 0) {
+                    throw new IllegalArgumentException("bad IP version " + version);
+                }
+                int srcPort = -1, dstPort = -1, flags = -1, label = Labels.NONE;
+                String labelName = null;
+                if ((presence & PORTS) != 0) {
+                    srcPort = buf.getShort() & 0xffff;
+                    dstPort = buf.getShort() & 0xffff;
+                }
+                if ((presence & FLAGS) != 0) flags = buf.get() & 0x3f;
+                if ((presence & LABEL) != 0) {
+                    int l = buf.getShort() & 0xffff;
+                    if (l >= labels.length) throw new IllegalArgumentException("bad label index " + l);
+                    label = labels[l];
+                    labelName = names[l];
+                }
+                byte[] payload = null;
+                int payloadOffset = 0, payloadLength = 0;
+                if ((presence & PAYLOAD) != 0) {
+                    payloadLength = buf.getShort() & 0xffff;
+                    payloadOffset = buf.position();
+                    if (payloadLength > buf.remaining()) throw new IllegalArgumentException("truncated packet record batch");
+                    buf.position(payloadOffset + payloadLength);
+                    payload = body;
+                }
+                sink.accept(new PacketRecord(srcMac, dstMac, version, srcHi, srcLo, dstHi, dstLo,
+                        proto < 0 ? null : Protocol.of(proto), srcPort, dstPort, flags, length, label,
+                        payload, payloadOffset, payloadLength), labelName);
+            }
+            return count;
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("truncated packet record batch");
+        }
+    }
+
+    private static void putMac(ByteBuffer buf, long mac) {
+        buf.putShort((short) (mac >>> 32)).putInt((int) mac);
+    }
+
+    private static long getMac(ByteBuffer buf) {
+        return ((buf.getShort() & 0xffffL) << 32) | (buf.getInt() & 0xffffffffL);
+    }
+}
@@ -0,0 +1,241 @@
+package com.example.packet;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * One decoded packet as it moves parser -> classifier -> gateway: addresses as
+ * primitive longs, ports and flags as ints, the protocol as an enum and the label as
+ * a {@link Labels} id. Immutable; {@link #withLabel} returns a copy. About 100 bytes
+ * of heap, against roughly 1 KB for the equivalent HashMap of boxed values and strings.
+ * {@link #toMap}/{@link #fromMap} keep the JSON endpoints' field names.
+ * <p>The L4 payload, when kept, is a slice of a buffer owned by someone else (the
+ * captured frame, or a decoded batch body): never copied, and never written through.
+ */
+public final class PacketRecord {
+
+    public static final int FIN = 0x01, SYN = 0x02, RST = 0x04, PSH = 0x08, ACK = 0x10, URG = 0x20;
+
+    public final long srcMac;
+    public final long dstMac;
+    public final int ipVersion;     // 0 when the packet carries no IP
+    public final long srcHi, srcLo; // IPv4 in the low 32 bits of srcLo
+    public final long dstHi, dstLo;
+    public final Protocol protocol; // null without an IP header
+    public final int srcPort;       // -1 without TCP/UDP
+    public final int dstPort;
+    public final int tcpFlags;      // FIN..URG bits, -1 unless TCP
+    public final int length;
+    public final int label;         // Labels id, Labels.NONE until classified
+    public final byte[] payload;    // null when no payload was kept
+    public final int payloadOffset;
+    public final int payloadLength;
+
+    public PacketRecord(long srcMac, long dstMac, int ipVersion, long srcHi, long srcLo, long dstHi, long dstLo,
+                        Protocol protocol, int srcPort, int dstPort, int tcpFlags, int length, int label) {
+        this(srcMac, dstMac, ipVersion, srcHi, srcLo, dstHi, dstLo, protocol, srcPort, dstPort, tcpFlags, length, label,
+                null, 0, 0);
+    }
+
+    public PacketRecord(long srcMac, long dstMac, int ipVersion, long srcHi, long srcLo, long dstHi, long dstLo,
+                        Protocol protocol, int srcPort, int dstPort, int tcpFlags, int length, int label,
+                        byte[] payload, int payloadOffset, int payloadLength) {
+        this.srcMac = srcMac;
+        this.dstMac = dstMac;
+        this.ipVersion = ipVersion;
+        this.srcHi = srcHi;
+        this.srcLo = srcLo;
+        this.dstHi = dstHi;
+        this.dstLo = dstLo;
+        this.protocol = protocol;
+        this.srcPort = srcPort;
+        this.dstPort = dstPort;
+        this.tcpFlags = tcpFlags;
+        this.length = length;
+        this.label = label;
+        this.payload = payload;
+        this.payloadOffset = payloadOffset;
+        this.payloadLength = payload == null ? 0 : payloadLength;
+    }
+
+    public PacketRecord withLabel(int label) {
+        return new PacketRecord(srcMac, dstMac, ipVersion, srcHi, srcLo, dstHi, dstLo,
+                protocol, srcPort, dstPort, tcpFlags, length, label, payload, payloadOffset, payloadLength);
+    }
+
+    /** Same value for both directions of a conversation; see {@link #flowHash(int, long, long, int, long, long, int, int)}. */
+    public int flowHash() {
+        long sLo = ipVersion == 4 ? srcLo & 0xffffffffL : srcLo, dLo = ipVersion == 4 ? dstLo & 0xffffffffL : dstLo;
+        return flowHash(ipVersion, srcHi, sLo, srcPort, dstHi, dLo, dstPort, protocol == null ? 0 : protocol.number);
+    }
+
+    /**
+     * Hash of the source address (source MAC without IP), for hops whose state is kept per
+     * source rather than per flow. Never 0.
+     */
+    public int sourceHash() {
+        long x = ipVersion == 0 ? mix(srcMac) : mix(mix(ipVersion * 31L ^ srcHi) ^ (ipVersion == 4 ? srcLo & 0xffffffffL : srcLo));
+        int hash = (int) (x ^ (x >>> 32));
+        return hash == 0 ? 1 : hash;
+    }
+
+    /**
+     * Hash of a 5-tuple that ignores direction: the endpoints are ordered before mixing.
+     * Never 0, which callers keep for "no flow". The capture archive's flow index is keyed
+     * by it, so it must not change.
+     */
+    public static int flowHash(int version, long aHi, long aLo, int aPort, long bHi, long bLo, int bPort, int protocol) {
+        int c = Long.compareUnsigned(aHi, bHi);
+        if (c == 0) c = Long.compareUnsigned(aLo, bLo);
+        if (c == 0) c = Integer.compare(aPort, bPort);
+        if (c > 0) {
+            long t = aHi; aHi = bHi; bHi = t;
+            t = aLo; aLo = bLo; bLo = t;
+            int tp = aPort; aPort = bPort; bPort = tp;
+        }
+        long x = version * 31L + protocol;
+        x = mix(x ^ aHi);
+        x = mix(x ^ aLo);
+        x = mix(x ^ bHi);
+        x = mix(x ^ bLo);
+        x = mix(x ^ ((long) aPort << 16 | bPort));
+        int hash = (int) (x ^ (x >>> 32));
+        return hash == 0 ? 1 : hash;
+    }
+
+    private static long mix(long x) {
+        x *= 0x9e3779b97f4a7c15L;
+        x ^= x >>> 32;
+        x *= 0xd6e8feb86659fd39L;
+        return x ^ (x >>> 29);
+    }
+
+    public boolean hasPorts() { return srcPort >= 0; }
+    public boolean hasPayload() { return payloadLength > 0; }
+    public int srcIp4() { return (int) srcLo; }
+    public int dstIp4() { return (int) dstLo; }
+
+    public String srcIp() {
+        return ipVersion == 4 ? Addresses.ipv4((int) srcLo) : ipVersion == 6 ? Addresses.ipv6(srcHi, srcLo) : null;
+    }
+
+    public String dstIp() {
+        return ipVersion == 4 ? Addresses.ipv4((int) dstLo) : ipVersion == 6 ? Addresses.ipv6(dstHi, dstLo) : null;
+    }
+
+    public String protocolName() { return protocol == null ? null : protocol.label; }
+    public String labelName() { return Labels.name(label); }
+
+    /** The JSON shape of /api/parse, /api/classify and /api/store. */
+    public Map<String, Object> toMap() {
+        Map<String, Object> out = new HashMap<>(16);
+        if (srcMac != 0 || dstMac != 0) {
+            out.put("src_mac", Addresses.mac(srcMac));
+            out.put("dst_mac", Addresses.mac(dstMac));
+        }
+        if (ipVersion != 0) {
+            out.put("src_ip", srcIp());
+            out.put("dst_ip", dstIp());
+        }
+        if (protocol != null) out.put("protocol", protocol.label);
+        if (hasPorts()) {
+            out.put("src_port", srcPort);
+            out.put("dst_port", dstPort);
+        }
+        if (tcpFlags >= 0) out.put("flags", flagNames(tcpFlags));
+        out.put("length", length);
+        if (label != Labels.NONE) out.put("label", labelName());
+        return out;
+    }
+
+    /**
+     * Builds a record from a JSON body. Lenient like the endpoints always were: numbers
+     * may arrive as strings, "src"/"dst" are accepted for the IPs, bad values are dropped.
+     */
+    public static PacketRecord fromMap(Map<String, Object> m) {
+        String src = str(m.containsKey("src_ip") ? m.get("src_ip") : m.get("src"));
+        String dst = str(m.containsKey("dst_ip") ? m.get("dst_ip") : m.get("dst"));
+        int version = 0;
+        long srcHi = 0, srcLo = 0, dstHi = 0, dstLo = 0;
+        long s4 = src == null ? -1 : Addresses.parseIpv4(src);
+        long d4 = dst == null ? -1 : Addresses.parseIpv4(dst);
+        if (s4 >= 0 || d4 >= 0) {
+            version = 4;
+            srcLo = Math.max(0, s4);
+            dstLo = Math.max(0, d4);
+        } else {
+            long[] s6 = src == null ? null : Addresses.parseIpv6(src);
+            long[] d6 = dst == null ? null : Addresses.parseIpv6(dst);
+            if (s6 != null || d6 != null) {
+                version = 6;
+                if (s6 != null) { srcHi = s6[0]; srcLo = s6[1]; }
+                if (d6 != null) { dstHi = d6[0]; dstLo = d6[1]; }
+            }
+        }
+        int srcPort = toInt(m.get("src_port"), -1);
+        int dstPort = toInt(m.get("dst_port"), -1);
+        if (srcPort < 0 || dstPort < 0) srcPort = dstPort = -1;
+        Object flags = m.get("flags");
+        int tcpFlags = -1;
+        if (flags instanceof Number) {
+            tcpFlags = ((Number) flags).intValue() & 0x3f;
+        } else if (flags != null) {
+            try {
+                tcpFlags = flagMask(flags.toString());
+            } catch (IllegalArgumentException e) {
+                tcpFlags = 0;
+            }
+        }
+        return new PacketRecord(0, 0, version, srcHi, srcLo, dstHi, dstLo,
+                Protocol.parse(str(m.get("protocol"))), srcPort, dstPort, tcpFlags,
+                // a posted label is not interned: the classifier assigns its own
+                toInt(m.get("length"), 0), Labels.NONE);
+    }
+
+    /** e.g. "ACK,SYN"; empty string when no flag is set. */
+    public static String flagNames(int bits) {
+        StringBuilder sb = new StringBuilder(24);
+        if ((bits & URG) != 0) sb.append("URG,");
+        if ((bits & ACK) != 0) sb.append("ACK,");
+        if ((bits & PSH) != 0) sb.append("PSH,");
+        if ((bits & RST) != 0) sb.append("RST,");
+        if ((bits & SYN) != 0) sb.append("SYN,");
+        if ((bits & FIN) != 0) sb.append("FIN,");
+        if (sb.length() > 0) sb.setLength(sb.length() - 1);
+        return sb.toString();
+    }
+
+    /** "SYN,ACK" to its bits; throws IllegalArgumentException for an unknown flag name. */
+    public static int flagMask(String flags) {
+        if (flags == null || flags.isEmpty()) return 0;
+        int mask = 0;
+        for (String f : flags.split(",")) {
+            switch (f.trim().toUpperCase(Locale.ROOT)) {
+                case "FIN": mask |= FIN; break;
+                case "SYN": mask |= SYN; break;
+                case "RST": mask |= RST; break;
+                case "PSH": mask |= PSH; break;
+                case "ACK": mask |= ACK; break;
+                case "URG": mask |= URG; break;
+                case "": break;
+                default: throw new IllegalArgumentException("unknown TCP flag: " + f);
+            }
+        }
+        return mask;
+    }
+
+    private static int toInt(Object o, int dflt) {
+        if (o instanceof Number) return ((Number) o).intValue();
+        if (o == null) return dflt;
+        try {
+            return Integer.parseInt(o.toString().trim());
+        } catch (NumberFormatException e) {
+            return dflt;
+        }
+    }
+
+    private static String str(Object o) {
+        return o == null ? null : o.toString();
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.packet;
+
+import java.util.Locale;
+
+/**
+ * IP protocol (IPv4 protocol / IPv6 upper-layer header) of a packet. The names are the
+ * ones pcap4j's IpNumber uses, which is what has always been stored in packets.protocol;
+ * numbers without a constant here map to {@link #OTHER} ("unknown").
+ */
+public enum Protocol {
+    HOPOPT(0, "IPv6 Hop-by-Hop Option"),
+    ICMPV4(1, "ICMPv4"),
+    IGMP(2, "IGMP"),
+    IPV4(4, "IPv4 encapsulation"),
+    TCP(6, "TCP"),
+    UDP(17, "UDP"),
+    DCCP(33, "DCCP"),
+    IPV6(41, "IPv6 encapsulation"),
+    IPV6_ROUTE(43, "Routing Header for IPv6"),
+    IPV6_FRAG(44, "Fragment Header for IPv6"),
+    RSVP(46, "RSVP"),
+    GRE(47, "GRE"),
+    ESP(50, "ESP"),
+    AH(51, "Authentication Header"),
+    ICMPV6(58, "ICMPv6"),
+    IPV6_NONXT(59, "No Next Header for IPv6"),
+    IPV6_OPTS(60, "Destination Options for IPv6"),
+    EIGRP(88, "EIGRP"),
+    OSPF(89, "OSPFIGP"),
+    IPIP(94, "IPIP"),
+    PIM(103, "PIM"),
+    VRRP(112, "VRRP"),
+    L2TP(115, "L2TP"),
+    SCTP(132, "SCTP"),
+    UDPLITE(136, "UDPLite"),
+    MPLS_IN_IP(137, "MPLS-in-IP"),
+    OTHER(255, "unknown");
+
+    private static final Protocol[] BY_NUMBER = new Protocol[256];
+    private static final Protocol[] VALUES = values();
+
+    static {
+        for (Protocol p : VALUES) BY_NUMBER[p.number] = p;
+    }
+
+    /** IANA protocol number; 255 for {@link #OTHER}. */
+    public final int number;
+    /** Display name as stored and matched by the classifier rules. */
+    public final String label;
+
+    Protocol(int number, String label) {
+        this.number = number;
+        this.label = label;
+    }
+
+    public static Protocol of(int number) {
+        Protocol p = number < 0 || number > 255 ? null : BY_NUMBER[number];
+        return p != null ? p : OTHER;
+    }
+
+    /** By display name or constant name, case-insensitive; null for null/empty, OTHER when unknown. */
+    public static Protocol parse(String s) {
+        if (s == null || s.isEmpty()) return null;
+        Protocol p = lookup(s);
+        return p != null ? p : OTHER;
+    }
+
+    /** Like {@link #parse} but null for names it does not know. */
+    public static Protocol lookup(String s) {
+        for (Protocol p : VALUES) {
+            if (p.label.equalsIgnoreCase(s)) return p;
+        }
+        try {
+            return valueOf(s.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return label;
+    }
+}
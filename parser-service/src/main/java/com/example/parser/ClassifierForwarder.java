@@ -1,28 +1,81 @@
 package com.example.parser;
 
-import org.springframework.http.*;
-import org.springframework.web.client.RestTemplate;
+import com.example.forwarding.ShardedBatcher;
+import com.example.forwarding.ShardedClient;
+import com.example.forwarding.SpillJournal;
+import com.example.packet.PacketCodec;
+import com.example.packet.PacketRecord;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.http.entity.ContentType;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
 
-import java.util.HashMap;
+import javax.annotation.PreDestroy;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
 
+// parsed packets -> classifier-service /api/classify/batch as PacketCodec batches, fire-and-forget over the pooled client (parser.forward.classifier.*);
+// with several classifier instances each source address sticks to one, so the stream detectors'
+// per-source state (port scans, heavy hitters) stays together;
+// batches the classifier does not take are spilled to parser.journal.dir/classifier and replayed from there
+@Component
 public class ClassifierForwarder {
-    private static final RestTemplate rest = new RestTemplate();
-    private static final String classifierService = "http://classifier-service:8080/api/classify";
-    private static final String classifierLocal = "http://localhost:8083/api/classify";
-
-    public static void forward(Map<String, Object> parsed) {
-        try {
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.APPLICATION_JSON);
-            HttpEntity<Map<String, Object>> req = new HttpEntity<>(parsed, headers);
-            try {
-                rest.postForObject(classifierService, req, String.class);
-            } catch (Exception e) {
-                rest.postForObject(classifierLocal, req, String.class);
-            }
-        } catch (Exception ex) {
-            ex.printStackTrace();
-        }
+
+    private final ShardedClient client;
+    private final ShardedBatcher<PacketRecord> batcher;
+    private final SpillJournal journal;
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder spilled = new LongAdder();
+
+    public ClassifierForwarder(Environment env, MeterRegistry registry,
+                               @Value("${parser.forward.classifier.batch-size:512}") int batchSize,
+                               @Value("${parser.forward.classifier.linger-ms:5}") long lingerMs) {
+        this.client = new ShardedClient("classifier",
+                ShardedClient.config(env, "parser.forward.classifier", "http://classifier-service:8083/api/classify/batch")).bindTo(registry);
+        // a spilled batch holds one shard's sources; it goes back to whoever owns its first packet now
+        this.journal = SpillJournal.open("classifier", SpillJournal.config(env, "parser.journal", "journal"),
+                body -> client.send(batchHash(body), body, ContentType.APPLICATION_OCTET_STREAM, PacketCodec.count(body)));
+        if (journal != null) journal.bindTo(registry);
+        this.batcher = new ShardedBatcher<>("classify-forward", client, batchSize, lingerMs, PacketRecord::sourceHash, this::sendBatch);
+    }
+
+    public void forward(PacketRecord parsed) {
+        batcher.add(parsed);
+    }
+
+    private void sendBatch(ShardedClient.Shard shard, List<PacketRecord> batch) {
+        int n = batch.size();
+        // with payloads, for the classifier's signature engine
+        byte[] body = PacketCodec.encode(batch, true);
+        shard.post(body, ContentType.APPLICATION_OCTET_STREAM, n).thenAccept(ok -> {
+            if (ok) sent.add(n);
+            else if (journal != null && journal.append(body)) spilled.add(n);
+            else failed.add(n);
+        });
+    }
+
+    private static int batchHash(byte[] body) {
+        List<PacketRecord> records = PacketCodec.decode(body);
+        return records.isEmpty() ? 0 : records.get(0).sourceHash();
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> s = client.stats();
+        s.put("packets_sent", sent.sum());
+        s.put("packets_failed", failed.sum());
+        s.put("packets_spilled", spilled.sum());
+        s.put("journal", journal != null ? journal.stats() : Map.of("enabled", false));
+        return s;
+    }
+
+    @PreDestroy
+    public void close() {
+        batcher.close();
+        // in-flight batches finish (or spill) before the journal stops replaying
+        client.close();
+        if (journal != null) journal.close();
     }
 }
@@ -0,0 +1,47 @@
+package com.example.parser;
+
+/**
+ * Header fields of one frame as primitives. Instances are reused per thread by
+ * PacketParser, so decoding a frame allocates nothing; call {@link #reset()} first.
+ * Offsets are into the original frame, which is never copied.
+ */
+public final class DecodedHeaders {
+    public long srcMac;
+    public long dstMac;
+    public int etherType;
+    public int vlanId = -1;
+
+    public int ipVersion;          // 0 when the frame carries no IP
+    public int ipProtocol = -1;    // IPv4 protocol / IPv6 next header
+    public int srcIp4;
+    public int dstIp4;
+    public long srcIp6Hi, srcIp6Lo;
+    public long dstIp6Hi, dstIp6Lo;
+
+    public int srcPort = -1;
+    public int dstPort = -1;
+    public int tcpFlags = -1;      // FIN..URG bits, -1 unless TCP
+
+    public int payloadOffset = -1; // L4 payload slice of the frame
+    public int payloadLength;
+    public int length;
+
+    public void reset() {
+        srcMac = dstMac = 0;
+        etherType = 0;
+        vlanId = -1;
+        ipVersion = 0;
+        ipProtocol = -1;
+        srcIp4 = dstIp4 = 0;
+        srcIp6Hi = srcIp6Lo = dstIp6Hi = dstIp6Lo = 0;
+        srcPort = dstPort = -1;
+        tcpFlags = -1;
+        payloadOffset = -1;
+        payloadLength = 0;
+        length = 0;
+    }
+
+    public boolean hasPorts() {
+        return srcPort >= 0;
+    }
+}
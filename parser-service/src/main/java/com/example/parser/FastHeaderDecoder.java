@@ -0,0 +1,154 @@
+package com.example.parser;
+
+/**
+ * Reads Ethernet / 802.1Q / IPv4 / IPv6 / TCP / UDP headers straight out of the frame
+ * at fixed offsets. Anything it is not certain to decode exactly like pcap4j (other
+ * encapsulations, ICMP, IPv6 extension headers and fragments, IPv4-mapped IPv6,
+ * truncated or malformed headers)
+ * makes {@link #decode} return false so the caller can fall back to pcap4j.
+ * For frames cut short by the capture snaplen, {@code length} is still the length on
+ * the wire, taken from the IP header.
+ */
+public final class FastHeaderDecoder {
+
+    static final int ETH_IPV4 = 0x0800, ETH_IPV6 = 0x86dd, ETH_VLAN = 0x8100;
+    static final int PROTO_ICMP4 = 1, PROTO_TCP = 6, PROTO_UDP = 17, PROTO_ICMP6 = 58;
+    // UDP ports pcap4j decodes further (GTP can carry a whole inner IP/TCP packet)
+    static final int GTP_C = 2123, GTP_U = 2152, GTP_PRIME = 3386;
+    private static final int MAX_VLAN_TAGS = 2;
+
+    private FastHeaderDecoder() {}
+
+    public static boolean decode(byte[] raw, int off, int len, DecodedHeaders h) {
+        h.reset();
+        h.length = len;
+        int end = off + len;
+        if (len < 14) return false;
+        h.dstMac = u48(raw, off);
+        h.srcMac = u48(raw, off + 6);
+        int type = u16(raw, off + 12);
+        int pos = off + 14;
+        for (int tags = 0; type == ETH_VLAN; tags++) {
+            if (tags == MAX_VLAN_TAGS || pos + 4 > end) return false;
+            if (h.vlanId < 0) h.vlanId = u16(raw, pos) & 0x0fff;
+            type = u16(raw, pos + 2);
+            pos += 4;
+        }
+        h.etherType = type;
+        if (type == ETH_IPV4) {
+            return ipv4(raw, pos, end, h);
+        } else if (type == ETH_IPV6) {
+            return ipv6(raw, pos, end, h);
+        } else if (type <= 1500) {
+            // 802.3 length field rather than an EtherType
+            return false;
+        }
+        // any other EtherType: MACs only, which matches pcap4j
+        return true;
+    }
+
+    private static boolean ipv4(byte[] raw, int pos, int end, DecodedHeaders h) {
+        if (pos + 20 > end) return false;
+        int vihl = raw[pos] & 0xff;
+        int ihl = (vihl & 0x0f) * 4;
+        if ((vihl >>> 4) != 4 || ihl < 20 || pos + ihl > end) return false;
+        int totalLength = u16(raw, pos + 2);
+        int available = end - pos - ihl;
+        int payloadLength;
+        if (totalLength == 0) {
+            // segmentation offload leaves the length field zero
+            payloadLength = available;
+        } else {
+            payloadLength = totalLength - ihl;
+            if (payloadLength < 0) return false;
+            if (payloadLength > available) {
+                wireLength(h, pos, end, totalLength);
+                payloadLength = available;
+            }
+        }
+        h.ipVersion = 4;
+        h.ipProtocol = raw[pos + 9] & 0xff;
+        h.srcIp4 = s32(raw, pos + 12);
+        h.dstIp4 = s32(raw, pos + 16);
+        int frag = u16(raw, pos + 6);
+        if ((frag & 0x3fff) != 0) {
+            // MF set or non-zero offset: pcap4j hands back a FragmentedPacket without L4 headers
+            return true;
+        }
+        return transport(raw, pos + ihl, payloadLength, h);
+    }
+
+    private static boolean ipv6(byte[] raw, int pos, int end, DecodedHeaders h) {
+        if (pos + 40 > end) return false;
+        if ((raw[pos] & 0xf0) != 0x60) return false;
+        int payloadLength = u16(raw, pos + 4);
+        int available = end - pos - 40;
+        if (payloadLength > available) wireLength(h, pos, end, 40 + payloadLength);
+        if (payloadLength == 0 || payloadLength > available) payloadLength = available;
+        h.ipVersion = 6;
+        h.srcIp6Hi = s64(raw, pos + 8);
+        h.srcIp6Lo = s64(raw, pos + 16);
+        h.dstIp6Hi = s64(raw, pos + 24);
+        h.dstIp6Lo = s64(raw, pos + 32);
+        if (isV4Mapped(h.srcIp6Hi, h.srcIp6Lo) || isV4Mapped(h.dstIp6Hi, h.dstIp6Lo)) return false;
+        int next = raw[pos + 6] & 0xff;
+        // pcap4j walks any other next header as an extension header chain; leave those to it
+        if (next != PROTO_TCP && next != PROTO_UDP) return false;
+        h.ipProtocol = next;
+        return transport(raw, pos + 40, payloadLength, h);
+    }
+
+    private static boolean transport(byte[] raw, int pos, int len, DecodedHeaders h) {
+        if (h.ipProtocol == PROTO_ICMP4 || h.ipProtocol == PROTO_ICMP6) {
+            // ICMP errors embed the offending IP/TCP headers, which pcap4j reports as ours
+            return false;
+        }
+        if (h.ipProtocol == PROTO_TCP) {
+            if (len < 20) return false;
+            int dataOffset = ((raw[pos + 12] & 0xff) >>> 4) * 4;
+            if (dataOffset < 20 || dataOffset > len) return false;
+            h.srcPort = u16(raw, pos);
+            h.dstPort = u16(raw, pos + 2);
+            h.tcpFlags = raw[pos + 13] & 0x3f;
+            h.payloadOffset = pos + dataOffset;
+            h.payloadLength = len - dataOffset;
+        } else if (h.ipProtocol == PROTO_UDP) {
+            if (len < 8 || u16(raw, pos + 4) < 8) return false;
+            h.srcPort = u16(raw, pos);
+            h.dstPort = u16(raw, pos + 2);
+            if (isGtp(h.srcPort) || isGtp(h.dstPort)) return false;
+            h.payloadOffset = pos + 8;
+            h.payloadLength = len - 8;
+        }
+        return true;
+    }
+
+    // truncated capture: frame start + L2 header + what the IP header says it carried
+    private static void wireLength(DecodedHeaders h, int ipStart, int end, int ipLength) {
+        h.length = ipStart - (end - h.length) + ipLength;
+    }
+
+    private static boolean isGtp(int port) {
+        return port == GTP_C || port == GTP_U || port == GTP_PRIME;
+    }
+
+    private static boolean isV4Mapped(long hi, long lo) {
+        return hi == 0 && (lo >>> 32) == 0xffffL;
+    }
+
+    static int u16(byte[] b, int i) {
+        return ((b[i] & 0xff) << 8) | (b[i + 1] & 0xff);
+    }
+
+    static int s32(byte[] b, int i) {
+        return ((b[i] & 0xff) << 24) | ((b[i + 1] & 0xff) << 16) | ((b[i + 2] & 0xff) << 8) | (b[i + 3] & 0xff);
+    }
+
+    static long u48(byte[] b, int i) {
+        return ((long) u16(b, i) << 32) | (s32(b, i + 2) & 0xffffffffL);
+    }
+
+    static long s64(byte[] b, int i) {
+        return ((long) s32(b, i) << 32) | (s32(b, i + 4) & 0xffffffffL);
+    }
+}
@@ -0,0 +1,35 @@
+package com.example.parser;
+
+import com.example.forwarding.ForwardingClient;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.List;
+import java.util.Map;
+
+// finished flows -> gateway /api/flows (parser.flows.gateway.*); called from the sweep thread, so synchronous
+@Component
+public class FlowForwarder {
+
+    private final ForwardingClient client;
+
+    public FlowForwarder(Environment env, MeterRegistry registry) {
+        this.client = new ForwardingClient("flows",
+                ForwardingClient.config(env, "parser.flows.gateway", "http://gateway:8080/api/flows")).bindTo(registry);
+    }
+
+    public boolean forward(List<Map<String, Object>> flows) {
+        return client.postJsonSync(flows);
+    }
+
+    public Map<String, Object> stats() {
+        return client.stats();
+    }
+
+    @PreDestroy
+    public void close() {
+        client.close();
+    }
+}
@@ -0,0 +1,393 @@
+package com.example.parser;
+
+import com.example.packet.Addresses;
+import com.example.packet.PacketRecord;
+import com.example.packet.Protocol;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Unidirectional 5-tuple flow table. Keys and counters live in parallel primitive
+ * arrays per shard (open addressing, linear probing, backward-shift deletion), so
+ * tracking a packet allocates nothing. Each shard holds at most
+ * {@code maxFlows / shards} entries; when one is full the idle flows are expired
+ * early (a full scan, so at most every {@value #EARLY_EXPIRE_MS} ms per shard) and,
+ * failing that, the flow sitting in the new key's home slot is evicted.
+ * Finished flows are queued and posted to the gateway's /api/flows by {@link #sweep}.
+ */
+@Service
+public class FlowTracker {
+
+    public static final String IDLE = "idle_timeout", ACTIVE = "active_timeout", TCP_END = "tcp_end",
+            EVICTED = "evicted", SHUTDOWN = "shutdown";
+
+    private static final long HAS_PORTS = 1L << 56;
+    // a flood of new 5-tuples into a full shard must not scan the whole table per packet
+    static final long EARLY_EXPIRE_MS = 100;
+
+    private final boolean enabled;
+    private final long idleTimeoutMs;
+    private final long activeTimeoutMs;
+    private final long tcpEndTimeoutMs;
+    private final int maxPending;
+    private final int exportBatchSize;
+    private final Shard[] shards;
+    private final FlowForwarder forwarder;
+
+    private final ConcurrentLinkedQueue<Map<String, Object>> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+
+    private final LongAdder created = new LongAdder();
+    private final LongAdder packets = new LongAdder();
+    private final LongAdder untracked = new LongAdder();
+    private final LongAdder exported = new LongAdder();
+    private final LongAdder exportDropped = new LongAdder();
+    private final Map<String, LongAdder> ended = new LinkedHashMap<>();
+
+    public FlowTracker(FlowForwarder forwarder, MeterRegistry registry,
+                       @Value("${parser.flows.enabled:true}") boolean enabled,
+                       @Value("${parser.flows.max-flows:131072}") int maxFlows,
+                       @Value("${parser.flows.shards:16}") int shardCount,
+                       @Value("${parser.flows.idle-timeout-ms:15000}") long idleTimeoutMs,
+                       @Value("${parser.flows.active-timeout-ms:60000}") long activeTimeoutMs,
+                       @Value("${parser.flows.tcp-end-timeout-ms:1000}") long tcpEndTimeoutMs,
+                       @Value("${parser.flows.max-pending:100000}") int maxPending,
+                       @Value("${parser.flows.export-batch-size:1000}") int exportBatchSize) {
+        this.forwarder = forwarder;
+        this.enabled = enabled;
+        this.idleTimeoutMs = idleTimeoutMs;
+        this.activeTimeoutMs = activeTimeoutMs;
+        this.tcpEndTimeoutMs = tcpEndTimeoutMs;
+        this.maxPending = maxPending;
+        this.exportBatchSize = Math.max(1, exportBatchSize);
+        int n = Integer.highestOneBit(Math.max(1, shardCount));
+        this.shards = new Shard[n];
+        for (int i = 0; i < n; i++) {
+            shards[i] = new Shard(Math.max(16, maxFlows / n));
+        }
+        for (String r : List.of(IDLE, ACTIVE, TCP_END, EVICTED, SHUTDOWN)) {
+            ended.put(r, new LongAdder());
+            FunctionCounter.builder("pipeline.flows.ended", ended.get(r), LongAdder::sum).tag("reason", r).register(registry);
+        }
+        FunctionCounter.builder("pipeline.flows.created", created, LongAdder::sum).register(registry);
+        FunctionCounter.builder("pipeline.flows.exported", exported, LongAdder::sum).register(registry);
+        FunctionCounter.builder("pipeline.flows.export.dropped", exportDropped, LongAdder::sum).register(registry);
+        Gauge.builder("pipeline.flows.active", this, FlowTracker::activeFlows).register(registry);
+        Gauge.builder("pipeline.queue.depth", pendingCount, AtomicInteger::get).tag("stage", "flow_export").register(registry);
+    }
+
+    /** Accounts one decoded frame to its flow. Frames without an IP header are not tracked. */
+    public void track(DecodedHeaders h, long nowMs) {
+        if (!enabled) return;
+        if (h.ipVersion == 0) {
+            untracked.increment();
+            return;
+        }
+        long sHi, sLo, dHi, dLo;
+        if (h.ipVersion == 4) {
+            sHi = 0;
+            sLo = h.srcIp4 & 0xffffffffL;
+            dHi = 0;
+            dLo = h.dstIp4 & 0xffffffffL;
+        } else {
+            sHi = h.srcIp6Hi;
+            sLo = h.srcIp6Lo;
+            dHi = h.dstIp6Hi;
+            dLo = h.dstIp6Lo;
+        }
+        long meta = ((long) h.ipVersion << 48) | ((long) (h.ipProtocol & 0xff) << 32);
+        if (h.hasPorts()) meta |= HAS_PORTS | ((long) h.srcPort << 16) | h.dstPort;
+        long hash = hash(sHi, sLo, dHi, dLo, meta);
+        int flags = Math.max(0, h.tcpFlags);
+        Shard s = shards[(int) (hash >>> 40) & (shards.length - 1)];
+        packets.increment();
+        synchronized (s) {
+            int i = s.find(hash, sHi, sLo, dHi, dLo, meta);
+            if (i >= 0) {
+                if (nowMs - s.first[i] >= activeTimeoutMs) {
+                    // long-lived flow: report what we have and keep counting in the same slot
+                    emit(s, i, ACTIVE);
+                    s.start(i, nowMs);
+                }
+                s.packets[i]++;
+                s.bytes[i] += h.length;
+                s.last[i] = nowMs;
+                s.flags[i] |= flags;
+                return;
+            }
+            if (s.size >= s.maxEntries) {
+                if (nowMs - s.expiredAt >= EARLY_EXPIRE_MS) expire(s, nowMs);
+                if (s.size >= s.maxEntries) {
+                    int victim = s.firstOccupied((int) hash & s.mask);
+                    emit(s, victim, EVICTED);
+                    s.remove(victim);
+                }
+            }
+            i = s.insert(hash, sHi, sLo, dHi, dLo, meta);
+            s.start(i, nowMs);
+            s.packets[i] = 1;
+            s.bytes[i] = h.length;
+            s.flags[i] = flags;
+            created.increment();
+        }
+    }
+
+    /** Counts a frame only the pcap4j fallback could decode; those are not accounted to flows. */
+    public void skip() {
+        if (enabled) untracked.increment();
+    }
+
+    @Scheduled(fixedDelayString = "${parser.flows.sweep-interval-ms:1000}")
+    public void sweep() {
+        if (!enabled) return;
+        long now = System.currentTimeMillis();
+        for (Shard s : shards) {
+            synchronized (s) {
+                expire(s, now);
+            }
+        }
+        export();
+    }
+
+    // caller holds the shard lock
+    private void expire(Shard s, long now) {
+        s.expiredAt = now;
+        for (int i = 0; i < s.meta.length; ) {
+            if (s.meta[i] == 0) {
+                i++;
+                continue;
+            }
+            String reason = null;
+            long idle = now - s.last[i];
+            if (idle >= idleTimeoutMs) reason = IDLE;
+            else if (now - s.first[i] >= activeTimeoutMs) reason = ACTIVE;
+            else if ((s.flags[i] & (PacketParser.FIN | PacketParser.RST)) != 0 && idle >= tcpEndTimeoutMs) reason = TCP_END;
+            if (reason == null) {
+                i++;
+                continue;
+            }
+            emit(s, i, reason);
+            // backward shift may have moved a later entry into slot i; look at it again
+            s.remove(i);
+        }
+    }
+
+    private void emit(Shard s, int i, String reason) {
+        ended.get(reason).increment();
+        if (pendingCount.get() >= maxPending) {
+            exportDropped.increment();
+            return;
+        }
+        Map<String, Object> f = new HashMap<>(16);
+        long meta = s.meta[i];
+        int version = (int) (meta >>> 48) & 0xff;
+        int proto = (int) (meta >>> 32) & 0xff;
+        if (version == 4) {
+            f.put("src_ip", Addresses.ipv4((int) s.srcLo[i]));
+            f.put("dst_ip", Addresses.ipv4((int) s.dstLo[i]));
+        } else {
+            f.put("src_ip", Addresses.ipv6(s.srcHi[i], s.srcLo[i]));
+            f.put("dst_ip", Addresses.ipv6(s.dstHi[i], s.dstLo[i]));
+        }
+        if ((meta & HAS_PORTS) != 0) {
+            f.put("src_port", (int) (meta >>> 16) & 0xffff);
+            f.put("dst_port", (int) meta & 0xffff);
+        }
+        f.put("protocol", Protocol.of(proto).label);
+        f.put("packets", s.packets[i]);
+        f.put("bytes", s.bytes[i]);
+        f.put("first_seen", s.first[i]);
+        f.put("last_seen", s.last[i]);
+        if (proto == FastHeaderDecoder.PROTO_TCP) f.put("flags", PacketRecord.flagNames(s.flags[i]));
+        f.put("end_reason", reason);
+        pending.add(f);
+        pendingCount.incrementAndGet();
+    }
+
+    private void export() {
+        List<Map<String, Object>> batch = new ArrayList<>(exportBatchSize);
+        Map<String, Object> f;
+        while ((f = pending.poll()) != null) {
+            pendingCount.decrementAndGet();
+            batch.add(f);
+            if (batch.size() >= exportBatchSize) {
+                send(batch);
+                batch = new ArrayList<>(exportBatchSize);
+            }
+        }
+        if (!batch.isEmpty()) send(batch);
+    }
+
+    private void send(List<Map<String, Object>> batch) {
+        if (forwarder.forward(batch)) exported.add(batch.size());
+        else exportDropped.add(batch.size());
+    }
+
+    private double activeFlows() {
+        int active = 0;
+        for (Shard s : shards) {
+            synchronized (s) {
+                active += s.size;
+            }
+        }
+        return active;
+    }
+
+    public Map<String, Object> stats() {
+        int active = 0, capacity = 0;
+        for (Shard s : shards) {
+            synchronized (s) {
+                active += s.size;
+                capacity += s.maxEntries;
+            }
+        }
+        Map<String, Object> out = new HashMap<>();
+        out.put("enabled", enabled);
+        out.put("active_flows", active);
+        out.put("max_flows", capacity);
+        out.put("flows_created", created.sum());
+        out.put("packets_tracked", packets.sum());
+        out.put("packets_untracked", untracked.sum());
+        Map<String, Long> byReason = new LinkedHashMap<>();
+        ended.forEach((k, v) -> byReason.put(k, v.sum()));
+        out.put("flows_ended", byReason);
+        out.put("export_pending", pendingCount.get());
+        out.put("flows_exported", exported.sum());
+        out.put("flows_export_dropped", exportDropped.sum());
+        out.put("gateway", forwarder.stats());
+        return out;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (!enabled) return;
+        for (Shard s : shards) {
+            synchronized (s) {
+                for (int i = 0; i < s.meta.length; i++) {
+                    if (s.meta[i] != 0) emit(s, i, SHUTDOWN);
+                }
+                s.clear();
+            }
+        }
+        export();
+    }
+
+    private static long hash(long sHi, long sLo, long dHi, long dLo, long meta) {
+        long h = sHi * 0x9e3779b97f4a7c15L;
+        h = (h ^ sLo) * 0xbf58476d1ce4e5b9L;
+        h = (h ^ dHi) * 0x94d049bb133111ebL;
+        h = (h ^ dLo) * 0x9e3779b97f4a7c15L;
+        h = (h ^ meta) * 0xbf58476d1ce4e5b9L;
+        return h ^ (h >>> 31);
+    }
+
+    /** One lock's worth of the table. meta == 0 marks an empty slot (ipVersion is never 0). */
+    private static final class Shard {
+        final int maxEntries;
+        final int mask;
+        final long[] hashes, srcHi, srcLo, dstHi, dstLo, meta;
+        final long[] packets, bytes, first, last;
+        final int[] flags;
+        int size;
+        long expiredAt;     // last full expiry scan
+
+        Shard(int maxEntries) {
+            this.maxEntries = maxEntries;
+            // keep the load factor at or below 1/2 so probe chains stay short
+            int cap = Integer.highestOneBit(maxEntries * 2 - 1) << 1;
+            mask = cap - 1;
+            hashes = new long[cap];
+            srcHi = new long[cap];
+            srcLo = new long[cap];
+            dstHi = new long[cap];
+            dstLo = new long[cap];
+            meta = new long[cap];
+            packets = new long[cap];
+            bytes = new long[cap];
+            first = new long[cap];
+            last = new long[cap];
+            flags = new int[cap];
+        }
+
+        int find(long hash, long sHi, long sLo, long dHi, long dLo, long m) {
+            for (int i = (int) hash & mask; meta[i] != 0; i = (i + 1) & mask) {
+                if (hashes[i] == hash && meta[i] == m && srcLo[i] == sLo && dstLo[i] == dLo
+                        && srcHi[i] == sHi && dstHi[i] == dHi) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        int insert(long hash, long sHi, long sLo, long dHi, long dLo, long m) {
+            int i = (int) hash & mask;
+            while (meta[i] != 0) i = (i + 1) & mask;
+            hashes[i] = hash;
+            srcHi[i] = sHi;
+            srcLo[i] = sLo;
+            dstHi[i] = dHi;
+            dstLo[i] = dLo;
+            meta[i] = m;
+            size++;
+            return i;
+        }
+
+        void start(int i, long now) {
+            first[i] = now;
+            last[i] = now;
+            packets[i] = 0;
+            bytes[i] = 0;
+            flags[i] = 0;
+        }
+
+        int firstOccupied(int from) {
+            int i = from;
+            while (meta[i] == 0) i = (i + 1) & mask;
+            return i;
+        }
+
+        void remove(int i) {
+            // backward-shift deletion: pull later chain members into the hole so lookups never need tombstones
+            int hole = i;
+            for (int j = (i + 1) & mask; meta[j] != 0; j = (j + 1) & mask) {
+                int home = (int) hashes[j] & mask;
+                boolean movable = hole <= j ? (home <= hole || home > j) : (home <= hole && home > j);
+                if (movable) {
+                    move(j, hole);
+                    hole = j;
+                }
+            }
+            meta[hole] = 0;
+            size--;
+        }
+
+        private void move(int from, int to) {
+            hashes[to] = hashes[from];
+            srcHi[to] = srcHi[from];
+            srcLo[to] = srcLo[from];
+            dstHi[to] = dstHi[from];
+            dstLo[to] = dstLo[from];
+            meta[to] = meta[from];
+            packets[to] = packets[from];
+            bytes[to] = bytes[from];
+            first[to] = first[from];
+            last[to] = last[from];
+            flags[to] = flags[from];
+        }
+
+        void clear() {
+            Arrays.fill(meta, 0);
+            size = 0;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.example.parser;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decodes the /api/parse/batch body written by capture-service: a big-endian frame
+ * count followed by {@code [int length][length bytes]} for every frame.
+ */
+public final class FrameBatch {
+
+    private FrameBatch() {}
+
+    public static List<byte[]> decode(byte[] body) {
+        ByteBuffer buf = ByteBuffer.wrap(body);
+        if (buf.remaining() < 4) {
+            throw new IllegalArgumentException("truncated batch header");
+        }
+        int count = buf.getInt();
+        if (count < 0) {
+            throw new IllegalArgumentException("negative frame count");
+        }
+        List<byte[]> frames = new ArrayList<>(Math.min(count, body.length / 4));
+        for (int i = 0; i < count; i++) {
+            if (buf.remaining() < 4) {
+                throw new IllegalArgumentException("truncated frame header at " + i);
+            }
+            int len = buf.getInt();
+            if (len < 0 || len > buf.remaining()) {
+                throw new IllegalArgumentException("bad frame length " + len + " at " + i);
+            }
+            byte[] raw = new byte[len];
+            buf.get(raw);
+            frames.add(raw);
+        }
+        return frames;
+    }
+}
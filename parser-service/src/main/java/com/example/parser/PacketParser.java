@@ -1,56 +1,174 @@
 package com.example.parser;
 
+import com.example.packet.Labels;
+import com.example.packet.PacketRecord;
+import com.example.packet.Protocol;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.pcap4j.packet.*;
+import org.pcap4j.packet.namednumber.IpNumber;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 @Service
 public class PacketParser {
 
-    public Map<String, Object> parseFromRawBase64(String base64) {
-        try {
-            byte[] raw = java.util.Base64.getDecoder().decode(base64);
-            return parse(raw);
-        } catch (Exception e) {
-            Map<String,Object> err = new HashMap<>();
-            err.put("error", e.getMessage());
-            return err;
+    private static final ThreadLocal<DecodedHeaders> HEADERS = ThreadLocal.withInitial(DecodedHeaders::new);
+
+    private final FlowTracker flows;
+    private final Timer parseTimer;
+    private final Counter fallbacks;
+    private final Counter errors;
+    // L4 payload bytes kept on each record for the classifier's signature matching, 0 = none
+    private final int maxPayload;
+
+    public PacketParser(FlowTracker flows, MeterRegistry registry,
+                        @Value("${parser.payload.max-bytes:512}") int maxPayload) {
+        this.flows = flows;
+        this.maxPayload = Math.max(0, maxPayload);
+        this.parseTimer = Timer.builder("pipeline.stage.latency").tag("stage", "parse")
+                .publishPercentiles(0.5, 0.95, 0.99).publishPercentileHistogram()
+                .register(registry);
+        this.fallbacks = Counter.builder("pipeline.parse.fallback").register(registry);
+        this.errors = Counter.builder("pipeline.packets").tags("stage", "parse", "outcome", "error").register(registry);
+    }
+
+    /** Decodes one Ethernet frame; null when not even pcap4j can make sense of it. */
+    public PacketRecord parse(byte[] raw) {
+        long start = System.nanoTime();
+        DecodedHeaders h = HEADERS.get();
+        PacketRecord out;
+        if (decode(raw, h)) {
+            flows.track(h, System.currentTimeMillis());
+            out = toRecord(raw, h, maxPayload);
+        } else {
+            flows.skip();
+            fallbacks.increment();
+            // h.length already accounts for a snaplen-truncated IP packet
+            out = parseWithPcap4j(raw, Math.max(raw.length, h.length));
+            if (out == null) errors.increment();
+        }
+        parseTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        return out;
+    }
+
+    /**
+     * Fast path: fills {@code h} straight from the frame bytes. Returns false for frames
+     * only pcap4j can decode faithfully; {@link #parse} then falls back to it.
+     */
+    public boolean decode(byte[] raw, DecodedHeaders h) {
+        return FastHeaderDecoder.decode(raw, 0, raw.length, h);
+    }
+
+    /** The record for a fast-path decode; its payload is a slice of {@code raw}, at most {@code maxPayload} bytes. */
+    static PacketRecord toRecord(byte[] raw, DecodedHeaders h, int maxPayload) {
+        long srcHi = 0, srcLo = 0, dstHi = 0, dstLo = 0;
+        if (h.ipVersion == 4) {
+            srcLo = h.srcIp4 & 0xffffffffL;
+            dstLo = h.dstIp4 & 0xffffffffL;
+        } else if (h.ipVersion == 6) {
+            srcHi = h.srcIp6Hi;
+            srcLo = h.srcIp6Lo;
+            dstHi = h.dstIp6Hi;
+            dstLo = h.dstIp6Lo;
         }
+        boolean payload = maxPayload > 0 && h.payloadOffset >= 0 && h.payloadLength > 0;
+        return new PacketRecord(h.srcMac, h.dstMac, h.ipVersion, srcHi, srcLo, dstHi, dstLo,
+                h.ipVersion != 0 ? Protocol.of(h.ipProtocol) : null, h.srcPort, h.dstPort, h.tcpFlags, h.length, Labels.NONE,
+                payload ? raw : null, h.payloadOffset, Math.min(h.payloadLength, maxPayload));
     }
 
-    public Map<String, Object> parse(byte[] raw) {
-        Map<String, Object> out = new HashMap<>();
+    // no payload slice: pcap4j only hands out copies, and these are the rare frames
+    PacketRecord parseWithPcap4j(byte[] raw, int length) {
         try {
             Packet pkt = EthernetPacket.newPacket(raw, 0, raw.length);
+            long srcMac = 0, dstMac = 0, srcHi = 0, srcLo = 0, dstHi = 0, dstLo = 0;
+            int version = 0, srcPort = -1, dstPort = -1, flags = -1;
+            Protocol protocol = null;
             if (pkt.contains(EthernetPacket.class)) {
                 EthernetPacket eth = pkt.get(EthernetPacket.class);
-                out.put("src_mac", eth.getHeader().getSrcAddr().toString());
-                out.put("dst_mac", eth.getHeader().getDstAddr().toString());
+                srcMac = mac(eth.getHeader().getSrcAddr().getAddress());
+                dstMac = mac(eth.getHeader().getDstAddr().getAddress());
             }
             if (pkt.contains(IpV4Packet.class)) {
                 IpV4Packet ip = pkt.get(IpV4Packet.class);
-                out.put("src_ip", ip.getHeader().getSrcAddr().getHostAddress());
-                out.put("dst_ip", ip.getHeader().getDstAddr().getHostAddress());
-                out.put("protocol", ip.getHeader().getProtocol().name());
+                version = 4;
+                srcLo = bits(ip.getHeader().getSrcAddr().getAddress(), 0);
+                dstLo = bits(ip.getHeader().getDstAddr().getAddress(), 0);
+                protocol = Protocol.of(ip.getHeader().getProtocol().value() & 0xff);
+            } else if (pkt.contains(IpV6Packet.class)) {
+                IpV6Packet ip = pkt.get(IpV6Packet.class);
+                byte[] src = ip.getHeader().getSrcAddr().getAddress();
+                byte[] dst = ip.getHeader().getDstAddr().getAddress();
+                version = 6;
+                srcHi = bits(src, 0);
+                srcLo = bits(src, 8);
+                dstHi = bits(dst, 0);
+                dstLo = bits(dst, 8);
+                protocol = Protocol.of(upperLayerProtocol(ip).value() & 0xff);
             }
             if (pkt.contains(TcpPacket.class)) {
                 TcpPacket tcp = pkt.get(TcpPacket.class);
-                out.put("src_port", tcp.getHeader().getSrcPort().valueAsInt());
-                out.put("dst_port", tcp.getHeader().getDstPort().valueAsInt());
-                out.put("flags", tcp.getHeader().getFlags().toString());
+                srcPort = tcp.getHeader().getSrcPort().valueAsInt();
+                dstPort = tcp.getHeader().getDstPort().valueAsInt();
+                flags = tcpFlags(tcp.getHeader());
             } else if (pkt.contains(UdpPacket.class)) {
                 UdpPacket udp = pkt.get(UdpPacket.class);
-                out.put("src_port", udp.getHeader().getSrcPort().valueAsInt());
-                out.put("dst_port", udp.getHeader().getDstPort().valueAsInt());
+                srcPort = udp.getHeader().getSrcPort().valueAsInt();
+                dstPort = udp.getHeader().getDstPort().valueAsInt();
             }
-            out.put("length", raw.length);
-            return out;
+            return new PacketRecord(srcMac, dstMac, version, srcHi, srcLo, dstHi, dstLo,
+                    protocol, srcPort, dstPort, flags, length, Labels.NONE);
         } catch (Exception e) {
             e.printStackTrace();
-            out.put("error", e.getMessage());
-            return out;
+            return null;
         }
     }
+
+    // big-endian bytes [off, off+8) (or fewer, for IPv4) as a long
+    private static long bits(byte[] b, int off) {
+        long v = 0;
+        for (int i = off; i < Math.min(b.length, off + 8); i++) v = (v << 8) | (b[i] & 0xff);
+        return v;
+    }
+
+    private static long mac(byte[] b) {
+        return b.length == 6 ? bits(b, 0) : 0;
+    }
+
+    // next header after hop-by-hop, routing, fragment and destination options headers
+    private static IpNumber upperLayerProtocol(IpV6Packet ip) {
+        IpNumber next = ip.getHeader().getNextHeader();
+        Packet p = ip.getPayload();
+        while (p != null) {
+            if (p instanceof IpV6ExtOptionsPacket) {
+                next = ((IpV6ExtOptionsPacket) p).getHeader().getNextHeader();
+            } else if (p instanceof IpV6ExtRoutingPacket) {
+                next = ((IpV6ExtRoutingPacket) p).getHeader().getNextHeader();
+            } else if (p instanceof IpV6ExtFragmentPacket) {
+                next = ((IpV6ExtFragmentPacket) p).getHeader().getNextHeader();
+            } else {
+                break;
+            }
+            p = p.getPayload();
+        }
+        return next;
+    }
+
+    static final int FIN = PacketRecord.FIN, SYN = PacketRecord.SYN, RST = PacketRecord.RST,
+            PSH = PacketRecord.PSH, ACK = PacketRecord.ACK, URG = PacketRecord.URG;
+
+    static int tcpFlags(TcpPacket.TcpHeader h) {
+        int bits = 0;
+        if (h.getFin()) bits |= FIN;
+        if (h.getSyn()) bits |= SYN;
+        if (h.getRst()) bits |= RST;
+        if (h.getPsh()) bits |= PSH;
+        if (h.getAck()) bits |= ACK;
+        if (h.getUrg()) bits |= URG;
+        return bits;
+    }
 }
@@ -1,9 +1,15 @@
 package com.example.parser;
 
+import com.example.packet.PacketRecord;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
 @RestController
@@ -13,21 +19,61 @@ public class ParserController {
     @Autowired
     private PacketParser parser;
 
+    @Autowired
+    private FlowTracker flows;
+
+    @Autowired
+    private ClassifierForwarder classifier;
+
+    // false: packets only feed the flow table and are not classified/stored one by one
+    @Value("${parser.forward.packets:true}")
+    private boolean forwardPackets;
+
     @PostMapping("/parse")
     public ResponseEntity<?> parse(@RequestBody Map<String, Object> body) {
         // Accept { raw_base64: "..." } or byte[] array (not used)
         if (body.containsKey("raw_base64")) {
-            String b64 = (String) body.get("raw_base64");
-            Map<String, Object> parsed = parser.parseFromRawBase64(b64);
-            // forward to classifier
+            byte[] raw;
             try {
-                ClassifierForwarder.forward(parsed);
-            } catch (Exception e) {
-                // ignore errors forwarding
+                raw = Base64.getDecoder().decode(String.valueOf(body.get("raw_base64")));
+            } catch (IllegalArgumentException e) {
+                return ResponseEntity.badRequest().body("raw_base64: " + e.getMessage());
             }
-            return ResponseEntity.ok(parsed);
+            PacketRecord parsed = parser.parse(raw);
+            if (parsed == null) {
+                return ResponseEntity.ok(Collections.singletonMap("error", "undecodable frame"));
+            }
+            // forward to classifier
+            if (forwardPackets) classifier.forward(parsed);
+            return ResponseEntity.ok(parsed.toMap());
         } else {
             return ResponseEntity.badRequest().body("raw_base64 required");
         }
     }
+
+    // length-prefixed frames batched by capture-service (see FrameBatch)
+    @PostMapping(value = "/parse/batch", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<?> parseBatch(@RequestBody byte[] body) {
+        List<byte[]> frames;
+        try {
+            frames = FrameBatch.decode(body);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+        for (byte[] raw : frames) {
+            PacketRecord parsed = parser.parse(raw);
+            if (parsed != null && forwardPackets) classifier.forward(parsed);
+        }
+        return ResponseEntity.ok(Collections.singletonMap("parsed", frames.size()));
+    }
+
+    @GetMapping("/flows/stats")
+    public ResponseEntity<?> flowStats() {
+        return ResponseEntity.ok(flows.stats());
+    }
+
+    @GetMapping("/forward/stats")
+    public ResponseEntity<?> forwardStats() {
+        return ResponseEntity.ok(classifier.stats());
+    }
 }
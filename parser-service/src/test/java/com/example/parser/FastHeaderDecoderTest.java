@@ -0,0 +1,166 @@
+package com.example.parser;
+
+import com.example.packet.PacketRecord;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.pcap4j.packet.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Differential test of the fast path against pcap4j over samples.pcap (written by
+ * samples.py next to it): every frame {@link FastHeaderDecoder} accepts must decode to
+ * the same record, payload slice included, and every frame must come out with its
+ * length on the wire, also when the capture snaplen cut it short.
+ */
+class FastHeaderDecoderTest {
+
+    static class Frame {
+        final int index;
+        final byte[] raw;
+        final int wireLength;
+
+        Frame(int index, byte[] raw, int wireLength) {
+            this.index = index;
+            this.raw = raw;
+            this.wireLength = wireLength;
+        }
+
+        boolean truncated() {
+            return raw.length < wireLength;
+        }
+    }
+
+    static List<Frame> frames;
+    static PacketParser parser;
+
+    @BeforeAll
+    static void load() throws IOException {
+        frames = readPcap("/samples.pcap");
+        FlowTracker flows = new FlowTracker(null, new SimpleMeterRegistry(), false, 16, 1, 0, 0, 0, 0, 1);
+        parser = new PacketParser(flows, new SimpleMeterRegistry(), 512);
+    }
+
+    @Test
+    void fastPathMatchesPcap4j() throws IllegalRawDataException {
+        for (Frame f : frames) {
+            DecodedHeaders h = new DecodedHeaders();
+            if (!FastHeaderDecoder.decode(f.raw, 0, f.raw.length, h)) continue;
+            PacketRecord fast = PacketParser.toRecord(f.raw, h, Integer.MAX_VALUE);
+            PacketRecord slow = parser.parseWithPcap4j(f.raw, f.wireLength);
+            assertNotNull(slow, "pcap4j failed on frame " + f.index);
+            assertSameFields(slow, fast, "frame " + f.index);
+            assertArrayEquals(l4Payload(f.raw), payload(fast), "payload of frame " + f.index);
+        }
+    }
+
+    @Test
+    void lengthIsTheWireLength() throws IllegalRawDataException {
+        for (Frame f : frames) {
+            PacketRecord r = parser.parse(f.raw);
+            assertNotNull(r, "frame " + f.index);
+            // without a whole IP header there is nothing to recover the wire length from
+            int expected = hasIpHeader(f.raw) ? f.wireLength : f.raw.length;
+            assertEquals(expected, r.length, "length of frame " + f.index);
+        }
+    }
+
+    @Test
+    void fallbackFramesDecodeAsPcap4j() {
+        for (Frame f : frames) {
+            DecodedHeaders h = new DecodedHeaders();
+            if (FastHeaderDecoder.decode(f.raw, 0, f.raw.length, h)) continue;
+            PacketRecord slow = parser.parseWithPcap4j(f.raw, Math.max(f.raw.length, h.length));
+            assertNotNull(slow, "pcap4j failed on frame " + f.index);
+            assertSameFields(slow, parser.parse(f.raw), "frame " + f.index);
+        }
+    }
+
+    // keeps the sample honest: each kind of frame the decoder handles differently is in it
+    @Test
+    void samplesCoverEveryKind() {
+        int ipv4 = 0, ipv6 = 0, vlan = 0, truncated = 0, fallback = 0, truncatedFallback = 0;
+        for (Frame f : frames) {
+            DecodedHeaders h = new DecodedHeaders();
+            if (FastHeaderDecoder.decode(f.raw, 0, f.raw.length, h)) {
+                if (h.ipVersion == 4) ipv4++;
+                if (h.ipVersion == 6) ipv6++;
+                if (h.vlanId >= 0) vlan++;
+                if (f.truncated()) truncated++;
+            } else {
+                fallback++;
+                if (f.truncated()) truncatedFallback++;
+            }
+        }
+        assertTrue(ipv4 >= 5, "IPv4 frames: " + ipv4);
+        assertTrue(ipv6 >= 3, "IPv6 frames: " + ipv6);
+        assertTrue(vlan >= 3, "VLAN frames: " + vlan);
+        assertTrue(truncated >= 4, "truncated fast-path frames: " + truncated);
+        assertTrue(fallback >= 8, "fallback frames: " + fallback);
+        assertTrue(truncatedFallback >= 2, "truncated fallback frames: " + truncatedFallback);
+    }
+
+    private static void assertSameFields(PacketRecord expected, PacketRecord actual, String what) {
+        assertEquals(expected.srcMac, actual.srcMac, what + " src_mac");
+        assertEquals(expected.dstMac, actual.dstMac, what + " dst_mac");
+        assertEquals(expected.ipVersion, actual.ipVersion, what + " ip_version");
+        assertEquals(expected.srcHi, actual.srcHi, what + " src_ip");
+        assertEquals(expected.srcLo, actual.srcLo, what + " src_ip");
+        assertEquals(expected.dstHi, actual.dstHi, what + " dst_ip");
+        assertEquals(expected.dstLo, actual.dstLo, what + " dst_ip");
+        assertEquals(expected.protocol, actual.protocol, what + " protocol");
+        assertEquals(expected.srcPort, actual.srcPort, what + " src_port");
+        assertEquals(expected.dstPort, actual.dstPort, what + " dst_port");
+        assertEquals(expected.tcpFlags, actual.tcpFlags, what + " tcp_flags");
+        assertEquals(expected.length, actual.length, what + " length");
+    }
+
+    private static byte[] payload(PacketRecord r) {
+        return r.payload == null ? new byte[0] : Arrays.copyOfRange(r.payload, r.payloadOffset, r.payloadOffset + r.payloadLength);
+    }
+
+    // what pcap4j sees after the TCP or UDP header; empty for anything else
+    private static byte[] l4Payload(byte[] raw) throws IllegalRawDataException {
+        Packet pkt = EthernetPacket.newPacket(raw, 0, raw.length);
+        Packet l4 = pkt.contains(TcpPacket.class) ? pkt.get(TcpPacket.class)
+                : pkt.contains(UdpPacket.class) ? pkt.get(UdpPacket.class) : null;
+        return l4 == null || l4.getPayload() == null ? new byte[0] : l4.getPayload().getRawData();
+    }
+
+    private static boolean hasIpHeader(byte[] raw) throws IllegalRawDataException {
+        Packet pkt = EthernetPacket.newPacket(raw, 0, raw.length);
+        return pkt.contains(IpV4Packet.class) || pkt.contains(IpV6Packet.class);
+    }
+
+    // classic little-endian microsecond pcap, the only format samples.py writes
+    static List<Frame> readPcap(String resource) throws IOException {
+        byte[] file;
+        try (InputStream in = FastHeaderDecoderTest.class.getResourceAsStream(resource)) {
+            assertNotNull(in, resource);
+            file = in.readAllBytes();
+        }
+        ByteBuffer b = ByteBuffer.wrap(file).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(0xa1b2c3d4, b.getInt());
+        b.position(24);
+        List<Frame> out = new ArrayList<>();
+        while (b.remaining() >= 16) {
+            b.getInt();
+            b.getInt();
+            int captured = b.getInt();
+            int wire = b.getInt();
+            byte[] raw = new byte[captured];
+            b.get(raw);
+            out.add(new Frame(out.size(), raw, wire));
+        }
+        return out;
+    }
+}
@@ -0,0 +1,112 @@
+#!/usr/bin/env python3
+"""Writes samples.pcap for FastHeaderDecoderTest: frames the fast path decodes (IPv4,
+IPv6, VLAN, snaplen-truncated) and frames it must leave to pcap4j. Rerun after adding
+a case: python3 samples.py > samples.pcap"""
+import struct
+import sys
+
+MAC_A = bytes.fromhex('020000000001')
+MAC_B = bytes.fromhex('020000000002')
+
+
+def csum(data):
+    if len(data) % 2:
+        data += b'\0'
+    s = sum(struct.unpack('!%dH' % (len(data) // 2), data))
+    while s >> 16:
+        s = (s & 0xffff) + (s >> 16)
+    return ~s & 0xffff
+
+
+def eth(ethertype, payload, tags=()):
+    h = MAC_B + MAC_A
+    for vid in tags:
+        h += struct.pack('!HH', 0x8100, vid)
+    return h + struct.pack('!H', ethertype) + payload
+
+
+def ipv4(proto, payload, src='10.0.0.1', dst='10.0.0.2', total=None, frag=0x4000, ihl=5):
+    opts = b'\x01' * ((ihl - 5) * 4)
+    length = 20 + len(opts) + len(payload) if total is None else total
+    h = struct.pack('!BBHHHBBH4s4s', 0x40 | ihl, 0, length, 0x1234, frag, 64, proto, 0,
+                    bytes(map(int, src.split('.'))), bytes(map(int, dst.split('.'))))
+    h = h + opts
+    h = h[:10] + struct.pack('!H', csum(h)) + h[12:]
+    return h + payload
+
+
+def ipv6(nh, payload, src=None, dst=None, plen=None):
+    src = src or bytes.fromhex('20010db8000000000000000000000001')
+    dst = dst or bytes.fromhex('20010db8000000000000000000000002')
+    return struct.pack('!IHBB', 0x60000000, len(payload) if plen is None else plen, nh, 64) + src + dst + payload
+
+
+def tcp(sport, dport, flags, data=b'', opts=b''):
+    off = (20 + len(opts)) // 4
+    return struct.pack('!HHIIBBHHH', sport, dport, 1000, 2000, off << 4, flags, 65535, 0, 0) + opts + data
+
+
+def udp(sport, dport, data=b''):
+    return struct.pack('!HHHH', sport, dport, 8 + len(data), 0) + data
+
+
+def gtp(inner):
+    return struct.pack('!BBHI', 0x30, 0xff, len(inner), 1) + inner
+
+
+def icmp4():
+    return struct.pack('!BBHHH', 8, 0, 0, 1, 1) + b'ping' * 8
+
+
+SYN, ACK, PSH, FIN = 0x02, 0x10, 0x08, 0x01
+DATA = bytes(range(256)) * 6
+
+# (frame, snaplen or None)
+frames = [
+    # fast path
+    (eth(0x0800, ipv4(6, tcp(40000, 443, SYN, opts=b'\x02\x04\x05\xb4'))), None),
+    (eth(0x0800, ipv4(6, tcp(443, 40000, ACK | PSH, DATA[:300]))), None),
+    (eth(0x0800, ipv4(6, tcp(40000, 443, FIN | ACK), ihl=6)), None),
+    (eth(0x0800, ipv4(17, udp(53000, 53, b'\x12\x34\x01\x00' + b'q' * 30))), None),
+    # Ethernet padding after a short IPv4 packet
+    (eth(0x0800, ipv4(17, udp(123, 123, b'x'))) + b'\0' * 17, None),
+    # segmentation offload: IPv4 total length left zero
+    (eth(0x0800, ipv4(6, tcp(5000, 80, ACK, DATA[:200]), total=0)), None),
+    # fragment: no L4 header decoded
+    (eth(0x0800, ipv4(17, DATA[:64], frag=0x2000)), None),
+    (eth(0x86dd, ipv6(6, tcp(50000, 22, SYN | ACK, DATA[:40]))), None),
+    (eth(0x86dd, ipv6(17, udp(5353, 5353, DATA[:120]))), None),
+    (eth(0x0800, ipv4(6, tcp(1234, 8080, ACK, DATA[:64])), tags=(100,)), None),
+    (eth(0x0800, ipv4(17, udp(4000, 4001, DATA[:32])), tags=(200, 300)), None),
+    (eth(0x86dd, ipv6(17, udp(6000, 6001, DATA[:16])), tags=(42,)), None),
+    (eth(0x0806, bytes.fromhex('0001080006040001') + MAC_A + bytes(4) + bytes(6) + bytes(4)), None),
+    # snaplen-truncated: the IP header says how long the packet was on the wire
+    (eth(0x0800, ipv4(6, tcp(40001, 443, ACK, DATA[:1400]))), 64),
+    (eth(0x0800, ipv4(17, udp(9000, 9001, DATA[:1000]))), 96),
+    (eth(0x86dd, ipv6(17, udp(7000, 7001, DATA[:900]))), 70),
+    (eth(0x86dd, ipv6(6, tcp(7002, 7003, ACK, DATA[:1200]))), 80),
+    (eth(0x0800, ipv4(6, tcp(40002, 443, ACK, DATA[:1000])), tags=(100,)), 60),
+    # pcap4j only
+    (eth(0x0800, ipv4(1, icmp4())), None),
+    (eth(0x86dd, ipv6(58, struct.pack('!BBHI', 128, 0, 0, 1) + b'x' * 16)), None),
+    # hop-by-hop options header in front of UDP
+    (eth(0x86dd, ipv6(0, bytes([17, 0, 1, 4, 0, 0, 0, 0]) + udp(8000, 8001, b'ext'))), None),
+    # GTP-U tunnelling an inner IPv4/UDP packet
+    (eth(0x0800, ipv4(17, udp(2152, 2152, gtp(ipv4(17, udp(3000, 3001, b'inner'), src='192.168.0.1', dst='192.168.0.2'))))), None),
+    (eth(0x86dd, ipv6(17, udp(1000, 1001, b'm'), src=bytes(10) + b'\xff\xff' + bytes([10, 0, 0, 9]))), None),
+    # 802.3 length field with LLC
+    (MAC_B + MAC_A + struct.pack('!H', 38) + bytes.fromhex('424203') + b'\0' * 35, None),
+    (eth(0x0800, ipv4(17, udp(1, 2, b'z')), tags=(1, 2, 3)), None),
+    # truncated inside the TCP header, and inside the IPv4 header
+    (eth(0x0800, ipv4(6, tcp(40003, 443, ACK, DATA[:500]))), 40),
+    (eth(0x0800, ipv4(6, tcp(40004, 443, ACK, DATA[:500]))), 24),
+    # ICMP cut by the snaplen: wire length still from the IP header
+    (eth(0x0800, ipv4(1, icmp4() + DATA[:700])), 50),
+]
+
+out = sys.stdout.buffer
+out.write(struct.pack('<IHHiIII', 0xa1b2c3d4, 2, 4, 0, 0, 65535, 1))
+for i, (f, snap) in enumerate(frames):
+    cap = f if snap is None else f[:snap]
+    out.write(struct.pack('<IIII', 1700000000 + i, 0, len(cap), len(f)))
+    out.write(cap)
@@ -1,11 +1,46 @@
+-- range-partitioned on timestamp; the gateway's PartitionManager creates the
+-- per-interval partitions ahead of time and drops/detaches expired ones
 CREATE TABLE IF NOT EXISTS packets (
-  id SERIAL PRIMARY KEY,
-  timestamp TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+  id BIGSERIAL,
+  timestamp TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
   src_ip VARCHAR(100),
   dst_ip VARCHAR(100),
   src_port INT,
   dst_port INT,
   protocol VARCHAR(50),
   length INT,
-  label VARCHAR(200)
+  label VARCHAR(200),
+  PRIMARY KEY (id, timestamp)
+) PARTITION BY RANGE (timestamp);
+
+-- catches rows outside every pre-created range; should stay empty
+CREATE TABLE IF NOT EXISTS packets_default PARTITION OF packets DEFAULT;
+
+-- keyset pagination on (timestamp, id), alone and behind each equality filter
+CREATE INDEX IF NOT EXISTS packets_ts_id_idx ON packets (timestamp DESC, id DESC);
+CREATE INDEX IF NOT EXISTS packets_src_ts_idx ON packets (src_ip, timestamp DESC, id DESC);
+CREATE INDEX IF NOT EXISTS packets_dst_ts_idx ON packets (dst_ip, timestamp DESC, id DESC);
+CREATE INDEX IF NOT EXISTS packets_proto_ts_idx ON packets (protocol, timestamp DESC, id DESC);
+-- label filters and /api/alerts
+CREATE INDEX IF NOT EXISTS packets_suspicious_idx ON packets (timestamp DESC, id DESC) WHERE label ILIKE '%suspicious%';
+CREATE INDEX IF NOT EXISTS packets_malicious_idx ON packets (timestamp DESC, id DESC) WHERE label ILIKE '%malicious%';
+CREATE INDEX IF NOT EXISTS packets_alerts_idx ON packets (timestamp DESC) WHERE label IS NOT NULL AND (label ILIKE '%malicious%' OR label ILIKE '%suspicious%');
+
+-- one row per finished flow, posted by parser-service's FlowTracker
+CREATE TABLE IF NOT EXISTS flows (
+  id BIGSERIAL PRIMARY KEY,
+  first_seen TIMESTAMP NOT NULL,
+  last_seen TIMESTAMP NOT NULL,
+  src_ip VARCHAR(100),
+  dst_ip VARCHAR(100),
+  src_port INT,
+  dst_port INT,
+  protocol VARCHAR(50),
+  packets BIGINT NOT NULL,
+  bytes BIGINT NOT NULL,
+  tcp_flags VARCHAR(50),
+  end_reason VARCHAR(20)
 );
+CREATE INDEX IF NOT EXISTS flows_last_seen_idx ON flows (last_seen DESC, id DESC);
+CREATE INDEX IF NOT EXISTS flows_src_idx ON flows (src_ip, last_seen DESC, id DESC);
+CREATE INDEX IF NOT EXISTS flows_dst_idx ON flows (dst_ip, last_seen DESC, id DESC);
@@ -33,6 +33,7 @@ const NetworkPacketDashboard = () => {
 
   const fileInputRef = useRef(null);
   const refreshInterval = useRef(null);
+  const eventSource = useRef(null);
 
   const apiCall = async (endpoint, options = {}) => {
     try {
@@ -93,8 +94,9 @@ const NetworkPacketDashboard = () => {
       await apiCall('/capture/start', { method: 'POST', body: JSON.stringify(captureParams) });
       setCaptureStatus(s => ({ ...s, is_capturing: true }));
       if (refreshInterval.current) clearInterval(refreshInterval.current);
+      // statistics and alerts arrive on the /stream connection
       refreshInterval.current = setInterval(() => {
-        fetchCaptureStatus(); fetchPackets(); fetchStatistics(); fetchAlerts();
+        fetchCaptureStatus(); fetchPackets();
       }, 2000);
     } catch (e) { alert('Start failed: ' + e.message); }
     finally { setIsLoading(false); }
@@ -141,9 +143,25 @@ const NetworkPacketDashboard = () => {
     try { await apiCall('/clear', { method: 'POST' }); setPackets([]); setStatistics({}); setAlerts([]); setTotalPackets(0); alert('Cleared'); } catch (e) { alert('Clear failed: ' + e.message); }
   };
 
+  // live alerts and statistics pushed by the gateway; /alerts is the backfill on (re)connect
+  const openStream = () => {
+    const es = new EventSource(\`\${API_BASE_URL}/stream\`);
+    es.addEventListener('statistics', ev => { setStatistics(JSON.parse(ev.data).statistics || {}); });
+    es.addEventListener('alerts', ev => {
+      const fresh = JSON.parse(ev.data).alerts || [];
+      setAlerts(prev => [...fresh.reverse(), ...prev].slice(0, 100));
+    });
+    es.onopen = () => { fetchAlerts(); };
+    eventSource.current = es;
+  };
+
   useEffect(() => {
-    fetchCaptureStatus(); fetchPackets(); fetchStatistics(); fetchAlerts();
-    return () => { if (refreshInterval.current) clearInterval(refreshInterval.current); };
+    fetchCaptureStatus(); fetchPackets(); fetchStatistics();
+    openStream();
+    return () => {
+      if (refreshInterval.current) clearInterval(refreshInterval.current);
+      if (eventSource.current) eventSource.current.close();
+    };
     // eslint-disable-next-line
   }, []);
 